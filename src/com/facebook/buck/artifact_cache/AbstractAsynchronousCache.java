@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -110,9 +111,15 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
   protected abstract CacheDeleteResult deleteImpl(List<RuleKey> ruleKeys) throws IOException;
 
-  /** The MultiFetchResult should contain results in the same order as the requests. */
-  protected abstract MultiFetchResult multiFetchImpl(Iterable<FetchRequest> requests)
-      throws IOException;
+  /**
+   * The MultiFetchResult should contain results in the same order as the requests.
+   *
+   * <p>Implementations that read the results one at a time should pass each one to {@code
+   * resultListener} as soon as it is read, so that its request can be completed without waiting
+   * for the rest of the response.
+   */
+  protected abstract MultiFetchResult multiFetchImpl(
+      Iterable<FetchRequest> requests, MultiFetchResultListener resultListener) throws IOException;
 
   /**
    * Used to compute the number of keys to include in every multiFetchRequest. If < 1, fetch will be
@@ -123,6 +130,14 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return 0;
   }
 
+  /**
+   * How long to wait for more fetch requests to fill a multiFetch batch that is not full yet. A
+   * short wait at the start of a build turns many small requests into a few large ones.
+   */
+  protected long getMultiFetchBatchWindowMillis() {
+    return 0;
+  }
+
   private void doMultiFetch(ImmutableList<ClaimedFetchRequest> requests) {
     boolean gotNonError = false;
     try (CacheEventListener.MultiFetchRequestEvents requestEvents =
@@ -131,13 +146,24 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
                 .stream()
                 .map(r -> r.getRequest().getRuleKey())
                 .collect(ImmutableList.toImmutableList()))) {
+      // Results that were streamed to the listener complete their requests right away.
+      boolean[] completed = new boolean[requests.size()];
       try {
         MultiFetchResult result =
             multiFetchImpl(
                 requests
                     .stream()
                     .map(ClaimedFetchRequest::getRequest)
-                    .collect(ImmutableList.toImmutableList()));
+                    .collect(ImmutableList.toImmutableList()),
+                (index, fetchResult) -> {
+                  if (completed[index]
+                      || fetchResult.getCacheResult().getType() == CacheResultType.SKIPPED) {
+                    return;
+                  }
+                  completed[index] = true;
+                  requestEvents.finished(index, fetchResult);
+                  requests.get(index).setResult(fetchResult.getCacheResult());
+                });
         Preconditions.checkState(result.getResults().size() == requests.size());
         // MultiFetch must return a non-skipped result for at least one of the requested keys.
         Preconditions.checkState(
@@ -148,6 +174,9 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
                     fetchResult ->
                         fetchResult.getCacheResult().getType() != CacheResultType.SKIPPED));
         for (int i = 0; i < requests.size(); i++) {
+          if (completed[i]) {
+            continue;
+          }
           ClaimedFetchRequest thisRequest = requests.get(i);
           FetchResult thisResult = result.getResults().get(i);
           if (thisResult.getCacheResult().getType() == CacheResultType.SKIPPED) {
@@ -177,6 +206,9 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         // Some of these might already be fulfilled. That's fine, this set() call will just be
         // ignored.
         for (int i = 0; i < requests.size(); i++) {
+          if (completed[i]) {
+            continue;
+          }
           CacheResult result = CacheResult.error(name, mode, msg);
           requestEvents.failed(i, e, msg, result);
           requests.get(i).setResult(result);
@@ -248,12 +280,21 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       if (multiFetchLimit > 0) {
         ImmutableList.Builder<ClaimedFetchRequest> requestsBuilder = ImmutableList.builder();
         try {
-          for (int i = 0; i < multiFetchLimit; i++) {
-            ClaimedFetchRequest request = getFetchRequest();
+          long deadlineNanos =
+              System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getMultiFetchBatchWindowMillis());
+          int claimed = 0;
+          while (claimed < multiFetchLimit) {
+            // Only wait for more requests once there is something to send.
+            ClaimedFetchRequest request =
+                claimed == 0 ? getFetchRequest() : getFetchRequest(deadlineNanos);
             if (request == null) {
               break;
             }
             requestsBuilder.add(request);
+            claimed++;
+            multiFetchLimit =
+                Math.max(
+                    multiFetchLimit, getMultiFetchBatchSize(claimed + pendingFetchRequests.size()));
           }
           ImmutableList<ClaimedFetchRequest> requests = requestsBuilder.build();
           if (requests.isEmpty()) {
@@ -330,6 +371,22 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return new ClaimedFetchRequest(request);
   }
 
+  /** Like {@link #getFetchRequest()}, but waits until {@code deadlineNanos} for a request. */
+  @Nullable
+  private ClaimedFetchRequest getFetchRequest(long deadlineNanos) {
+    FetchRequest request;
+    try {
+      request = pendingFetchRequests.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    if (request == null) {
+      return null;
+    }
+    return new ClaimedFetchRequest(request);
+  }
+
   @SuppressWarnings("CheckReturnValue")
   private void addFetchRequest(FetchRequest fetchRequest) {
     pendingFetchRequests.add(fetchRequest);
@@ -465,6 +522,11 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     }
   }
 
+  /** Receives the results of a multiFetch request as they are read. */
+  protected interface MultiFetchResultListener {
+    void onResult(int requestIndex, FetchResult result);
+  }
+
   public interface StoreEvents {
     StoreRequestEvents started();
 
@@ -510,6 +572,12 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
     Optional<String> getArtifactContentHash();
 
+    /** Time between sending the request and receiving the start of the response. */
+    Optional<Long> getTimeToFirstByteMillis();
+
+    /** Rate at which the response body was read and written out. */
+    Optional<Long> getThroughputBytesPerSecond();
+
     CacheResult getCacheResult();
   }
 
@@ -69,4 +69,22 @@ abstract class AbstractCacheCountersSummary {
   @Value.Parameter
   @JsonView(JsonViews.MachineReadableLog.class)
   public abstract AtomicInteger getFailureUploadCount();
+
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getMemoryCacheHits() {
+    return 0;
+  }
+
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getMemoryCacheMisses() {
+    return 0;
+  }
+
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getMemoryCacheEvictions() {
+    return 0;
+  }
 }
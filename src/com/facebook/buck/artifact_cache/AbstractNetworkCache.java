@@ -28,6 +28,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 
 public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
@@ -107,7 +108,9 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
               .setArtifactContentHash(fetchResult.getArtifactContentHash())
               .setArtifactSizeBytes(fetchResult.getArtifactSizeBytes())
               .setFetchResult(fetchResult.getCacheResult())
-              .setResponseSizeBytes(fetchResult.getResponseSizeBytes());
+              .setResponseSizeBytes(fetchResult.getResponseSizeBytes())
+              .setTimeToFirstByteMillis(fetchResult.getTimeToFirstByteMillis())
+              .setThroughputBytesPerSecond(fetchResult.getThroughputBytesPerSecond());
           dispatcher.post(eventBuilder.build());
         }
 
@@ -128,12 +131,15 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
           HttpArtifactCacheEvent.newMultiFetchStartedEvent(ruleKeys);
       HttpArtifactCacheEvent.Finished.Builder eventBuilder =
           HttpArtifactCacheEvent.newFinishedEventBuilder(startedEvent);
+      eventBuilder.getMultiFetchBuilder().setBatchSize(ruleKeys.size());
       dispatcher.post(startedEvent);
+      long startedNanos = System.nanoTime();
       return new MultiFetchRequestEvents() {
+        private int hitCount = 0;
+
         @Override
         public void skipped(int keyIndex) {
           LOG.debug("multiFetchSkipped for %s.", ruleKeys.get(keyIndex));
-          // TODO(cjhopman): implement.
         }
 
         @Override
@@ -141,17 +147,29 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
           LOG.debug(
               "multiFetchFinished for %s with result %s.",
               ruleKeys.get(keyIndex), thisResult.getCacheResult().getType());
-          // TODO(cjhopman): implement.
+          recordResultLatency();
+          if (thisResult.getCacheResult().getType() == CacheResultType.HIT) {
+            hitCount++;
+          }
         }
 
         @Override
         public void failed(int keyIndex, IOException e, String msg, CacheResult result) {
           reportFetchFailure(ruleKeys.get(keyIndex), e, msg);
-          // TODO(cjhopman): implement this.
+          recordResultLatency();
+          eventBuilder.getMultiFetchBuilder().setErrorMessage(msg);
+        }
+
+        private void recordResultLatency() {
+          eventBuilder
+              .getMultiFetchBuilder()
+              .addResultLatenciesMillis(
+                  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
         }
 
         @Override
         public void close() {
+          eventBuilder.getMultiFetchBuilder().setHitCount(hitCount);
           dispatcher.post(eventBuilder.build());
         }
       };
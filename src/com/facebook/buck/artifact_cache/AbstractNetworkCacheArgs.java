@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.PayloadCodec;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.slb.HttpService;
@@ -54,4 +55,14 @@ interface AbstractNetworkCacheArgs {
   String getErrorTextTemplate();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  @Value.Default
+  default PayloadCodec getPayloadCodec() {
+    return PayloadCodec.NONE;
+  }
+
+  @Value.Default
+  default int getPayloadCompressionLevel() {
+    return 1;
+  }
 }
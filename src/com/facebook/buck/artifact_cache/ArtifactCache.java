@@ -76,6 +76,14 @@ public interface ArtifactCache extends AutoCloseable {
    */
   CacheReadMode getCacheReadMode();
 
+  /**
+   * @return whether this {@link ArtifactCache} compresses the artifacts it stores, so that callers
+   *     do not need to compress them beforehand.
+   */
+  default boolean compressesStoredArtifacts() {
+    return false;
+  }
+
   @Override
   void close();
 }
@@ -55,6 +55,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import okhttp3.ConnectionPool;
@@ -83,6 +84,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private final ListeningExecutorService httpFetchExecutorService;
   private final ListeningExecutorService downloadHeavyBuildHttpFetchExecutorService;
   private final ExecutorService artifactCacheCloseExecutorService;
+  private final Optional<MemoryArtifactStore> memoryArtifactStore;
   private List<ArtifactCache> artifactCaches = new ArrayList<>();
 
   @Override
@@ -115,6 +117,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
    * @param wifiSsid current WiFi ssid to decide if we want the http cache or not
    * @param artifactCacheCloseExecutorService executor (like thread pool) that will process closing
    *     tasks of all artifact caches created by this factory
+   * @param memoryArtifactStore memory to keep small artifacts of the local caches in, if any
    */
   public ArtifactCaches(
       ArtifactCacheBuckConfig buckConfig,
@@ -124,7 +127,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ListeningExecutorService httpWriteExecutorService,
       ListeningExecutorService httpFetchExecutorService,
       ListeningExecutorService downloadHeavyBuildHttpFetchExecutorService,
-      ExecutorService artifactCacheCloseExecutorService) {
+      ExecutorService artifactCacheCloseExecutorService,
+      Optional<MemoryArtifactStore> memoryArtifactStore) {
     this.buckConfig = buckConfig;
     this.buckEventBus = buckEventBus;
     this.projectFilesystem = projectFilesystem;
@@ -133,6 +137,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     this.httpFetchExecutorService = httpFetchExecutorService;
     this.downloadHeavyBuildHttpFetchExecutorService = downloadHeavyBuildHttpFetchExecutorService;
     this.artifactCacheCloseExecutorService = artifactCacheCloseExecutorService;
+    this.memoryArtifactStore = memoryArtifactStore;
   }
 
   private static Request.Builder addHeadersToBuilder(
@@ -195,7 +200,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                 ? downloadHeavyBuildHttpFetchExecutorService
                 : httpFetchExecutorService,
             cacheTypeBlacklist,
-            distributedBuildModeEnabled);
+            distributedBuildModeEnabled,
+            memoryArtifactStore);
 
     artifactCaches.add(artifactCache);
 
@@ -213,7 +219,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         httpWriteExecutorService,
         httpFetchExecutorService,
         downloadHeavyBuildHttpFetchExecutorService,
-        artifactCacheCloseExecutorService);
+        artifactCacheCloseExecutorService,
+        memoryArtifactStore);
   }
 
   /**
@@ -227,7 +234,10 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ArtifactCacheBuckConfig buckConfig, final ProjectFilesystem projectFilesystem) {
     return buckConfig
         .getServedLocalCache()
-        .map(input -> createDirArtifactCache(Optional.empty(), input, projectFilesystem));
+        .map(
+            input ->
+                createDirArtifactCache(
+                    Optional.empty(), input, projectFilesystem, Optional.empty()));
   }
 
   private static ArtifactCache newInstanceInternal(
@@ -238,7 +248,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ListeningExecutorService httpWriteExecutorService,
       ListeningExecutorService httpFetchExecutorService,
       ImmutableSet<CacheType> cacheTypeBlacklist,
-      boolean distributedBuildModeEnabled) {
+      boolean distributedBuildModeEnabled,
+      Optional<MemoryArtifactStore> memoryArtifactStore) {
     ImmutableSet<ArtifactCacheMode> modes = buckConfig.getArtifactCacheModes();
     if (modes.isEmpty()) {
       return new NoopArtifactCache();
@@ -254,7 +265,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         case unknown:
           break;
         case dir:
-          initializeDirCaches(cacheEntries, buckEventBus, projectFilesystem, builder);
+          initializeDirCaches(
+              cacheEntries, buckEventBus, projectFilesystem, memoryArtifactStore, builder);
           break;
         case http:
           initializeDistributedCaches(
@@ -292,7 +304,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                       distributedBuildModeEnabled,
                       buckEventBus.getBuildId(),
                       getMultiFetchLimit(buckConfig, buckEventBus),
-                      buckConfig.getHttpFetchConcurrency()),
+                      buckConfig.getHttpFetchConcurrency(),
+                      buckConfig.getMultiFetchBatchWindowMillis()),
               mode);
           break;
       }
@@ -317,6 +330,20 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             buckConfig.getTwoLevelCachingMinimumSize(),
             buckConfig.getTwoLevelCachingMaximumSize());
 
+    if (buckConfig.getPrefetchEnabled()) {
+      result =
+          new PrefetchingArtifactCacheDecorator(
+              result,
+              projectFilesystem,
+              projectFilesystem
+                  .getBuckPaths()
+                  .getTmpDir()
+                  .resolve("cache_prefetch")
+                  .resolve(UUID.randomUUID().toString()),
+              buckConfig.getPrefetchMaxStagedSize(),
+              buckConfig.getPrefetchConcurrency());
+    }
+
     return result;
   }
 
@@ -324,10 +351,15 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ArtifactCacheEntries artifactCacheEntries,
       BuckEventBus buckEventBus,
       ProjectFilesystem projectFilesystem,
+      Optional<MemoryArtifactStore> memoryArtifactStore,
       ImmutableList.Builder<ArtifactCache> builder) {
     for (DirCacheEntry cacheEntry : artifactCacheEntries.getDirCacheEntries()) {
       builder.add(
-          createDirArtifactCache(Optional.ofNullable(buckEventBus), cacheEntry, projectFilesystem));
+          createDirArtifactCache(
+              Optional.ofNullable(buckEventBus),
+              cacheEntry,
+              projectFilesystem,
+              memoryArtifactStore));
     }
   }
 
@@ -383,7 +415,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private static ArtifactCache createDirArtifactCache(
       Optional<BuckEventBus> buckEventBus,
       DirCacheEntry dirCacheConfig,
-      ProjectFilesystem projectFilesystem) {
+      ProjectFilesystem projectFilesystem,
+      Optional<MemoryArtifactStore> memoryArtifactStore) {
     Path cacheDir = dirCacheConfig.getCacheDir();
     try {
       DirArtifactCache dirArtifactCache =
@@ -392,16 +425,28 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               projectFilesystem,
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
-              dirCacheConfig.getMaxSizeBytes());
+              dirCacheConfig.getMaxSizeBytes(),
+              dirCacheConfig.isContentAddressed(),
+              buckEventBus);
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
       }
 
+      ArtifactCache cache = dirArtifactCache;
+      if (memoryArtifactStore.isPresent()) {
+        cache =
+            new MemoryArtifactCacheDecorator(
+                cache,
+                memoryArtifactStore.get(),
+                projectFilesystem,
+                buckEventBus.get(),
+                "dir",
+                ArtifactCacheMode.dir);
+      }
+
       return new LoggingArtifactCacheDecorator(
-          buckEventBus.get(),
-          dirArtifactCache,
-          new DirArtifactCacheEvent.DirArtifactCacheEventFactory());
+          buckEventBus.get(), cache, new DirArtifactCacheEvent.DirArtifactCacheEventFactory());
 
     } catch (IOException e) {
       throw new HumanReadableException(
@@ -563,6 +608,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpWriteExecutorService(httpWriteExecutorService)
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
+            .setPayloadCodec(config.getHttpPayloadCodec())
+            .setPayloadCompressionLevel(config.getHttpPayloadCompressionLevel())
             .build());
   }
 
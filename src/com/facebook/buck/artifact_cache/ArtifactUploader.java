@@ -58,7 +58,12 @@ public class ArtifactUploader {
       ProjectFilesystem projectFilesystem) {
     NamedTemporaryFile zip =
         getTemporaryArtifactZip(
-            buildTarget, projectFilesystem, ruleKeys, eventBus, pathsToIncludeInZip);
+            buildTarget,
+            projectFilesystem,
+            ruleKeys,
+            eventBus,
+            pathsToIncludeInZip,
+            !artifactCache.compressesStoredArtifacts());
 
     // Store the artifact, including any additional metadata.
     ListenableFuture<Void> storeFuture =
@@ -134,7 +139,8 @@ public class ArtifactUploader {
       ProjectFilesystem projectFilesystem,
       ImmutableSet<RuleKey> ruleKeys,
       BuckEventBus eventBus,
-      SortedSet<Path> pathsToIncludeInZip) {
+      SortedSet<Path> pathsToIncludeInZip,
+      boolean compressEntries) {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(ArtifactCompressionEvent.Operation.COMPRESS, ruleKeys);
     eventBus.post(started);
@@ -142,7 +148,7 @@ public class ArtifactUploader {
         new CloseableHolder<>(
             new NamedTemporaryFile(
                 "buck_artifact_" + MoreFiles.sanitize(buildTarget.getShortName()), ".zip"))) {
-      Zip.create(projectFilesystem, pathsToIncludeInZip, zip.get().get());
+      Zip.create(projectFilesystem, pathsToIncludeInZip, zip.get().get(), compressEntries);
       return zip.release();
     } catch (IOException e) {
       throw new BuckUncheckedExecutionException(
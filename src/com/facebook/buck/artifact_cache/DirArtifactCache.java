@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -28,15 +29,19 @@ import com.facebook.buck.util.DirectoryCleanerArgs;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -45,6 +50,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -61,12 +67,15 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
+  private final boolean contentAddressed;
+  private final Optional<BuckEventBus> buckEventBus;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -76,11 +85,29 @@ public class DirArtifactCache implements ArtifactCache {
       CacheReadMode cacheReadMode,
       Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(name, filesystem, cacheDir, cacheReadMode, maxCacheSizeBytes, false, Optional.empty());
+  }
+
+  /**
+   * @param contentAddressed if set, artifacts are stored once per content hash in a shared blob
+   *     store, and rule keys only map to metadata files pointing at their blob.
+   */
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      boolean contentAddressed,
+      Optional<BuckEventBus> buckEventBus)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.cacheReadMode = cacheReadMode;
+    this.contentAddressed = contentAddressed;
+    this.buckEventBus = buckEventBus;
     this.bytesSinceLastDeleteOldFiles = 0L;
 
     // Check first, as mkdirs will fail if the path is a symlink.
@@ -103,26 +130,24 @@ public class DirArtifactCache implements ArtifactCache {
     CacheResult result;
     try {
       // First, build up the metadata from the metadata file.
-      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+      ImmutableMap<String, String> metadata;
+      Optional<String> blobHash;
       try (DataInputStream in =
           new DataInputStream(
               filesystem.newFileInputStream(
-                  getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
-        int sz = in.readInt();
-        for (int i = 0; i < sz; i++) {
-          String key = in.readUTF();
-          int valSize = in.readInt();
-          byte[] val = new byte[valSize];
-          ByteStreams.readFully(in, val);
-          metadata.put(key, new String(val, Charsets.UTF_8));
-        }
+                  getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
+        metadata = readMetadata(in);
+        blobHash = readBlobHash(in);
       }
 
       // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      if (blobHash.isPresent()) {
+        materializeBlob(getPathForBlob(blobHash.get()), output.get());
+      } else {
+        filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      }
 
-      result =
-          CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      result = CacheResult.hit(name, CACHE_MODE, metadata, filesystem.getFileSize(output.get()));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -146,63 +171,166 @@ public class DirArtifactCache implements ArtifactCache {
     }
 
     try {
-      Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
-      for (RuleKey ruleKey : info.getRuleKeys()) {
-        Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+      if (contentAddressed) {
+        storeContentAddressed(info, output);
+      } else {
+        storeByRuleKey(info, output);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
+    }
 
-        if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
-          continue;
+    if (maxCacheSizeBytes.isPresent()
+        && bytesSinceLastDeleteOldFiles
+            > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
+      bytesSinceLastDeleteOldFiles = 0L;
+      deleteOldFiles();
+    }
+
+    return Futures.immediateFuture(null);
+  }
+
+  private void storeByRuleKey(ArtifactInfo info, BorrowablePath output) throws IOException {
+    Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
+    for (RuleKey ruleKey : info.getRuleKeys()) {
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
+
+      if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+        continue;
+      }
+
+      filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
+
+      if (!output.canBorrow()) {
+        storeArtifactOutput(output.getPath(), artifactPath);
+      } else {
+        // This branch means that we are apparently the only users of the `output`, so instead
+        // of making a safe transfer of the output to the dir cache (copy+move), we can just
+        // move it without copying.  This significantly optimizes the Disk I/O.
+        if (!borrowedAndStoredArtifactPath.isPresent()) {
+          borrowedAndStoredArtifactPath = Optional.of(artifactPath);
+          filesystem.move(output.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
         }
+      }
+      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+
+      writeMetadata(info.getMetadata(), Optional.empty(), metadataPath);
+    }
+  }
 
-        filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
+  private void storeContentAddressed(ArtifactInfo info, BorrowablePath output) throws IOException {
+    String blobHash = filesystem.computeSha1(output.getPath()).getHash();
+    Path blobPath = getPathForBlob(blobHash);
+    long artifactSize = filesystem.getFileSize(output.getPath());
+    boolean blobPresent = filesystem.exists(blobPath);
+    long bytesSaved = 0L;
+
+    for (RuleKey ruleKey : info.getRuleKeys()) {
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
+      if (blobPresent
+          && filesystem.exists(metadataPath)
+          && readBlobHash(metadataPath).equals(Optional.of(blobHash))) {
+        continue;
+      }
 
-        if (!output.canBorrow()) {
-          storeArtifactOutput(output.getPath(), artifactPath);
+      if (!blobPresent) {
+        filesystem.mkdirs(blobPath.getParent());
+        if (output.canBorrow()) {
+          filesystem.move(output.getPath(), blobPath, StandardCopyOption.REPLACE_EXISTING);
+          bytesSinceLastDeleteOldFiles += artifactSize;
         } else {
-          // This branch means that we are apparently the only users of the `output`, so instead
-          // of making a safe transfer of the output to the dir cache (copy+move), we can just
-          // move it without copying.  This significantly optimizes the Disk I/O.
-          if (!borrowedAndStoredArtifactPath.isPresent()) {
-            borrowedAndStoredArtifactPath = Optional.of(artifactPath);
-            filesystem.move(output.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
-          } else {
-            storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
+          try {
+            storeArtifactOutput(output.getPath(), blobPath);
+          } catch (FileAlreadyExistsException e) {
+            // Another process stored the same contents concurrently.
           }
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+        blobPresent = true;
+      } else {
+        bytesSaved += artifactSize;
+      }
 
-        // Now, write the meta data artifact.
-        Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
-        try {
-          try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
-            out.writeInt(info.getMetadata().size());
-            for (Map.Entry<String, String> ent : info.getMetadata().entrySet()) {
-              out.writeUTF(ent.getKey());
-              byte[] val = ent.getValue().getBytes(Charsets.UTF_8);
-              out.writeInt(val.length);
-              out.write(val);
-            }
-          }
-          filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
-        } finally {
-          filesystem.deleteFileAtPathIfExists(tmp);
+      filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
+      writeMetadata(info.getMetadata(), Optional.of(blobHash), metadataPath);
+    }
+
+    if (bytesSaved > 0 && buckEventBus.isPresent()) {
+      buckEventBus
+          .get()
+          .post(DirArtifactCacheEvent.deduplicatedStore(info.getRuleKeys(), bytesSaved));
+    }
+  }
+
+  private void writeMetadata(
+      ImmutableMap<String, String> metadata, Optional<String> blobHash, Path metadataPath)
+      throws IOException {
+    Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
+    try {
+      try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, String> ent : metadata.entrySet()) {
+          out.writeUTF(ent.getKey());
+          byte[] val = ent.getValue().getBytes(Charsets.UTF_8);
+          out.writeInt(val.length);
+          out.write(val);
+        }
+        // Readers that predate the content-addressed layout stop after the metadata map, so the
+        // blob pointer is simply appended.
+        if (blobHash.isPresent()) {
+          out.writeUTF(blobHash.get());
         }
       }
+      filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
+      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
+    }
+  }
 
-    } catch (IOException e) {
-      LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
+  private static ImmutableMap<String, String> readMetadata(DataInputStream in) throws IOException {
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    int sz = in.readInt();
+    for (int i = 0; i < sz; i++) {
+      String key = in.readUTF();
+      int valSize = in.readInt();
+      byte[] val = new byte[valSize];
+      ByteStreams.readFully(in, val);
+      metadata.put(key, new String(val, Charsets.UTF_8));
     }
+    return metadata.build();
+  }
 
-    if (maxCacheSizeBytes.isPresent()
-        && bytesSinceLastDeleteOldFiles
-            > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
-      bytesSinceLastDeleteOldFiles = 0L;
-      deleteOldFiles();
+  private static Optional<String> readBlobHash(DataInputStream in) throws IOException {
+    try {
+      return Optional.of(in.readUTF());
+    } catch (EOFException e) {
+      // Entry stored in the rule key layout.
+      return Optional.empty();
     }
+  }
 
-    return Futures.immediateFuture(null);
+  private Optional<String> readBlobHash(Path metadataPath) throws IOException {
+    try (DataInputStream in = new DataInputStream(filesystem.newFileInputStream(metadataPath))) {
+      readMetadata(in);
+      return readBlobHash(in);
+    }
+  }
+
+  /**
+   * Hard links the blob into place, so that fetching an artifact does not copy its contents.
+   * Falls back to a copy when the filesystem does not support links, e.g. across devices.
+   */
+  private void materializeBlob(Path blobPath, Path output) throws IOException {
+    filesystem.deleteFileAtPathIfExists(output);
+    try {
+      Files.createLink(filesystem.resolve(output), filesystem.resolve(blobPath));
+    } catch (IOException | UnsupportedOperationException e) {
+      LOG.verbose(e, "Failed to link %s to %s, copying instead.", blobPath, output);
+      filesystem.copyFile(blobPath, output);
+    }
   }
 
   @Override
@@ -215,10 +343,7 @@ public class DirArtifactCache implements ArtifactCache {
     ImmutableMap.Builder<RuleKey, CacheResult> results = new ImmutableMap.Builder<>();
 
     for (RuleKey ruleKey : ruleKeys) {
-      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
-
-      boolean contains = filesystem.exists(artifactPath) && filesystem.exists(metadataPath);
+      boolean contains = contains(ruleKey);
       results.put(ruleKey, contains ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
       LOG.verbose(
           "Artifact contains request for rulekey [%s] was a cache %s.",
@@ -228,10 +353,31 @@ public class DirArtifactCache implements ArtifactCache {
     return results.build();
   }
 
+  private boolean contains(RuleKey ruleKey) {
+    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
+    if (!filesystem.exists(metadataPath)) {
+      return false;
+    }
+    Optional<String> blobHash = Optional.empty();
+    if (contentAddressed) {
+      try {
+        blobHash = readBlobHash(metadataPath);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to read metadata for rule key [%s] from local cache", ruleKey);
+        return false;
+      }
+    }
+    return filesystem.exists(
+        blobHash.isPresent()
+            ? getPathForBlob(blobHash.get())
+            : getPathForRuleKey(ruleKey, Optional.empty()));
+  }
+
   private void deleteSync(RuleKey ruleKey) {
     Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
+    // Blobs of content addressed entries are reclaimed when no metadata refers to them anymore.
     try {
       filesystem.deleteFileAtPathIfExists(metadataPath);
       filesystem.deleteFileAtPathIfExists(artifactPath);
@@ -263,6 +409,18 @@ public class DirArtifactCache implements ArtifactCache {
     return tmp;
   }
 
+  private Path getPathToBlobsFolder() {
+    return cacheDir.resolve("blobs");
+  }
+
+  @VisibleForTesting
+  Path getPathForBlob(String blobHash) {
+    return getPathToBlobsFolder()
+        .resolve(blobHash.substring(0, 2))
+        .resolve(blobHash.substring(2, 4))
+        .resolve(blobHash);
+  }
+
   private ImmutableList<String> subfolders(RuleKey ruleKey) {
     if (ruleKey.toString().length() < 4) {
       return ImmutableList.of();
@@ -380,6 +538,9 @@ public class DirArtifactCache implements ArtifactCache {
 
   @VisibleForTesting
   DirectoryCleaner.PathSelector getDirectoryCleanerPathSelector() {
+    if (contentAddressed) {
+      return new ContentAddressedPathSelector();
+    }
     return new DirectoryCleaner.PathSelector() {
       @Override
       public Iterable<Path> getCandidatesToDelete(Path rootPath) throws IOException {
@@ -388,14 +549,105 @@ public class DirArtifactCache implements ArtifactCache {
 
       @Override
       public int comparePaths(DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
-        return ComparisonChain.start()
-            .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
-            .compare(path1.getCreationMillis(), path2.getCreationMillis())
-            .result();
+        return compareByAccessTime(path1, path2);
       }
     };
   }
 
+  private static int compareByAccessTime(
+      DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+    return ComparisonChain.start()
+        .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
+        .compare(path1.getCreationMillis(), path2.getCreationMillis())
+        .result();
+  }
+
+  private static long getSizeIfExists(Path path) throws IOException {
+    try {
+      return Files.size(path);
+    } catch (NoSuchFileException e) {
+      return 0L;
+    }
+  }
+
+  /**
+   * Offers metadata files for deletion in LRU order. Blobs are reference counted instead: they
+   * only count towards the cache size, and are deleted once the last metadata file pointing at
+   * them is gone.
+   */
+  private class ContentAddressedPathSelector implements DirectoryCleaner.PathSelector {
+    private final Map<Path, String> blobHashByMetadataPath = new HashMap<>();
+    private final Multiset<String> blobReferences = HashMultiset.create();
+    private final Map<String, Path> blobPaths = new HashMap<>();
+
+    @Override
+    public Iterable<Path> getCandidatesToDelete(Path rootPath) throws IOException {
+      Path blobsFolder = filesystem.resolve(getPathToBlobsFolder());
+      List<Path> candidates = new ArrayList<>();
+      for (Path file : getAllFilesInCache()) {
+        if (file.startsWith(blobsFolder)) {
+          blobPaths.put(file.getFileName().toString(), file);
+          continue;
+        }
+        candidates.add(file);
+        if (!file.getFileName().toString().endsWith(METADATA_EXTENSION)) {
+          continue;
+        }
+        try {
+          Optional<String> blobHash = readBlobHash(file);
+          if (blobHash.isPresent()) {
+            blobHashByMetadataPath.put(file, blobHash.get());
+            blobReferences.add(blobHash.get());
+          }
+        } catch (IOException e) {
+          LOG.warn(e, "Failed to read blob pointer from %s.", file);
+        }
+      }
+
+      // Blobs nothing points at anymore, e.g. left behind by an interrupted store, are evicted
+      // like any other file.
+      for (Map.Entry<String, Path> blob : blobPaths.entrySet()) {
+        if (!blobReferences.contains(blob.getKey())) {
+          candidates.add(blob.getValue());
+        }
+      }
+      return candidates;
+    }
+
+    @Override
+    public int comparePaths(DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+      return compareByAccessTime(path1, path2);
+    }
+
+    @Override
+    public long getSharedSizeBytes(Path rootPath) throws IOException {
+      long sizeBytes = 0L;
+      for (String blobHash : blobReferences.elementSet()) {
+        Path blobPath = blobPaths.get(blobHash);
+        if (blobPath != null) {
+          sizeBytes += getSizeIfExists(blobPath);
+        }
+      }
+      return sizeBytes;
+    }
+
+    @Override
+    public long releaseSharedData(Path deletedPath) throws IOException {
+      String blobHash = blobHashByMetadataPath.remove(deletedPath);
+      // Multiset.remove returns the count before removal.
+      if (blobHash == null || blobReferences.remove(blobHash, 1) > 1) {
+        return 0L;
+      }
+      Path blobPath = blobPaths.remove(blobHash);
+      if (blobPath == null) {
+        return 0L;
+      }
+      long sizeBytes = getSizeIfExists(blobPath);
+      Files.deleteIfExists(blobPath);
+      return sizeBytes;
+    }
+  }
+
   @VisibleForTesting
   Path getCacheDir() {
     return cacheDir;
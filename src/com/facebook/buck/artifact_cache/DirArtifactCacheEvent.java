@@ -17,6 +17,7 @@
 package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.ArtifactCacheEvent.Operation;
+import com.facebook.buck.event.AbstractBuckEvent;
 import com.facebook.buck.event.EventKey;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.collect.ImmutableMap;
@@ -29,6 +30,11 @@ public class DirArtifactCacheEvent {
 
   private DirArtifactCacheEvent() {}
 
+  public static DeduplicatedStore deduplicatedStore(
+      ImmutableSet<RuleKey> ruleKeys, long bytesSaved) {
+    return new DeduplicatedStore(ruleKeys, bytesSaved);
+  }
+
   public static class DirArtifactCacheEventFactory implements ArtifactCacheEventFactory {
     @Override
     public ArtifactCacheEvent.Started newFetchStartedEvent(ImmutableSet<RuleKey> ruleKeys) {
@@ -115,4 +121,37 @@ public class DirArtifactCacheEvent {
       return "DirArtifactCacheEvent.Finished";
     }
   }
+
+  /**
+   * Posted when a content-addressed store found the artifact contents already present in the blob
+   * store, so only metadata had to be written.
+   */
+  public static class DeduplicatedStore extends AbstractBuckEvent {
+    private final ImmutableSet<RuleKey> ruleKeys;
+    private final long bytesSaved;
+
+    private DeduplicatedStore(ImmutableSet<RuleKey> ruleKeys, long bytesSaved) {
+      super(EventKey.unique());
+      this.ruleKeys = ruleKeys;
+      this.bytesSaved = bytesSaved;
+    }
+
+    public ImmutableSet<RuleKey> getRuleKeys() {
+      return ruleKeys;
+    }
+
+    public long getBytesSaved() {
+      return bytesSaved;
+    }
+
+    @Override
+    public String getEventName() {
+      return "DirArtifactCacheEvent.DeduplicatedStore";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("%s bytes saved for %s", bytesSaved, ruleKeys);
+    }
+  }
 }
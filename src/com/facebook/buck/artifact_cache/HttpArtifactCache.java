@@ -16,20 +16,31 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.artifact_cache.config.PayloadCodec;
+import com.facebook.buck.event.ArtifactCompressionEvent;
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -47,17 +58,60 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
    */
   private static final Logger LOG = Logger.get(HttpArtifactCache.class);
 
+  private final BuckEventBus buckEventBus;
+  private final PayloadCodec payloadCodec;
+  private final int payloadCompressionLevel;
+  /** Compresses the blocks of payloads, so that stores do not compete with the common pool. */
+  private final Optional<ExecutorService> compressionExecutor;
+
   public HttpArtifactCache(NetworkCacheArgs args) {
     super(args);
+    this.buckEventBus = args.getBuckEventBus();
+    this.payloadCodec = args.getPayloadCodec();
+    this.payloadCompressionLevel = args.getPayloadCompressionLevel();
+    this.compressionExecutor =
+        payloadCodec == PayloadCodec.NONE
+            ? Optional.empty()
+            : Optional.of(
+                Executors.newFixedThreadPool(
+                    PayloadCompression.BLOCKS_IN_FLIGHT,
+                    new MostExecutors.NamedThreadFactory("HttpArtifactCache-compression")));
+  }
+
+  /**
+   * Artifacts stored with a codec are kept under keys of their own, so that clients which predate
+   * codecs, or are configured with another one, miss rather than fetch a payload they cannot read.
+   */
+  private RuleKey toStoredRuleKey(RuleKey ruleKey) {
+    if (payloadCodec == PayloadCodec.NONE) {
+      return ruleKey;
+    }
+    return new RuleKey(
+        Hashing.sha1()
+            .newHasher()
+            .putString(payloadCodec.name(), StandardCharsets.UTF_8)
+            .putBytes(ruleKey.getHashCode().asBytes())
+            .hash());
+  }
+
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return payloadCodec != PayloadCodec.NONE;
   }
 
   @Override
   protected FetchResult fetchImpl(RuleKey ruleKey, LazyPath output) throws IOException {
     FetchResult.Builder resultBuilder = FetchResult.builder();
     Request.Builder requestBuilder = new Request.Builder().get();
+    RuleKey storedRuleKey = toStoredRuleKey(ruleKey);
+    long requestStartNanos = System.nanoTime();
     try (HttpResponse response =
-        fetchClient.makeRequest("/artifacts/key/" + ruleKey.toString(), requestBuilder)) {
-      resultBuilder.setResponseSizeBytes(response.contentLength());
+        fetchClient.makeRequest("/artifacts/key/" + storedRuleKey.toString(), requestBuilder)) {
+      long firstByteNanos = System.nanoTime();
+      resultBuilder
+          .setResponseSizeBytes(response.contentLength())
+          .setTimeToFirstByteMillis(
+              TimeUnit.NANOSECONDS.toMillis(firstByteNanos - requestStartNanos));
 
       try (DataInputStream input =
           new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
@@ -84,19 +138,28 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
             getProjectFilesystem()
                 .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
 
+        // Copy the payload into the temp file as it arrives. The checksum is only
+        // known once the last byte has been read, so nothing is exposed at the final location
+        // until it has been verified.
         FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
-          fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+        try (WritableByteChannel tempFileChannel =
+            getProjectFilesystem().newWritableByteChannel(temp)) {
+          fetchedData = HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileChannel);
         }
+        long transferNanos = Math.max(1, System.nanoTime() - firstByteNanos);
 
         resultBuilder
             .setBuildTarget(ArtifactCacheEvent.getTarget(fetchedData.getMetadata()))
             .setResponseSizeBytes(fetchedData.getResponseSizeBytes())
-            .setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
+            .setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString())
+            .setThroughputBytesPerSecond(
+                (long)
+                    ((double) fetchedData.getResponseSizeBytes()
+                        * TimeUnit.SECONDS.toNanos(1)
+                        / transferNanos));
 
         // Verify that we were one of the rule keys that stored this artifact.
-        if (!fetchedData.getRuleKeys().contains(ruleKey)) {
+        if (!fetchedData.getRuleKeys().contains(storedRuleKey)) {
           String msg = "incorrect key name";
           reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
@@ -134,7 +197,44 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
   }
 
   @Override
-  protected StoreResult storeImpl(ArtifactInfo info, final Path file) throws IOException {
+  protected StoreResult storeImpl(ArtifactInfo info, Path file) throws IOException {
+    if (payloadCodec == PayloadCodec.NONE) {
+      return storePayload(info, file);
+    }
+
+    ArtifactInfo storedInfo =
+        ArtifactInfo.builder()
+            .from(info)
+            .setRuleKeys(
+                info.getRuleKeys()
+                    .stream()
+                    .map(this::toStoredRuleKey)
+                    .collect(ImmutableSet.toImmutableSet()))
+            .build();
+
+    Path compressed =
+        getProjectFilesystem()
+            .createTempFile(file.getParent(), file.getFileName().toString(), ".compressed");
+    try {
+      ArtifactCompressionEvent.Started started =
+          ArtifactCompressionEvent.started(
+              ArtifactCompressionEvent.Operation.COMPRESS, info.getRuleKeys());
+      buckEventBus.post(started);
+      try (InputStream input = getProjectFilesystem().newFileInputStream(file);
+          OutputStream output = getProjectFilesystem().newFileOutputStream(compressed)) {
+        PayloadCompression.compress(
+            payloadCodec, payloadCompressionLevel, input, output, compressionExecutor.get());
+      } finally {
+        buckEventBus.post(ArtifactCompressionEvent.finished(started));
+      }
+      return storePayload(storedInfo, compressed);
+    } finally {
+      getProjectFilesystem().deleteFileAtPathIfExists(compressed);
+    }
+  }
+
+  /** Stores {@code file}, which is already compressed with {@link #payloadCodec}. */
+  private StoreResult storePayload(ArtifactInfo info, final Path file) throws IOException {
     StoreResult.Builder resultBuilder = StoreResult.builder();
 
     // Build the request, hitting the multi-key endpoint.
@@ -147,7 +247,8 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
               public InputStream openStream() throws IOException {
                 return getProjectFilesystem().newFileInputStream(file);
               }
-            });
+            },
+            payloadCodec);
 
     resultBuilder.setRequestSizeBytes(storeRequest.getContentLength());
 
@@ -189,6 +290,12 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     return resultBuilder.build();
   }
 
+  @Override
+  public void close() {
+    super.close();
+    compressionExecutor.ifPresent(ExecutorService::shutdownNow);
+  }
+
   @Override
   protected CacheDeleteResult deleteImpl(List<RuleKey> ruleKeys) throws IOException {
     throw new RuntimeException("Delete operation is not yet supported");
@@ -196,7 +303,9 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
 
   @Override
   protected MultiFetchResult multiFetchImpl(
-      Iterable<AbstractAsynchronousCache.FetchRequest> requests) throws IOException {
+      Iterable<AbstractAsynchronousCache.FetchRequest> requests,
+      MultiFetchResultListener resultListener)
+      throws IOException {
     throw new RuntimeException("multiFetch not supported");
   }
 }
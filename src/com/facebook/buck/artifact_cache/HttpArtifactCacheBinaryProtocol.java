@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.artifact_cache.config.PayloadCodec;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.hash.HasherInputStream;
 import com.facebook.buck.util.hash.HasherOutputStream;
@@ -37,6 +38,8 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 import org.immutables.value.Value;
 
@@ -46,6 +49,15 @@ public class HttpArtifactCacheBinaryProtocol {
   private static final HashFunction HASH_FUNCTION = Hashing.crc32();
   // 64MB should be enough for everyone.
   private static final long MAX_METADATA_HEADER_SIZE = 64 * 1024 * 1024;
+  // Artifacts are typically large, so copy them in bigger chunks than the stream default.
+  private static final int PAYLOAD_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Metadata key naming the {@link PayloadCodec} of the payload, when it is not {@link
+   * PayloadCodec#NONE}. Servers store and return it like any other metadata, and clients that
+   * predate codecs ignore it.
+   */
+  public static final String PAYLOAD_CODEC_METADATA_KEY = "x-buck-payload-codec";
 
   private HttpArtifactCacheBinaryProtocol() {
     // Utility class, don't instantiate.
@@ -55,12 +67,29 @@ public class HttpArtifactCacheBinaryProtocol {
       DataInputStream input, OutputStream payloadSink) throws IOException {
 
     MetadataAndPayloadReadResultInternal resultInternal =
-        readMetadataAndPayload(input, payloadSink);
+        readMetadataAndPayload(input, true, payload -> ByteStreams.copy(payload, payloadSink));
 
     FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
     return result.build();
   }
 
+  /**
+   * Like {@link #readFetchResponse(DataInputStream, OutputStream)}, but writes the payload into
+   * {@code payloadSink} through a single reusable buffer as it arrives. This is not a zero-copy
+   * transfer: the payload has to be checksummed and may have to be decompressed, so each byte is
+   * still read into the heap once. The checksums are computed in the same pass, so callers must not
+   * trust the written payload until they have compared the expected and actual hash codes.
+   *
+   * <p>Both fetch methods decompress the payload, and remove {@link #PAYLOAD_CODEC_METADATA_KEY}
+   * from the metadata.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, WritableByteChannel payloadSink) throws IOException {
+    MetadataAndPayloadReadResultInternal resultInternal =
+        readMetadataAndPayload(input, true, payload -> copy(payload, payloadSink));
+    return FetchResponseReadResult.builder().from(resultInternal).build();
+  }
+
   public static StoreResponseReadResult readStoreRequest(
       DataInputStream input, OutputStream payloadSink) throws IOException {
     ImmutableSet.Builder<RuleKey> rawRuleKeys = ImmutableSet.builder();
@@ -79,6 +108,16 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input, false, payload -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  /**
+   * @param decompress whether to decompress the payload, rather than copying it and its codec as
+   *     they are stored.
+   */
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, boolean decompress, PayloadCopier payloadCopier) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -90,6 +129,7 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    PayloadCodec codec = PayloadCodec.NONE;
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -112,7 +152,11 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          if (decompress && key.equals(PAYLOAD_CODEC_METADATA_KEY)) {
+            codec = parseCodec(new String(val, Charsets.UTF_8));
+          } else {
+            result.putMetadata(key, new String(val, Charsets.UTF_8));
+          }
         }
       }
 
@@ -124,11 +168,13 @@ public class HttpArtifactCacheBinaryProtocol {
     }
 
     // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    // in our verification checksum. The checksums cover the payload as it was sent.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
     try (InputStream payload =
         new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+      result.setResponseSizeBytes(
+          payloadCopier.copy(PayloadCompression.decompress(codec, payload)));
+      ByteStreams.exhaust(payload);
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -137,6 +183,36 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  private static PayloadCodec parseCodec(String name) throws IOException {
+    try {
+      return PayloadCodec.valueOf(name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(String.format("Unknown payload codec %s.", name), e);
+    }
+  }
+
+  private static long copy(InputStream payload, WritableByteChannel payloadSink)
+      throws IOException {
+    byte[] bytes = new byte[PAYLOAD_BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    long total = 0;
+    int read;
+    while ((read = payload.read(bytes)) != -1) {
+      buffer.clear();
+      buffer.limit(read);
+      while (buffer.hasRemaining()) {
+        payloadSink.write(buffer);
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  /** Drains an already checksummed payload stream into its destination. */
+  private interface PayloadCopier {
+    long copy(InputStream payload) throws IOException;
+  }
+
   @VisibleForTesting
   static byte[] createKeysHeader(ImmutableSet<RuleKey> ruleKeys) throws IOException {
     try (ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -198,10 +274,23 @@ public class HttpArtifactCacheBinaryProtocol {
     private final long contentLength;
 
     public StoreRequest(ArtifactInfo info, ByteSource payloadSource) throws IOException {
+      this(info, payloadSource, PayloadCodec.NONE);
+    }
+
+    /** @param payloadSource the payload, already compressed with {@code codec}. */
+    public StoreRequest(ArtifactInfo info, ByteSource payloadSource, PayloadCodec codec)
+        throws IOException {
+      ImmutableMap<String, String> metadata = info.getMetadata();
+      if (codec != PayloadCodec.NONE) {
+        metadata =
+            ImmutableMap.<String, String>builder()
+                .putAll(metadata)
+                .put(PAYLOAD_CODEC_METADATA_KEY, codec.name())
+                .build();
+      }
       this.payloadSource = payloadSource;
       this.rawKeys = createKeysHeader(info.getRuleKeys());
-      this.rawMetadata =
-          createMetadataHeader(info.getRuleKeys(), info.getMetadata(), payloadSource);
+      this.rawMetadata = createMetadataHeader(info.getRuleKeys(), metadata, payloadSource);
       this.contentLength =
           rawKeys.length + Integer.SIZE / Byte.SIZE + rawMetadata.length + payloadSource.size();
     }
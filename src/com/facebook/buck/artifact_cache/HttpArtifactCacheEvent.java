@@ -141,6 +141,8 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
 
     @JsonIgnore private final Optional<HttpArtifactCacheEventStoreData> storeData;
 
+    @JsonIgnore private final Optional<HttpArtifactCacheEventMultiFetchData> multiFetchData;
+
     @JsonProperty("request_duration_millis")
     private long requestDurationMillis;
 
@@ -157,6 +159,7 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
       this.requestDurationMillis = -1;
       this.fetchData = Optional.of(data);
       this.storeData = Optional.empty();
+      this.multiFetchData = Optional.empty();
     }
 
     public Finished(Started event, HttpArtifactCacheEventStoreData data) {
@@ -172,6 +175,23 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
       this.requestDurationMillis = -1;
       this.fetchData = Optional.empty();
       this.storeData = Optional.of(data);
+      this.multiFetchData = Optional.empty();
+    }
+
+    public Finished(Started event, HttpArtifactCacheEventMultiFetchData data) {
+      super(
+          event.getEventKey(),
+          CACHE_MODE,
+          event.getOperation(),
+          event.getTarget(),
+          event.getRuleKeys(),
+          event.getInvocationType(),
+          Optional.empty());
+      this.startedEvent = event;
+      this.requestDurationMillis = -1;
+      this.fetchData = Optional.empty();
+      this.storeData = Optional.empty();
+      this.multiFetchData = Optional.of(data);
     }
 
     public long getRequestDurationMillis() {
@@ -188,6 +208,11 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
       return storeData.get();
     }
 
+    public HttpArtifactCacheEventMultiFetchData getMultiFetchData() {
+      Preconditions.checkState(multiFetchData.isPresent());
+      return multiFetchData.get();
+    }
+
     @Override
     public void configure(
         long timestampMillis,
@@ -208,12 +233,14 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
       private final Started startedEvent;
       private HttpArtifactCacheEventFetchData.Builder fetchDataBuilder;
       private HttpArtifactCacheEventStoreData.Builder storeDataBuilder;
+      private final HttpArtifactCacheEventMultiFetchData.Builder multiFetchDataBuilder;
       private Optional<String> target;
 
       private Builder(Started event) {
         this.startedEvent = event;
         this.storeDataBuilder = HttpArtifactCacheEventStoreData.builder();
         this.fetchDataBuilder = HttpArtifactCacheEventFetchData.builder();
+        this.multiFetchDataBuilder = HttpArtifactCacheEventMultiFetchData.builder();
         this.target = Optional.empty();
       }
 
@@ -224,6 +251,8 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
           fetchDataBuilder.setRequestedRuleKey(requestsRuleKey);
           return new HttpArtifactCacheEvent.Finished(
               startedEvent, target, fetchDataBuilder.build());
+        } else if (startedEvent.getOperation() == Operation.MULTI_FETCH) {
+          return new HttpArtifactCacheEvent.Finished(startedEvent, multiFetchDataBuilder.build());
         } else {
           storeDataBuilder.setRuleKeys(startedEvent.getRuleKeys());
           return new HttpArtifactCacheEvent.Finished(startedEvent, storeDataBuilder.build());
@@ -238,6 +267,10 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
         return storeDataBuilder;
       }
 
+      public HttpArtifactCacheEventMultiFetchData.Builder getMultiFetchBuilder() {
+        return multiFetchDataBuilder;
+      }
+
       public Builder setFetchDataBuilder(HttpArtifactCacheEventFetchData.Builder fetchDataBuilder) {
         this.fetchDataBuilder = fetchDataBuilder;
         return this;
@@ -266,6 +299,10 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
     Optional<String> getErrorMessage();
 
     ImmutableSet<RuleKey> getAssociatedRuleKeys();
+
+    Optional<Long> getTimeToFirstByteMillis();
+
+    Optional<Long> getThroughputBytesPerSecond();
   }
 
   @Value.Immutable
@@ -287,6 +324,24 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
     Optional<Boolean> wasStoreForManifest();
   }
 
+  @Value.Immutable
+  @BuckStyleImmutable
+  interface AbstractHttpArtifactCacheEventMultiFetchData {
+    /** The number of rule keys requested together. */
+    int getBatchSize();
+
+    /** The number of requested rule keys that were found. */
+    int getHitCount();
+
+    /**
+     * For each rule key that got a result, the time between sending the request and reading that
+     * result, in the order in which the results were read.
+     */
+    ImmutableList<Long> getResultLatenciesMillis();
+
+    Optional<String> getErrorMessage();
+  }
+
   static class MultiFetchStarted extends Started {
     public MultiFetchStarted(ImmutableSet<RuleKey> ruleKeys) {
       super(Operation.MULTI_FETCH, ruleKeys);
@@ -93,6 +93,11 @@ public class LoggingArtifactCacheDecorator implements ArtifactCache, CacheDecora
     return delegate.getCacheReadMode();
   }
 
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return delegate.compressesStoredArtifacts();
+  }
+
   @Override
   public void close() {
     delegate.close();
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves repeated fetches from a local cache out of a {@link MemoryArtifactStore}, which the daemon
+ * keeps across commands. Small artifacts are added to the store when they are fetched from or
+ * stored to the delegate.
+ */
+public class MemoryArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  private static final Logger LOG = Logger.get(MemoryArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final MemoryArtifactStore store;
+  private final ProjectFilesystem projectFilesystem;
+  private final BuckEventBus buckEventBus;
+  private final String cacheSource;
+  private final ArtifactCacheMode cacheMode;
+
+  /**
+   * @param cacheSource the source that {@code delegate} reports in its hits.
+   * @param cacheMode the mode that {@code delegate} reports in its hits.
+   */
+  public MemoryArtifactCacheDecorator(
+      ArtifactCache delegate,
+      MemoryArtifactStore store,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      String cacheSource,
+      ArtifactCacheMode cacheMode) {
+    this.delegate = delegate;
+    this.store = store;
+    this.projectFilesystem = projectFilesystem;
+    this.buckEventBus = buckEventBus;
+    this.cacheSource = cacheSource;
+    this.cacheMode = cacheMode;
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output) {
+    Optional<MemoryArtifactStore.Entry> entry = store.get(ruleKey);
+    if (entry.isPresent()) {
+      try {
+        writeFile(entry.get().getData(), projectFilesystem.resolve(output.get()));
+        buckEventBus.post(MemoryArtifactCacheEvent.of(1, 0, 0));
+        return Futures.immediateFuture(entry.get().getResult());
+      } catch (IOException e) {
+        LOG.warn(e, "Could not write the artifact of %s from memory, fetching it again.", ruleKey);
+      }
+    }
+
+    return Futures.transform(
+        delegate.fetchAsync(ruleKey, output),
+        result -> {
+          int evictions = 0;
+          if (result.getType() == CacheResultType.HIT) {
+            try {
+              Optional<ByteBuffer> data = readFile(projectFilesystem.resolve(output.get()));
+              if (data.isPresent()) {
+                evictions = store.put(ruleKey, result, data.get());
+              }
+            } catch (IOException e) {
+              LOG.info(e, "Could not keep the artifact of %s in memory.", ruleKey);
+            }
+          }
+          buckEventBus.post(MemoryArtifactCacheEvent.of(0, 1, evictions));
+          return result;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    if (!getCacheReadMode().isWritable()) {
+      return delegate.store(info, output);
+    }
+
+    // The delegate may move a borrowable file away, so it is read first.
+    Optional<ByteBuffer> data;
+    try {
+      data = readFile(projectFilesystem.resolve(output.getPath()));
+    } catch (IOException e) {
+      LOG.info(e, "Could not keep the artifact of %s in memory.", info.getRuleKeys());
+      data = Optional.empty();
+    }
+    if (!data.isPresent()) {
+      return delegate.store(info, output);
+    }
+
+    ByteBuffer storedData = data.get();
+    return Futures.transform(
+        delegate.store(info, output),
+        ignored -> {
+          CacheResult result =
+              CacheResult.hit(cacheSource, cacheMode, info.getMetadata(), storedData.remaining());
+          int evictions = 0;
+          for (RuleKey ruleKey : info.getRuleKeys()) {
+            evictions += store.put(ruleKey, result, storedData);
+          }
+          if (evictions > 0) {
+            buckEventBus.post(MemoryArtifactCacheEvent.of(0, 0, evictions));
+          }
+          return null;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** @return the contents of {@code path}, if it is small enough to be stored. */
+  private Optional<ByteBuffer> readFile(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (!store.accepts(size)) {
+        return Optional.empty();
+      }
+      ByteBuffer data = ByteBuffer.allocate((int) size);
+      while (data.hasRemaining()) {
+        if (channel.read(data) < 0) {
+          throw new IOException(String.format("%s was truncated while reading it.", path));
+        }
+      }
+      data.flip();
+      return Optional.of(data);
+    }
+  }
+
+  private static void writeFile(ByteBuffer data, Path path) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    }
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    store.remove(ruleKeys);
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return delegate.compressesStoredArtifacts();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+
+/**
+ * Reports the hits, misses and evictions of one operation on the memory cache in front of the local
+ * artifact caches. They are summed up in the {@link CacheCountersSummary} of the command.
+ */
+public class MemoryArtifactCacheEvent extends AbstractBuckEvent {
+  private final int hits;
+  private final int misses;
+  private final int evictions;
+
+  private MemoryArtifactCacheEvent(EventKey eventKey, int hits, int misses, int evictions) {
+    super(eventKey);
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+  }
+
+  public static MemoryArtifactCacheEvent of(int hits, int misses, int evictions) {
+    return new MemoryArtifactCacheEvent(EventKey.unique(), hits, misses, evictions);
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getMisses() {
+    return misses;
+  }
+
+  public int getEvictions() {
+    return evictions;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("hits=%d misses=%d evictions=%d", hits, misses, evictions);
+  }
+
+  @Override
+  public String getEventName() {
+    return "MemoryArtifactCacheEvent";
+  }
+}
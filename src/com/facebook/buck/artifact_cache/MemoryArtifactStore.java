@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Small artifacts kept in memory, so that they outlive a single command in the daemon. Entries are
+ * evicted least recently used first once their total size goes over {@code maxBytes}. They are held
+ * in heap buffers, so an evicted entry's memory is reclaimed like any other garbage, and the store
+ * never holds on to more than {@code maxBytes} of it.
+ */
+public class MemoryArtifactStore {
+
+  private final long maxBytes;
+  private final long maxArtifactBytes;
+
+  /** In access order, so the eldest entry is the least recently used one. */
+  private final LinkedHashMap<RuleKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long totalBytes = 0;
+
+  public MemoryArtifactStore(long maxBytes, long maxArtifactBytes) {
+    Preconditions.checkArgument(maxBytes > 0);
+    this.maxBytes = maxBytes;
+    this.maxArtifactBytes = Math.min(maxArtifactBytes, maxBytes);
+  }
+
+  /** @return whether an artifact of {@code sizeBytes} is small enough to be stored. */
+  public boolean accepts(long sizeBytes) {
+    return sizeBytes <= maxArtifactBytes;
+  }
+
+  public synchronized Optional<Entry> get(RuleKey ruleKey) {
+    return Optional.ofNullable(entries.get(ruleKey));
+  }
+
+  /**
+   * Stores {@code data}, which must not be modified afterwards, as the artifact that the fetch
+   * described by {@code result} returned.
+   *
+   * @return the number of entries evicted to make room for it.
+   */
+  public synchronized int put(RuleKey ruleKey, CacheResult result, ByteBuffer data) {
+    Preconditions.checkArgument(result.getType() == CacheResultType.HIT);
+    Preconditions.checkArgument(accepts(data.remaining()));
+    Entry previous = entries.put(ruleKey, new Entry(result, data));
+    if (previous != null) {
+      totalBytes -= previous.getSizeBytes();
+    }
+    totalBytes += data.remaining();
+
+    int evicted = 0;
+    Iterator<Map.Entry<RuleKey, Entry>> iterator = entries.entrySet().iterator();
+    while (totalBytes > maxBytes) {
+      totalBytes -= iterator.next().getValue().getSizeBytes();
+      iterator.remove();
+      evicted++;
+    }
+    return evicted;
+  }
+
+  public synchronized void remove(Iterable<RuleKey> ruleKeys) {
+    for (RuleKey ruleKey : ruleKeys) {
+      Entry removed = entries.remove(ruleKey);
+      if (removed != null) {
+        totalBytes -= removed.getSizeBytes();
+      }
+    }
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /** An artifact and the result of the fetch that returned it. */
+  public static final class Entry {
+    private final CacheResult result;
+    private final ByteBuffer data;
+
+    private Entry(CacheResult result, ByteBuffer data) {
+      this.result = result;
+      this.data = data;
+    }
+
+    public CacheResult getResult() {
+      return result;
+    }
+
+    /** @return a read-only view of the artifact, with its own position. */
+    public ByteBuffer getData() {
+      return data.asReadOnlyBuffer();
+    }
+
+    private int getSizeBytes() {
+      return data.remaining();
+    }
+  }
+}
@@ -197,6 +197,12 @@ public class MultiArtifactCache implements ArtifactCache {
     return isStoreSupported ? CacheReadMode.READWRITE : CacheReadMode.READONLY;
   }
 
+  /** Artifacts are stored to all writable caches, so one that compresses them is enough. */
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return writableArtifactCaches.stream().anyMatch(ArtifactCache::compressesStoredArtifacts);
+  }
+
   @Override
   public void close() {
     Optional<RuntimeException> throwable = Optional.empty();
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.PayloadCodec;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses artifact payloads with a {@link PayloadCodec}.
+ *
+ * <p>A {@link PayloadCodec#DEFLATE} payload is a series of blocks. Each block is the big endian
+ * sizes of its data before and after compression, followed by the data in the zlib format. A zero
+ * size ends the payload. Blocks are compressed independently of each other, so up to {@link
+ * #BLOCKS_IN_FLIGHT} of them are compressed at the same time on the executor passed in.
+ */
+public class PayloadCompression {
+
+  static final int BLOCK_SIZE = 1024 * 1024;
+  // Guards against allocating huge buffers when reading corrupt payloads.
+  private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+  static final int BLOCKS_IN_FLIGHT = Runtime.getRuntime().availableProcessors();
+
+  private PayloadCompression() {
+    // Utility class, don't instantiate.
+  }
+
+  /**
+   * @param executor runs the compression of blocks, which should not need more than {@link
+   *     #BLOCKS_IN_FLIGHT} threads.
+   * @return the number of bytes written to {@code output}.
+   */
+  public static long compress(
+      PayloadCodec codec,
+      int level,
+      InputStream input,
+      OutputStream output,
+      ExecutorService executor)
+      throws IOException {
+    switch (codec) {
+      case NONE:
+        return ByteStreams.copy(input, output);
+      case DEFLATE:
+        return deflateBlocks(level, input, output, executor);
+    }
+    throw new IllegalArgumentException("Unknown codec " + codec);
+  }
+
+  /** @return a stream of the decompressed contents of {@code input}. */
+  public static InputStream decompress(PayloadCodec codec, InputStream input) {
+    switch (codec) {
+      case NONE:
+        return input;
+      case DEFLATE:
+        return new InflatingInputStream(input);
+    }
+    throw new IllegalArgumentException("Unknown codec " + codec);
+  }
+
+  private static long deflateBlocks(
+      int level, InputStream input, OutputStream output, ExecutorService executor)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(output);
+    long written = 0;
+    List<byte[]> blocks = readBlocks(input);
+    while (!blocks.isEmpty()) {
+      List<Future<byte[]>> deflatedBlocks = new ArrayList<>(blocks.size());
+      try {
+        for (byte[] block : blocks) {
+          deflatedBlocks.add(executor.submit(() -> deflate(level, block)));
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+          byte[] deflated = getDeflatedBlock(deflatedBlocks.get(i));
+          out.writeInt(blocks.get(i).length);
+          out.writeInt(deflated.length);
+          out.write(deflated);
+          written += 2 * Integer.BYTES + deflated.length;
+        }
+      } finally {
+        // Only does anything if writing failed, in which case the other blocks are not needed.
+        deflatedBlocks.forEach(block -> block.cancel(true));
+      }
+      blocks = readBlocks(input);
+    }
+    out.writeInt(0);
+    out.flush();
+    return written + Integer.BYTES;
+  }
+
+  private static List<byte[]> readBlocks(InputStream input) throws IOException {
+    List<byte[]> blocks = new ArrayList<>(BLOCKS_IN_FLIGHT);
+    while (blocks.size() < BLOCKS_IN_FLIGHT) {
+      byte[] block = new byte[BLOCK_SIZE];
+      int read = ByteStreams.read(input, block, 0, BLOCK_SIZE);
+      if (read > 0) {
+        blocks.add(read == BLOCK_SIZE ? block : Arrays.copyOf(block, read));
+      }
+      if (read < BLOCK_SIZE) {
+        break;
+      }
+    }
+    return blocks;
+  }
+
+  private static byte[] getDeflatedBlock(Future<byte[]> block) throws IOException {
+    try {
+      return block.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing the payload.");
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to compress the payload.", e.getCause());
+    }
+  }
+
+  private static byte[] deflate(int level, byte[] block) {
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(block);
+      deflater.finish();
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream(block.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished()) {
+        int length = deflater.deflate(buffer);
+        deflated.write(buffer, 0, length);
+      }
+      return deflated.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Reads the blocks of a {@link PayloadCodec#DEFLATE} payload one at a time. */
+  private static class InflatingInputStream extends InputStream {
+    private final DataInputStream input;
+    private byte[] block = new byte[0];
+    private int position = 0;
+    private boolean finished = false;
+
+    private InflatingInputStream(InputStream input) {
+      this.input = new DataInputStream(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      while (position == block.length) {
+        if (finished) {
+          return -1;
+        }
+        readBlock();
+      }
+      int read = Math.min(length, block.length - position);
+      System.arraycopy(block, position, bytes, offset, read);
+      position += read;
+      return read;
+    }
+
+    private void readBlock() throws IOException {
+      int size = input.readInt();
+      if (size == 0) {
+        finished = true;
+        return;
+      }
+      int deflatedSize = input.readInt();
+      if (size < 0 || size > MAX_BLOCK_SIZE || deflatedSize < 0 || deflatedSize > MAX_BLOCK_SIZE) {
+        throw new IOException(
+            String.format("Invalid block sizes %d and %d in payload.", size, deflatedSize));
+      }
+      byte[] deflated = new byte[deflatedSize];
+      input.readFully(deflated);
+
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(deflated);
+        block = new byte[size];
+        int inflated = 0;
+        while (inflated < size) {
+          int read = inflater.inflate(block, inflated, size - inflated);
+          if (read == 0) {
+            throw new IOException("Block in payload is shorter than its declared size.");
+          }
+          inflated += read;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Block in payload is corrupt.", e);
+      } finally {
+        inflater.end();
+      }
+      position = 0;
+    }
+  }
+}
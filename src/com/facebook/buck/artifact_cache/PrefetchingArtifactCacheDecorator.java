@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Downloads artifacts from the remote caches into a staging directory before they are fetched.
+ *
+ * <p>{@link #prefetch} asks the delegate which of the given rule keys it has, and downloads the
+ * ones found in a remote cache, in the given order, with at most {@code maxConcurrentDownloads} at
+ * a time. No new download is started while the staged artifacts take {@code maxStagedBytes} or
+ * more. A later {@link #fetchAsync} of a prefetched key waits for its download if needed and moves
+ * the staged file to the output, and only goes to the delegate if the prefetch did not hit.
+ * Artifacts that will not be fetched, e.g. because their rule turned out to be up to date, are
+ * released through {@link #discard} and {@link #discardAll}, so that they don't hold up other
+ * downloads.
+ */
+public class PrefetchingArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  private static final Logger LOG = Logger.get(PrefetchingArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ProjectFilesystem projectFilesystem;
+  private final Path stagingDir;
+  private final long maxStagedBytes;
+  private final int maxConcurrentDownloads;
+
+  /** All keys ever passed to {@link #prefetch}, so that each is only looked up once. */
+  private final Set<RuleKey> requested = new HashSet<>();
+
+  /** Keys the delegate has that are waiting for a download slot, in priority order. */
+  private final LinkedHashSet<RuleKey> queued = new LinkedHashSet<>();
+
+  /** Downloads that were started and whose staged artifacts were not used yet. */
+  private final Map<RuleKey, SettableFuture<CacheResult>> downloads = new HashMap<>();
+
+  /** Downloads that were started and did not finish yet, whether or not they were used. */
+  private final Set<ListenableFuture<CacheResult>> downloadsInFlight = new HashSet<>();
+
+  private final Map<RuleKey, Long> stagedSizes = new HashMap<>();
+  private long stagedBytes = 0;
+  private boolean stopped = false;
+
+  public PrefetchingArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ProjectFilesystem projectFilesystem,
+      Path stagingDir,
+      long maxStagedBytes,
+      int maxConcurrentDownloads) {
+    Preconditions.checkArgument(maxConcurrentDownloads > 0);
+    this.delegate = delegate;
+    this.projectFilesystem = projectFilesystem;
+    this.stagingDir = stagingDir;
+    this.maxStagedBytes = maxStagedBytes;
+    this.maxConcurrentDownloads = maxConcurrentDownloads;
+  }
+
+  /**
+   * Starts downloading the artifacts of {@code ruleKeys} that a remote cache has. Keys that come
+   * first are downloaded first. Keys that were already passed to this method are ignored.
+   *
+   * @return the keys whose artifacts a remote cache has, once the delegate was asked. If asking
+   *     fails, no key is reported.
+   */
+  public ListenableFuture<ImmutableSet<RuleKey>> prefetch(ImmutableList<RuleKey> ruleKeys) {
+    ImmutableSet<RuleKey> newKeys;
+    synchronized (this) {
+      if (stopped) {
+        return Futures.immediateFuture(ImmutableSet.of());
+      }
+      newKeys = ruleKeys.stream().filter(requested::add).collect(ImmutableSet.toImmutableSet());
+    }
+    if (newKeys.isEmpty()) {
+      return Futures.immediateFuture(ImmutableSet.of());
+    }
+    try {
+      projectFilesystem.mkdirs(stagingDir);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not create %s, not prefetching.", stagingDir);
+      return Futures.immediateFuture(ImmutableSet.of());
+    }
+
+    SettableFuture<ImmutableSet<RuleKey>> remoteHits = SettableFuture.create();
+    Futures.addCallback(
+        delegate.multiContainsAsync(newKeys),
+        new FutureCallback<ImmutableMap<RuleKey, CacheResult>>() {
+          @Override
+          public void onSuccess(ImmutableMap<RuleKey, CacheResult> results) {
+            ImmutableSet.Builder<RuleKey> hits = ImmutableSet.builder();
+            synchronized (PrefetchingArtifactCacheDecorator.this) {
+              for (RuleKey ruleKey : newKeys) {
+                CacheResult result = results.get(ruleKey);
+                if (result != null && isRemoteHit(result)) {
+                  hits.add(ruleKey);
+                  if (!stopped) {
+                    queued.add(ruleKey);
+                  }
+                }
+              }
+            }
+            startDownloads();
+            remoteHits.set(hits.build());
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            LOG.info(t, "Looking up %d rule keys to prefetch failed.", newKeys.size());
+            remoteHits.set(ImmutableSet.of());
+          }
+        },
+        MoreExecutors.directExecutor());
+    return remoteHits;
+  }
+
+  /** Local caches are as fast to fetch from as the staging directory, so they are skipped. */
+  private static boolean isRemoteHit(CacheResult result) {
+    return result.getType() == CacheResultType.CONTAINS
+        && result
+            .cacheMode()
+            .map(ArtifactCacheMode::getCacheType)
+            .map(type -> type == ArtifactCacheMode.CacheType.remote)
+            .orElse(false);
+  }
+
+  private void startDownloads() {
+    Map<RuleKey, SettableFuture<CacheResult>> toStart = new LinkedHashMap<>();
+    synchronized (this) {
+      Iterator<RuleKey> iterator = queued.iterator();
+      while (!stopped
+          && iterator.hasNext()
+          && downloadsInFlight.size() < maxConcurrentDownloads
+          && stagedBytes < maxStagedBytes) {
+        RuleKey ruleKey = iterator.next();
+        iterator.remove();
+        SettableFuture<CacheResult> download = SettableFuture.create();
+        downloads.put(ruleKey, download);
+        toStart.put(ruleKey, download);
+        downloadsInFlight.add(download);
+      }
+    }
+
+    // The delegate may complete fetches on this thread, so they are started without the lock.
+    for (Map.Entry<RuleKey, SettableFuture<CacheResult>> entry : toStart.entrySet()) {
+      RuleKey ruleKey = entry.getKey();
+      ListenableFuture<CacheResult> fetch =
+          delegate.fetchAsync(
+              ruleKey, LazyPath.ofInstance(projectFilesystem.resolve(getStagingPath(ruleKey))));
+      fetch.addListener(
+          () -> onDownloadFinished(ruleKey, fetch, entry.getValue()),
+          MoreExecutors.directExecutor());
+    }
+  }
+
+  private void onDownloadFinished(
+      RuleKey ruleKey, ListenableFuture<CacheResult> fetch, SettableFuture<CacheResult> download) {
+    CacheResult result;
+    try {
+      result = Futures.getDone(fetch);
+    } catch (ExecutionException | RuntimeException e) {
+      LOG.info(e, "Prefetching %s failed.", ruleKey);
+      result = CacheResult.miss();
+    }
+
+    long size = 0;
+    if (result.getType().isSuccess()) {
+      try {
+        size = projectFilesystem.getFileSize(getStagingPath(ruleKey));
+      } catch (IOException e) {
+        LOG.info(e, "Prefetched artifact of %s is gone.", ruleKey);
+        result = CacheResult.miss();
+      }
+    }
+
+    synchronized (this) {
+      downloadsInFlight.remove(download);
+      if (result.getType().isSuccess()) {
+        stagedSizes.put(ruleKey, size);
+        stagedBytes += size;
+      }
+    }
+    download.set(result);
+    startDownloads();
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output) {
+    SettableFuture<CacheResult> download;
+    synchronized (this) {
+      queued.remove(ruleKey);
+      download = downloads.remove(ruleKey);
+    }
+    if (download == null) {
+      return delegate.fetchAsync(ruleKey, output);
+    }
+    return Futures.transformAsync(
+        download,
+        result -> useStagedArtifact(ruleKey, result, output),
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<CacheResult> useStagedArtifact(
+      RuleKey ruleKey, CacheResult result, LazyPath output) {
+    Path stagingPath = getStagingPath(ruleKey);
+    try {
+      if (result.getType().isSuccess()) {
+        projectFilesystem.move(stagingPath, output.get(), StandardCopyOption.REPLACE_EXISTING);
+        return Futures.immediateFuture(result);
+      }
+    } catch (IOException e) {
+      LOG.info(e, "Could not use the prefetched artifact of %s.", ruleKey);
+    } finally {
+      releaseStagedArtifact(ruleKey);
+    }
+    return delegate.fetchAsync(ruleKey, output);
+  }
+
+  /**
+   * Releases the staged artifact of {@code ruleKey}, which will not be fetched. An artifact that is
+   * still being downloaded is released once it is done.
+   */
+  public void discard(RuleKey ruleKey) {
+    SettableFuture<CacheResult> download;
+    synchronized (this) {
+      queued.remove(ruleKey);
+      download = downloads.remove(ruleKey);
+    }
+    if (download != null) {
+      download.addListener(() -> releaseStagedArtifact(ruleKey), MoreExecutors.directExecutor());
+    }
+  }
+
+  /**
+   * Releases all staged artifacts and drops the queued downloads, e.g. once a build is finished.
+   * Keys passed to {@link #prefetch} afterwards are looked up again.
+   */
+  public void discardAll() {
+    ImmutableSet<RuleKey> ruleKeys;
+    synchronized (this) {
+      queued.clear();
+      requested.clear();
+      ruleKeys = ImmutableSet.copyOf(downloads.keySet());
+    }
+    ruleKeys.forEach(this::discard);
+  }
+
+  private void releaseStagedArtifact(RuleKey ruleKey) {
+    try {
+      projectFilesystem.deleteFileAtPathIfExists(getStagingPath(ruleKey));
+    } catch (IOException e) {
+      LOG.info(e, "Could not delete the prefetched artifact of %s.", ruleKey);
+    }
+    synchronized (this) {
+      Long size = stagedSizes.remove(ruleKey);
+      if (size != null) {
+        stagedBytes -= size;
+      }
+    }
+    startDownloads();
+  }
+
+  private Path getStagingPath(RuleKey ruleKey) {
+    return stagingDir.resolve(ruleKey.toString());
+  }
+
+  @VisibleForTesting
+  synchronized long getStagedBytes() {
+    return stagedBytes;
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    synchronized (this) {
+      stopped = true;
+      queued.clear();
+    }
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return delegate.compressesStoredArtifacts();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void close() {
+    List<ListenableFuture<CacheResult>> pending;
+    synchronized (this) {
+      stopped = true;
+      queued.clear();
+      pending = new ArrayList<>(downloadsInFlight);
+      downloads.clear();
+    }
+    // Downloads still in flight write into the staging directory, so let them finish first.
+    try {
+      Futures.successfulAsList(pending).get();
+      projectFilesystem.deleteRecursivelyIfExists(stagingDir);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | IOException e) {
+      LOG.info(e, "Could not clean up %s.", stagingDir);
+    }
+    delegate.close();
+  }
+}
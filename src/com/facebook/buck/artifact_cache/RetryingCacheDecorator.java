@@ -124,6 +124,11 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
     return delegate.getCacheReadMode();
   }
 
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return delegate.compressesStoredArtifacts();
+  }
+
   @Override
   public void close() {
     delegate.close();
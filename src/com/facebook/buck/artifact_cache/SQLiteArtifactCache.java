@@ -28,12 +28,14 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.BuildInfo;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Functions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -41,6 +43,9 @@ import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -57,12 +62,21 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
 
@@ -72,6 +86,11 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>The database is used in WAL mode, so that lookups go through a pool of read connections
+ * concurrently with writes. All writes are funneled through a single writer thread which coalesces
+ * concurrently submitted stores and access time updates into one transaction. Eviction of old
+ * content runs on a background thread.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -83,6 +102,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  private static final int DEFAULT_READ_CONNECTIONS =
+      Math.min(Runtime.getRuntime().availableProcessors(), 16);
+  // Ratio of bytes stored since the last eviction to max size that triggers a background eviction.
+  private static final float STORED_TO_MAX_BYTES_RATIO_EVICTION_TRIGGER = 1f;
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -93,7 +116,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final long maxInlinedBytes;
   private final CacheReadMode cacheMode;
 
-  private final ConnectionInfo db;
+  private final BatchingWriter writer;
+  private final ImmutableList<ReadConnection> readConnections;
+  private final BlockingQueue<ReadConnection> availableReadConnections;
+  private final ListeningExecutorService evictionExecutor;
+  private final AtomicLong bytesSinceLastEviction = new AtomicLong();
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
 
   static {
     SQLiteUtils.initialize();
@@ -108,6 +136,27 @@ public class SQLiteArtifactCache implements ArtifactCache {
       Optional<Long> maxInlinedSizeBytes,
       CacheReadMode cacheMode)
       throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        cacheMode,
+        DEFAULT_READ_CONNECTIONS);
+  }
+
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      CacheReadMode cacheMode,
+      int readConnectionCount)
+      throws IOException, SQLException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -132,7 +181,18 @@ public class SQLiteArtifactCache implements ArtifactCache {
           String.format("Cache path [%s] already exists and is not a directory.", cacheDir));
     }
 
-    this.db = new ConnectionInfo(cacheDir);
+    // The writer creates the schema, so it has to be opened before any reader.
+    this.writer = new BatchingWriter(new WriteConnection(cacheDir));
+    ImmutableList.Builder<ReadConnection> readers = ImmutableList.builder();
+    for (int i = 0; i < readConnectionCount; i++) {
+      readers.add(new ReadConnection(cacheDir));
+    }
+    this.readConnections = readers.build();
+    this.availableReadConnections =
+        new ArrayBlockingQueue<>(readConnectionCount, false, this.readConnections);
+    this.evictionExecutor =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newSingleThreadExecutor("SQLiteArtifactCache eviction"));
   }
 
   @Override
@@ -167,7 +227,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
-      Optional<Content> content = db.selectContent(contentHash);
+      Optional<Content> content = read(db -> db.selectContent(contentHash));
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
         String filepath = content.get().filepath;
@@ -180,12 +240,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
           filesystem.copyFile(filesystem.resolve(filepath), output.get());
         } else {
           // artifact stored on disk was removed by another cache, remove database entry
-          db.deleteContent(contentHash);
+          writer.submit(db -> db.deleteContent(contentHash));
           return result = CacheResult.miss();
         }
 
         long size = content.get().size;
-        db.accessContent(contentHash);
+        writer.submit(db -> db.accessContent(contentHash));
 
         return result = CacheResult.hit(name, CACHE_MODE, ImmutableMap.of(), size);
       }
@@ -210,9 +270,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
-      Optional<byte[]> metadata = db.selectMetadata(ruleKey);
+      Optional<byte[]> metadata = read(db -> db.selectMetadata(ruleKey));
       if (metadata.isPresent()) {
-        db.accessMetadata(ruleKey);
+        writer.submit(db -> db.accessMetadata(ruleKey));
         output.get(); // for MultiArtifactCache, force evaluation of the output path
 
         return result = CacheResult.hit(name, CACHE_MODE, unmarshalMetadata(metadata.get()), 0);
@@ -247,6 +307,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
       contentResult = storeContent(info.getRuleKeys(), content);
     }
 
+    maybeScheduleEviction();
+
     return Futures.transform(
         Futures.allAsList(metadataResult, contentResult), Functions.constant(null));
   }
@@ -274,7 +336,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     try {
-      db.storeMetadata(info.getRuleKeys(), marshalMetadata(metadata));
+      byte[] marshalledMetadata = marshalMetadata(metadata);
+      write(db -> db.storeMetadata(info.getRuleKeys(), marshalledMetadata));
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Metadata store(%s) error", info.getRuleKeys());
     }
@@ -293,7 +356,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
       long size = filesystem.getFileSize(content.getPath());
       if (size <= maxInlinedBytes) {
         // artifact is small enough to inline in the database
-        db.storeArtifact(toStore, Files.readAllBytes(content.getPath()), size);
+        byte[] artifact = Files.readAllBytes(content.getPath());
+        write(db -> db.storeArtifact(toStore, artifact, size));
       } else if (!toStore.isEmpty()) {
         // artifact is too large to inline, store on disk and put path in database
         Path artifactPath = getArtifactPath(toStore.iterator().next());
@@ -305,8 +369,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
           storeArtifactOutput(content.getPath(), artifactPath);
         }
 
-        db.storeFilepath(toStore, artifactPath.toString(), size);
+        write(db -> db.storeFilepath(toStore, artifactPath.toString(), size));
       }
+      bytesSinceLastEviction.addAndGet(size);
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", contentHashes, content);
     }
@@ -319,13 +384,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
     for (RuleKey contentHash : contentHashes) {
       // if the content already exists in the cache, skip it
-      Optional<Content> existingArtifact = db.selectContent(contentHash);
+      Optional<Content> existingArtifact = read(db -> db.selectContent(contentHash));
       if (existingArtifact.isPresent()) {
         byte[] inlined = existingArtifact.get().artifact;
         String artifactPath = existingArtifact.get().filepath;
 
         if (Objects.nonNull(inlined) || filesystem.exists(filesystem.resolve(artifactPath))) {
-          db.accessContent(contentHash);
+          writer.submit(db -> db.accessContent(contentHash));
           continue;
         }
       }
@@ -392,18 +457,65 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
-  /** Removes metadata older than a computed eviction time. */
-  @VisibleForTesting
-  ListenableFuture<Void> removeOldMetadata() {
-    Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
+  /** Runs {@code operation} on one of the pooled read connections. */
+  private <T> T read(ReadOperation<T> operation) throws SQLException {
+    ReadConnection db;
     try {
-      int deleted = db.deleteMetadata(evictionTime);
-      LOG.verbose("Removed %d metadata rows not accessed since %s", deleted, evictionTime);
-    } catch (SQLException e) {
-      LOG.error(e, "Failed to clean database");
+      db = availableReadConnections.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a read connection", e);
+    }
+    try {
+      return operation.run(db);
+    } finally {
+      availableReadConnections.add(db);
     }
+  }
 
-    return Futures.immediateFuture(null);
+  /** Runs {@code operation} on the writer and waits until its transaction is committed. */
+  private void write(WriteOperation operation) throws SQLException {
+    try {
+      writer.submit(operation).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a write to be committed", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), SQLException.class);
+      throw new SQLException(e.getCause());
+    }
+  }
+
+  private void maybeScheduleEviction() {
+    if (!maxCacheSizeBytes.isPresent()
+        || bytesSinceLastEviction.get()
+            <= maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_EVICTION_TRIGGER
+        || !evictionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    bytesSinceLastEviction.set(0L);
+    removeOldContent()
+        .addListener(() -> evictionScheduled.set(false), MoreExecutors.directExecutor());
+  }
+
+  /** Removes metadata older than a computed eviction time. */
+  @VisibleForTesting
+  ListenableFuture<Void> removeOldMetadata() {
+    return evictionExecutor.submit(
+        () -> {
+          Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
+          try {
+            write(
+                db -> {
+                  int deleted = db.deleteMetadata(evictionTime);
+                  LOG.verbose(
+                      "Removed %d metadata rows not accessed since %s", deleted, evictionTime);
+                });
+          } catch (SQLException e) {
+            LOG.error(e, "Failed to clean database");
+          }
+          return null;
+        });
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -413,33 +525,46 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return Futures.immediateFuture(null);
     }
 
-    long totalSizeBytes;
+    return evictionExecutor.submit(
+        () -> {
+          evictOldContent(maxCacheSizeBytes.get(), maxBytesAfterDeletion.get());
+          return null;
+        });
+  }
+
+  private void evictOldContent(long maxSizeBytes, long maxSizeBytesAfterDeletion) {
+    long minBytesToDelete;
     try {
-      totalSizeBytes = db.totalSize();
-      if (totalSizeBytes <= maxCacheSizeBytes.get()) {
-        return Futures.immediateFuture(null);
+      long totalSizeBytes = read(ReadConnection::totalSize);
+      if (totalSizeBytes <= maxSizeBytes) {
+        return;
       }
+      minBytesToDelete = totalSizeBytes - maxSizeBytesAfterDeletion;
     } catch (SQLException e) {
       LOG.error(e, "Failed to find total artifact size.");
-      return Futures.immediateFuture(null);
+      return;
     }
 
     try {
       Pair<Iterable<String>, Timestamp> contentToEvict =
-          db.getContentToEvict(totalSizeBytes - maxBytesAfterDeletion.get());
+          read(db -> db.getContentToEvict(minBytesToDelete));
 
+      // Files are deleted before their rows. A fetch in between finds the row without its file,
+      // and removes the row itself.
       for (String filepath : contentToEvict.getFirst()) {
         MoreFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
       }
 
       Timestamp evictionCutoff = contentToEvict.getSecond();
-      int deleted = db.deleteContent(evictionCutoff);
-      LOG.verbose("Deleted %d cached artifacts last accessed before %s", deleted, evictionCutoff);
+      write(
+          db -> {
+            int deleted = db.deleteContent(evictionCutoff);
+            LOG.verbose(
+                "Deleted %d cached artifacts last accessed before %s", deleted, evictionCutoff);
+          });
     } catch (IOException | SQLException e) {
       LOG.error(e, "Failed to clean path [%s].", filesystem.resolve(cacheDir));
     }
-
-    return Futures.immediateFuture(null);
   }
 
   @Override
@@ -455,7 +580,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
       LOG.error("Failed to clean SQLite cache");
     }
 
-    db.close();
+    evictionExecutor.shutdown();
+    writer.close();
+    for (ReadConnection db : readConnections) {
+      db.close();
+    }
   }
 
   // testing utilities
@@ -463,81 +592,196 @@ public class SQLiteArtifactCache implements ArtifactCache {
   @VisibleForTesting
   void insertMetadata(RuleKey ruleKey, ImmutableMap<String, String> metadata, Timestamp time)
       throws IOException, SQLException {
-    PreparedStatement stmt =
-        db.connection.prepareStatement(
-            "INSERT INTO metadata (rulekey, data, accessed) VALUES (?, ?, ?)");
-    stmt.setBytes(1, ConnectionInfo.getBytes(ruleKey));
-    stmt.setBytes(2, marshalMetadata(metadata));
-    stmt.setTimestamp(3, time);
-    stmt.executeUpdate();
+    byte[] marshalledMetadata = marshalMetadata(metadata);
+    write(
+        db -> {
+          PreparedStatement stmt =
+              db.connection.prepareStatement(
+                  "INSERT INTO metadata (rulekey, data, accessed) VALUES (?, ?, ?)");
+          stmt.setBytes(1, getBytes(ruleKey));
+          stmt.setBytes(2, marshalledMetadata);
+          stmt.setTimestamp(3, time);
+          stmt.executeUpdate();
+        });
   }
 
   @VisibleForTesting
   void insertContent(RuleKey contentHash, BorrowablePath file, Timestamp time)
       throws IOException, SQLException {
     long size = filesystem.getFileSize(file.getPath());
-    PreparedStatement stmt =
-        db.connection.prepareStatement(
-            "INSERT INTO content (sha1, artifact, filepath, size, accessed, created) "
-                + "VALUES (?, ?, ?, ?, ?, ?)");
-
-    stmt.setBytes(1, ConnectionInfo.getBytes(contentHash));
-    if (size <= maxInlinedBytes) {
-      stmt.setBytes(2, Files.readAllBytes(file.getPath()));
-    } else {
-      stmt.setString(3, file.getPath().toString());
-    }
-    stmt.setLong(4, size);
-    stmt.setTimestamp(5, time);
-    stmt.setTimestamp(6, time);
-    stmt.executeUpdate();
+    byte[] artifact = size <= maxInlinedBytes ? Files.readAllBytes(file.getPath()) : null;
+    write(
+        db -> {
+          PreparedStatement stmt =
+              db.connection.prepareStatement(
+                  "INSERT INTO content (sha1, artifact, filepath, size, accessed, created) "
+                      + "VALUES (?, ?, ?, ?, ?, ?)");
+
+          stmt.setBytes(1, getBytes(contentHash));
+          if (artifact != null) {
+            stmt.setBytes(2, artifact);
+          } else {
+            stmt.setString(3, file.getPath().toString());
+          }
+          stmt.setLong(4, size);
+          stmt.setTimestamp(5, time);
+          stmt.setTimestamp(6, time);
+          stmt.executeUpdate();
+        });
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> directoryFileContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE filepath NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return selectKeys("SELECT sha1 FROM content WHERE filepath NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> inlinedArtifactContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE artifact NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return selectKeys("SELECT sha1 FROM content WHERE artifact NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> metadataRuleKeys() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection.createStatement().executeQuery("SELECT rulekey FROM metadata")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
+    return selectKeys("SELECT rulekey FROM metadata");
+  }
+
+  private ImmutableList<RuleKey> selectKeys(String query) throws SQLException {
+    return read(
+        db -> {
+          ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
+          try (ResultSet rs = db.connection.createStatement().executeQuery(query)) {
+            while (rs.next()) {
+              keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+            }
+          }
+          return keys.build();
+        });
+  }
+
+  private static byte[] getBytes(RuleKey ruleKey) {
+    return ruleKey.getHashCode().asBytes();
+  }
+
+  private static Connection openConnection(Path cacheDir) throws SQLException {
+    // date format must be set to match CURRENT_TIMESTAMP
+    Properties properties = new SQLiteConfig().toProperties();
+    properties.setProperty(
+        SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+    Connection connection =
+        DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+    connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+    connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+    BusyHandler.setHandler(connection, new RetryBusyHandler());
+    return connection;
+  }
+
+  private static void closeConnection(Connection connection) {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
     }
-    return keys.build();
   }
 
-  private static class ConnectionInfo {
+  private interface ReadOperation<T> {
+    T run(ReadConnection db) throws SQLException;
+  }
+
+  private interface WriteOperation {
+    void run(WriteConnection db) throws SQLException;
+  }
+
+  /** A connection used for lookups. Each one is only used by one thread at a time. */
+  private static class ReadConnection {
     private final Connection connection;
 
     private final PreparedStatement fetchMetadata;
     private final PreparedStatement fetchContent;
+    private final PreparedStatement selectContentByTime;
+    private final PreparedStatement contentSize;
+
+    private ReadConnection(Path cacheDir) throws SQLException {
+      connection = openConnection(cacheDir);
+
+      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
+      fetchContent =
+          connection.prepareStatement(
+              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+
+      selectContentByTime =
+          connection.prepareStatement(
+              "SELECT filepath, size, accessed FROM content ORDER BY accessed ASC, created ASC");
+
+      contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
+    }
+
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      fetchMetadata.setBytes(1, getBytes(ruleKey));
+      // Result sets are closed eagerly, as an open one keeps the connection's snapshot alive.
+      try (ResultSet rs = fetchMetadata.executeQuery()) {
+        return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+      }
+    }
+
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      fetchContent.setBytes(1, getBytes(contentHash));
+      try (ResultSet rs = fetchContent.executeQuery()) {
+        return rs.next()
+            ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+            : Optional.empty();
+      }
+    }
+
+    private long totalSize() throws SQLException {
+      try (ResultSet rs = contentSize.executeQuery()) {
+        if (!rs.next()) {
+          throw new SQLException("Query failed: total size of artifacts");
+        }
+
+        return rs.getLong(1);
+      }
+    }
+
+    private Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
+        throws SQLException {
+      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
+      long deleted = 0;
+
+      ResultSet artifacts = selectContentByTime.executeQuery();
+      while (deleted < minToDelete && artifacts.next()) {
+        String filepath = artifacts.getString(1);
+        long sizeBytes = artifacts.getLong(2);
+
+        // from database constraint, exactly one of filepath/artifact is null
+        if (Objects.nonNull(filepath)) {
+          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
+          filepaths.add(filepath);
+        } else {
+          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+        }
+
+        deleted += sizeBytes;
+      }
+
+      Timestamp evictionCutoff;
+      if (artifacts.next()) {
+        evictionCutoff = artifacts.getTimestamp(3);
+      } else {
+        evictionCutoff = Timestamp.from(Instant.now());
+      }
+      artifacts.close();
+
+      return new Pair<>(filepaths.build(), evictionCutoff);
+    }
+
+    private void close() {
+      closeConnection(connection);
+    }
+  }
+
+  /** The only connection that modifies the database. It is only used by the writer thread. */
+  private static class WriteConnection {
+    private final Connection connection;
 
     private final PreparedStatement updateMetadataTime;
     private final PreparedStatement updateContentTime;
@@ -546,23 +790,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
     private final PreparedStatement storeArtifact;
     private final PreparedStatement storeFilepath;
 
-    private final PreparedStatement selectContentByTime;
-
     private final PreparedStatement deleteMetadataBeforeCutoff;
     private final PreparedStatement deleteContentBeforeCutoff;
     private final PreparedStatement deleteContentForHash;
 
-    private final PreparedStatement contentSize;
-
-    private ConnectionInfo(Path cacheDir) throws SQLException {
-      // date format must be set to match CURRENT_TIMESTAMP
-      Properties properties = new SQLiteConfig().toProperties();
-      properties.setProperty(
-          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
-          DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
-      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
-      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+    private WriteConnection(Path cacheDir) throws SQLException {
+      connection = openConnection(cacheDir);
 
       /*
        * This cache is used for two different layers, so we use two separate databases to encode these
@@ -596,11 +829,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
 
-      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
-      fetchContent =
-          connection.prepareStatement(
-              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
-
       updateMetadataTime =
           connection.prepareStatement(
               "UPDATE metadata SET accessed = CURRENT_TIMESTAMP WHERE rulekey = ?");
@@ -610,53 +838,33 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
       storeMetadata =
           connection.prepareStatement("REPLACE INTO metadata (rulekey, data) VALUES (?, ?)");
+      // Concurrent stores of the same content hash may both pass the check for existing content,
+      // so the later insert replaces the earlier, identical one rather than failing.
       storeArtifact =
           connection.prepareStatement(
-              "INSERT INTO content (sha1, artifact, size) VALUES (?, ?, ?)");
+              "REPLACE INTO content (sha1, artifact, size) VALUES (?, ?, ?)");
       storeFilepath =
           connection.prepareStatement(
-              "INSERT INTO content (sha1, filepath, size) VALUES (?, ?, ?)");
-
-      selectContentByTime =
-          connection.prepareStatement(
-              "SELECT filepath, size, accessed FROM content ORDER BY accessed ASC, created ASC");
+              "REPLACE INTO content (sha1, filepath, size) VALUES (?, ?, ?)");
 
       deleteMetadataBeforeCutoff =
           connection.prepareStatement("DELETE FROM metadata WHERE accessed < ?");
       deleteContentBeforeCutoff =
           connection.prepareStatement("DELETE FROM content WHERE accessed < ?");
       deleteContentForHash = connection.prepareStatement("DELETE FROM content WHERE sha1 = ?");
-
-      contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
-
-      BusyHandler.setHandler(connection, new RetryBusyHandler());
-    }
-
-    private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
-      fetchMetadata.setBytes(1, getBytes(ruleKey));
-      ResultSet rs = fetchMetadata.executeQuery();
-      return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
     }
 
-    private synchronized Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
-      fetchContent.setBytes(1, getBytes(contentHash));
-      ResultSet rs = fetchContent.executeQuery();
-      return rs.next()
-          ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
-          : Optional.empty();
-    }
-
-    private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
+    private void accessMetadata(RuleKey ruleKey) throws SQLException {
       updateMetadataTime.setBytes(1, getBytes(ruleKey));
       updateMetadataTime.executeUpdate();
     }
 
-    private synchronized void accessContent(RuleKey contentHash) throws SQLException {
+    private void accessContent(RuleKey contentHash) throws SQLException {
       updateContentTime.setBytes(1, getBytes(contentHash));
       updateContentTime.executeUpdate();
     }
 
-    private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
+    private void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
         throws SQLException {
       for (RuleKey ruleKey : ruleKeys) {
         storeMetadata.setBytes(1, getBytes(ruleKey));
@@ -666,7 +874,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
       storeMetadata.executeBatch();
     }
 
-    private synchronized void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
+    private void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
         throws SQLException {
       for (RuleKey contentHash : hashes) {
         storeArtifact.setBytes(1, getBytes(contentHash));
@@ -677,7 +885,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
       storeArtifact.executeBatch();
     }
 
-    private synchronized void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
+    private void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
         throws SQLException {
       for (RuleKey ruleKey : ruleKeys) {
         storeFilepath.setBytes(1, getBytes(ruleKey));
@@ -688,71 +896,119 @@ public class SQLiteArtifactCache implements ArtifactCache {
       storeFilepath.executeBatch();
     }
 
-    private synchronized int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
+    private int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
       deleteMetadataBeforeCutoff.setTimestamp(1, evictionCutoff);
       return deleteMetadataBeforeCutoff.executeUpdate();
     }
 
-    private synchronized int deleteContent(Timestamp evictionCutoff) throws SQLException {
+    private int deleteContent(Timestamp evictionCutoff) throws SQLException {
       deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
       return deleteContentBeforeCutoff.executeUpdate();
     }
 
-    private synchronized void deleteContent(RuleKey contentHash) throws SQLException {
+    private void deleteContent(RuleKey contentHash) throws SQLException {
       deleteContentForHash.setBytes(1, getBytes(contentHash));
       deleteContentForHash.executeUpdate();
     }
 
-    private synchronized long totalSize() throws SQLException {
-      ResultSet rs = contentSize.executeQuery();
-      if (!rs.next()) {
-        throw new SQLException("Query failed: total size of artifacts");
-      }
-
-      return rs.getLong(1);
+    private void close() {
+      closeConnection(connection);
     }
+  }
 
-    private synchronized Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
-        throws SQLException {
-      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
-      long deleted = 0;
+  /**
+   * Runs all writes on a single thread. Writes submitted while a transaction is being committed are
+   * coalesced into the next one, so concurrent stores and access time updates share a commit.
+   */
+  private static class BatchingWriter {
+    private static final int MAX_WRITES_PER_TRANSACTION = 1024;
 
-      ResultSet artifacts = selectContentByTime.executeQuery();
-      while (deleted < minToDelete && artifacts.next()) {
-        String filepath = artifacts.getString(1);
-        long sizeBytes = artifacts.getLong(2);
+    private final WriteConnection db;
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final ExecutorService executor =
+        MostExecutors.newSingleThreadExecutor("SQLiteArtifactCache writer");
 
-        // from database constraint, exactly one of filepath/artifact is null
-        if (Objects.nonNull(filepath)) {
-          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
-          filepaths.add(filepath);
-        } else {
-          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
-        }
+    private BatchingWriter(WriteConnection db) {
+      this.db = db;
+    }
 
-        deleted += sizeBytes;
+    private ListenableFuture<Void> submit(WriteOperation operation) {
+      PendingWrite write = new PendingWrite(operation);
+      pendingWrites.add(write);
+      executor.execute(this::commitPendingWrites);
+      return write.result;
+    }
+
+    private void commitPendingWrites() {
+      List<PendingWrite> batch = new ArrayList<>();
+      while (pendingWrites.drainTo(batch, MAX_WRITES_PER_TRANSACTION) > 0) {
+        commit(batch);
+        batch.clear();
       }
+    }
 
-      Timestamp evictionCutoff;
-      if (artifacts.next()) {
-        evictionCutoff = artifacts.getTimestamp(3);
-      } else {
-        evictionCutoff = Timestamp.from(Instant.now());
+    private void commit(List<PendingWrite> batch) {
+      try {
+        db.connection.setAutoCommit(false);
+        for (PendingWrite write : batch) {
+          try {
+            write.operation.run(db);
+          } catch (SQLException e) {
+            // A failed statement is rolled back on its own, the rest of the batch still commits.
+            write.failure = e;
+          }
+        }
+        db.connection.commit();
+      } catch (SQLException e) {
+        LOG.warn(e, "Failed to commit %d writes", batch.size());
+        rollback();
+        for (PendingWrite write : batch) {
+          write.result.setException(e);
+        }
+        return;
+      } finally {
+        try {
+          db.connection.setAutoCommit(true);
+        } catch (SQLException e) {
+          LOG.warn(e, "Failed to restore auto-commit");
+        }
       }
 
-      return new Pair<>(filepaths.build(), evictionCutoff);
+      for (PendingWrite write : batch) {
+        if (write.failure != null) {
+          LOG.debug(write.failure, "Write failed");
+          write.result.setException(write.failure);
+        } else {
+          write.result.set(null);
+        }
+      }
     }
 
-    private static byte[] getBytes(RuleKey ruleKey) {
-      return ruleKey.getHashCode().asBytes();
+    private void rollback() {
+      try {
+        db.connection.rollback();
+      } catch (SQLException e) {
+        LOG.warn(e, "Failed to roll back");
+      }
     }
 
     private void close() {
       try {
-        connection.close();
-      } catch (SQLException e) {
-        throw new RuntimeException(e);
+        MostExecutors.shutdown(executor, 1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
+      db.close();
+    }
+  }
+
+  private static class PendingWrite {
+    private final WriteOperation operation;
+    private final SettableFuture<Void> result = SettableFuture.create();
+    @Nullable private SQLException failure;
+
+    PendingWrite(WriteOperation operation) {
+      this.operation = operation;
     }
   }
 
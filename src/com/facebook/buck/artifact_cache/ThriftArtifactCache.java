@@ -80,6 +80,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
   private final BuildId buildId;
   private final int multiFetchLimit;
   private final int concurrencyLevel;
+  private final long multiFetchBatchWindowMillis;
 
   public ThriftArtifactCache(
       NetworkCacheArgs args,
@@ -87,11 +88,13 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       boolean distributedBuildModeEnabled,
       BuildId buildId,
       int multiFetchLimit,
-      int concurrencyLevel) {
+      int concurrencyLevel,
+      long multiFetchBatchWindowMillis) {
     super(args);
     this.buildId = buildId;
     this.multiFetchLimit = multiFetchLimit;
     this.concurrencyLevel = concurrencyLevel;
+    this.multiFetchBatchWindowMillis = multiFetchBatchWindowMillis;
     this.hybridThriftEndpoint = hybridThriftEndpoint;
     this.distributedBuildModeEnabled = distributedBuildModeEnabled;
   }
@@ -377,7 +380,14 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
   }
 
   @Override
-  protected MultiFetchResult multiFetchImpl(Iterable<FetchRequest> requests) throws IOException {
+  protected long getMultiFetchBatchWindowMillis() {
+    return multiFetchBatchWindowMillis;
+  }
+
+  @Override
+  protected MultiFetchResult multiFetchImpl(
+      Iterable<FetchRequest> requests, MultiFetchResultListener resultListener)
+      throws IOException {
     ImmutableList<RuleKey> keys =
         RichStream.from(requests)
             .map(FetchRequest::getRuleKey)
@@ -396,7 +406,8 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
             hybridThriftEndpoint,
             toOkHttpRequest(ThriftArtifactCacheProtocol.createRequest(PROTOCOL, cacheRequest)))) {
       return MultiFetchResult.of(
-          processMultiFetchResponse(keys, outputs, cacheRequest, joinedKeys, httpResponse));
+          processMultiFetchResponse(
+              keys, outputs, cacheRequest, joinedKeys, httpResponse, resultListener));
     }
   }
 
@@ -425,7 +436,8 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       ImmutableList<LazyPath> outputs,
       BuckCacheRequest cacheRequest,
       String joinedKeys,
-      HttpResponse httpResponse)
+      HttpResponse httpResponse,
+      MultiFetchResultListener resultListener)
       throws IOException {
 
     if (httpResponse.statusCode() != 200) {
@@ -446,7 +458,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
     try (ThriftArtifactCacheProtocol.Response response =
         ThriftArtifactCacheProtocol.parseResponse(PROTOCOL, httpResponse.getBody())) {
       return convertMultiFetchResponseToFetchResults(
-                  keys, outputs, cacheRequest, httpResponse, response)
+                  keys, outputs, cacheRequest, httpResponse, response, resultListener)
               .stream()
               .map(b -> b.build())
           ::iterator;
@@ -458,7 +470,8 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       ImmutableList<LazyPath> outputs,
       BuckCacheRequest cacheRequest,
       HttpResponse httpResponse,
-      ThriftArtifactCacheProtocol.Response response)
+      ThriftArtifactCacheProtocol.Response response,
+      MultiFetchResultListener resultListener)
       throws IOException {
     long responseSizeBytes = httpResponse.contentLength();
     ImmutableList<FetchResult.Builder> resultsBuilders =
@@ -502,6 +515,8 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
 
       convertSingleMultiFetchResult(
           fetchResponse, ruleKey, new PayloadReader(response), outputs.get(i), builder);
+      // The payloads are read in order, so this result is final even if a later one fails.
+      resultListener.onResult(i, builder.build());
     }
     return resultsBuilders;
   }
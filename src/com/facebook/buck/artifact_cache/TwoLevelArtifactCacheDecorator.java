@@ -266,6 +266,11 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
     return delegate.getCacheReadMode();
   }
 
+  @Override
+  public boolean compressesStoredArtifacts() {
+    return delegate.compressesStoredArtifacts();
+  }
+
   @Override
   public void close() {
     delegate.close();
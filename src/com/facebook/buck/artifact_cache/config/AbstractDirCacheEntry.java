@@ -31,4 +31,10 @@ abstract class AbstractDirCacheEntry {
   public abstract Optional<Long> getMaxSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /** Whether artifacts are deduplicated by storing them once per content hash. */
+  @Value.Default
+  public boolean isContentAddressed() {
+    return false;
+  }
 }
@@ -78,13 +78,16 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String HTTP_MAX_FETCH_RETRIES = "http_max_fetch_retries";
   private static final String HTTP_MAX_STORE_ATTEMPTS = "http_max_store_attempts";
   private static final String HTTP_STORE_RETRY_INTERVAL_MILLIS = "http_store_retry_interval_millis";
+  private static final String HTTP_PAYLOAD_CODEC = "http_payload_codec";
+  private static final String HTTP_PAYLOAD_COMPRESSION_LEVEL = "http_payload_compression_level";
 
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_CONTENT_ADDRESSED_FIELD = "dir_content_addressed";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
-      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
+      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD, DIR_CONTENT_ADDRESSED_FIELD);
 
   private static final URI DEFAULT_HTTP_URL = URI.create("http://localhost:8080/");
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.READWRITE.name();
@@ -96,6 +99,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final int DEFAULT_HTTP_MAX_FETCH_RETRIES = 2;
   private static final int DEFAULT_HTTP_MAX_STORE_ATTEMPTS = 1; // Make a single request, no retries
   private static final long DEFAULT_HTTP_STORE_RETRY_INTERVAL = 1000;
+  private static final int DEFAULT_HTTP_PAYLOAD_COMPRESSION_LEVEL = 1;
 
   private static final String SQLITE_MODE_FIELD = "sqlite_mode";
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
@@ -130,6 +134,18 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   public static final String MULTI_FETCH = "multi_fetch";
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
+  private static final String MULTI_FETCH_BATCH_WINDOW_MS = "multi_fetch_batch_window_ms";
+  private static final long DEFAULT_MULTI_FETCH_BATCH_WINDOW_MS = 5;
+
+  private static final String MEMORY_CACHE_MAX_SIZE = "memory_cache_max_size";
+  private static final String MEMORY_CACHE_MAX_ARTIFACT_SIZE = "memory_cache_max_artifact_size";
+  private static final long DEFAULT_MEMORY_CACHE_MAX_ARTIFACT_SIZE = 256 * 1024L;
+
+  private static final String PREFETCH_ENABLED = "prefetch_enabled";
+  private static final String PREFETCH_MAX_STAGED_SIZE = "prefetch_max_staged_size";
+  private static final long DEFAULT_PREFETCH_MAX_STAGED_SIZE = 1024L * 1024L * 1024L;
+  private static final String PREFETCH_CONCURRENCY = "prefetch_concurrency";
+  private static final int DEFAULT_PREFETCH_CONCURRENCY = 4;
 
   private static final String DOWNLOAD_HEAVY_BUILD_CACHE_FETCH_THREADS =
       "download_heavy_build_http_cache_fetch_threads";
@@ -177,6 +193,55 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_MULTI_FETCH_LIMIT);
   }
 
+  /** How long a multi-fetch request waits for more fetches to join it before it is sent. */
+  public long getMultiFetchBatchWindowMillis() {
+    return buckConfig
+        .getLong(CACHE_SECTION_NAME, MULTI_FETCH_BATCH_WINDOW_MS)
+        .orElse(DEFAULT_MULTI_FETCH_BATCH_WINDOW_MS);
+  }
+
+  /**
+   * How many bytes of artifacts from local caches the daemon keeps in memory. Zero, the default,
+   * disables the memory cache.
+   */
+  public long getMemoryCacheMaxSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, MEMORY_CACHE_MAX_SIZE)
+        .map(SizeUnit::parseBytes)
+        .orElse(0L);
+  }
+
+  /** Artifacts larger than this are never kept in the memory cache. */
+  public long getMemoryCacheMaxArtifactSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, MEMORY_CACHE_MAX_ARTIFACT_SIZE)
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_MEMORY_CACHE_MAX_ARTIFACT_SIZE);
+  }
+
+  /**
+   * Whether builds start downloading the artifacts of the rules closest to the top of the build
+   * graph before the build engine gets to fetch them.
+   */
+  public boolean getPrefetchEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, PREFETCH_ENABLED, false);
+  }
+
+  /** How many bytes of prefetched artifacts can wait to be used at the same time. */
+  public long getPrefetchMaxStagedSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, PREFETCH_MAX_STAGED_SIZE)
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_PREFETCH_MAX_STAGED_SIZE);
+  }
+
+  /** How many artifacts are prefetched at the same time. */
+  public int getPrefetchConcurrency() {
+    return buckConfig
+        .getInteger(CACHE_SECTION_NAME, PREFETCH_CONCURRENCY)
+        .orElse(DEFAULT_PREFETCH_CONCURRENCY);
+  }
+
   public String getRepository() {
     return buckConfig.getValue(CACHE_SECTION_NAME, REPOSITORY).orElse(DEFAULT_REPOSITORY);
   }
@@ -231,6 +296,31 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_HTTP_STORE_RETRY_INTERVAL);
   }
 
+  /**
+   * The codec that artifacts are compressed with before they are stored to the HTTP caches.
+   * Artifacts are stored under keys of their own for each codec, so clients only fetch artifacts
+   * stored with the same codec they use.
+   */
+  public PayloadCodec getHttpPayloadCodec() {
+    return buckConfig
+        .getEnum(CACHE_SECTION_NAME, HTTP_PAYLOAD_CODEC, PayloadCodec.class)
+        .orElse(PayloadCodec.NONE);
+  }
+
+  /** From 1, the fastest, to 9, the smallest. */
+  public int getHttpPayloadCompressionLevel() {
+    int level =
+        buckConfig
+            .getInteger(CACHE_SECTION_NAME, HTTP_PAYLOAD_COMPRESSION_LEVEL)
+            .orElse(DEFAULT_HTTP_PAYLOAD_COMPRESSION_LEVEL);
+    if (level < 1 || level > 9) {
+      throw new HumanReadableException(
+          "%s.%s must be between 1 and 9, got %d.",
+          CACHE_SECTION_NAME, HTTP_PAYLOAD_COMPRESSION_LEVEL, level);
+    }
+    return level;
+  }
+
   public boolean hasAtLeastOneWriteableCache() {
     return getHttpCacheEntries()
         .stream()
@@ -434,6 +524,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setContentAddressed(
+            buckConfig.getBooleanValue(section, DIR_CONTENT_ADDRESSED_FIELD, false))
         .build();
   }
 
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+/** How the HTTP cache compresses the artifact payloads that it stores. */
+public enum PayloadCodec {
+  /** Payloads are sent as they are. This is the only codec that older clients can read. */
+  NONE,
+  /** Payloads are split into blocks which are deflated independently, and so in parallel. */
+  DEFLATE,
+}
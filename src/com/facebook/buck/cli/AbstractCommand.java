@@ -313,7 +313,8 @@ public abstract class AbstractCommand implements Command {
         .setRuleKeyDiagnosticsMode(params.getBuckConfig().getRuleKeyDiagnosticsMode())
         .setConcurrencyLimit(getConcurrencyLimit(params.getBuckConfig()))
         .setPersistentWorkerPools(params.getPersistentWorkerPools())
-        .setProjectFilesystemFactory(params.getProjectFilesystemFactory());
+        .setProjectFilesystemFactory(params.getProjectFilesystemFactory())
+        .setFileHashLoader(params.getFileHashCache());
   }
 
   public ConcurrencyLimit getConcurrencyLimit(BuckConfig buckConfig) {
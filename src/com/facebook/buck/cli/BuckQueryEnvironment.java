@@ -38,6 +38,7 @@ import com.facebook.buck.query.QueryEnvironment;
 import com.facebook.buck.query.QueryException;
 import com.facebook.buck.query.QueryExpression;
 import com.facebook.buck.query.QueryFileTarget;
+import com.facebook.buck.query.QueryResultCache;
 import com.facebook.buck.query.QueryTarget;
 import com.facebook.buck.query.QueryTargetAccessor;
 import com.facebook.buck.rules.Cell;
@@ -91,6 +92,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   private final Console console;
   private final QueryEnvironment.TargetEvaluator queryTargetEvaluator;
   private final TypeCoercerFactory typeCoercerFactory;
+  private final Optional<QueryResultCache> resultCache;
 
   private final ImmutableMap<Cell, BuildFileTree> buildFileTrees;
   private final Map<BuildTarget, QueryTarget> buildTargetToQueryTarget = new HashMap<>();
@@ -100,6 +102,11 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   private MutableDirectedGraph<TargetNode<?, ?>> graph = MutableDirectedGraph.createConcurrent();
   private Map<BuildTarget, TargetNode<?, ?>> targetsToNodes = new ConcurrentHashMap<>();
 
+  // Targets whose nodes were read outside of the transitive closure of the target graph, and
+  // whether the result of the current evaluation may be stored in the result cache.
+  private final Set<BuildTarget> targetsReadDirectly = ConcurrentHashMap.newKeySet();
+  private boolean isResultCacheable;
+
   private BuckQueryEnvironment(
       Cell rootCell,
       OwnersReport.Builder ownersReportBuilder,
@@ -107,7 +114,8 @@ public class BuckQueryEnvironment implements QueryEnvironment {
       ListeningExecutorService executor,
       TargetPatternEvaluator targetPatternEvaluator,
       Console console,
-      TypeCoercerFactory typeCoercerFactory) {
+      TypeCoercerFactory typeCoercerFactory,
+      Optional<QueryResultCache> resultCache) {
     this.parserState = parserState;
     this.rootCell = rootCell;
     this.ownersReportBuilder = ownersReportBuilder;
@@ -126,6 +134,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     this.console = console;
     this.queryTargetEvaluator = new TargetEvaluator(targetPatternEvaluator, executor);
     this.typeCoercerFactory = typeCoercerFactory;
+    this.resultCache = resultCache;
   }
 
   public static BuckQueryEnvironment from(
@@ -143,7 +152,8 @@ public class BuckQueryEnvironment implements QueryEnvironment {
         executor,
         targetPatternEvaluator,
         console,
-        typeCoercerFactory);
+        typeCoercerFactory,
+        Optional.empty());
   }
 
   public static BuckQueryEnvironment from(
@@ -151,7 +161,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
       PerBuildState parserState,
       ListeningExecutorService executor,
       boolean enableProfiling) {
-    return from(
+    return new BuckQueryEnvironment(
         params.getCell(),
         OwnersReport.builder(params.getCell(), params.getParser(), params.getBuckEventBus()),
         parserState,
@@ -163,7 +173,8 @@ public class BuckQueryEnvironment implements QueryEnvironment {
             params.getBuckEventBus(),
             enableProfiling),
         params.getConsole(),
-        params.getTypeCoercerFactory());
+        params.getTypeCoercerFactory(),
+        Optional.of(params.getParser().getQueryResultCache()));
   }
 
   public DirectedAcyclicGraph<TargetNode<?, ?>> getTargetGraph() {
@@ -189,20 +200,69 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   /**
    * Evaluate the specified query expression in this environment.
    *
+   * <p>The result may come from the daemon's {@link QueryResultCache}, in which case the target
+   * graph returned by {@link #getTargetGraph()} does not contain the nodes of the result. Use
+   * {@link #evaluateQueryWithoutResultCache(String)} when the graph is needed.
+   *
    * @return the resulting set of targets.
    * @throws QueryException if the evaluation failed.
    */
   public ImmutableSet<QueryTarget> evaluateQuery(QueryExpression expr)
       throws QueryException, InterruptedException {
+    if (!resultCache.isPresent()) {
+      return evaluateQueryWithoutResultCache(expr);
+    }
+    QueryResultCache cache = resultCache.get();
+    ImmutableMap<String, String> environment = rootCell.getBuckConfig().getEnvironment();
+    Optional<ImmutableSet<QueryTarget>> cachedResult = cache.get(expr, environment);
+    if (cachedResult.isPresent()) {
+      return cachedResult.get();
+    }
+
+    long generation = cache.getGeneration();
+    targetsReadDirectly.clear();
+    isResultCacheable = true;
+    ImmutableSet<QueryTarget> result = evaluateQueryWithoutResultCache(expr);
+    if (isResultCacheable) {
+      cache.put(generation, expr, environment, result, collectDependencies(expr));
+    }
+    return result;
+  }
+
+  public ImmutableSet<QueryTarget> evaluateQuery(String query)
+      throws QueryException, InterruptedException {
+    return evaluateQuery(QueryExpression.parse(query, this));
+  }
+
+  private ImmutableSet<QueryTarget> evaluateQueryWithoutResultCache(QueryExpression expr)
+      throws QueryException, InterruptedException {
     Set<String> targetLiterals = new HashSet<>();
     expr.collectTargetPatterns(targetLiterals);
     preloadTargetPatterns(targetLiterals);
     return new NoopQueryEvaluator().eval(expr, this);
   }
 
-  public ImmutableSet<QueryTarget> evaluateQuery(String query)
+  /** Evaluate the specified query, populating the target graph with the nodes of the result. */
+  public ImmutableSet<QueryTarget> evaluateQueryWithoutResultCache(String query)
       throws QueryException, InterruptedException {
-    return evaluateQuery(QueryExpression.parse(query, this));
+    return evaluateQueryWithoutResultCache(QueryExpression.parse(query, this));
+  }
+
+  /**
+   * Returns the build files and directories whose changes may change the result of {@code expr}:
+   * the build files of every node read so far and those matched by the target patterns of the
+   * expression.
+   */
+  private QueryResultCache.Dependencies collectDependencies(QueryExpression expr) {
+    QueryResultCache.Dependencies dependencies = new QueryResultCache.Dependencies();
+    for (BuildTarget buildTarget : Iterables.concat(targetsToNodes.keySet(), targetsReadDirectly)) {
+      dependencies.addBuildFile(
+          rootCell.getCell(buildTarget).getAbsolutePathToBuildFileUnsafe(buildTarget));
+    }
+    Set<String> targetLiterals = new HashSet<>();
+    expr.collectTargetPatterns(targetLiterals);
+    targetPatternEvaluator.collectDependencies(targetLiterals, dependencies);
+    return dependencies;
   }
 
   TargetNode<?, ?> getNode(QueryTarget target) throws QueryException {
@@ -212,8 +272,10 @@ public class BuckQueryEnvironment implements QueryEnvironment {
               "Expected %s to be a build target but it was an instance of %s",
               target, target.getClass().getName()));
     }
+    BuildTarget buildTarget = ((QueryBuildTarget) target).getBuildTarget();
+    targetsReadDirectly.add(buildTarget);
     try {
-      return parserState.getTargetNode(((QueryBuildTarget) target).getBuildTarget());
+      return parserState.getTargetNode(buildTarget);
     } catch (BuildFileParseException e) {
       throw new QueryException(e, "Error getting target node for %s\n%s", target, e.getMessage());
     }
@@ -476,6 +538,14 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   public ImmutableSet<QueryTarget> getFileOwners(ImmutableList<String> files)
       throws QueryException {
     OwnersReport report = ownersReportBuilder.build(buildFileTrees, executor, files);
+    // Files without owners are reported on the console, which a cached result would not do.
+    isResultCacheable &=
+        report.getInputsWithNoOwners().isEmpty()
+            && report.getNonExistentInputs().isEmpty()
+            && report.getNonFileInputs().isEmpty();
+    for (TargetNode<?, ?> owner : report.owners.keySet()) {
+      targetsReadDirectly.add(owner.getBuildTarget());
+    }
     report
         .getInputsWithNoOwners()
         .forEach(path -> console.printErrorText(String.format("No owner was found for %s", path)));
@@ -18,6 +18,7 @@ package com.facebook.buck.cli;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.MemoryArtifactStore;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.event.BuckEventBus;
@@ -78,6 +79,7 @@ final class Daemon implements Closeable {
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
   private final ImmutableMap<Path, WatchmanCursor> cursor;
   private final KnownBuildRuleTypesProvider knownBuildRuleTypesProvider;
+  private final Optional<MemoryArtifactStore> memoryArtifactStore;
 
   Daemon(
       Cell rootCell,
@@ -89,13 +91,25 @@ final class Daemon implements Closeable {
 
     ImmutableList<Cell> allCells = rootCell.getAllCells();
 
+    if (rootCell.getBuckConfig().getView(ParserConfig.class).getWatchmanCursor()
+            == WatchmanWatcher.CursorType.CLOCK_ID
+        && !rootCell.getWatchman().getClockIds().isEmpty()) {
+      cursor = rootCell.getWatchman().buildClockWatchmanCursorMap();
+    } else {
+      LOG.debug("Falling back to named cursors: %s", rootCell.getWatchman().getProjectWatches());
+      cursor = rootCell.getWatchman().buildNamedWatchmanCursorMap();
+    }
+    LOG.debug("Using Watchman Cursor: %s", cursor);
+
     // Setup the stacked file hash cache from all cells.
     ImmutableList.Builder<ProjectFileHashCache> hashCachesBuilder = ImmutableList.builder();
     allCells.forEach(
         subCell -> {
           WatchedFileHashCache watchedCache =
-              new WatchedFileHashCache(
-                  subCell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode());
+              WatchedFileHashCache.withPersistentStore(
+                  subCell.getFilesystem(),
+                  rootCell.getBuckConfig().getFileHashCacheMode(),
+                  Optional.ofNullable(cursor.get(subCell.getRoot())));
           fileEventBus.register(watchedCache);
           hashCachesBuilder.add(watchedCache);
         });
@@ -106,10 +120,22 @@ final class Daemon implements Closeable {
 
     this.broadcastEventListener = new BroadcastEventListener();
     this.actionGraphCache =
-        new ActionGraphCache(rootCell.getBuckConfig().getMaxActionGraphCacheEntries());
+        new ActionGraphCache(
+            rootCell.getBuckConfig().getMaxActionGraphCacheEntries(),
+            rootCell.getBuckConfig().isIncrementalActionGraphEnabled());
     this.versionedTargetGraphCache = new VersionedTargetGraphCache();
     this.knownBuildRuleTypesProvider = knownBuildRuleTypesProvider;
 
+    ArtifactCacheBuckConfig artifactCacheBuckConfig =
+        new ArtifactCacheBuckConfig(rootCell.getBuckConfig());
+    this.memoryArtifactStore =
+        artifactCacheBuckConfig.getMemoryCacheMaxSize() > 0
+            ? Optional.of(
+                new MemoryArtifactStore(
+                    artifactCacheBuckConfig.getMemoryCacheMaxSize(),
+                    artifactCacheBuckConfig.getMemoryCacheMaxArtifactSize()))
+            : Optional.empty();
+
     typeCoercerFactory = new DefaultTypeCoercerFactory();
     this.parser =
         new Parser(
@@ -136,15 +162,6 @@ final class Daemon implements Closeable {
     if (!initWebServer()) {
       LOG.warn("Can't start web server");
     }
-    if (rootCell.getBuckConfig().getView(ParserConfig.class).getWatchmanCursor()
-            == WatchmanWatcher.CursorType.CLOCK_ID
-        && !rootCell.getWatchman().getClockIds().isEmpty()) {
-      cursor = rootCell.getWatchman().buildClockWatchmanCursorMap();
-    } else {
-      LOG.debug("Falling back to named cursors: %s", rootCell.getWatchman().getProjectWatches());
-      cursor = rootCell.getWatchman().buildNamedWatchmanCursorMap();
-    }
-    LOG.debug("Using Watchman Cursor: %s", cursor);
     persistentWorkerPools = new ConcurrentHashMap<>();
     JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(rootCell.getFilesystem());
   }
@@ -229,6 +246,10 @@ final class Daemon implements Closeable {
     return persistentWorkerPools;
   }
 
+  Optional<MemoryArtifactStore> getMemoryArtifactStore() {
+    return memoryArtifactStore;
+  }
+
   RuleKeyCacheRecycler<RuleKey> getDefaultRuleKeyFactoryCacheRecycler() {
     return defaultRuleKeyFactoryCacheRecycler;
   }
@@ -305,6 +326,19 @@ final class Daemon implements Closeable {
   public void close() throws IOException {
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    closeHashCaches();
+  }
+
+  private void closeHashCaches() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof WatchedFileHashCache) {
+        try {
+          ((WatchedFileHashCache) hashCache).close();
+        } catch (IOException e) {
+          LOG.error(e);
+        }
+      }
+    }
   }
 
   private void shutdownPersistentWorkerPools() {
@@ -36,6 +36,7 @@ import com.facebook.buck.event.CommandEvent;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.DaemonEvent;
 import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.event.RingBufferBuckEventBus;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
 import com.facebook.buck.event.listener.BroadcastEventListener;
@@ -84,6 +85,8 @@ import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.plugin.impl.BuckPluginManagerFactory;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.BuildInfoStoreManager;
+import com.facebook.buck.rules.BuildRuleDurationHistory;
+import com.facebook.buck.rules.BuildRuleDurationHistoryRecorder;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.CellProviderFactory;
 import com.facebook.buck.rules.DefaultCellPathResolver;
@@ -815,7 +818,10 @@ public final class Main {
               unexpandedCommandLineArgs,
               filesystem.getBuckPaths().getLogDir());
 
-      try (DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+      try (BuckEventBus buildEventBus =
+              buckConfig.isRingBufferEventBusEnabled()
+                  ? new RingBufferBuckEventBus(clock, buildId)
+                  : new DefaultBuckEventBus(clock, buildId);
           ) {
 
         // Create and register the event buses that should listen to broadcast events.
@@ -934,7 +940,13 @@ public final class Main {
                     httpWriteExecutorService.get(),
                     httpFetchExecutorService.get(),
                     stampedeSyncBuildHttpFetchExecutorService.get(),
-                    diskIoExecutorService.get());
+                    diskIoExecutorService.get(),
+                    daemon.flatMap(Daemon::getMemoryArtifactStore));
+            // Closed after the events below have been dispatched, so that all rules get recorded.
+            BuildRuleDurationHistory durationHistory =
+                command.getSubcommand().map(Main::buildsRules).orElse(false)
+                    ? BuildRuleDurationHistory.open(filesystem)
+                    : null;
 
             // This will get executed first once it gets out of try block and just wait for
             // event bus to dispatch all pending events before we proceed to termination
@@ -963,6 +975,11 @@ public final class Main {
                   buildEventBus);
           consoleListener.setProgressEstimator(progressEstimator);
 
+          if (durationHistory != null) {
+            buildEventBus.register(new BuildRuleDurationHistoryRecorder(durationHistory));
+            progressEstimator.setDurationHistory(durationHistory);
+          }
+
           BuildEnvironmentDescription buildEnvironmentDescription =
               getBuildEnvironmentDescription(
                   executionEnvironment,
@@ -1417,6 +1434,11 @@ public final class Main {
     return watchman;
   }
 
+  /** @return whether the given command builds rules, and so should record how long they take. */
+  private static boolean buildsRules(Command command) {
+    return command instanceof BuildCommand || command instanceof RunCommand;
+  }
+
   /**
    * RAII wrapper which does not really close any object but waits for all events in given event bus
    * to complete. We want to have it this way to safely start deinitializing event listeners
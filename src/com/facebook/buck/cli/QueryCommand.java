@@ -282,7 +282,12 @@ public class QueryCommand extends AbstractCommand {
 
   ExitCode runSingleQuery(CommandRunnerParams params, BuckQueryEnvironment env, String query)
       throws IOException, InterruptedException, QueryException {
-    ImmutableSet<QueryTarget> queryResult = env.evaluateQuery(query);
+    boolean needsTargetGraph =
+        getOutputFormat() == OutputFormat.MINRANK
+            || getOutputFormat() == OutputFormat.MAXRANK
+            || shouldGenerateDotOutput();
+    ImmutableSet<QueryTarget> queryResult =
+        needsTargetGraph ? env.evaluateQueryWithoutResultCache(query) : env.evaluateQuery(query);
 
     LOG.debug("Printing out the following targets: " + queryResult);
     if (getOutputFormat() == OutputFormat.MINRANK || getOutputFormat() == OutputFormat.MAXRANK) {
@@ -20,6 +20,7 @@ import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.parser.BuildFileSpec;
 import com.facebook.buck.parser.BuildTargetPatternTargetNodeParser;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
@@ -29,6 +30,7 @@ import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.query.QueryBuildTarget;
 import com.facebook.buck.query.QueryFileTarget;
+import com.facebook.buck.query.QueryResultCache;
 import com.facebook.buck.query.QueryTarget;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.PathSourcePath;
@@ -126,6 +128,32 @@ public class TargetPatternEvaluator {
     return resolved.build();
   }
 
+  /**
+   * Records the build files and directories whose changes may change what {@code patterns} resolve
+   * to, so that cached query results can be invalidated when they change.
+   */
+  void collectDependencies(Iterable<String> patterns, QueryResultCache.Dependencies dependencies) {
+    for (String pattern : patterns) {
+      if (!buckConfig.getBuildTargetsForAlias(pattern).isEmpty()
+          || pattern.contains("//")
+          || pattern.startsWith(":")) {
+        for (TargetNodeSpec spec :
+            targetNodeSpecParser.parse(rootCell.getCellPathResolver(), pattern)) {
+          BuildFileSpec buildFileSpec = spec.getBuildFileSpec();
+          Path basePath = buildFileSpec.getCellPath().resolve(buildFileSpec.getBasePath());
+          if (buildFileSpec.isRecursive()) {
+            dependencies.addDirectory(basePath);
+          } else {
+            Cell cell = rootCell.getCellIgnoringVisibilityCheck(buildFileSpec.getCellPath());
+            dependencies.addBuildFile(basePath.resolve(cell.getBuildFileName()));
+          }
+        }
+      } else {
+        dependencies.addDirectory(projectRoot.resolve(pattern).normalize());
+      }
+    }
+  }
+
   ImmutableSet<QueryTarget> resolveFilePattern(String pattern) throws IOException {
     ImmutableSet<Path> filePaths =
         PathArguments.getCanonicalFilesUnderProjectRoot(projectRoot, ImmutableList.of(pattern))
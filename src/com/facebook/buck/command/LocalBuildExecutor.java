@@ -28,6 +28,7 @@ import com.facebook.buck.rules.ActionGraphAndResolver;
 import com.facebook.buck.rules.BuildEngineResult;
 import com.facebook.buck.rules.BuildInfoStoreManager;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurationHistory;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.CachingBuildEngine.BuildMode;
 import com.facebook.buck.rules.CachingBuildEngineBuckConfig;
@@ -221,7 +222,10 @@ public class LocalBuildExecutor implements BuildExecutor {
             args.getBuckConfig().getBuildInputRuleKeyFileSizeLimit(),
             ruleKeyCacheScope.getCache(),
             ruleKeyLogger),
-        remoteBuildRuleCompletionWaiter);
+        remoteBuildRuleCompletionWaiter,
+        engineConfig.isCriticalPathSchedulingEnabled()
+            ? BuildRuleDurationHistory.getIfOpen(args.getRootCell().getFilesystem())
+            : Optional.empty());
   }
 
   public Build getBuild() {
@@ -464,6 +464,14 @@ public class BuckConfig implements ConfigPathGetter {
     return getBooleanValue(LOG_SECTION, "machine_readable_logger_enabled", true);
   }
 
+  /**
+   * @return whether events should be dispatched through a lock-free ring buffer rather than a Guava
+   *     event bus fed by a single-thread executor.
+   */
+  public boolean isRingBufferEventBusEnabled() {
+    return getBooleanValue("event_bus", "ring_buffer", false);
+  }
+
   public boolean isBuckConfigLocalWarningEnabled() {
     return getBooleanValue(LOG_SECTION, "buckconfig_local_warning_enabled", false);
   }
@@ -559,6 +567,14 @@ public class BuckConfig implements ConfigPathGetter {
     return getInteger("cache", "max_action_graph_cache_entries").orElse(1);
   }
 
+  /**
+   * Whether a changed target graph should reuse the build rules of unchanged nodes from the last
+   * action graph, rather than creating a new action graph from scratch.
+   */
+  public boolean isIncrementalActionGraphEnabled() {
+    return getBooleanValue("cache", "incremental_action_graph", false);
+  }
+
   public Optional<String> getRepository() {
     return config.get("cache", "repository");
   }
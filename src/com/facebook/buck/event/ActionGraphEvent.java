@@ -48,6 +48,10 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
     return new Finished(started, OptionalInt.of(count));
   }
 
+  public static IncrementalLoad incrementalLoad(int reusedRules, int recreatedRules) {
+    return new IncrementalLoad(reusedRules, recreatedRules);
+  }
+
   public static class Started extends ActionGraphEvent {
 
     public Started() {
@@ -78,6 +82,31 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
     }
   }
 
+  /** Reports how much of a previous action graph was reused by an incremental update. */
+  public static class IncrementalLoad extends ActionGraphEvent {
+    private final int reusedRules;
+    private final int recreatedRules;
+
+    public IncrementalLoad(int reusedRules, int recreatedRules) {
+      super(EventKey.unique());
+      this.reusedRules = reusedRules;
+      this.recreatedRules = recreatedRules;
+    }
+
+    public int getReusedRules() {
+      return reusedRules;
+    }
+
+    public int getRecreatedRules() {
+      return recreatedRules;
+    }
+
+    @Override
+    public String getEventName() {
+      return "ActionGraphIncrementalLoad";
+    }
+  }
+
   public static class Cache extends ActionGraphEvent implements BroadcastEvent {
     private final String eventName;
 
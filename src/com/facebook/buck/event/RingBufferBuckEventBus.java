@@ -0,0 +1,438 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.log.CommandThreadFactory;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.util.Threads;
+import com.facebook.buck.util.timing.Clock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link BuckEventBus} that hands events from any number of posting threads to a single
+ * dispatching thread through a bounded, lock-free ring buffer.
+ *
+ * <p>Posting only claims a slot with a compare-and-set and publishes the event into it, so build
+ * threads never contend on a lock or a task queue. The dispatching thread drains events in
+ * batches, freeing their slots before delivering them, and delivers each event to handlers that
+ * were resolved once per event class from the {@link Subscribe} methods of the registered
+ * listeners, so that delivery is a plain method handle invocation rather than a reflective lookup.
+ * Posting blocks only if the buffer is full, i.e. if listeners cannot keep up.
+ *
+ * <p>Like {@link DefaultBuckEventBus}, events are delivered in the order in which they were posted,
+ * and events posted by listeners while handling an event are delivered after it.
+ */
+public class RingBufferBuckEventBus implements BuckEventBus {
+
+  private static final Logger LOG = Logger.get(BuckEventBus.class);
+
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long WAIT_SLICE_MILLIS = 10;
+
+  private final Clock clock;
+  private final BuildId buildId;
+  private final int shutdownTimeoutMillis;
+
+  // Bounded multi-producer single-consumer queue. The sequence of a slot equals the position a
+  // producer may claim it at, and becomes that position + 1 once the event in it is published.
+  private final int mask;
+  private final AtomicReferenceArray<BuckEvent> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  // Only written by the dispatching thread.
+  private volatile long head = 0;
+
+  // Events posted by listeners on the dispatching thread, which must not wait for a free slot.
+  private final Queue<BuckEvent> reentrantEvents = new ArrayDeque<>();
+
+  private final AtomicLong postedEvents = new AtomicLong();
+  private volatile long dispatchedEvents = 0;
+  private final Object idleLock = new Object();
+
+  private final ConcurrentMap<Class<?>, List<Handler>> handlersByEventType =
+      new ConcurrentHashMap<>();
+  // Replaced rather than cleared when listeners change, so that a resolution racing with a
+  // registration can only ever end up in a map that is no longer used.
+  private volatile ConcurrentMap<Class<?>, Handler[]> resolvedHandlers = new ConcurrentHashMap<>();
+
+  private final Thread dispatchThread;
+  private volatile boolean dispatchThreadParked = false;
+  private volatile boolean closed = false;
+
+  public RingBufferBuckEventBus(Clock clock, BuildId buildId) {
+    this(clock, buildId, DEFAULT_CAPACITY, DefaultBuckEventBus.DEFAULT_SHUTDOWN_TIMEOUT_MS);
+  }
+
+  @VisibleForTesting
+  public RingBufferBuckEventBus(
+      Clock clock, BuildId buildId, int capacity, int shutdownTimeoutMillis) {
+    Preconditions.checkArgument(
+        Integer.bitCount(capacity) == 1, "Capacity must be a power of two: %s", capacity);
+    this.clock = clock;
+    this.buildId = buildId;
+    this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.mask = capacity - 1;
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    this.dispatchThread =
+        new CommandThreadFactory(BuckEventBus.class.getSimpleName())
+            .newThread(this::dispatchLoop);
+    this.dispatchThread.start();
+  }
+
+  @Override
+  public void post(BuckEvent event) {
+    timestamp(event);
+    dispatch(event);
+  }
+
+  /** Post event to the EventBus using the timestamp given by atTime. */
+  @Override
+  public void post(BuckEvent event, BuckEvent atTime) {
+    event.configure(
+        atTime.getTimestamp(),
+        atTime.getNanoTime(),
+        atTime.getThreadUserNanoTime(),
+        Thread.currentThread().getId(),
+        buildId);
+    dispatch(event);
+  }
+
+  @Override
+  public void postWithoutConfiguring(BuckEvent event) {
+    Preconditions.checkState(event.isConfigured());
+    dispatch(event);
+  }
+
+  @Override
+  public void timestamp(BuckEvent event) {
+    long threadId = Thread.currentThread().getId();
+    event.configure(
+        clock.currentTimeMillis(),
+        clock.nanoTime(),
+        clock.threadUserNanoTime(threadId),
+        threadId,
+        buildId);
+  }
+
+  private void dispatch(BuckEvent event) {
+    if (closed) {
+      LOG.debug("Dropping %s posted after the event bus was closed", event);
+      return;
+    }
+    postedEvents.incrementAndGet();
+    if (Thread.currentThread() == dispatchThread) {
+      reentrantEvents.add(event);
+      return;
+    }
+
+    int spins = 0;
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          slots.set(index, event);
+          sequences.set(index, position + 1);
+          break;
+        }
+      } else if (available < 0) {
+        // The buffer is full. Back off until the dispatching thread frees a slot.
+        if (closed) {
+          LOG.debug("Dropping %s posted while the event bus was closing", event);
+          markDispatched(1);
+          return;
+        }
+        backOff(spins++);
+      }
+    }
+
+    if (dispatchThreadParked) {
+      LockSupport.unpark(dispatchThread);
+    }
+  }
+
+  private static void backOff(int spins) {
+    if (spins < 64) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+    }
+  }
+
+  private void dispatchLoop() {
+    BuckEvent[] batch = new BuckEvent[MAX_BATCH_SIZE];
+    while (true) {
+      int count = drain(batch);
+      for (int i = 0; i < count; i++) {
+        deliver(batch[i]);
+        batch[i] = null;
+        deliverReentrantEvents();
+      }
+      if (count > 0) {
+        markDispatched(count);
+        continue;
+      }
+      if (closed) {
+        return;
+      }
+      dispatchThreadParked = true;
+      if (isEmpty()) {
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      }
+      dispatchThreadParked = false;
+    }
+  }
+
+  /** Takes up to {@code batch.length} published events off the buffer, freeing their slots. */
+  private int drain(BuckEvent[] batch) {
+    long position = head;
+    int count = 0;
+    while (count < batch.length) {
+      int index = (int) position & mask;
+      if (sequences.get(index) != position + 1) {
+        break;
+      }
+      batch[count++] = slots.get(index);
+      slots.set(index, null);
+      sequences.set(index, position + mask + 1);
+      position++;
+    }
+    head = position;
+    return count;
+  }
+
+  private boolean isEmpty() {
+    long position = head;
+    return sequences.get((int) position & mask) != position + 1;
+  }
+
+  private void deliverReentrantEvents() {
+    BuckEvent event;
+    while ((event = reentrantEvents.poll()) != null) {
+      deliver(event);
+      markDispatched(1);
+    }
+  }
+
+  private void markDispatched(int count) {
+    synchronized (idleLock) {
+      dispatchedEvents += count;
+      if (dispatchedEvents == postedEvents.get()) {
+        idleLock.notifyAll();
+      }
+    }
+  }
+
+  private void deliver(BuckEvent event) {
+    for (Handler handler : getHandlers(event.getClass())) {
+      handler.handle(event);
+    }
+  }
+
+  private Handler[] getHandlers(Class<?> eventType) {
+    ConcurrentMap<Class<?>, Handler[]> resolved = resolvedHandlers;
+    Handler[] handlers = resolved.get(eventType);
+    if (handlers == null) {
+      handlers = resolveHandlers(eventType);
+      resolved.put(eventType, handlers);
+    }
+    return handlers;
+  }
+
+  private Handler[] resolveHandlers(Class<?> eventType) {
+    List<Handler> handlers = new ArrayList<>();
+    for (Class<?> type : TypeToken.of(eventType).getTypes().rawTypes()) {
+      List<Handler> typeHandlers = handlersByEventType.get(type);
+      if (typeHandlers != null) {
+        handlers.addAll(typeHandlers);
+      }
+    }
+    return handlers.toArray(new Handler[handlers.size()]);
+  }
+
+  @Override
+  public void register(Object object) {
+    for (Method method : getSubscriberMethods(object.getClass())) {
+      Class<?> eventType = method.getParameterTypes()[0];
+      handlersByEventType
+          .computeIfAbsent(eventType, type -> new CopyOnWriteArrayList<>())
+          .add(new Handler(object, method));
+    }
+    resolvedHandlers = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public void unregister(Object object) {
+    for (Method method : getSubscriberMethods(object.getClass())) {
+      List<Handler> handlers = handlersByEventType.get(method.getParameterTypes()[0]);
+      if (handlers == null || !handlers.removeIf(handler -> handler.subscriber == object)) {
+        throw new IllegalArgumentException(
+            "missing event subscriber for an annotated method. Is " + object + " registered?");
+      }
+    }
+    resolvedHandlers = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return the {@link Subscribe} methods of the given class and its supertypes, in the same way
+   *     as Guava's event bus finds them, with overridden methods only listed once.
+   */
+  private static List<Method> getSubscriberMethods(Class<?> clazz) {
+    Set<String> seen = new HashSet<>();
+    List<Method> methods = new ArrayList<>();
+    for (Class<?> type : TypeToken.of(clazz).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic()) {
+          continue;
+        }
+        Preconditions.checkArgument(
+            method.getParameterTypes().length == 1,
+            "Method %s has @Subscribe annotation but has %s parameters. "
+                + "Subscriber methods must have exactly 1 parameter.",
+            method,
+            method.getParameterTypes().length);
+        if (seen.add(method.getName() + Arrays.toString(method.getParameterTypes()))) {
+          methods.add(method);
+        }
+      }
+    }
+    return methods;
+  }
+
+  @Override
+  public BuildId getBuildId() {
+    return buildId;
+  }
+
+  @Override
+  public boolean waitEvents(long timeout) {
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (idleLock) {
+      while (dispatchedEvents < postedEvents.get()) {
+        long waitTime = WAIT_SLICE_MILLIS;
+        if (timeout > 0) {
+          waitTime = Math.min(waitTime, deadline - System.currentTimeMillis());
+          if (waitTime <= 0) {
+            return false;
+          }
+        }
+        try {
+          idleLock.wait(waitTime);
+        } catch (InterruptedException e) {
+          Threads.interruptCurrentThread();
+          return dispatchedEvents >= postedEvents.get();
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Waits for the events which have been posted to be delivered before stopping the dispatching
+   * thread, so that listeners can record or report as much information as possible.
+   */
+  @Override
+  public void close() throws IOException {
+    long timeoutTime = System.currentTimeMillis() + shutdownTimeoutMillis;
+    boolean delivered = waitEvents(shutdownTimeoutMillis);
+    closed = true;
+    LockSupport.unpark(dispatchThread);
+    try {
+      long waitTime = timeoutTime - System.currentTimeMillis();
+      if (waitTime > 0) {
+        dispatchThread.join(waitTime);
+      }
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
+    }
+    if (!delivered || dispatchThread.isAlive()) {
+      LOG.warn(
+          "The BuckEventBus failed to shut down within the standard timeout. Your build might "
+              + "have succeeded, but %d messages were probably lost.",
+          postedEvents.get() - dispatchedEvents);
+      dispatchThread.interrupt();
+    }
+  }
+
+  /** A {@link Subscribe} method of a registered listener, bound to that listener. */
+  private static class Handler {
+    private static final MethodType HANDLER_TYPE =
+        MethodType.methodType(void.class, Object.class);
+
+    private final Object subscriber;
+    private final Method method;
+    private final MethodHandle handle;
+
+    private Handler(Object subscriber, Method method) {
+      this.subscriber = subscriber;
+      this.method = method;
+      method.setAccessible(true);
+      try {
+        this.handle =
+            MethodHandles.lookup().unreflect(method).bindTo(subscriber).asType(HANDLER_TYPE);
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException("Cannot access subscriber method " + method, e);
+      }
+    }
+
+    private void handle(BuckEvent event) {
+      try {
+        handle.invokeExact((Object) event);
+      } catch (Throwable t) {
+        // Like Guava's event bus, a failing listener must not stop events from reaching others.
+        LOG.error(
+            t,
+            "Exception thrown by subscriber method %s on subscriber %s when dispatching event %s",
+            method,
+            subscriber,
+            event);
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Converts a binary trace written by {@link BinaryChromeTraceWriter} to a JSON trace that can be
+ * loaded in chrome://tracing.
+ *
+ * <p>Usage: {@code BinaryChromeTraceConverter <binary trace> <json trace>}. Paths ending in
+ * {@code .gz} are read or written gzip compressed.
+ */
+public class BinaryChromeTraceConverter {
+
+  private BinaryChromeTraceConverter() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: BinaryChromeTraceConverter <binary trace> <json trace>");
+      System.exit(1);
+    }
+    convert(Paths.get(args[0]), Paths.get(args[1]));
+  }
+
+  /** Converts the binary trace at {@code binaryTrace} to a JSON trace at {@code jsonTrace}. */
+  public static void convert(Path binaryTrace, Path jsonTrace) throws IOException {
+    try (InputStream input = open(binaryTrace);
+        ChromeTraceWriter writer = new ChromeTraceWriter(create(jsonTrace))) {
+      BinaryChromeTraceReader.convertToJson(input, writer);
+    }
+  }
+
+  private static InputStream open(Path path) throws IOException {
+    InputStream input = Files.newInputStream(path);
+    return isCompressed(path) ? new GZIPInputStream(input) : input;
+  }
+
+  private static OutputStream create(Path path) throws IOException {
+    OutputStream output = Files.newOutputStream(path);
+    return isCompressed(path) ? new GZIPOutputStream(output) : output;
+  }
+
+  private static boolean isCompressed(Path path) {
+    return path.getFileName().toString().endsWith(".gz");
+  }
+}
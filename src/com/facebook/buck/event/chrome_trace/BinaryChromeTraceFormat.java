@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+/**
+ * Constants shared by {@link BinaryChromeTraceWriter} and {@link BinaryChromeTraceReader}.
+ *
+ * <p>A binary trace starts with {@link #MAGIC} and {@link #VERSION}, followed by records that each
+ * start with a tag byte:
+ *
+ * <ul>
+ *   <li>{@link #TAG_STRING}: defines the next interned string as a varint length and UTF-8 bytes.
+ *       Interned strings are numbered from 0 in the order they are defined.
+ *   <li>{@link #TAG_EVENT}: a {@link ChromeTraceEvent.Phase} ordinal byte, then the category and
+ *       name as string fields, the process and thread ids as zigzag varints, the timestamp and
+ *       thread timestamp as zigzag varint deltas from those of the previous event, and a varint
+ *       argument count followed by each argument's key as a string field, a value type byte and
+ *       the value.
+ *   <li>{@link #TAG_END}: marks the end of the trace.
+ * </ul>
+ *
+ * <p>A string field is a varint that is either an interned string id plus one, or zero followed by
+ * the string itself as a varint length and UTF-8 bytes.
+ */
+class BinaryChromeTraceFormat {
+
+  static final byte[] MAGIC = {'B', 'T', 'R', 'C'};
+  static final byte VERSION = 1;
+
+  static final byte TAG_STRING = 1;
+  static final byte TAG_EVENT = 2;
+  static final byte TAG_END = 3;
+
+  static final byte VALUE_STRING = 1;
+  static final byte VALUE_LONG = 2;
+  static final byte VALUE_DOUBLE = 3;
+  static final byte VALUE_TRUE = 4;
+  static final byte VALUE_FALSE = 5;
+  /** Any other value, stored as a JSON string. */
+  static final byte VALUE_JSON = 6;
+
+  private BinaryChromeTraceFormat() {}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.MAGIC;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.TAG_END;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.TAG_EVENT;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.TAG_STRING;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_DOUBLE;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_FALSE;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_JSON;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_LONG;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_STRING;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_TRUE;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VERSION;
+
+import com.facebook.buck.util.ObjectMappers;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/** Reads traces written by {@link BinaryChromeTraceWriter}. */
+public class BinaryChromeTraceReader implements Closeable {
+
+  private static final ChromeTraceEvent.Phase[] PHASES = ChromeTraceEvent.Phase.values();
+
+  private final DataInputStream input;
+  private final List<String> internedStrings = new ArrayList<>();
+  private long lastMicroTime = 0;
+  private long lastMicroThreadUserTime = 0;
+  private boolean finished = false;
+
+  public BinaryChromeTraceReader(InputStream input) throws IOException {
+    this.input = new DataInputStream(new BufferedInputStream(input));
+    byte[] magic = new byte[MAGIC.length];
+    this.input.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not a binary Chrome trace.");
+    }
+    byte version = this.input.readByte();
+    if (version != VERSION) {
+      throw new IOException(
+          String.format("Unsupported binary Chrome trace version %d.", (int) version));
+    }
+  }
+
+  /**
+   * Returns whether the given stream holds a binary trace, without consuming any of it.
+   *
+   * @param input a stream that supports {@link InputStream#mark(int)}.
+   */
+  public static boolean isBinaryTrace(InputStream input) throws IOException {
+    Preconditions.checkArgument(input.markSupported());
+    input.mark(MAGIC.length);
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      return ByteStreams.read(input, magic, 0, magic.length) == magic.length
+          && Arrays.equals(magic, MAGIC);
+    } finally {
+      input.reset();
+    }
+  }
+
+  /** Converts a binary trace to a JSON trace. */
+  public static void convertToJson(InputStream binaryTrace, ChromeTraceEventWriter jsonWriter)
+      throws IOException {
+    BinaryChromeTraceReader reader = new BinaryChromeTraceReader(binaryTrace);
+    jsonWriter.writeStart();
+    for (ChromeTraceEvent event = reader.readEvent(); event != null; event = reader.readEvent()) {
+      jsonWriter.writeEvent(event);
+    }
+    jsonWriter.writeEnd();
+  }
+
+  /**
+   * Returns the next event of the trace, or {@code null} once all events have been read. A trace
+   * that was cut short, for example because Buck was killed, ends after its last complete event.
+   */
+  @Nullable
+  public ChromeTraceEvent readEvent() throws IOException {
+    while (!finished) {
+      try {
+        byte tag = input.readByte();
+        switch (tag) {
+          case TAG_STRING:
+            internedStrings.add(readString());
+            break;
+          case TAG_EVENT:
+            return readEventRecord();
+          case TAG_END:
+            finished = true;
+            break;
+          default:
+            throw new IOException(String.format("Corrupt binary Chrome trace: tag %d.", tag));
+        }
+      } catch (EOFException e) {
+        finished = true;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+
+  private ChromeTraceEvent readEventRecord() throws IOException {
+    int phase = input.readUnsignedByte();
+    if (phase >= PHASES.length) {
+      throw new IOException(String.format("Corrupt binary Chrome trace: phase %d.", phase));
+    }
+    String category = readStringField();
+    String name = readStringField();
+    long processId = readSignedVarLong();
+    long threadId = readSignedVarLong();
+    lastMicroTime += readSignedVarLong();
+    lastMicroThreadUserTime += readSignedVarLong();
+    long argCount = readVarLong();
+    ImmutableMap.Builder<String, Object> args = ImmutableMap.builder();
+    for (long i = 0; i < argCount; i++) {
+      args.put(readStringField(), readValue());
+    }
+    return new ChromeTraceEvent(
+        category,
+        name,
+        PHASES[phase],
+        processId,
+        threadId,
+        lastMicroTime,
+        lastMicroThreadUserTime,
+        args.build());
+  }
+
+  private Object readValue() throws IOException {
+    byte type = input.readByte();
+    switch (type) {
+      case VALUE_STRING:
+        return readStringField();
+      case VALUE_LONG:
+        return readSignedVarLong();
+      case VALUE_DOUBLE:
+        return input.readDouble();
+      case VALUE_TRUE:
+        return true;
+      case VALUE_FALSE:
+        return false;
+      case VALUE_JSON:
+        return ObjectMappers.readValue(readString(), Object.class);
+      default:
+        throw new IOException(String.format("Corrupt binary Chrome trace: value type %d.", type));
+    }
+  }
+
+  private String readStringField() throws IOException {
+    long id = readVarLong();
+    if (id == 0) {
+      return readString();
+    }
+    if (id > internedStrings.size()) {
+      throw new IOException(String.format("Corrupt binary Chrome trace: string %d.", id - 1));
+    }
+    return internedStrings.get((int) id - 1);
+  }
+
+  private String readString() throws IOException {
+    byte[] bytes = new byte[(int) readVarLong()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private long readSignedVarLong() throws IOException {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = input.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupt binary Chrome trace: varint too long.");
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.MAGIC;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.TAG_END;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.TAG_EVENT;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.TAG_STRING;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_DOUBLE;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_FALSE;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_JSON;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_LONG;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_STRING;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VALUE_TRUE;
+import static com.facebook.buck.event.chrome_trace.BinaryChromeTraceFormat.VERSION;
+
+import com.facebook.buck.util.ObjectMappers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes Chrome trace events in the compact format described in {@link BinaryChromeTraceFormat}.
+ *
+ * <p>Categories, names and argument keys, as well as short argument values, are interned, so
+ * that each distinct string is only written once. Events are encoded into a direct buffer that is
+ * written to the channel whenever it fills up.
+ *
+ * <p>This class is not thread safe; all calls are expected to come from a single writer thread.
+ */
+public class BinaryChromeTraceWriter implements ChromeTraceEventWriter {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  /** Longer argument values tend to be unique, such as command lines, so are not interned. */
+  private static final int MAX_INTERNED_VALUE_LENGTH = 64;
+  /** Bounds the memory used by interning on both the writing and the reading side. */
+  private static final int MAX_INTERNED_STRINGS = 1 << 16;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final Map<String, Integer> internedStrings = new HashMap<>();
+  private long lastMicroTime = 0;
+  private long lastMicroThreadUserTime = 0;
+
+  public BinaryChromeTraceWriter(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public void writeStart() throws IOException {
+    writeBytes(MAGIC);
+    writeByte(VERSION);
+  }
+
+  @Override
+  public void writeEvent(ChromeTraceEvent event) throws IOException {
+    // Strings must be defined before the event record that refers to them.
+    intern(event.getCategory());
+    intern(event.getName());
+    for (Map.Entry<String, ?> arg : event.getArgs().entrySet()) {
+      intern(arg.getKey());
+      if (arg.getValue() instanceof String
+          && ((String) arg.getValue()).length() <= MAX_INTERNED_VALUE_LENGTH) {
+        intern((String) arg.getValue());
+      }
+    }
+
+    writeByte(TAG_EVENT);
+    writeByte((byte) event.getPhase().ordinal());
+    writeStringField(event.getCategory());
+    writeStringField(event.getName());
+    writeSignedVarLong(event.getProcessId());
+    writeSignedVarLong(event.getThreadId());
+    writeSignedVarLong(event.getMicroTime() - lastMicroTime);
+    writeSignedVarLong(event.getMicroThreadUserTime() - lastMicroThreadUserTime);
+    lastMicroTime = event.getMicroTime();
+    lastMicroThreadUserTime = event.getMicroThreadUserTime();
+    writeVarLong(event.getArgs().size());
+    for (Map.Entry<String, ?> arg : event.getArgs().entrySet()) {
+      writeStringField(arg.getKey());
+      writeValue(arg.getValue());
+    }
+  }
+
+  @Override
+  public void writeEnd() throws IOException {
+    writeByte(TAG_END);
+    flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value instanceof String) {
+      writeByte(VALUE_STRING);
+      writeStringField((String) value);
+    } else if (value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte) {
+      writeByte(VALUE_LONG);
+      writeSignedVarLong(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      writeByte(VALUE_DOUBLE);
+      ensureRemaining(Long.BYTES);
+      buffer.putDouble(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+    } else {
+      writeByte(VALUE_JSON);
+      writeString(ObjectMappers.WRITER.writeValueAsString(value));
+    }
+  }
+
+  private void intern(String string) throws IOException {
+    if (internedStrings.size() >= MAX_INTERNED_STRINGS || internedStrings.containsKey(string)) {
+      return;
+    }
+    internedStrings.put(string, internedStrings.size());
+    writeByte(TAG_STRING);
+    writeString(string);
+  }
+
+  private void writeStringField(String string) throws IOException {
+    Integer id = internedStrings.get(string);
+    if (id != null) {
+      writeVarLong(id + 1);
+    } else {
+      writeVarLong(0);
+      writeString(string);
+    }
+  }
+
+  private void writeString(String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(bytes.length);
+    writeBytes(bytes);
+  }
+
+  private void writeSignedVarLong(long value) throws IOException {
+    // ZigZag encoding keeps small negative values small.
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    ensureRemaining(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void writeByte(byte value) throws IOException {
+    ensureRemaining(1);
+    buffer.put(value);
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      int length = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, length);
+      offset += length;
+    }
+  }
+
+  private void ensureRemaining(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
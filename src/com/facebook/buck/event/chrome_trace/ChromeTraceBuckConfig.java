@@ -55,6 +55,13 @@ public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getBooleanValue(LOG_SECTION, "compress_traces", false);
   }
 
+  /** Returns the format in which build traces are written. */
+  public ChromeTraceFormat getTraceFormat() {
+    return delegate
+        .getEnum(LOG_SECTION, "trace_format", ChromeTraceFormat.class)
+        .orElse(ChromeTraceFormat.JSON);
+  }
+
   /** Get URL to upload trace if the config is enabled. */
   public Optional<URI> getTraceUploadUriIfEnabled() {
     if (!getShouldUploadBuildTraces()) {
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+/** File format in which Chrome traces are written during a build. */
+public enum ChromeTraceFormat {
+  /** Chrome's JSON array format, which chrome://tracing loads directly. */
+  JSON,
+  /**
+   * A compact encoding written by {@link BinaryChromeTraceWriter}. It is much cheaper to write and
+   * has to be converted to JSON with {@link BinaryChromeTraceConverter} before it can be viewed.
+   */
+  BINARY,
+}
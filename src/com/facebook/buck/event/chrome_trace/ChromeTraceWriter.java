@@ -22,11 +22,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 /**
- * Type-safe utility to write Chrome trace events to files.
+ * Type-safe utility to write Chrome trace events to files in Chrome's JSON array format.
  *
  * @see ChromeTraceEvent
  */
-public class ChromeTraceWriter implements AutoCloseable {
+public class ChromeTraceWriter implements ChromeTraceEventWriter {
   private final JsonGenerator jsonGenerator;
 
   /** Create a writer backed by specified output stream. */
@@ -39,17 +39,17 @@ public class ChromeTraceWriter implements AutoCloseable {
     this.jsonGenerator = jsonGenerator;
   }
 
-  /** Write single event. */
+  @Override
   public void writeEvent(ChromeTraceEvent chromeTraceEvent) throws IOException {
     ObjectMappers.WRITER.writeValue(jsonGenerator, chromeTraceEvent);
   }
 
-  /** Must be called prior to emitting first event to properly initialize stream. */
+  @Override
   public void writeStart() throws IOException {
     jsonGenerator.writeStartArray();
   }
 
-  /** Must be called after all events to properly terminate event stream. */
+  @Override
   public void writeEnd() throws IOException {
     jsonGenerator.writeEndArray();
   }
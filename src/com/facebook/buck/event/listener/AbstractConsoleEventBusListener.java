@@ -727,7 +727,7 @@ public abstract class AbstractConsoleEventBusListener implements BuckEventListen
     }
 
     if (finished.getStatus() != BuildRuleStatus.CANCELED) {
-      progressEstimator.ifPresent(ProgressEstimator::didFinishRule);
+      progressEstimator.ifPresent(estimator -> estimator.didFinishRule(finished.getBuildRule()));
       numRulesCompleted.getAndIncrement();
     }
 
@@ -30,9 +30,12 @@ import com.facebook.buck.event.RuleKeyCalculationEvent;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.UninstallEvent;
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEventWriter;
+import com.facebook.buck.event.chrome_trace.ChromeTraceFormat;
 import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.file.PathListing;
@@ -79,7 +82,11 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashSet;
@@ -93,7 +100,10 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-/** Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing). */
+/**
+ * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing), or to
+ * a binary file that can be converted to one, depending on {@link ChromeTraceBuckConfig}.
+ */
 public class ChromeTraceBuildListener implements BuckEventListener {
 
   private static final LoadingCache<String, String> CONVERTED_EVENT_ID_CACHE =
@@ -117,8 +127,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final Clock clock;
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
-  private final OutputStream traceStream;
-  private final ChromeTraceWriter chromeTraceWriter;
+  private final ChromeTraceEventWriter chromeTraceWriter;
   private final Path logDirectoryPath;
   private final ChromeTraceBuckConfig config;
   private final Set<Long> threadNamesRecorded = new HashSet<>();
@@ -168,10 +177,9 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     this.config = config;
     this.outputExecutor =
         MostExecutors.newSingleThreadExecutor(new CommandThreadFactory(getClass().getName()));
-    TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo.getBuildId());
-    this.tracePath = tracePathAndStream.getPath();
-    this.traceStream = tracePathAndStream.getStream();
-    this.chromeTraceWriter = new ChromeTraceWriter(this.traceStream);
+    TracePathAndWriter tracePathAndWriter = createPathAndWriter(invocationInfo.getBuildId());
+    this.tracePath = tracePathAndWriter.getPath();
+    this.chromeTraceWriter = tracePathAndWriter.getWriter();
     this.chromeTraceWriter.writeStart();
     addProcessMetadataEvent(invocationInfo);
     addProjectFilesystemDelegateMetadataEvent(projectFilesystem);
@@ -218,7 +226,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       for (Path path :
           PathListing.listMatchingPathsWithFilters(
               traceDirectory,
-              "build.*.trace",
+              "build.*.{trace,btrace}",
               PathListing.GET_PATH_MODIFIED_TIME,
               PathListing.FilterMode.EXCLUDE,
               Optional.of(config.getMaxTraces()),
@@ -230,25 +238,47 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     }
   }
 
-  private TracePathAndStream createPathAndStream(BuildId buildId) {
+  private TracePathAndWriter createPathAndWriter(BuildId buildId) {
     String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
-    String traceName = String.format("build.%s.%s.trace", filenameTime, buildId);
+    String traceName =
+        String.format("build.%s.%s.%s", filenameTime, buildId, getTraceExtension());
     if (config.getCompressTraces()) {
       traceName = traceName + ".gz";
     }
     Path tracePath = logDirectoryPath.resolve(traceName);
     try {
       projectFilesystem.createParentDirs(tracePath);
+      if (config.getTraceFormat() == ChromeTraceFormat.BINARY) {
+        return new TracePathAndWriter(
+            tracePath, new BinaryChromeTraceWriter(createBinaryTraceChannel(tracePath)));
+      }
       OutputStream stream = projectFilesystem.newFileOutputStream(tracePath);
       if (config.getCompressTraces()) {
         stream = new BestCompressionGZIPOutputStream(stream, true);
       }
-      return new TracePathAndStream(tracePath, stream);
+      return new TracePathAndWriter(tracePath, new ChromeTraceWriter(stream));
     } catch (IOException e) {
       throw new HumanReadableException(e, "Unable to write trace file: " + e);
     }
   }
 
+  private WritableByteChannel createBinaryTraceChannel(Path tracePath) throws IOException {
+    if (config.getCompressTraces()) {
+      return Channels.newChannel(
+          new BestCompressionGZIPOutputStream(
+              projectFilesystem.newFileOutputStream(tracePath), true));
+    }
+    return FileChannel.open(
+        projectFilesystem.resolve(tracePath),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+  }
+
+  private String getTraceExtension() {
+    return config.getTraceFormat() == ChromeTraceFormat.BINARY ? "btrace" : "trace";
+  }
+
   @Override
   public void outputTrace(BuildId buildId) {
     try {
@@ -264,10 +294,12 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
       chromeTraceWriter.writeEnd();
       chromeTraceWriter.close();
-      traceStream.close();
       uploadTraceIfConfigured(buildId);
 
-      String symlinkName = config.getCompressTraces() ? "build.trace.gz" : "build.trace";
+      String symlinkName = "build." + getTraceExtension();
+      if (config.getCompressTraces()) {
+        symlinkName = symlinkName + ".gz";
+      }
       Path symlinkPath = projectFilesystem.getBuckPaths().getLogDir().resolve(symlinkName);
       projectFilesystem.createSymLink(
           projectFilesystem.resolve(symlinkPath), projectFilesystem.resolve(tracePath), true);
@@ -311,6 +343,20 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     writeChromeTraceEvent("buck", "build", ChromeTraceEvent.Phase.END, ImmutableMap.of(), finished);
   }
 
+  @Subscribe
+  public void criticalPathCalculated(BuildEvent.CriticalPathCalculated calculated) {
+    writeChromeTraceEvent(
+        "buck",
+        "critical_path",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        ImmutableMap.of(
+            "predicted_ms", Long.toString(calculated.getPredictedMillis()),
+            "predicted_path", Joiner.on(" -> ").join(calculated.getPredictedPath()),
+            "actual_ms", Long.toString(calculated.getActualMillis()),
+            "actual_path", Joiner.on(" -> ").join(calculated.getActualPath())),
+        calculated);
+  }
+
   @Subscribe
   public void ruleStarted(BuildRuleEvent.Started started) {
     BuildRule buildRule = started.getBuildRule();
@@ -947,21 +993,21 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         buildId, fullPath, "default", traceUploadUri.get(), logFile, CompressionType.GZIP);
   }
 
-  private static class TracePathAndStream {
+  private static class TracePathAndWriter {
     private final Path path;
-    private final OutputStream stream;
+    private final ChromeTraceEventWriter writer;
 
-    public TracePathAndStream(Path path, OutputStream stream) {
+    public TracePathAndWriter(Path path, ChromeTraceEventWriter writer) {
       this.path = path;
-      this.stream = stream;
+      this.writer = writer;
     }
 
     public Path getPath() {
       return path;
     }
 
-    public OutputStream getStream() {
-      return stream;
+    public ChromeTraceEventWriter getWriter() {
+      return writer;
     }
   }
 }
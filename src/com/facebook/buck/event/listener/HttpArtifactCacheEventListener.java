@@ -87,7 +87,7 @@ public class HttpArtifactCacheEventListener implements BuckEventListener {
               .appendString(event.getTarget().orElse(NOT_SET_STRING))
               .build();
       fetchRequestLogger.log(hiveRow);
-    } else { // ArtifactCacheEvent.Operation.STORE
+    } else if (event.getOperation() == ArtifactCacheEvent.Operation.STORE) {
       HttpArtifactCacheEventStoreData data = event.getStoreData();
       String hiveRow =
           HiveRowFormatter.newFormatter()
@@ -27,6 +27,7 @@ import com.facebook.buck.artifact_cache.CacheCountersSummary;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.MemoryArtifactCacheEvent;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.CommandEvent;
@@ -92,6 +93,11 @@ public class MachineReadableLoggerListener implements BuckEventListener {
   private AtomicInteger cacheUploadSuccessCount = new AtomicInteger();
   private AtomicInteger cacheUploadFailureCount = new AtomicInteger();
 
+  // Memory cache statistics
+  private AtomicInteger memoryCacheHits = new AtomicInteger();
+  private AtomicInteger memoryCacheMisses = new AtomicInteger();
+  private AtomicInteger memoryCacheEvictions = new AtomicInteger();
+
   public MachineReadableLoggerListener(
       InvocationInfo info,
       ProjectFilesystem filesystem,
@@ -208,6 +214,13 @@ public class MachineReadableLoggerListener implements BuckEventListener {
     }
   }
 
+  @Subscribe
+  public void onMemoryArtifactCacheEvent(MemoryArtifactCacheEvent event) {
+    memoryCacheHits.addAndGet(event.getHits());
+    memoryCacheMisses.addAndGet(event.getMisses());
+    memoryCacheEvictions.addAndGet(event.getEvictions());
+  }
+
   private Path getLogFilePath() {
     return filesystem
         .resolve(info.getLogDirectoryPath())
@@ -248,15 +261,18 @@ public class MachineReadableLoggerListener implements BuckEventListener {
                 writeToLogImpl(
                     PREFIX_CACHE_STATS,
                     CacheCountersSummary.of(
-                        cacheModeHits,
-                        cacheModeErrors,
-                        cacheModeHits.values().stream().mapToInt(AtomicInteger::get).sum(),
-                        cacheModeErrors.values().stream().mapToInt(AtomicInteger::get).sum(),
-                        cacheMisses.get(),
-                        cacheIgnores.get(),
-                        localKeyUnchangedHits.get(),
-                        cacheUploadSuccessCount,
-                        cacheUploadFailureCount));
+                            cacheModeHits,
+                            cacheModeErrors,
+                            cacheModeHits.values().stream().mapToInt(AtomicInteger::get).sum(),
+                            cacheModeErrors.values().stream().mapToInt(AtomicInteger::get).sum(),
+                            cacheMisses.get(),
+                            cacheIgnores.get(),
+                            localKeyUnchangedHits.get(),
+                            cacheUploadSuccessCount,
+                            cacheUploadFailureCount)
+                        .withMemoryCacheHits(memoryCacheHits.get())
+                        .withMemoryCacheMisses(memoryCacheMisses.get())
+                        .withMemoryCacheEvictions(memoryCacheEvictions.get()));
 
                 outputStream.write(
                     String.format(
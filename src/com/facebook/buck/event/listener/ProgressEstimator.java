@@ -19,6 +19,8 @@ package com.facebook.buck.event.listener;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ProgressEvent;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurationHistory;
 import com.facebook.buck.util.ObjectMappers;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Joiner;
@@ -31,6 +33,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 public class ProgressEstimator {
@@ -52,6 +55,8 @@ public class ProgressEstimator {
 
   @Nullable private Map<String, Map<String, Number>> expectationsStorage;
 
+  @Nullable private volatile BuildRuleDurationHistory durationHistory;
+
   private final AtomicInteger numberOfParsedRules = new AtomicInteger(0);
   private final AtomicInteger numberOfParsedBUCKFiles = new AtomicInteger(0);
   private final AtomicInteger numberOfGeneratedProjectFiles = new AtomicInteger(0);
@@ -63,6 +68,8 @@ public class ProgressEstimator {
   private final AtomicInteger numberOfRules = new AtomicInteger(0);
   private final AtomicInteger numberOfStartedRules = new AtomicInteger(0);
   private final AtomicInteger numberOfFinishedRules = new AtomicInteger(0);
+  // How long the finished rules took to build in previous builds.
+  private final AtomicLong expectedMillisOfFinishedRules = new AtomicLong(0);
 
   private final AtomicDouble parsingFilesProgress = new AtomicDouble(-1.0);
   private final AtomicDouble projectGenerationProgress = new AtomicDouble(-1.0);
@@ -75,6 +82,10 @@ public class ProgressEstimator {
     this.expectationsStorage = null;
   }
 
+  public void setDurationHistory(BuildRuleDurationHistory durationHistory) {
+    this.durationHistory = durationHistory;
+  }
+
   public void setCurrentCommand(String commandName, ImmutableList<String> commandArgs) {
     command = commandName + " " + Joiner.on(" ").join(commandArgs);
     fillEstimationsForCommand(command);
@@ -134,9 +145,22 @@ public class ProgressEstimator {
     calculateBuildProgress();
   }
 
+  public void didFinishRule(BuildRule rule) {
+    BuildRuleDurationHistory history = durationHistory;
+    if (history != null) {
+      long expectedMillis =
+          history.estimateDurationMillis(rule, BuildRuleDurationHistory.Phase.BUILD);
+      if (expectedMillis != BuildRuleDurationHistory.UNKNOWN) {
+        expectedMillisOfFinishedRules.addAndGet(expectedMillis);
+      }
+    }
+    didFinishRule();
+  }
+
   public void didStartBuild() {
     numberOfStartedRules.set(0);
     numberOfFinishedRules.set(0);
+    expectedMillisOfFinishedRules.set(0);
   }
 
   public void didFinishBuild() {
@@ -305,6 +329,28 @@ public class ProgressEstimator {
     return wrapValueIntoOptional(buildProgress.get());
   }
 
+  /**
+   * @param elapsedMillis Time spent building so far.
+   * @return Estimated time left until the current build finishes. The rules left to build are
+   *     assumed to be as expensive as the average rule in previous builds, and to be built as much
+   *     faster or slower than expected as the finished rules were. Returns absent value if there is
+   *     no duration history or if nothing with a known duration has finished yet.
+   */
+  public Optional<Long> getEstimatedRemainingBuildMillis(long elapsedMillis) {
+    BuildRuleDurationHistory history = durationHistory;
+    long finishedMillis = expectedMillisOfFinishedRules.get();
+    int remainingRules = numberOfRules.get() - numberOfFinishedRules.get();
+    if (history == null || finishedMillis <= 0 || remainingRules < 0) {
+      return Optional.empty();
+    }
+    long averageMillis = history.getAverageDurationMillis(BuildRuleDurationHistory.Phase.BUILD);
+    if (averageMillis == BuildRuleDurationHistory.UNKNOWN) {
+      return Optional.empty();
+    }
+    double remainingMillis = (double) remainingRules * averageMillis;
+    return Optional.of((long) (remainingMillis * elapsedMillis / finishedMillis));
+  }
+
   private void calculateBuildProgress() {
     double ruleCount = numberOfRules.doubleValue();
 
@@ -496,7 +496,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     long totalBuildMs =
         logEventPair(
             "Building",
-            getOptionalBuildLineSuffix(),
+            getBuildLineSuffixWithEta(currentTimeMillis - buildStartedTime - offsetMs),
             currentTimeMillis,
             offsetMs, // parseTime,
             this.buildStarted,
@@ -594,6 +594,20 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
+  private Optional<String> getBuildLineSuffixWithEta(long elapsedBuildMillis) {
+    Optional<String> suffix = getOptionalBuildLineSuffix();
+    if (buildFinished != null || !progressEstimator.isPresent()) {
+      return suffix;
+    }
+    Optional<Long> remainingMillis =
+        progressEstimator.get().getEstimatedRemainingBuildMillis(elapsedBuildMillis);
+    if (!remainingMillis.isPresent()) {
+      return suffix;
+    }
+    String eta = convertToAllCapsIfNeeded("eta ") + formatElapsedTime(remainingMillis.get());
+    return Optional.of(suffix.map(jobSummary -> jobSummary + ", " + eta).orElse(eta));
+  }
+
   private Optional<String> getOptionalDistBuildLineSuffix() {
     String parseLine;
     List<String> columns = new ArrayList<>();
@@ -30,7 +30,11 @@ public abstract class AbstractBottomUpTraversal<T, E extends Throwable> {
 
   public final void traverse() throws E {
     Iterable<T> roots = graph.getNodesWithNoIncomingEdges();
-    GraphTraversable<T> graphTraversable = node -> graph.getOutgoingNodesFor(node).iterator();
+    // A compact graph is walked through its indices rather than its node lookups.
+    GraphTraversable<T> graphTraversable =
+        graph instanceof CompactDirectedAcyclicGraph
+            ? (CompactDirectedAcyclicGraph<T>) graph
+            : node -> graph.getOutgoingNodesFor(node).iterator();
     try {
       for (T node : new AcyclicDepthFirstPostOrderTraversal<>(graphTraversable).traverse(roots)) {
         visit(node);
@@ -20,11 +20,14 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -51,6 +54,14 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
    */
   @SuppressWarnings("PMD.PrematureDeclaration")
   public Iterable<T> traverse(Iterable<? extends T> initialNodes) throws CycleException {
+    if (traversable instanceof CompactDirectedAcyclicGraph) {
+      Optional<Iterable<T>> explored =
+          traverseCompact((CompactDirectedAcyclicGraph<T>) traversable, initialNodes);
+      if (explored.isPresent()) {
+        return explored.get();
+      }
+    }
+
     // This corresponds to the current chain of nodes being explored. Enforcing this invariant makes
     // this data structure useful for debugging.
     Deque<Explorable> toExplore = new LinkedList<>();
@@ -104,6 +115,67 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
     return Iterables.unmodifiableIterable(explored);
   }
 
+  /**
+   * Same as {@link #traverse(Iterable)}, but keeps track of nodes by their indices. The graph is
+   * known to be acyclic, so no cycle can be found.
+   *
+   * @return the explored nodes, or nothing if one of {@code initialNodes} is not in the graph.
+   */
+  private static <T> Optional<Iterable<T>> traverseCompact(
+      CompactDirectedAcyclicGraph<T> graph, Iterable<? extends T> initialNodes) {
+    List<Integer> initialIndices = new ArrayList<>();
+    for (T node : initialNodes) {
+      int nodeIndex = graph.indexOf(node);
+      if (nodeIndex < 0) {
+        return Optional.empty();
+      }
+      initialIndices.add(nodeIndex);
+    }
+
+    int nodeCount = graph.getNodeCount();
+    boolean[] explored = new boolean[nodeCount];
+    int[] exploredOrder = new int[nodeCount];
+    int exploredCount = 0;
+    // The current chain of nodes being explored, and the next outgoing edge of each of them.
+    int[] stack = new int[nodeCount];
+    int[] nextEdges = new int[nodeCount];
+
+    for (int initialNode : initialIndices) {
+      if (explored[initialNode]) {
+        continue;
+      }
+      int depth = 0;
+      stack[0] = initialNode;
+      nextEdges[0] = graph.getOutgoingOffset(initialNode);
+      while (depth >= 0) {
+        int node = stack[depth];
+        int end = graph.getOutgoingOffset(node + 1);
+        int edge = nextEdges[depth];
+        while (edge < end && explored[graph.getOutgoingEdge(edge)]) {
+          edge++;
+        }
+        if (edge < end) {
+          // Resume after this child once it is explored.
+          nextEdges[depth] = edge + 1;
+          int child = graph.getOutgoingEdge(edge);
+          depth++;
+          stack[depth] = child;
+          nextEdges[depth] = graph.getOutgoingOffset(child);
+        } else {
+          explored[node] = true;
+          exploredOrder[exploredCount++] = node;
+          depth--;
+        }
+      }
+    }
+
+    ImmutableList.Builder<T> result = ImmutableList.builder();
+    for (int i = 0; i < exploredCount; i++) {
+      result.add(graph.getNode(exploredOrder[i]));
+    }
+    return Optional.of(result.build());
+  }
+
   /**
    * A node that needs to be explored, paired with a (possibly paused) iteration of its children.
    */
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable directed acyclic graph that stores its edges as arrays of node indices.
+ *
+ * <p>Every node is assigned an index in {@code [0, getNodeCount())}. The outgoing edges of node
+ * {@code i} are the entries {@code [outgoingOffsets[i], outgoingOffsets[i + 1])} of {@code
+ * outgoingEdges} (the compressed sparse row layout), and the incoming edges are stored the same
+ * way. Compared to {@link DirectedAcyclicGraph}, which keeps two hash multimaps of nodes, this uses
+ * a few int arrays and an open addressing index, so it is much smaller and traversing it does not
+ * chase pointers through hash buckets. {@link TopologicalSort} and {@link
+ * AcyclicDepthFirstPostOrderTraversal} use the indices directly when given such a graph.
+ *
+ * <p>Use it for graphs that are frozen once they are built and traversed many times.
+ *
+ * @param <T> the type of object stored as nodes in this graph. Nodes must implement {@link
+ *     Object#hashCode()} and {@link Object#equals(Object)}.
+ */
+public final class CompactDirectedAcyclicGraph<T>
+    implements TraversableGraph<T>, GraphTraversable<T> {
+
+  private final ImmutableList<T> nodes;
+  private final NodeIndex index;
+
+  private final int[] outgoingOffsets;
+  private final int[] outgoingEdges;
+  private final int[] incomingOffsets;
+  private final int[] incomingEdges;
+
+  private CompactDirectedAcyclicGraph(
+      ImmutableList<T> nodes,
+      NodeIndex index,
+      int[] outgoingOffsets,
+      int[] outgoingEdges,
+      int[] incomingOffsets,
+      int[] incomingEdges) {
+    this.nodes = nodes;
+    this.index = index;
+    this.outgoingOffsets = outgoingOffsets;
+    this.outgoingEdges = outgoingEdges;
+    this.incomingOffsets = incomingOffsets;
+    this.incomingEdges = incomingEdges;
+  }
+
+  /**
+   * Copies the nodes and edges of {@code graph}. Nodes are indexed in the iteration order of {@link
+   * TraversableGraph#getNodes()}.
+   *
+   * @throws IllegalArgumentException if an edge points to a node that is not in the graph.
+   * @throws IllegalStateException if the graph has a cycle.
+   */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(TraversableGraph<T> graph) {
+    ImmutableList<T> nodes = ImmutableList.copyOf(graph.getNodes());
+    NodeIndex index = new NodeIndex(nodes);
+    int nodeCount = nodes.size();
+
+    int[] outgoingOffsets = new int[nodeCount + 1];
+    for (int i = 0; i < nodeCount; i++) {
+      int degree = 0;
+      for (T ignored : graph.getOutgoingNodesFor(nodes.get(i))) {
+        degree++;
+      }
+      outgoingOffsets[i + 1] = outgoingOffsets[i] + degree;
+    }
+
+    int edgeCount = outgoingOffsets[nodeCount];
+    int[] outgoingEdges = new int[edgeCount];
+    int[] incomingOffsets = new int[nodeCount + 1];
+    for (int i = 0; i < nodeCount; i++) {
+      int position = outgoingOffsets[i];
+      for (T sink : graph.getOutgoingNodesFor(nodes.get(i))) {
+        int sinkIndex = index.indexOf(sink);
+        Preconditions.checkArgument(sinkIndex >= 0, "Edge to %s, which is not in the graph", sink);
+        outgoingEdges[position++] = sinkIndex;
+        incomingOffsets[sinkIndex + 1]++;
+      }
+    }
+
+    // Turn the in-degrees into offsets and fill the incoming edges by transposing the outgoing
+    // ones, so sources appear in index order.
+    for (int i = 0; i < nodeCount; i++) {
+      incomingOffsets[i + 1] += incomingOffsets[i];
+    }
+    int[] incomingEdges = new int[edgeCount];
+    int[] nextIncoming = new int[nodeCount];
+    System.arraycopy(incomingOffsets, 0, nextIncoming, 0, nodeCount);
+    for (int source = 0; source < nodeCount; source++) {
+      for (int edge = outgoingOffsets[source]; edge < outgoingOffsets[source + 1]; edge++) {
+        incomingEdges[nextIncoming[outgoingEdges[edge]]++] = source;
+      }
+    }
+
+    CompactDirectedAcyclicGraph<T> compactGraph =
+        new CompactDirectedAcyclicGraph<>(
+            nodes, index, outgoingOffsets, outgoingEdges, incomingOffsets, incomingEdges);
+    Preconditions.checkState(compactGraph.isAcyclic(), "Graph must be acyclic");
+    return compactGraph;
+  }
+
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public int getEdgeCount() {
+    return outgoingEdges.length;
+  }
+
+  /** @return the index of {@code node}, or {@code -1} if it is not in this graph. */
+  public int indexOf(T node) {
+    return index.indexOf(node);
+  }
+
+  public T getNode(int nodeIndex) {
+    return nodes.get(nodeIndex);
+  }
+
+  int getOutgoingOffset(int nodeIndex) {
+    return outgoingOffsets[nodeIndex];
+  }
+
+  int getOutgoingEdge(int edge) {
+    return outgoingEdges[edge];
+  }
+
+  int getIncomingOffset(int nodeIndex) {
+    return incomingOffsets[nodeIndex];
+  }
+
+  int getIncomingEdge(int edge) {
+    return incomingEdges[edge];
+  }
+
+  int getOutgoingDegree(int nodeIndex) {
+    return outgoingOffsets[nodeIndex + 1] - outgoingOffsets[nodeIndex];
+  }
+
+  /** Returns {@code true} if a topological order visits every node. */
+  private boolean isAcyclic() {
+    int nodeCount = getNodeCount();
+    int[] remainingOutDegrees = new int[nodeCount];
+    int[] queue = new int[nodeCount];
+    int queueEnd = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      remainingOutDegrees[i] = getOutgoingDegree(i);
+      if (remainingOutDegrees[i] == 0) {
+        queue[queueEnd++] = i;
+      }
+    }
+    for (int queueStart = 0; queueStart < queueEnd; queueStart++) {
+      int node = queue[queueStart];
+      for (int edge = incomingOffsets[node]; edge < incomingOffsets[node + 1]; edge++) {
+        int source = incomingEdges[edge];
+        if (--remainingOutDegrees[source] == 0) {
+          queue[queueEnd++] = source;
+        }
+      }
+    }
+    return queueEnd == nodeCount;
+  }
+
+  @Override
+  public List<T> getNodesWithNoIncomingEdges() {
+    return nodesWithNoEdges(incomingOffsets);
+  }
+
+  @Override
+  public List<T> getNodesWithNoOutgoingEdges() {
+    return nodesWithNoEdges(outgoingOffsets);
+  }
+
+  private ImmutableList<T> nodesWithNoEdges(int[] offsets) {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int i = 0; i < nodes.size(); i++) {
+      if (offsets[i] == offsets[i + 1]) {
+        builder.add(nodes.get(i));
+      }
+    }
+    return builder.build();
+  }
+
+  /** @return the sources of the edges to {@code sink}, or nothing if it is not in the graph. */
+  @Override
+  public List<T> getIncomingNodesFor(T sink) {
+    return edgesOf(sink, incomingOffsets, incomingEdges);
+  }
+
+  /** @return the sinks of the edges from {@code source}, or nothing if it is not in the graph. */
+  @Override
+  public List<T> getOutgoingNodesFor(T source) {
+    return edgesOf(source, outgoingOffsets, outgoingEdges);
+  }
+
+  private List<T> edgesOf(T node, int[] offsets, int[] edges) {
+    int nodeIndex = index.indexOf(node);
+    if (nodeIndex < 0) {
+      return ImmutableList.of();
+    }
+    return new NodeList(edges, offsets[nodeIndex], offsets[nodeIndex + 1]);
+  }
+
+  @Override
+  public List<T> getNodes() {
+    return nodes;
+  }
+
+  @Override
+  public Iterator<T> findChildren(T node) {
+    return getOutgoingNodesFor(node).iterator();
+  }
+
+  /** An unmodifiable view of the nodes at a range of an edge array. */
+  private final class NodeList extends AbstractList<T> implements RandomAccess {
+    private final int[] edges;
+    private final int start;
+    private final int end;
+
+    private NodeList(int[] edges, int start, int end) {
+      this.edges = edges;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public T get(int position) {
+      Preconditions.checkElementIndex(position, end - start);
+      return nodes.get(edges[start + position]);
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+
+  /** Maps nodes to their indices with linear probing over a power-of-two table. */
+  private static final class NodeIndex {
+    private final Object[] keys;
+    private final int[] values;
+    private final int mask;
+
+    private NodeIndex(List<?> nodes) {
+      int capacity = Integer.highestOneBit(Math.max(2, nodes.size() * 2 - 1)) << 1;
+      this.keys = new Object[capacity];
+      this.values = new int[capacity];
+      this.mask = capacity - 1;
+      for (int i = 0; i < nodes.size(); i++) {
+        Object node = nodes.get(i);
+        int slot = slotOf(node);
+        Preconditions.checkArgument(keys[slot] == null, "Duplicate node %s", node);
+        keys[slot] = node;
+        values[slot] = i;
+      }
+    }
+
+    /** Returns the slot that holds {@code node}, or the empty slot where it would go. */
+    private int slotOf(Object node) {
+      int slot = smear(node.hashCode()) & mask;
+      while (keys[slot] != null && !keys[slot].equals(node)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private int indexOf(Object node) {
+      int slot = slotOf(node);
+      return keys[slot] == null ? -1 : values[slot];
+    }
+
+    private static int smear(int hashCode) {
+      return 0x1b873593 * Integer.rotateLeft(hashCode * 0xcc9e2d51, 15);
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import javax.annotation.Nullable;
+
+/**
+ * Visits the nodes reachable from a set of roots on a {@link ForkJoinPool}, each exactly once and
+ * only after all of its children were visited.
+ *
+ * <p>Every node keeps a count of its children that were not visited yet. When a visit finishes,
+ * the counters of the node's parents are decremented, and a parent whose counter drops to zero is
+ * forked as a new task. No thread ever polls or waits for a node that is not ready.
+ *
+ * <p>Cycles are detected before any node is visited, and reported as the same {@link
+ * CycleException} that {@link AcyclicDepthFirstPostOrderTraversal} throws. When visits fail, nodes
+ * after the earliest failed node in the depth-first post order of the graph are skipped, and the
+ * failure of that node is rethrown. This is the failure a serial post-order traversal would have
+ * thrown, however the visits happened to be interleaved.
+ */
+public class ParallelBottomUpTraversal<T> {
+
+  private final GraphTraversable<T> traversable;
+  private final ForkJoinPool pool;
+
+  public ParallelBottomUpTraversal(GraphTraversable<T> traversable, ForkJoinPool pool) {
+    this.traversable = traversable;
+    this.pool = pool;
+  }
+
+  /**
+   * Visits {@code roots} and all the nodes reachable from them, and returns once all visits are
+   * done.
+   *
+   * @throws CycleException if a cycle is reachable from {@code roots}. No node is visited then.
+   * @throws InterruptedException if the calling thread is interrupted while waiting. Visits that
+   *     already started may still be running, but no new ones are started.
+   */
+  public <E extends Exception> void traverse(
+      Iterable<? extends T> roots, Visitor<? super T, E> visitor)
+      throws CycleException, InterruptedException, E {
+    ImmutableList<T> nodes =
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<T>(traversable).traverse(roots));
+    if (nodes.isEmpty()) {
+      return;
+    }
+    Traversal<T, E> traversal = new Traversal<>(nodes, visitor);
+    traversal.indexEdges(traversable);
+    traversal.start(pool);
+    traversal.await();
+  }
+
+  /** Visits a single node. Called concurrently from the threads of the pool. */
+  @FunctionalInterface
+  public interface Visitor<T, E extends Exception> {
+    void visit(T node) throws E;
+  }
+
+  /** The state of a single call to {@link #traverse}. Nodes are referred to by post-order index. */
+  private static final class Traversal<T, E extends Exception> {
+    private final ImmutableList<T> nodes;
+    private final Visitor<? super T, E> visitor;
+
+    /** The parents of node {@code i} are {@code [parentOffsets[i], parentOffsets[i + 1])}. */
+    private int[] parentOffsets;
+
+    private int[] parents;
+    private AtomicIntegerArray pendingChildren;
+
+    private final AtomicInteger remainingNodes;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean cancelled = false;
+
+    /** The index of the earliest failed node, or the node count if nothing failed. */
+    private volatile int failedNode;
+
+    @Nullable private Throwable failure;
+
+    private Traversal(ImmutableList<T> nodes, Visitor<? super T, E> visitor) {
+      this.nodes = nodes;
+      this.visitor = visitor;
+      this.remainingNodes = new AtomicInteger(nodes.size());
+      this.failedNode = nodes.size();
+    }
+
+    /** Computes the parents and the child counts of all nodes, ignoring duplicate edges. */
+    private void indexEdges(GraphTraversable<T> traversable) {
+      int nodeCount = nodes.size();
+      EdgeList edges = new EdgeList(nodeCount);
+      if (!(traversable instanceof CompactDirectedAcyclicGraph)
+          || !indexCompactEdges((CompactDirectedAcyclicGraph<T>) traversable, edges)) {
+        Map<T, Integer> indices = Maps.newHashMapWithExpectedSize(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+          indices.put(nodes.get(i), i);
+        }
+        for (int parent = 0; parent < nodeCount; parent++) {
+          Iterator<T> children = traversable.findChildren(nodes.get(parent));
+          while (children.hasNext()) {
+            edges.add(parent, Preconditions.checkNotNull(indices.get(children.next())));
+          }
+        }
+      }
+
+      parentOffsets = new int[nodeCount + 1];
+      for (int edge = 0; edge < edges.count; edge++) {
+        parentOffsets[edges.children[edge] + 1]++;
+      }
+      for (int i = 0; i < nodeCount; i++) {
+        parentOffsets[i + 1] += parentOffsets[i];
+      }
+      parents = new int[edges.count];
+      int[] nextParent = Arrays.copyOf(parentOffsets, nodeCount);
+      for (int edge = 0; edge < edges.count; edge++) {
+        parents[nextParent[edges.children[edge]]++] = edges.parents[edge];
+      }
+      pendingChildren = new AtomicIntegerArray(edges.childCounts);
+    }
+
+    /**
+     * Same as the general case of {@link #indexEdges}, but translates the indices of the graph
+     * instead of hashing every node.
+     *
+     * @return false if some node is not in the graph.
+     */
+    private boolean indexCompactEdges(CompactDirectedAcyclicGraph<T> graph, EdgeList edges) {
+      int nodeCount = nodes.size();
+      int[] graphIndices = new int[nodeCount];
+      int[] postOrderIndices = new int[graph.getNodeCount()];
+      for (int i = 0; i < nodeCount; i++) {
+        graphIndices[i] = graph.indexOf(nodes.get(i));
+        if (graphIndices[i] < 0) {
+          return false;
+        }
+        postOrderIndices[graphIndices[i]] = i;
+      }
+      for (int parent = 0; parent < nodeCount; parent++) {
+        int graphIndex = graphIndices[parent];
+        int end = graph.getOutgoingOffset(graphIndex + 1);
+        for (int edge = graph.getOutgoingOffset(graphIndex); edge < end; edge++) {
+          edges.add(parent, postOrderIndices[graph.getOutgoingEdge(edge)]);
+        }
+      }
+      return true;
+    }
+
+    private void start(ForkJoinPool pool) {
+      for (int i = 0; i < nodes.size(); i++) {
+        if (pendingChildren.get(i) == 0) {
+          pool.execute(new NodeTask(i));
+        }
+      }
+    }
+
+    private void await() throws InterruptedException, E {
+      try {
+        finished.await();
+      } catch (InterruptedException e) {
+        cancelled = true;
+        throw e;
+      }
+      Throwable failure;
+      synchronized (this) {
+        failure = this.failure;
+      }
+      if (failure != null) {
+        Throwables.throwIfUnchecked(failure);
+        throw castToVisitorException(failure);
+      }
+    }
+
+    /** The visitor can only throw unchecked exceptions or {@code E}. */
+    @SuppressWarnings("unchecked")
+    private E castToVisitorException(Throwable throwable) {
+      return (E) throwable;
+    }
+
+    private synchronized void recordFailure(int node, Throwable throwable) {
+      if (node < failedNode) {
+        failedNode = node;
+        failure = throwable;
+      }
+    }
+
+    /** The distinct edges between nodes, added parent by parent. */
+    private static final class EdgeList {
+      private final int[] childCounts;
+      private final int[] lastParents;
+      private int[] children;
+      private int[] parents;
+      private int count = 0;
+
+      private EdgeList(int nodeCount) {
+        childCounts = new int[nodeCount];
+        lastParents = new int[nodeCount];
+        Arrays.fill(lastParents, -1);
+        children = new int[nodeCount];
+        parents = new int[nodeCount];
+      }
+
+      private void add(int parent, int child) {
+        if (lastParents[child] == parent) {
+          return;
+        }
+        lastParents[child] = parent;
+        if (count == children.length) {
+          children = Arrays.copyOf(children, count * 2);
+          parents = Arrays.copyOf(parents, count * 2);
+        }
+        children[count] = child;
+        parents[count] = parent;
+        count++;
+        childCounts[parent]++;
+      }
+    }
+
+    private final class NodeTask extends RecursiveAction {
+      private final int node;
+
+      private NodeTask(int node) {
+        this.node = node;
+      }
+
+      @Override
+      protected void compute() {
+        // Nodes after a failed one are still walked so that the counters reach zero, but they are
+        // not visited. Every parent of a failed node comes after it, so all of them are skipped.
+        if (!cancelled && node < failedNode) {
+          try {
+            visitor.visit(nodes.get(node));
+          } catch (Throwable t) { // NOPMD rethrown from await()
+            recordFailure(node, t);
+          }
+        }
+        for (int edge = parentOffsets[node]; edge < parentOffsets[node + 1]; edge++) {
+          int parent = parents[edge];
+          if (pendingChildren.decrementAndGet(parent) == 0) {
+            new NodeTask(parent).fork();
+          }
+        }
+        if (remainingNodes.decrementAndGet() == 0) {
+          finished.countDown();
+        }
+      }
+    }
+  }
+}
@@ -33,6 +33,9 @@ public class TopologicalSort {
   private TopologicalSort() {}
 
   public static <T extends Comparable<?>> ImmutableList<T> sort(TraversableGraph<T> graph) {
+    if (graph instanceof CompactDirectedAcyclicGraph) {
+      return sortCompact((CompactDirectedAcyclicGraph<T>) graph);
+    }
 
     // AtomicInteger is used to decrement the integer value in-place.
     Map<T, AtomicInteger> effectiveOutDegreesOfExplorableNodes = new HashMap<>();
@@ -77,4 +80,46 @@ public class TopologicalSort {
 
     return toReturn.build();
   }
+
+  /** Same as {@link #sort(TraversableGraph)}, but keeps track of nodes by their indices. */
+  private static <T extends Comparable<?>> ImmutableList<T> sortCompact(
+      CompactDirectedAcyclicGraph<T> graph) {
+    int nodeCount = graph.getNodeCount();
+    int[] remainingOutDegrees = new int[nodeCount];
+    int[] nextLevel = new int[nodeCount];
+    int nextLevelSize = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      remainingOutDegrees[node] = graph.getOutgoingDegree(node);
+      if (remainingOutDegrees[node] == 0) {
+        nextLevel[nextLevelSize++] = node;
+      }
+    }
+
+    int[] toExplore = new int[nodeCount];
+    ImmutableList.Builder<T> toReturn = ImmutableList.builder();
+    while (nextLevelSize > 0) {
+      int[] swap = toExplore;
+      toExplore = nextLevel;
+      nextLevel = swap;
+      int toExploreSize = nextLevelSize;
+      nextLevelSize = 0;
+
+      Set<T> level = new TreeSet<>();
+      for (int i = 0; i < toExploreSize; i++) {
+        int node = toExplore[i];
+        level.add(graph.getNode(node));
+        for (int edge = graph.getIncomingOffset(node);
+            edge < graph.getIncomingOffset(node + 1);
+            edge++) {
+          int exploreCandidate = graph.getIncomingEdge(edge);
+          if (--remainingOutDegrees[exploreCandidate] == 0) {
+            nextLevel[nextLevelSize++] = exploreCandidate;
+          }
+        }
+      }
+      toReturn.addAll(level);
+    }
+
+    return toReturn.build();
+  }
 }
@@ -16,10 +16,15 @@
 
 package com.facebook.buck.httpserver;
 
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceReader;
+import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
+import com.facebook.buck.util.ObjectMappers;
 import com.facebook.buck.util.trace.BuildTraces;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.CharStreams;
 import com.google.common.net.MediaType;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -94,9 +99,12 @@ class TraceDataHandler extends AbstractHandler {
       } else {
         isFirst = false;
       }
-      try (InputStream input = traceStreams.next();
-          InputStreamReader inputStreamReader = new InputStreamReader(input)) {
-        CharStreams.copy(inputStreamReader, responseWriter);
+      try (InputStream input = new BufferedInputStream(traceStreams.next())) {
+        if (BinaryChromeTraceReader.isBinaryTrace(input)) {
+          writeBinaryTraceAsJson(input, responseWriter);
+        } else {
+          CharStreams.copy(new InputStreamReader(input), responseWriter);
+        }
       }
     }
 
@@ -109,4 +117,14 @@ class TraceDataHandler extends AbstractHandler {
     response.flushBuffer();
     baseRequest.setHandled(true);
   }
+
+  private static void writeBinaryTraceAsJson(InputStream input, Writer responseWriter)
+      throws IOException {
+    JsonGenerator generator = ObjectMappers.createGenerator(responseWriter);
+    // The response writer is still needed for the remaining traces.
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    try (ChromeTraceWriter jsonWriter = new ChromeTraceWriter(generator)) {
+      BinaryChromeTraceReader.convertToJson(input, jsonWriter);
+    }
+  }
 }
@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.FileSystem;
 import java.nio.file.FileVisitOption;
@@ -245,6 +246,14 @@ public interface ProjectFilesystem {
   OutputStream newUnbufferedFileOutputStream(
       Path pathRelativeToProjectRoot, boolean append, FileAttribute<?>... attrs) throws IOException;
 
+  /**
+   * Opens {@code pathRelativeToProjectRoot} for writing, truncating it if it already exists. Unlike
+   * {@link #newFileOutputStream}, writes are not buffered, which suits callers that already write
+   * in large chunks.
+   */
+  WritableByteChannel newWritableByteChannel(
+      Path pathRelativeToProjectRoot, FileAttribute<?>... attrs) throws IOException;
+
   <A extends BasicFileAttributes> A readAttributes(
       Path pathRelativeToProjectRoot, Class<A> type, LinkOption... options) throws IOException;
 
@@ -54,6 +54,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
@@ -677,6 +678,18 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
             attrs));
   }
 
+  @Override
+  public WritableByteChannel newWritableByteChannel(
+      Path pathRelativeToProjectRoot, FileAttribute<?>... attrs) throws IOException {
+    return Files.newByteChannel(
+        getPathForRelativePath(pathRelativeToProjectRoot),
+        ImmutableSet.of(
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE),
+        attrs);
+  }
+
   @Override
   public <A extends BasicFileAttributes> A readAttributes(
       Path pathRelativeToProjectRoot, Class<A> type, LinkOption... options) throws IOException {
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import org.immutables.value.Value;
+
+/**
+ * What {@link IncrementalJavacStep} remembers about the last full or incremental compilation of a
+ * library, keyed by source path relative to the project root.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+@JsonDeserialize(as = IncrementalJavacState.class)
+abstract class AbstractIncrementalJavacState {
+
+  /** Hash of the compiler, its options and the contents of the compile-time classpath. */
+  @Value.Parameter
+  public abstract String getConfigurationHash();
+
+  /** Hash of the contents of each source. */
+  @Value.Parameter
+  public abstract ImmutableSortedMap<String, String> getSourceHashes();
+
+  /** Hash of the ABI of the classes compiled from each source. */
+  @Value.Parameter
+  public abstract ImmutableSortedMap<String, String> getSourceAbiHashes();
+
+  /** The class files, relative to the output directory, compiled from each source. */
+  @Value.Parameter
+  public abstract ImmutableSortedMap<String, ImmutableSortedSet<String>> getSourceClasses();
+}
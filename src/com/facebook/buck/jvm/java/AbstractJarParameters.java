@@ -41,6 +41,16 @@ abstract class AbstractJarParameters {
     return false;
   }
 
+  /**
+   * Whether to copy the deflated entries of jars in {@link #getEntriesToJar()} without
+   * recompressing them. This is cheaper, but makes the output depend on how those jars were
+   * compressed.
+   */
+  @Value.Default
+  public boolean getCopyCompressedEntries() {
+    return false;
+  }
+
   public abstract Path getJarPath();
 
   @Value.Default
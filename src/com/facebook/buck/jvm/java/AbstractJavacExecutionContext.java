@@ -20,6 +20,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.rules.CellPathResolver;
+import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
@@ -50,4 +51,10 @@ abstract class AbstractJavacExecutionContext {
   public abstract ImmutableMap<String, String> getEnvironment();
 
   public abstract ProcessExecutor getProcessExecutor();
+
+  /** The context of the step running javac, which holds the pools of javac workers. */
+  public abstract ExecutionContext getStepExecutionContext();
+
+  /** Whether in-process compilations share classpath jars through {@link SharedClasspathJars}. */
+  public abstract boolean shouldShareClasspathJars();
 }
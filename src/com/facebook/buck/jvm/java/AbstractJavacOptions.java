@@ -127,6 +127,24 @@ abstract class AbstractJavacOptions implements AddsToRuleKey {
     return false;
   }
 
+  /**
+   * Whether to recompile only the changed sources of a library when their ABI stays the same. This
+   * is not in the rule key since it must not change the compiled classes.
+   */
+  @Value.Default
+  public boolean isIncrementalCompilation() {
+    return false;
+  }
+
+  /**
+   * Whether in-process compilations read classpath jars through {@link SharedClasspathJars}. Not in
+   * the rule key, since it only changes how the same jars are read.
+   */
+  @Value.Default
+  public boolean isShareClasspathJars() {
+    return false;
+  }
+
   public void validateOptions(Function<String, Boolean> classpathChecker) throws IOException {
     if (getBootclasspath().isPresent()) {
       String bootclasspath = getBootclasspath().get();
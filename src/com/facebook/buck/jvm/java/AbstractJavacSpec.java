@@ -64,6 +64,8 @@ abstract class AbstractJavacSpec implements AddsToRuleKey {
         switch (javacLocation) {
           case IN_PROCESS:
             return new ConstantJavacProvider(new JdkProvidedInMemoryJavac());
+          case WORKER:
+            return new ConstantJavacProvider(new WorkerJavac(getJavacWorkerParams()));
         }
         break;
     }
@@ -89,4 +91,9 @@ abstract class AbstractJavacSpec implements AddsToRuleKey {
   public Javac.Location getJavacLocation() {
     return Javac.Location.IN_PROCESS;
   }
+
+  @Value.Default
+  public JavacWorkerParams getJavacWorkerParams() {
+    return JavacWorkerParams.builder().build();
+  }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import org.immutables.value.Value;
+
+/** How the pool of javac workers used by {@link Javac.Location#WORKER} is sized and recycled. */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractJavacWorkerParams {
+
+  /** Maximum number of javac workers that compile at the same time. */
+  @Value.Default
+  public int getMaxWorkers() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /** A worker is replaced by a new one once it has done this many compilations. */
+  @Value.Default
+  public int getMaxCompilationsPerWorker() {
+    return 1000;
+  }
+
+  /** A worker is replaced by a new one once its committed heap grows past this size. */
+  @Value.Default
+  public long getMaxHeapBytesPerWorker() {
+    return 1024L * 1024 * 1024;
+  }
+}
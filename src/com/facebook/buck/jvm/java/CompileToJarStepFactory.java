@@ -190,7 +190,7 @@ public abstract class CompileToJarStepFactory implements ConfiguredCompiler {
                 .getEntriesToJar()
                 .contains(compilerParameters.getOutputDirectory()));
 
-    createCompileStep(context, target, compilerParameters, steps, buildableContext);
+    createLibraryCompileStep(context, target, compilerParameters, steps, buildableContext);
 
     steps.addAll(
         Lists.newCopyOnWriteArrayList(
@@ -205,6 +205,21 @@ public abstract class CompileToJarStepFactory implements ConfiguredCompiler {
     createJarStep(libraryJarParameters, steps);
   }
 
+  /**
+   * Adds the steps that compile the sources of a library into its classes directory, before the
+   * classes are postprocessed and jarred. Compilers that can reuse the classes of the previous
+   * build override this; by default it's {@link #createCompileStep}.
+   */
+  protected void createLibraryCompileStep(
+      BuildContext context,
+      BuildTarget target,
+      CompilerParameters compilerParameters,
+      /* output params */
+      Builder<Step> steps,
+      BuildableContext buildableContext) {
+    createCompileStep(context, target, compilerParameters, steps, buildableContext);
+  }
+
   public void createJarStep(JarParameters parameters, Builder<Step> steps) {
     steps.add(new JarDirectoryStep(projectFilesystem, parameters));
   }
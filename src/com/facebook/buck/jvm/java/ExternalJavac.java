@@ -268,7 +268,7 @@ public class ExternalJavac implements Javac {
     };
   }
 
-  private ImmutableList<Path> getExpandedSourcePaths(
+  static ImmutableList<Path> getExpandedSourcePaths(
       ProjectFilesystem projectFilesystem,
       ProjectFilesystemFactory projectFilesystemFactory,
       ImmutableSet<Path> javaSourceFilePaths,
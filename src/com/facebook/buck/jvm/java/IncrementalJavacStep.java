@@ -0,0 +1,557 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.io.file.MorePaths;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.abi.StubJar;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.ObjectMappers;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Compiles the sources of a library into its classes directory, recompiling only the sources that
+ * changed since the last build when that is safe.
+ *
+ * <p>After each successful compilation the step keeps a copy of the classes it produced, which
+ * source each class came from, and a fingerprint of the ABI of each source's classes. On the next
+ * build the changed sources are compiled on their own, against the dependencies and the copied
+ * classes of the unchanged sources. If the ABI of every changed source is the same as before, the
+ * new classes replace the old ones of those sources. Otherwise, or if the compiler, its options,
+ * the classpath or the set of sources changed, the whole library is compiled again.
+ */
+public class IncrementalJavacStep implements Step {
+
+  private static final Logger LOG = Logger.get(IncrementalJavacStep.class);
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  private final Javac javac;
+  private final JavacOptions javacOptions;
+  private final BuildTarget invokingRule;
+  private final SourcePathResolver resolver;
+  private final ProjectFilesystem filesystem;
+  private final CompilerParameters parameters;
+  private final Path stateDir;
+
+  public IncrementalJavacStep(
+      Javac javac,
+      JavacOptions javacOptions,
+      BuildTarget invokingRule,
+      SourcePathResolver resolver,
+      ProjectFilesystem filesystem,
+      CompilerParameters parameters) {
+    this.javac = javac;
+    this.javacOptions = javacOptions;
+    this.invokingRule = invokingRule;
+    this.resolver = resolver;
+    this.filesystem = filesystem;
+    this.parameters = parameters;
+    this.stateDir = getStateDir(invokingRule, filesystem);
+  }
+
+  /**
+   * Where the state of incremental compilation is kept. This is not an output of the rule, so it
+   * is neither cleaned nor cached.
+   */
+  public static Path getStateDir(BuildTarget target, ProjectFilesystem filesystem) {
+    return BuildTargets.getScratchPath(filesystem, target, "lib__%s__incremental");
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    String configurationHash = hashConfiguration(context);
+    ImmutableSortedMap<String, String> sourceHashes = hashSources();
+
+    // The state is only written back once the classes directory and the snapshot agree with it
+    // again, so that a build that dies halfway leads to a full compilation rather than a wrong one.
+    Optional<IncrementalJavacState> previous = readState();
+    filesystem.deleteFileAtPathIfExists(getStateFile());
+
+    if (previous.isPresent()
+        && previous.get().getConfigurationHash().equals(configurationHash)
+        && previous.get().getSourceHashes().keySet().equals(sourceHashes.keySet())) {
+      Optional<StepExecutionResult> result =
+          compileIncrementally(context, previous.get(), sourceHashes);
+      if (result.isPresent()) {
+        return result.get();
+      }
+    } else {
+      LOG.debug(
+          "Compiling all sources of %s: the compiler, classpath or set of sources changed.",
+          invokingRule);
+    }
+
+    return compileFully(context, configurationHash, sourceHashes);
+  }
+
+  /**
+   * @return the result of compiling the changed sources, or empty if the whole library needs to be
+   *     compiled instead.
+   */
+  private Optional<StepExecutionResult> compileIncrementally(
+      ExecutionContext context,
+      IncrementalJavacState previous,
+      ImmutableSortedMap<String, String> sourceHashes)
+      throws IOException, InterruptedException {
+    ImmutableSortedSet<String> changedSources =
+        sourceHashes
+            .entrySet()
+            .stream()
+            .filter(
+                entry -> !entry.getValue().equals(previous.getSourceHashes().get(entry.getKey())))
+            .map(Map.Entry::getKey)
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+    ImmutableSet<String> staleClasses =
+        changedSources
+            .stream()
+            .flatMap(source -> previous.getSourceClasses().get(source).stream())
+            .collect(ImmutableSet.toImmutableSet());
+
+    Path outputDirectory = parameters.getOutputDirectory();
+    List<String> restoredClasses =
+        previous
+            .getSourceClasses()
+            .values()
+            .stream()
+            .flatMap(Collection::stream)
+            .filter(classFile -> !staleClasses.contains(classFile))
+            .collect(Collectors.toList());
+    if (!copyClasses(getSnapshotDir(), outputDirectory, restoredClasses)) {
+      LOG.debug("Compiling all sources of %s: the saved classes are incomplete.", invokingRule);
+      deleteClasses(outputDirectory, restoredClasses);
+      return Optional.empty();
+    }
+
+    if (changedSources.isEmpty()) {
+      restoreDepFile();
+      writeState(previous);
+      return Optional.of(StepExecutionResults.SUCCESS);
+    }
+
+    Path deltaDirectory = stateDir.resolve("delta");
+    filesystem.deleteRecursivelyIfExists(deltaDirectory);
+    filesystem.mkdirs(deltaDirectory);
+    CompilerParameters deltaParameters =
+        CompilerParameters.builder()
+            .from(parameters)
+            .setSourceFilePaths(
+                changedSources
+                    .stream()
+                    .map(Paths::get)
+                    .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural())))
+            .setClasspathEntries(
+                ImmutableSortedSet.<Path>naturalOrder()
+                    .add(filesystem.resolve(outputDirectory))
+                    .addAll(parameters.getClasspathEntries())
+                    .build())
+            .setOutputDirectory(deltaDirectory)
+            .build();
+
+    LOG.debug("Compiling %d changed sources of %s.", changedSources.size(), invokingRule);
+    StepExecutionResult result = newJavacStep(deltaParameters).execute(context);
+    if (!result.isSuccess()) {
+      // The saved classes are still those of the previous state, so keep it for the next attempt.
+      deleteClasses(outputDirectory, restoredClasses);
+      writeState(previous);
+      return Optional.of(result);
+    }
+
+    Optional<ImmutableSortedMap<String, ImmutableSortedSet<String>>> deltaClasses =
+        mapClassesToSources(deltaDirectory, changedSources);
+    if (!deltaClasses.isPresent()) {
+      deleteClasses(outputDirectory, restoredClasses);
+      return Optional.empty();
+    }
+    ImmutableMap<String, String> deltaAbiHashes = hashAbis(deltaDirectory, deltaClasses.get());
+    for (String source : changedSources) {
+      if (!deltaAbiHashes.get(source).equals(previous.getSourceAbiHashes().get(source))) {
+        LOG.debug("Compiling all sources of %s: the ABI of %s changed.", invokingRule, source);
+        deleteClasses(outputDirectory, restoredClasses);
+        return Optional.empty();
+      }
+    }
+
+    List<String> compiledClasses =
+        deltaClasses
+            .get()
+            .values()
+            .stream()
+            .flatMap(Collection::stream)
+            .collect(Collectors.toList());
+    copyClasses(deltaDirectory, outputDirectory, compiledClasses);
+    deleteClasses(getSnapshotDir(), staleClasses);
+    copyClasses(deltaDirectory, getSnapshotDir(), compiledClasses);
+    filesystem.deleteRecursivelyIfExists(deltaDirectory);
+    updateDepFile(/* merge */ true);
+
+    SortedMap<String, ImmutableSortedSet<String>> sourceClasses =
+        new TreeMap<>(previous.getSourceClasses());
+    sourceClasses.putAll(deltaClasses.get());
+    writeState(
+        IncrementalJavacState.of(
+            previous.getConfigurationHash(),
+            sourceHashes,
+            previous.getSourceAbiHashes(),
+            ImmutableSortedMap.copyOf(sourceClasses)));
+    return Optional.of(result);
+  }
+
+  private StepExecutionResult compileFully(
+      ExecutionContext context,
+      String configurationHash,
+      ImmutableSortedMap<String, String> sourceHashes)
+      throws IOException, InterruptedException {
+    StepExecutionResult result = newJavacStep(parameters).execute(context);
+    if (!result.isSuccess()) {
+      return result;
+    }
+
+    Path outputDirectory = parameters.getOutputDirectory();
+    Optional<ImmutableSortedMap<String, ImmutableSortedSet<String>>> sourceClasses =
+        mapClassesToSources(outputDirectory, sourceHashes.keySet());
+    if (!sourceClasses.isPresent()) {
+      return result;
+    }
+
+    filesystem.deleteRecursivelyIfExists(getSnapshotDir());
+    copyClasses(
+        outputDirectory,
+        getSnapshotDir(),
+        sourceClasses
+            .get()
+            .values()
+            .stream()
+            .flatMap(Collection::stream)
+            .collect(Collectors.toList()));
+    updateDepFile(/* merge */ false);
+    writeState(
+        IncrementalJavacState.of(
+            configurationHash,
+            sourceHashes,
+            hashAbis(outputDirectory, sourceClasses.get()),
+            sourceClasses.get()));
+    return result;
+  }
+
+  private JavacStep newJavacStep(CompilerParameters compilerParameters) {
+    return new JavacStep(
+        javac,
+        javacOptions,
+        invokingRule,
+        resolver,
+        filesystem,
+        new ClasspathChecker(),
+        compilerParameters,
+        null,
+        null);
+  }
+
+  private String hashConfiguration(ExecutionContext context) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(javac.getClass().getName(), StandardCharsets.UTF_8);
+    hasher.putString(javacOptions.toString(), StandardCharsets.UTF_8);
+    for (Path entry : parameters.getClasspathEntries()) {
+      hasher.putString(entry.toString(), StandardCharsets.UTF_8);
+      if (filesystem.exists(entry)) {
+        hasher.putBytes(hashClasspathEntry(context, entry).asBytes());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Classpath entries are mostly the outputs of other rules, whose hashes the build engine already
+   * has, so they are only hashed here when they are not known to it.
+   */
+  private HashCode hashClasspathEntry(ExecutionContext context, Path entry) throws IOException {
+    Optional<FileHashLoader> fileHashLoader = context.getFileHashLoader();
+    if (fileHashLoader.isPresent()) {
+      try {
+        return fileHashLoader.get().get(filesystem.resolve(entry));
+      } catch (NoSuchFileException e) {
+        LOG.verbose(e, "%s is in no known cell, hashing it directly.", entry);
+      }
+    }
+
+    if (!filesystem.isDirectory(entry)) {
+      return filesystem.computeSha1(entry).asHashCode();
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Path file :
+        ImmutableSortedSet.copyOf(filesystem.getFilesUnderPath(filesystem.relativize(entry)))) {
+      hasher.putString(file.toString(), StandardCharsets.UTF_8);
+      hasher.putBytes(filesystem.computeSha1(file).asHashCode().asBytes());
+    }
+    return hasher.hash();
+  }
+
+  private ImmutableSortedMap<String, String> hashSources() throws IOException {
+    ImmutableSortedMap.Builder<String, String> hashes = ImmutableSortedMap.naturalOrder();
+    for (Path source : parameters.getSourceFilePaths()) {
+      hashes.put(source.toString(), filesystem.computeSha1(source).getHash());
+    }
+    return hashes.build();
+  }
+
+  /**
+   * Attributes each class file under {@code classesDirectory} to one of {@code sources}, using the
+   * name of the source file recorded in the class and the package of the class.
+   *
+   * @return the class files of each source, or empty if some class can't be attributed to exactly
+   *     one source.
+   */
+  private Optional<ImmutableSortedMap<String, ImmutableSortedSet<String>>> mapClassesToSources(
+      Path classesDirectory, Collection<String> sources) throws IOException {
+    Multimap<String, Path> sourcesByFileName = MultimapBuilder.hashKeys().arrayListValues().build();
+    for (String source : sources) {
+      Path sourcePath = Paths.get(source);
+      sourcesByFileName.put(sourcePath.getFileName().toString(), sourcePath);
+    }
+
+    Map<String, SortedSet<String>> classesBySource = new TreeMap<>();
+    for (String source : sources) {
+      classesBySource.put(source, new TreeSet<>());
+    }
+    for (Path classFile :
+        filesystem.getFilesUnderPath(
+            classesDirectory, path -> path.toString().endsWith(CLASS_EXTENSION))) {
+      Path relativeClassFile = classesDirectory.relativize(classFile);
+      String sourceFileName = readSourceFileName(classFile);
+      Path packageDirectory = relativeClassFile.getParent();
+      List<Path> candidates =
+          sourcesByFileName
+              .get(sourceFileName == null ? "" : sourceFileName)
+              .stream()
+              .filter(
+                  source ->
+                      packageDirectory == null
+                          || (source.getParent() != null
+                              && source.getParent().endsWith(packageDirectory)))
+              .collect(Collectors.toList());
+      if (candidates.size() != 1) {
+        LOG.debug(
+            "Not saving incremental state of %s: %s matches %d sources.",
+            invokingRule, relativeClassFile, candidates.size());
+        return Optional.empty();
+      }
+      classesBySource
+          .get(candidates.get(0).toString())
+          .add(MorePaths.pathWithUnixSeparators(relativeClassFile));
+    }
+
+    ImmutableSortedMap.Builder<String, ImmutableSortedSet<String>> result =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, SortedSet<String>> entry : classesBySource.entrySet()) {
+      result.put(entry.getKey(), ImmutableSortedSet.copyOf(entry.getValue()));
+    }
+    return Optional.of(result.build());
+  }
+
+  @Nullable
+  private String readSourceFileName(Path classFile) throws IOException {
+    String[] sourceFileName = new String[1];
+    try (InputStream input = filesystem.newFileInputStream(classFile)) {
+      new ClassReader(input)
+          .accept(
+              new ClassVisitor(Opcodes.ASM6) {
+                @Override
+                public void visitSource(String source, String debug) {
+                  sourceFileName[0] = source;
+                }
+              },
+              ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+    }
+    return sourceFileName[0];
+  }
+
+  /**
+   * Fingerprints the ABI of the classes of each source by stubbing the classes in the same way as
+   * {@link CalculateClassAbiStep}.
+   */
+  private ImmutableMap<String, String> hashAbis(
+      Path classesDirectory, ImmutableSortedMap<String, ImmutableSortedSet<String>> sourceClasses)
+      throws IOException {
+    Path abiJar = stateDir.resolve("abi.jar");
+    filesystem.deleteFileAtPathIfExists(abiJar);
+    new StubJar(filesystem.resolve(classesDirectory)).writeTo(filesystem, abiJar);
+
+    Map<String, HashCode> classAbiHashes = new TreeMap<>();
+    try (JarInputStream jar = new JarInputStream(filesystem.newFileInputStream(abiJar))) {
+      for (JarEntry entry = jar.getNextJarEntry(); entry != null; entry = jar.getNextJarEntry()) {
+        if (entry.getName().endsWith(CLASS_EXTENSION)) {
+          classAbiHashes.put(
+              entry.getName(), Hashing.sha1().hashBytes(ByteStreams.toByteArray(jar)));
+        }
+      }
+    }
+    filesystem.deleteFileAtPathIfExists(abiJar);
+
+    ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
+    for (Map.Entry<String, ImmutableSortedSet<String>> entry : sourceClasses.entrySet()) {
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (String classFile : entry.getValue()) {
+        // Classes that are not part of the ABI, like anonymous classes, have no stub.
+        HashCode classAbiHash = classAbiHashes.get(classFile);
+        if (classAbiHash != null) {
+          hasher.putString(classFile, StandardCharsets.UTF_8);
+          hasher.putBytes(classAbiHash.asBytes());
+        }
+      }
+      result.put(entry.getKey(), hasher.hash().toString());
+    }
+    return result.build();
+  }
+
+  /** @return false if some of the classes don't exist in {@code from}. */
+  private boolean copyClasses(Path from, Path to, Collection<String> classFiles)
+      throws IOException {
+    for (String classFile : classFiles) {
+      Path source = from.resolve(classFile);
+      if (!filesystem.exists(source)) {
+        return false;
+      }
+      Path target = to.resolve(classFile);
+      filesystem.createParentDirs(target);
+      filesystem.copyFile(source, target);
+    }
+    return true;
+  }
+
+  private void deleteClasses(Path directory, Collection<String> classFiles) throws IOException {
+    for (String classFile : classFiles) {
+      filesystem.deleteFileAtPathIfExists(directory.resolve(classFile));
+    }
+  }
+
+  /**
+   * Keeps the class usage file of the library complete: a compilation of only the changed sources
+   * records the classes they use, so the usage of the other sources is carried over from the saved
+   * copy. The union may name classes that are no longer used, which only makes dep-file rule keys
+   * more conservative.
+   */
+  private void updateDepFile(boolean merge) throws IOException {
+    Path depFile = CompilerParameters.getDepFilePath(invokingRule, filesystem);
+    if (!parameters.shouldTrackClassUsage() || !filesystem.exists(depFile)) {
+      return;
+    }
+
+    if (merge && filesystem.exists(getDepFileSnapshot())) {
+      SortedMap<String, SortedSet<String>> usage = new TreeMap<>();
+      for (Path file : ImmutableList.of(getDepFileSnapshot(), depFile)) {
+        Map<String, List<String>> fileUsage =
+            ObjectMappers.readValue(
+                filesystem.resolve(file), new TypeReference<Map<String, List<String>>>() {});
+        fileUsage.forEach(
+            (jar, classes) ->
+                usage.computeIfAbsent(jar, ignored -> new TreeSet<>()).addAll(classes));
+      }
+      ObjectMappers.WRITER.writeValue(filesystem.resolve(depFile).toFile(), usage);
+    }
+    filesystem.copyFile(depFile, getDepFileSnapshot());
+  }
+
+  private void restoreDepFile() throws IOException {
+    if (parameters.shouldTrackClassUsage() && filesystem.exists(getDepFileSnapshot())) {
+      Path depFile = CompilerParameters.getDepFilePath(invokingRule, filesystem);
+      filesystem.createParentDirs(depFile);
+      filesystem.copyFile(getDepFileSnapshot(), depFile);
+    }
+  }
+
+  private Optional<IncrementalJavacState> readState() {
+    if (!filesystem.exists(getStateFile())) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(
+          ObjectMappers.readValue(filesystem.resolve(getStateFile()), IncrementalJavacState.class));
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read incremental compilation state of %s.", invokingRule);
+      return Optional.empty();
+    }
+  }
+
+  private void writeState(IncrementalJavacState state) throws IOException {
+    filesystem.mkdirs(stateDir);
+    ObjectMappers.WRITER.writeValue(filesystem.resolve(getStateFile()).toFile(), state);
+  }
+
+  private Path getStateFile() {
+    return stateDir.resolve("state.json");
+  }
+
+  private Path getSnapshotDir() {
+    return stateDir.resolve("classes");
+  }
+
+  private Path getDepFileSnapshot() {
+    return stateDir.resolve("used-classes.json");
+  }
+
+  @Override
+  public String getShortName() {
+    return "javac_incremental";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return newJavacStep(parameters).getDescription(context);
+  }
+}
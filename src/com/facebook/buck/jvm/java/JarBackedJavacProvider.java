@@ -58,6 +58,8 @@ public class JarBackedJavacProvider implements JavacProvider, AddsToRuleKey {
 
       switch (javacLocation) {
         case IN_PROCESS:
+        case WORKER:
+          // Workers only run the JDK's own javac, so compilers from jars stay in-process.
           javac = new JarBackedJavac(compilerClassName, fullJavacClasspath);
           break;
         default:
@@ -84,7 +84,9 @@ public class JarDirectoryStep implements Step {
             .setShouldMergeManifests(parameters.getMergeManifests())
             .setShouldDisallowAllDuplicates(parameters.getDisallowAllDuplicates())
             .setShouldHashEntries(parameters.getHashEntries())
+            .setShouldCopyCompressedEntries(parameters.getCopyCompressedEntries())
             .setRemoveEntryPredicate(parameters.getRemoveEntryPredicate())
+            .setParallelism(context.getConcurrencyLimit().threadLimit)
             .createJarFile(filesystem.resolve(parameters.getJarPath())));
   }
 }
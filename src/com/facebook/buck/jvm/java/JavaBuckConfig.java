@@ -69,6 +69,7 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
                         delegate
                             .getEnum(SECTION, "location", Javac.Location.class)
                             .orElse(Javac.Location.IN_PROCESS))
+                    .setJavacWorkerParams(getJavacWorkerParams())
                     .setCompilerClassName(delegate.getValue("tools", "compiler_class_name"))
                     .build());
   }
@@ -108,6 +109,10 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
         delegate.getListWithoutComments(SECTION, "safe_annotation_processors");
 
     builder.setTrackClassUsage(trackClassUsage());
+    builder.setIncrementalCompilation(
+        delegate.getBooleanValue(SECTION, "incremental_compilation", false));
+    builder.setShareClasspathJars(
+        delegate.getBooleanValue(SECTION, "share_classpath_jars", false));
 
     Optional<AbstractJavacOptions.SpoolMode> spoolMode =
         delegate.getEnum(SECTION, "jar_spool_mode", AbstractJavacOptions.SpoolMode.class);
@@ -153,6 +158,11 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
       return false;
     }
 
+    // Class usage is tracked by the in-process file manager, which javac workers don't use.
+    if (getJavacSpec().getJavacLocation() == Javac.Location.WORKER) {
+      return false;
+    }
+
     final Javac.Source javacSource = getJavacSpec().getJavacSource();
     return (javacSource == Javac.Source.JAR || javacSource == Javac.Source.JDK);
   }
@@ -161,6 +171,34 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
     return javacSpecSupplier.get();
   }
 
+  private JavacWorkerParams getJavacWorkerParams() {
+    JavacWorkerParams.Builder builder = JavacWorkerParams.builder();
+    delegate
+        .getInteger(SECTION, "worker_count")
+        .ifPresent(count -> builder.setMaxWorkers(checkPositive("worker_count", count)));
+    delegate
+        .getInteger(SECTION, "worker_max_compilations")
+        .ifPresent(
+            count ->
+                builder.setMaxCompilationsPerWorker(
+                    checkPositive("worker_max_compilations", count)));
+    delegate
+        .getLong(SECTION, "worker_max_heap_mb")
+        .ifPresent(
+            megabytes ->
+                builder.setMaxHeapBytesPerWorker(
+                    checkPositive("worker_max_heap_mb", megabytes) * 1024 * 1024));
+    return builder.build();
+  }
+
+  private static <T extends Number> T checkPositive(String property, T value) {
+    if (value.longValue() < 1) {
+      throw new HumanReadableException(
+          "%s.%s must be positive, got %s.", SECTION, property, value);
+    }
+    return value;
+  }
+
   @VisibleForTesting
   Optional<Path> getJavacPath() {
     return getPathToExecutable("javac");
@@ -64,6 +64,8 @@ public interface Javac extends Tool {
   enum Location {
     /** Perform compilation inside main process. */
     IN_PROCESS,
+    /** Perform compilation in a pool of persistent javac processes. */
+    WORKER,
   }
 
   enum Source {
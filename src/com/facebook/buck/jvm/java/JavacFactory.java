@@ -29,7 +29,9 @@ public final class JavacFactory {
     if (args != null) {
       spec = args.getJavacSpec();
       if (spec != null) {
-        spec = spec.withJavacLocation(config.getJavacSpec().getJavacLocation());
+        spec =
+            spec.withJavacLocation(config.getJavacSpec().getJavacLocation())
+                .withJavacWorkerParams(config.getJavacSpec().getJavacWorkerParams());
       }
     }
 
@@ -114,7 +114,9 @@ public class JavacPipelineState implements RulePipelineState {
               filesystem,
               context.getProjectFilesystemFactory(),
               firstOrderContext.getEnvironment(),
-              firstOrderContext.getProcessExecutor());
+              firstOrderContext.getProcessExecutor(),
+              context,
+              javacOptions.isShareClasspathJars());
 
       ImmutableList<JavacPluginJsr199Fields> pluginFields =
           ImmutableList.copyOf(
@@ -21,6 +21,7 @@ import static com.facebook.buck.jvm.java.AbstractJavacOptions.SpoolMode;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.core.HasJavaAbi;
+import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.AddToRuleKey;
@@ -200,11 +201,13 @@ public class JavacToJarStepFactory extends CompileToJarStepFactory implements Ad
     // (1) It must be enabled through a .buckconfig.
     // (2) The target must have 0 postprocessing steps.
     // (3) Tha compile API must be JSR 199.
+    // (4) Incremental compilation must be off, since it works on the .class files on disk.
     boolean isSpoolingToJarEnabled =
         compilerParameters.getAbiGenerationMode().isSourceAbi()
             || (postprocessClassesCommands.isEmpty()
                 && javacOptions.getSpoolMode() == AbstractJavacOptions.SpoolMode.DIRECT_TO_JAR
-                && javac instanceof Jsr199Javac);
+                && javac instanceof Jsr199Javac
+                && !isIncrementalCompilationEnabled(compilerParameters));
 
     LOG.info(
         "Target: %s SpoolMode: %s Expected SpoolMode: %s Postprocessing steps: %s",
@@ -252,6 +255,41 @@ public class JavacToJarStepFactory extends CompileToJarStepFactory implements Ad
     }
   }
 
+  @Override
+  protected void createLibraryCompileStep(
+      BuildContext context,
+      BuildTarget invokingRule,
+      CompilerParameters compilerParameters,
+      /* output params */
+      Builder<Step> steps,
+      BuildableContext buildableContext) {
+    if (!isIncrementalCompilationEnabled(compilerParameters)) {
+      super.createLibraryCompileStep(
+          context, invokingRule, compilerParameters, steps, buildableContext);
+      return;
+    }
+
+    steps.add(
+        new IncrementalJavacStep(
+            javac,
+            javacOptions.withBootclasspathFromContext(extraClasspathProvider),
+            invokingRule,
+            resolver,
+            projectFilesystem,
+            compilerParameters));
+  }
+
+  /**
+   * Incremental compilation relies on the ABI of each source's classes, so it's only used for
+   * libraries whose ABI is computed from classes and that don't run annotation processors, whose
+   * output may depend on every source of the library.
+   */
+  private boolean isIncrementalCompilationEnabled(CompilerParameters compilerParameters) {
+    return javacOptions.isIncrementalCompilation()
+        && compilerParameters.getAbiGenerationMode() == AbiGenerationMode.CLASS
+        && javacOptions.getAnnotationProcessingParams().isEmpty();
+  }
+
   public void createPipelinedCompileStep(
       BuildContext context,
       JavacPipelineState pipeline,
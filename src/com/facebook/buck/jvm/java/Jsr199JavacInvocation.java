@@ -479,6 +479,11 @@ class Jsr199JavacInvocation implements Javac.Invocation {
 
           StandardJavaFileManager standardFileManager =
               compiler.getStandardFileManager(null, null, null);
+          if (context.shouldShareClasspathJars()) {
+            standardFileManager =
+                new SharedClasspathJarsFileManager(
+                    standardFileManager, SharedClasspathJars.getInstance());
+          }
           addCloseable(standardFileManager);
 
           StandardJavaFileManager fileManager;
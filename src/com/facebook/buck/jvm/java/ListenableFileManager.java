@@ -29,6 +29,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileObject;
@@ -201,7 +202,8 @@ class ListenableFileManager extends ForwardingStandardJavaFileManager {
   private class FileObjectWrapper {
     private final Map<JavaFileObject, JavaFileObject> javaFileObjectCache = new IdentityHashMap<>();
 
-    public FileObject wrap(FileObject inner) {
+    @Nullable
+    public FileObject wrap(@Nullable FileObject inner) {
       if (inner instanceof JavaFileObject) {
         return wrap((JavaFileObject) inner);
       }
@@ -209,7 +211,12 @@ class ListenableFileManager extends ForwardingStandardJavaFileManager {
       return inner;
     }
 
-    public JavaFileObject wrap(JavaFileObject inner) {
+    @Nullable
+    public JavaFileObject wrap(@Nullable JavaFileObject inner) {
+      // Lookups of files that don't exist, such as javac 9's of module-info, return null.
+      if (inner == null) {
+        return null;
+      }
       if (!javaFileObjectCache.containsKey(inner)) {
         javaFileObjectCache.put(inner, new ListenableJavaFileObject(inner));
       }
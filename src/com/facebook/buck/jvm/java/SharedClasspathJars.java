@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Jars from javac classpaths, opened and indexed by package once and then shared by all the
+ * in-process compilations of the daemon. A jar is keyed by its path, size and modification time, so
+ * a jar that is rebuilt is opened again.
+ *
+ * <p>Compilations {@link #acquire} the jars they read and {@link #release} them when done. Jars
+ * that no compilation uses stay open, up to {@code maxUnusedJars} of them, least recently used
+ * first.
+ */
+class SharedClasspathJars {
+
+  private static final Logger LOG = Logger.get(SharedClasspathJars.class);
+
+  private static final SharedClasspathJars INSTANCE = new SharedClasspathJars(1024);
+
+  private final int maxUnusedJars;
+
+  @GuardedBy("this")
+  private final Map<Path, Jar> jars = new HashMap<>();
+
+  /** Jars that no compilation is using, least recently used first. */
+  @GuardedBy("this")
+  private final LinkedHashSet<Jar> unusedJars = new LinkedHashSet<>();
+
+  @VisibleForTesting
+  SharedClasspathJars(int maxUnusedJars) {
+    this.maxUnusedJars = maxUnusedJars;
+  }
+
+  public static SharedClasspathJars getInstance() {
+    return INSTANCE;
+  }
+
+  public Jar acquire(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    synchronized (this) {
+      Jar jar = jars.get(path);
+      if (jar != null && jar.isUpToDate(attributes)) {
+        unusedJars.remove(jar);
+        jar.users++;
+        return jar;
+      }
+    }
+
+    // Opening a large jar takes a while, so it is done without holding the lock.
+    Jar opened = Jar.open(path, attributes);
+    synchronized (this) {
+      Jar jar = jars.get(path);
+      if (jar != null && jar.isUpToDate(attributes)) {
+        // Another compilation opened it in the meantime.
+        opened.close();
+      } else {
+        if (jar != null) {
+          removeStale(jar);
+        }
+        jar = opened;
+        jars.put(path, jar);
+      }
+      unusedJars.remove(jar);
+      jar.users++;
+      return jar;
+    }
+  }
+
+  public synchronized void release(Jar jar) {
+    Preconditions.checkState(jar.users > 0);
+    jar.users--;
+    if (jar.users > 0) {
+      return;
+    }
+    if (jars.get(jar.path) != jar) {
+      // It was replaced by a newer version while in use.
+      jar.close();
+      return;
+    }
+
+    unusedJars.add(jar);
+    Iterator<Jar> iterator = unusedJars.iterator();
+    while (unusedJars.size() > maxUnusedJars) {
+      Jar evicted = iterator.next();
+      iterator.remove();
+      jars.remove(evicted.path);
+      evicted.close();
+    }
+  }
+
+  @GuardedBy("this")
+  private void removeStale(Jar jar) {
+    jars.remove(jar.path);
+    if (unusedJars.remove(jar)) {
+      jar.close();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getOpenJarCount() {
+    return jars.size();
+  }
+
+  /** An open jar, with its entries grouped by the directory they are in. */
+  static final class Jar {
+    private final Path path;
+    private final long size;
+    private final FileTime lastModifiedTime;
+    private final ZipFile zipFile;
+    private final ImmutableListMultimap<String, ZipEntry> entriesByDirectory;
+
+    /** How many compilations acquired this jar. Guarded by the {@link SharedClasspathJars}. */
+    private int users = 0;
+
+    private Jar(
+        Path path,
+        BasicFileAttributes attributes,
+        ZipFile zipFile,
+        ImmutableListMultimap<String, ZipEntry> entriesByDirectory) {
+      this.path = path;
+      this.size = attributes.size();
+      this.lastModifiedTime = attributes.lastModifiedTime();
+      this.zipFile = zipFile;
+      this.entriesByDirectory = entriesByDirectory;
+    }
+
+    private static Jar open(Path path, BasicFileAttributes attributes) throws IOException {
+      ZipFile zipFile = new ZipFile(path.toFile());
+      ImmutableListMultimap.Builder<String, ZipEntry> entriesByDirectory =
+          ImmutableListMultimap.builder();
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          entries.hasMoreElements(); ) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        String name = entry.getName();
+        int lastSlash = name.lastIndexOf('/');
+        entriesByDirectory.put(lastSlash == -1 ? "" : name.substring(0, lastSlash), entry);
+      }
+      return new Jar(path, attributes, zipFile, entriesByDirectory.build());
+    }
+
+    private boolean isUpToDate(BasicFileAttributes attributes) {
+      return size == attributes.size() && lastModifiedTime.equals(attributes.lastModifiedTime());
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public ZipFile getZipFile() {
+      return zipFile;
+    }
+
+    /**
+     * @param directory a directory in the jar, separated with slashes and without a trailing one.
+     * @return the files in {@code directory}, and in its subdirectories if {@code recurse} is set.
+     */
+    public ImmutableList<ZipEntry> list(String directory, boolean recurse) {
+      if (!recurse) {
+        return entriesByDirectory.get(directory);
+      }
+      ImmutableList.Builder<ZipEntry> entries = ImmutableList.builder();
+      for (Map.Entry<String, ZipEntry> entry : entriesByDirectory.entries()) {
+        String entryDirectory = entry.getKey();
+        if (directory.isEmpty()
+            || entryDirectory.equals(directory)
+            || entryDirectory.startsWith(directory + "/")) {
+          entries.add(entry.getValue());
+        }
+      }
+      return entries.build();
+    }
+
+    private void close() {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to close %s.", path);
+      }
+    }
+  }
+}
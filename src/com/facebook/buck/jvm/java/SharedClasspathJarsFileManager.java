@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Lists the classpath from {@link SharedClasspathJars} rather than letting the delegate open and
+ * index every jar on it again for each compilation. This is only done when all the entries of the
+ * classpath are jars, so that the order in which javac sees classes does not change; otherwise the
+ * delegate lists the classpath as usual.
+ */
+class SharedClasspathJarsFileManager extends ForwardingStandardJavaFileManager {
+
+  private static final Logger LOG = Logger.get(SharedClasspathJarsFileManager.class);
+
+  private final SharedClasspathJars sharedJars;
+
+  /** The classpath, once it is first listed, or empty if it is left to the delegate. */
+  @Nullable private Optional<List<SharedClasspathJars.Jar>> classpathJars;
+
+  public SharedClasspathJarsFileManager(
+      StandardJavaFileManager fileManager, SharedClasspathJars sharedJars) {
+    super(fileManager);
+    this.sharedJars = sharedJars;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    if (location != StandardLocation.CLASS_PATH) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+    Optional<List<SharedClasspathJars.Jar>> jars = getClasspathJars();
+    if (!jars.isPresent()) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    String directory = packageName.replace('.', '/');
+    List<JavaFileObject> files = new ArrayList<>();
+    for (SharedClasspathJars.Jar jar : jars.get()) {
+      for (ZipEntry entry : jar.list(directory, recurse)) {
+        JavaFileObject.Kind kind = getKind(entry.getName());
+        if (kinds.contains(kind)) {
+          files.add(new JarEntryJavaFileObject(jar, entry, kind));
+        }
+      }
+    }
+    return files;
+  }
+
+  private Optional<List<SharedClasspathJars.Jar>> getClasspathJars() throws IOException {
+    if (classpathJars != null) {
+      return classpathJars;
+    }
+
+    List<SharedClasspathJars.Jar> jars = new ArrayList<>();
+    classpathJars = Optional.of(jars);
+    Iterable<? extends File> classpath = fileManager.getLocation(StandardLocation.CLASS_PATH);
+    if (classpath == null) {
+      return classpathJars;
+    }
+    for (File entry : classpath) {
+      if (entry.isFile() && isJar(entry.getName())) {
+        jars.add(sharedJars.acquire(entry.toPath()));
+      } else if (entry.exists()) {
+        LOG.verbose("%s is not a jar, not sharing the classpath.", entry);
+        releaseJars();
+        classpathJars = Optional.empty();
+        break;
+      }
+    }
+    return classpathJars;
+  }
+
+  private static boolean isJar(String fileName) {
+    return fileName.endsWith(".jar") || fileName.endsWith(".zip");
+  }
+
+  private static JavaFileObject.Kind getKind(String name) {
+    for (JavaFileObject.Kind kind : JavaFileObject.Kind.values()) {
+      if (kind != JavaFileObject.Kind.OTHER && name.endsWith(kind.extension)) {
+        return kind;
+      }
+    }
+    return JavaFileObject.Kind.OTHER;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof JarEntryJavaFileObject) {
+      return ((JarEntryJavaFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof JarEntryJavaFileObject || b instanceof JarEntryJavaFileObject) {
+      return a.toUri().equals(b.toUri());
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public void setLocation(Location location, Iterable<? extends File> path) throws IOException {
+    super.setLocation(location, path);
+    if (location == StandardLocation.CLASS_PATH) {
+      releaseJars();
+      classpathJars = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    releaseJars();
+    super.close();
+  }
+
+  private void releaseJars() {
+    if (classpathJars != null && classpathJars.isPresent()) {
+      classpathJars.get().forEach(sharedJars::release);
+      classpathJars = Optional.of(new ArrayList<>());
+    }
+  }
+
+  /**
+   * A file in a shared jar, named like the ones that javac itself creates for jars. This doesn't
+   * extend {@link SimpleJavaFileObject}, which only accepts hierarchical URIs.
+   */
+  private static class JarEntryJavaFileObject implements JavaFileObject {
+    private final SharedClasspathJars.Jar jar;
+    private final ZipEntry entry;
+    private final Kind kind;
+    private final URI uri;
+
+    private JarEntryJavaFileObject(SharedClasspathJars.Jar jar, ZipEntry entry, Kind kind) {
+      this.jar = jar;
+      this.entry = entry;
+      this.kind = kind;
+      this.uri = createUri(jar, entry);
+    }
+
+    private static URI createUri(SharedClasspathJars.Jar jar, ZipEntry entry) {
+      try {
+        String escapedName = new URI(null, null, entry.getName(), null).getRawPath();
+        return URI.create("jar:" + jar.getPath().toUri() + "!/" + escapedName);
+      } catch (URISyntaxException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    private String getBinaryName() {
+      String name = entry.getName();
+      return name.substring(0, name.length() - kind.extension.length()).replace('/', '.');
+    }
+
+    @Override
+    public URI toUri() {
+      return uri;
+    }
+
+    @Override
+    public String getName() {
+      return jar.getPath() + "(" + entry.getName() + ")";
+    }
+
+    @Override
+    public Kind getKind() {
+      return kind;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+      String fileName = simpleName + kind.extension;
+      String name = entry.getName();
+      return kind == this.kind && (name.equals(fileName) || name.endsWith("/" + fileName));
+    }
+
+    @Override
+    @Nullable
+    public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Modifier getAccessLevel() {
+      return null;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return jar.getZipFile().getInputStream(entry);
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      throw new UnsupportedOperationException("Classpath jars are read-only.");
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+      return new InputStreamReader(openInputStream(), Charsets.UTF_8);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      try (Reader reader = openReader(ignoreEncodingErrors)) {
+        return CharStreams.toString(reader);
+      }
+    }
+
+    @Override
+    public Writer openWriter() {
+      throw new UnsupportedOperationException("Classpath jars are read-only.");
+    }
+
+    @Override
+    public long getLastModified() {
+      return entry.getTime();
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+  }
+}
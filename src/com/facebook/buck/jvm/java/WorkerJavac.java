@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
+import com.facebook.buck.jvm.java.abi.source.api.SourceOnlyAbiRuleInfo;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.external.BundledExternalProcessLauncher;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessIdentity;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * javac running in a pool of persistent JVMs, so that compilations don't pay for starting a JVM and
+ * warming up the compiler. Workers are replaced once they have done too many compilations or their
+ * heap has grown too large.
+ */
+public class WorkerJavac implements Javac {
+
+  private static final Logger LOG = Logger.get(WorkerJavac.class);
+
+  // Sizing the pool does not change the output of compilations, so it's not in the rule key.
+  private final JavacWorkerParams workerParams;
+
+  public WorkerJavac(JavacWorkerParams workerParams) {
+    this.workerParams = workerParams;
+  }
+
+  @Override
+  public String getDescription(
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList) {
+    StringBuilder builder = new StringBuilder("javac ");
+    Joiner.on(" ").appendTo(builder, options);
+    builder.append(" ");
+    builder.append("@").append(pathToSrcsList);
+
+    return builder.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "javac";
+  }
+
+  @Override
+  public ImmutableList<String> getCommandPrefix(SourcePathResolver resolver) {
+    throw new UnsupportedOperationException("javac workers may not be used externally");
+  }
+
+  @Override
+  public ImmutableMap<String, String> getEnvironment(SourcePathResolver resolver) {
+    throw new UnsupportedOperationException("javac workers may not be used externally");
+  }
+
+  @Override
+  public Invocation newBuildInvocation(
+      JavacExecutionContext context,
+      SourcePathResolver sourcePathResolver,
+      BuildTarget invokingRule,
+      ImmutableList<String> options,
+      ImmutableList<JavacPluginJsr199Fields> pluginFields,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList,
+      Path workingDirectory,
+      boolean trackClassUsage,
+      @Nullable JarParameters abiJarParameters,
+      @Nullable JarParameters libraryJarParameters,
+      AbiGenerationMode abiGenerationMode,
+      AbiGenerationMode abiCompatibilityMode,
+      @Nullable SourceOnlyAbiRuleInfo ruleInfo) {
+    Preconditions.checkArgument(abiJarParameters == null);
+    Preconditions.checkArgument(libraryJarParameters == null);
+
+    return new Invocation() {
+      @Override
+      public int buildSourceOnlyAbiJar() throws InterruptedException {
+        throw new UnsupportedOperationException(
+            "Cannot build source-only ABI jar with javac workers.");
+      }
+
+      @Override
+      public int buildSourceAbiJar() throws InterruptedException {
+        throw new UnsupportedOperationException("Cannot build source ABI jar with javac workers.");
+      }
+
+      @Override
+      public int buildClasses() throws InterruptedException {
+        Preconditions.checkArgument(
+            abiGenerationMode == AbiGenerationMode.CLASS,
+            "Cannot compile ABI jars with javac workers");
+        ProjectFilesystem filesystem = context.getProjectFilesystem();
+        try {
+          ImmutableList<Path> expandedSources =
+              ExternalJavac.getExpandedSourcePaths(
+                  filesystem,
+                  context.getProjectFilesystemFactory(),
+                  javaSourceFilePaths,
+                  workingDirectory);
+          FluentIterable<String> escapedPaths =
+              FluentIterable.from(expandedSources)
+                  .transform(Object::toString)
+                  .transform(ARGFILES_ESCAPER::apply);
+          FluentIterable<String> escapedArgs =
+              FluentIterable.from(options).transform(ARGFILES_ESCAPER::apply);
+          filesystem.writeLinesToPath(Iterables.concat(escapedArgs, escapedPaths), pathToSrcsList);
+        } catch (IOException e) {
+          context
+              .getEventSink()
+              .reportThrowable(
+                  e,
+                  "Cannot write list of args/sources to compile to %s file! Terminating compilation.",
+                  pathToSrcsList);
+          return 1;
+        }
+
+        try (JavacEventSinkScopedSimplePerfEvent event =
+            new JavacEventSinkScopedSimplePerfEvent(context.getEventSink(), "javac_worker")) {
+          return compileInWorker(context, invokingRule, filesystem.resolve(pathToSrcsList));
+        } catch (IOException e) {
+          e.printStackTrace(context.getStdErr());
+          return -1;
+        }
+      }
+
+      @Override
+      public void close() {
+        // Nothing to do
+      }
+    };
+  }
+
+  private int compileInWorker(
+      JavacExecutionContext context, BuildTarget invokingRule, Path argsFile)
+      throws IOException, InterruptedException {
+    WorkerProcessPool pool = getWorkerProcessPool(context);
+    WorkerProcess process = pool.borrowWorkerProcess();
+    try {
+      long startNanos = System.nanoTime();
+      WorkerJobResult result = process.submitAndWaitForJob(argsFile.toString());
+      long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      result.getStderr().ifPresent(context.getStdErr()::print);
+
+      int compilations = process.getJobCount();
+      long heapBytes = parseHeapBytes(result.getStdout());
+      LOG.debug(
+          "Compiled %s in javac worker %d in %d ms (compilation %d of the worker, heap %d bytes).",
+          invokingRule, process.hashCode(), latencyMillis, compilations, heapBytes);
+      if (compilations >= workerParams.getMaxCompilationsPerWorker()
+          || heapBytes > workerParams.getMaxHeapBytesPerWorker()) {
+        LOG.info(
+            "Recycling javac worker %d after %d compilations with a heap of %d bytes.",
+            process.hashCode(), compilations, heapBytes);
+        pool.destroyWorkerProcess(process);
+      } else {
+        pool.returnWorkerProcess(process);
+      }
+      process = null; // to avoid finally below
+
+      return result.getExitCode();
+    } finally {
+      if (process != null) {
+        pool.destroyWorkerProcess(process);
+      }
+    }
+  }
+
+  private static long parseHeapBytes(Optional<String> stdout) {
+    try {
+      return Long.parseLong(stdout.orElse("").trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private WorkerProcessPool getWorkerProcessPool(JavacExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    ImmutableList<String> command = new BundledExternalProcessLauncher().getCommandForJavacWorker();
+    String workerKey = "javac-worker " + Joiner.on(' ').join(command);
+    WorkerProcessParams params =
+        WorkerProcessParams.of(
+            filesystem.getBuckPaths().getScratchDir().resolve("javac-worker"),
+            command,
+            ImmutableMap.of(),
+            workerParams.getMaxWorkers(),
+            Optional.of(
+                WorkerProcessIdentity.of(
+                    workerKey, Hashing.sha1().hashString(workerKey, StandardCharsets.UTF_8))));
+
+    return new WorkerProcessPoolFactory(filesystem)
+        .getWorkerProcessPool(context.getStepExecutionContext(), params);
+  }
+}
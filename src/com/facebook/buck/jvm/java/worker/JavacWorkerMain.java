@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import com.facebook.buck.worker.WorkerProcessCommand;
+import com.facebook.buck.worker.WorkerProcessProtocol;
+import com.facebook.buck.worker.WorkerProcessProtocolZero;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Entry point of a persistent javac worker, which keeps the compiler loaded and JIT-compiled across
+ * the compilations that Buck sends it.
+ *
+ * <p>The args file of each job holds the path of a javac argument file. javac writes its output to
+ * the stderr file of the job, and the worker writes the size of its committed heap after the
+ * compilation to the stdout file, so that Buck can recycle workers whose heap keeps growing.
+ */
+public class JavacWorkerMain {
+
+  public static void main(String[] args) {
+    // Only the protocol may write to stdout. Anything else that gets printed there, e.g. by an
+    // annotation processor, would corrupt the messages Buck reads, so it goes to stderr instead.
+    PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+
+    AtomicInteger messageCounter = new AtomicInteger();
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+    try {
+      WorkerProcessProtocol.CommandReceiver workerProcessProtocol = null;
+      try {
+        workerProcessProtocol =
+            new WorkerProcessProtocolZero.CommandReceiver(protocolOut, System.in);
+
+        workerProcessProtocol.handshake(messageCounter.getAndIncrement());
+        while (true) {
+          if (workerProcessProtocol.shouldClose()) {
+            workerProcessProtocol.close();
+            workerProcessProtocol = null;
+            break;
+          }
+          int messageId = messageCounter.getAndIncrement();
+          WorkerProcessCommand command = workerProcessProtocol.receiveCommand(messageId);
+          int exitCode = compile(compiler, command);
+          workerProcessProtocol.sendResponse(messageId, "result", exitCode);
+        }
+      } finally {
+        if (workerProcessProtocol != null) {
+          workerProcessProtocol.close();
+        }
+      }
+    } catch (IOException e) {
+      System.exit(1);
+    }
+  }
+
+  private static int compile(@Nullable JavaCompiler compiler, WorkerProcessCommand command)
+      throws IOException {
+    int exitCode;
+    try (OutputStream stderr = Files.newOutputStream(command.getStdErrPath());
+        PrintStream stderrPrinter = new PrintStream(stderr, true, "UTF-8")) {
+      if (compiler == null) {
+        stderrPrinter.println(
+            "No system compiler found. Is the javac worker running on a JRE instead of a JDK?");
+        exitCode = 1;
+      } else {
+        String argsFile =
+            new String(Files.readAllBytes(command.getArgsPath()), StandardCharsets.UTF_8).trim();
+        try {
+          exitCode = compiler.run(null, stderr, stderr, "@" + argsFile);
+        } catch (RuntimeException e) {
+          e.printStackTrace(stderrPrinter);
+          exitCode = 1;
+        }
+      }
+    }
+
+    long committedHeapBytes =
+        ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted();
+    Files.write(
+        command.getStdOutPath(),
+        Long.toString(committedHeapBytes).getBytes(StandardCharsets.UTF_8));
+    return exitCode;
+  }
+}
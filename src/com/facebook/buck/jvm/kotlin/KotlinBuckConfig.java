@@ -51,6 +51,9 @@ public class KotlinBuckConfig {
               delegate.getPathSourcePath(getPathToScriptRuntimeJar()),
               delegate.getPathSourcePath(getPathToCompilerJar()));
 
+      if (isWorkerCompilation()) {
+        return new WorkerKotlinc(classpathEntries, getWorkerCount(), getWorkerMaxHeapBytes());
+      }
       return new JarBackedReflectedKotlinc(classpathEntries);
     }
   }
@@ -185,6 +188,38 @@ public class KotlinBuckConfig {
         "Could not resolve kotlin compiler JAR location (kotlin home:" + getKotlinHome() + ").");
   }
 
+  /**
+   * Determine whether Kotlin compilation should run in a pool of persistent compiler workers rather
+   * than in the Buck process. This is off by default and is enabled in .buckconfig by setting the
+   * "use_workers" property to "true".
+   *
+   * @return true if worker compilation is requested, false otherwise
+   */
+  private boolean isWorkerCompilation() {
+    return delegate.getBooleanValue(SECTION, "use_workers", false);
+  }
+
+  /** @return the maximum number of Kotlin compiler workers that may run at the same time. */
+  int getWorkerCount() {
+    int count =
+        delegate
+            .getInteger(SECTION, "worker_count")
+            .orElse(Runtime.getRuntime().availableProcessors());
+    if (count <= 0) {
+      throw new HumanReadableException("%s.worker_count must be positive.", SECTION);
+    }
+    return count;
+  }
+
+  /** @return the committed heap size past which a Kotlin compiler worker is evicted. */
+  long getWorkerMaxHeapBytes() {
+    long megabytes = delegate.getLong(SECTION, "worker_max_heap_mb").orElse(2048L);
+    if (megabytes <= 0) {
+      throw new HumanReadableException("%s.worker_max_heap_mb must be positive.", SECTION);
+    }
+    return megabytes * 1024 * 1024;
+  }
+
   /**
    * Determine whether external Kotlin compilation is being forced. The default is internal
    * (in-process) execution, but this can be overridden in .buckconfig by setting the "external"
@@ -83,9 +83,17 @@ public class KotlincStep implements Step {
         ExecutionContext firstOrderContext =
             context.createSubContext(stdout, stderr, Optional.of(verbosity))) {
 
+      // Compiler workers are pooled in the step's context, so that they are reused by later
+      // compilations rather than shut down along with the sub-context.
+      ExecutionContext compilationContext =
+          ExecutionContext.builder()
+              .from(firstOrderContext)
+              .setWorkerProcessPools(context.getWorkerProcessPools())
+              .build();
+
       int declaredDepsBuildResult =
           kotlinc.buildWithClasspath(
-              firstOrderContext,
+              compilationContext,
               invokingRule,
               getOptions(context, combinedClassPathEntries),
               sourceFilePaths,
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import static com.google.common.collect.Iterables.transform;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.PathSourcePath;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.external.BundledExternalProcessLauncher;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessIdentity;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the Kotlin compiler in a pool of persistent worker processes, which keep the compiler loaded
+ * and warm across rules and, in the daemon, across commands. A worker whose heap grows past a limit
+ * is evicted from the pool once its compilation is done.
+ */
+public class WorkerKotlinc implements Kotlinc {
+
+  private static final Logger LOG = Logger.get(WorkerKotlinc.class);
+
+  private static final KotlincVersion VERSION = KotlincVersion.of("worker");
+
+  @AddToRuleKey private final ImmutableSet<SourcePath> compilerClassPath;
+  private final int maxWorkers;
+  private final long maxHeapBytesPerWorker;
+
+  WorkerKotlinc(
+      ImmutableSet<SourcePath> compilerClassPath, int maxWorkers, long maxHeapBytesPerWorker) {
+    this.compilerClassPath = compilerClassPath;
+    this.maxWorkers = maxWorkers;
+    this.maxHeapBytesPerWorker = maxHeapBytesPerWorker;
+  }
+
+  @Override
+  public KotlincVersion getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public String getDescription(
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList) {
+    StringBuilder builder = new StringBuilder("kotlinc ");
+    Joiner.on(" ").appendTo(builder, options);
+    builder.append(" ");
+    builder.append("@").append(pathToSrcsList);
+
+    return builder.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "kotlinc";
+  }
+
+  @Override
+  public ImmutableList<String> getCommandPrefix(SourcePathResolver resolver) {
+    throw new UnsupportedOperationException("Kotlin compiler workers may not be used externally");
+  }
+
+  @Override
+  public ImmutableMap<String, String> getEnvironment(SourcePathResolver resolver) {
+    throw new UnsupportedOperationException("Kotlin compiler workers may not be used externally");
+  }
+
+  @Override
+  public int buildWithClasspath(
+      ExecutionContext context,
+      BuildTarget invokingRule,
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> kotlinSourceFilePaths,
+      Path pathToSrcsList,
+      Optional<Path> workingDirectory,
+      ProjectFilesystem projectFilesystem)
+      throws InterruptedException {
+
+    ImmutableList<String> args =
+        ImmutableList.<String>builder()
+            .addAll(options)
+            .addAll(
+                transform(
+                    kotlinSourceFilePaths,
+                    path -> projectFilesystem.resolve(path).toAbsolutePath().toString()))
+            .build();
+
+    WorkerProcessPool pool =
+        new WorkerProcessPoolFactory(projectFilesystem)
+            .getWorkerProcessPool(context, getWorkerProcessParams(projectFilesystem));
+    WorkerProcess process = null;
+    try {
+      process = pool.borrowWorkerProcess();
+      long startNanos = System.nanoTime();
+      WorkerJobResult result = process.submitAndWaitForJob(Joiner.on('\n').join(args));
+      long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      result.getStderr().ifPresent(context.getStdErr()::print);
+
+      long heapBytes = parseHeapBytes(result.getStdout());
+      LOG.debug(
+          "Compiled %s in kotlinc worker %d in %d ms (compilation %d, heap %d bytes).",
+          invokingRule, process.hashCode(), latencyMillis, process.getJobCount(), heapBytes);
+      if (heapBytes > maxHeapBytesPerWorker) {
+        LOG.info(
+            "Evicting kotlinc worker %d with a heap of %d bytes after %d compilations.",
+            process.hashCode(), heapBytes, process.getJobCount());
+        pool.destroyWorkerProcess(process);
+      } else {
+        pool.returnWorkerProcess(process);
+      }
+      process = null; // to avoid finally below
+
+      return result.getExitCode();
+    } catch (IOException e) {
+      e.printStackTrace(context.getStdErr());
+      return -1;
+    } finally {
+      if (process != null) {
+        pool.destroyWorkerProcess(process);
+      }
+    }
+  }
+
+  private WorkerProcessParams getWorkerProcessParams(ProjectFilesystem projectFilesystem) {
+    ImmutableList<String> command =
+        ImmutableList.<String>builder()
+            .addAll(new BundledExternalProcessLauncher().getCommandForKotlincWorker())
+            .addAll(
+                compilerClassPath
+                    .stream()
+                    .map(
+                        path -> {
+                          PathSourcePath pathSourcePath = (PathSourcePath) path;
+                          return pathSourcePath
+                              .getFilesystem()
+                              .resolve(pathSourcePath.getRelativePath())
+                              .toString();
+                        })
+                    .iterator())
+            .build();
+    String workerKey = "kotlinc-worker " + Joiner.on(' ').join(command);
+
+    return WorkerProcessParams.of(
+        projectFilesystem.getBuckPaths().getScratchDir().resolve("kotlinc-worker"),
+        command,
+        ImmutableMap.of(),
+        maxWorkers,
+        Optional.of(
+            WorkerProcessIdentity.of(
+                workerKey, Hashing.sha1().hashString(workerKey, StandardCharsets.UTF_8))));
+  }
+
+  /** @return the committed heap of the worker, as it reports in the stdout of a job. */
+  private static long parseHeapBytes(Optional<String> stdout) {
+    try {
+      return Long.parseLong(stdout.orElse("").trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin.worker;
+
+import com.facebook.buck.worker.WorkerProcessCommand;
+import com.facebook.buck.worker.WorkerProcessProtocol;
+import com.facebook.buck.worker.WorkerProcessProtocolZero;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Entry point of a persistent Kotlin compiler worker. The compiler is loaded once from the jars
+ * given on the command line and then reused, so it stays JIT-compiled across compilations.
+ *
+ * <p>The args file of each job holds the compiler arguments, one per line. The compiler writes its
+ * output to the stderr file of the job, and the worker writes the size of its committed heap to the
+ * stdout file so that Buck can evict workers that use too much memory.
+ */
+public class KotlincWorkerMain {
+
+  private static final String COMPILER_CLASS = "org.jetbrains.kotlin.cli.jvm.K2JVMCompiler";
+  private static final String EXIT_CODE_CLASS = "org.jetbrains.kotlin.cli.common.ExitCode";
+
+  @Nullable private static Compiler compiler;
+
+  public static void main(String[] args) {
+    // Only the protocol may write to stdout. Anything else that gets printed there, e.g. by a
+    // compiler plugin or kapt, would corrupt the messages Buck reads, so it goes to stderr instead.
+    PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+
+    AtomicInteger messageCounter = new AtomicInteger();
+
+    try {
+      WorkerProcessProtocol.CommandReceiver workerProcessProtocol = null;
+      try {
+        workerProcessProtocol =
+            new WorkerProcessProtocolZero.CommandReceiver(protocolOut, System.in);
+
+        workerProcessProtocol.handshake(messageCounter.getAndIncrement());
+        while (true) {
+          if (workerProcessProtocol.shouldClose()) {
+            workerProcessProtocol.close();
+            workerProcessProtocol = null;
+            break;
+          }
+          int messageId = messageCounter.getAndIncrement();
+          WorkerProcessCommand command = workerProcessProtocol.receiveCommand(messageId);
+          int exitCode = compile(args, command);
+          workerProcessProtocol.sendResponse(messageId, "result", exitCode);
+        }
+      } finally {
+        if (workerProcessProtocol != null) {
+          workerProcessProtocol.close();
+        }
+      }
+    } catch (IOException e) {
+      System.exit(1);
+    }
+  }
+
+  private static int compile(String[] compilerClasspath, WorkerProcessCommand command)
+      throws IOException {
+    int exitCode;
+    try (PrintStream stderr =
+        new PrintStream(Files.newOutputStream(command.getStdErrPath()), true, "UTF-8")) {
+      List<String> compilerArgs = Files.readAllLines(command.getArgsPath(), StandardCharsets.UTF_8);
+      try {
+        exitCode = getCompiler(compilerClasspath).compile(stderr, compilerArgs);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        e.printStackTrace(stderr);
+        exitCode = 1;
+      }
+    }
+
+    long committedHeapBytes =
+        ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted();
+    Files.write(
+        command.getStdOutPath(),
+        Long.toString(committedHeapBytes).getBytes(StandardCharsets.UTF_8));
+    return exitCode;
+  }
+
+  private static Compiler getCompiler(String[] compilerClasspath)
+      throws ReflectiveOperationException {
+    if (compiler == null) {
+      URL[] urls = new URL[compilerClasspath.length];
+      for (int i = 0; i < compilerClasspath.length; i++) {
+        try {
+          urls[i] = Paths.get(compilerClasspath[i]).toUri().toURL();
+        } catch (IOException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+      compiler = new Compiler(new URLClassLoader(urls, null /* parent classloader */));
+    }
+    return compiler;
+  }
+
+  /** The Kotlin compiler, called through reflection since it's loaded from its own jars. */
+  private static class Compiler {
+    private final Object instance;
+    private final Method exec;
+    private final Method getCode;
+
+    private Compiler(ClassLoader classLoader) throws ReflectiveOperationException {
+      Class<?> compilerClass = classLoader.loadClass(COMPILER_CLASS);
+      this.instance = compilerClass.newInstance();
+      this.exec = compilerClass.getMethod("exec", PrintStream.class, String[].class);
+      this.getCode = classLoader.loadClass(EXIT_CODE_CLASS).getMethod("getCode");
+    }
+
+    private int compile(PrintStream stderr, List<String> args) throws ReflectiveOperationException {
+      Object exitCode = exec.invoke(instance, stderr, args.toArray(new String[0]));
+      return (Integer) getCode.invoke(exitCode);
+    }
+  }
+}
@@ -20,11 +20,13 @@ import com.facebook.buck.config.ConfigView;
 import com.facebook.buck.io.WatchmanWatcher;
 import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
 import org.immutables.value.Value;
 
@@ -38,6 +40,10 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
   public static final String INCLUDES_PROPERTY_NAME = "includes";
 
   private static final long NUM_PARSING_THREADS_DEFAULT = 1L;
+  private static final long DEFAULT_PARSER_POOL_IDLE_TIMEOUT_MS = 30_000L;
+  private static final long DEFAULT_PARSER_POOL_MEMORY_PER_PARSER_MB = 256L;
+  private static final long DEFAULT_QUERY_RESULT_CACHE_MAX_WEIGHT = 1_000_000L;
+  private static final long DEFAULT_PARSE_RESULT_CACHE_MAX_SIZE_BYTES = 512L * 1024 * 1024;
 
   public enum GlobHandler {
     PYTHON,
@@ -64,6 +70,15 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     ;
   }
 
+  /** Controls how the parsers used to evaluate build files are shared. */
+  public enum ParserPoolMode {
+    /** Every cell gets up to {@code parsing_threads} parsers, which are kept until the end. */
+    FIXED,
+    /** All cells share a budget of parsers sized from cores and memory. */
+    ADAPTIVE,
+    ;
+  }
+
   /** Controls whether default flavors should be applied to unflavored targets. */
   public enum ApplyDefaultFlavorsMode {
     ENABLED,
@@ -259,4 +274,78 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
   public boolean shouldIgnoreEnvironmentVariablesChanges() {
     return getDelegate().getBooleanValue("parser", "ignore_environment_variables_changes", false);
   }
+
+  /**
+   * @return the directory in which raw parse results of build files are persisted across Buck
+   *     processes, or {@link Optional#empty()} if they should not be persisted.
+   */
+  @Value.Lazy
+  public Optional<Path> getParseResultCacheDir() {
+    return getDelegate()
+        .getValue("parser", "parse_result_cache_dir")
+        .map(path -> getDelegate().resolveNonNullPathOutsideTheProjectFilesystem(Paths.get(path)));
+  }
+
+  /**
+   * @return the size the parse result cache directory may grow to before the least recently used
+   *     entries are deleted.
+   */
+  @Value.Lazy
+  public long getParseResultCacheMaxSizeBytes() {
+    return getDelegate()
+        .getValue("parser", "parse_result_cache_max_size")
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_PARSE_RESULT_CACHE_MAX_SIZE_BYTES);
+  }
+
+  @Value.Lazy
+  public ParserPoolMode getParserPoolMode() {
+    return getDelegate()
+        .getEnum("parser", "pool_mode", ParserPoolMode.class)
+        .orElse(ParserPoolMode.FIXED);
+  }
+
+  /**
+   * @return the maximum number of parsers the adaptive pool may create across all cells, before
+   *     taking available cores and memory into account.
+   */
+  @Value.Lazy
+  public int getParserPoolMaxParsers() {
+    if (!getEnableParallelParsing()) {
+      return 1;
+    }
+    return getDelegate()
+        .getLong("parser", "pool_max_parsers")
+        .orElse((long) getDelegate().getNumThreads())
+        .intValue();
+  }
+
+  /** @return the memory a single parser is expected to use, for sizing the adaptive pool. */
+  @Value.Lazy
+  public long getParserPoolMemoryPerParserBytes() {
+    return getDelegate()
+            .getLong("parser", "pool_memory_per_parser_mb")
+            .orElse(DEFAULT_PARSER_POOL_MEMORY_PER_PARSER_MB)
+        * 1024
+        * 1024;
+  }
+
+  /** @return how long a parser of the adaptive pool may stay unused before it is retired. */
+  @Value.Lazy
+  public long getParserPoolIdleTimeoutMs() {
+    return getDelegate()
+        .getLong("parser", "pool_idle_timeout_ms")
+        .orElse(DEFAULT_PARSER_POOL_IDLE_TIMEOUT_MS);
+  }
+
+  /**
+   * @return the number of targets and paths the daemon may keep for the results of {@code buck
+   *     query}. Zero disables the query result cache.
+   */
+  @Value.Lazy
+  public long getQueryResultCacheMaxWeight() {
+    return getDelegate()
+        .getLong("parser", "query_result_cache_max_weight")
+        .orElse(DEFAULT_QUERY_RESULT_CACHE_MAX_WEIGHT);
+  }
 }
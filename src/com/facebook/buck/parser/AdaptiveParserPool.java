@@ -0,0 +1,408 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.concurrent.ResourcePool;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Shares a single, global budget of parsers between all cells.
+ *
+ * <p>Unlike a {@link ResourcePool} per cell, the number of parsers is bounded for the whole build,
+ * and a cell that has work queued up can take over the budget of parsers that sit idle in other
+ * cells: the parser that has been idle the longest is retired to make room for a new one. Parsers
+ * that stay idle for longer than the idle timeout are retired as well, so that a long build does
+ * not keep parser processes around after parsing has finished.
+ *
+ * <p>Parsers are bound to the cell they were created for, since they are configured with the
+ * roots, configuration and build file name of that cell.
+ */
+class AdaptiveParserPool implements AutoCloseable {
+  private static final Logger LOG = Logger.get(AdaptiveParserPool.class);
+
+  private static final String COUNTER_CATEGORY = "buck_parser_pool";
+
+  private final int maxParsers;
+  private final long idleTimeoutNanos;
+  private final Function<Cell, ProjectBuildFileParser> parserFactory;
+  private final LongSupplier nanoTime;
+  @Nullable private final ScheduledExecutorService idleParserReaper;
+
+  private final SamplingCounter queueWaitTimeCounter;
+  private final SamplingCounter parserUtilizationCounter;
+  private final IntegerCounter parsersCreatedCounter;
+  private final IntegerCounter parsersRetiredWhileIdleCounter;
+
+  /** All parsers that have been created and not retired yet, whether they are in use or not. */
+  @GuardedBy("this")
+  private final Set<PooledParser> parsers = new LinkedHashSet<>();
+
+  /** Parsers that are not in use, most recently returned last. */
+  @GuardedBy("this")
+  private final Map<Cell, Deque<PooledParser>> idleParsers = new HashMap<>();
+
+  @GuardedBy("this")
+  private final Deque<ParserRequest> parserRequests = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private boolean closing;
+
+  @VisibleForTesting
+  AdaptiveParserPool(
+      int maxParsers,
+      long idleTimeoutNanos,
+      Function<Cell, ProjectBuildFileParser> parserFactory,
+      LongSupplier nanoTime,
+      boolean retireIdleParsersInBackground) {
+    Preconditions.checkArgument(maxParsers > 0);
+    Preconditions.checkArgument(idleTimeoutNanos > 0);
+
+    this.maxParsers = maxParsers;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+    this.parserFactory = parserFactory;
+    this.nanoTime = nanoTime;
+    this.queueWaitTimeCounter =
+        new SamplingCounter(COUNTER_CATEGORY, "queue_wait_time_ms", ImmutableMap.of());
+    this.parserUtilizationCounter =
+        new SamplingCounter(COUNTER_CATEGORY, "parser_utilization_percent", ImmutableMap.of());
+    this.parsersCreatedCounter =
+        new IntegerCounter(COUNTER_CATEGORY, "parsers_created", ImmutableMap.of());
+    this.parsersRetiredWhileIdleCounter =
+        new IntegerCounter(COUNTER_CATEGORY, "parsers_retired_while_idle", ImmutableMap.of());
+
+    if (retireIdleParsersInBackground) {
+      idleParserReaper =
+          Executors.newSingleThreadScheduledExecutor(
+              new MostExecutors.NamedThreadFactory("Idle parser reaper"));
+      long periodNanos = Math.max(idleTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(100));
+      idleParserReaper.scheduleAtFixedRate(
+          this::retireIdleParsers, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    } else {
+      idleParserReaper = null;
+    }
+  }
+
+  /**
+   * Creates a pool that retires idle parsers in the background.
+   *
+   * @param maxParsers the maximum number of parsers to keep, across all cells.
+   * @param idleTimeoutMs how long a parser may stay unused before it is retired.
+   */
+  static AdaptiveParserPool create(
+      int maxParsers, long idleTimeoutMs, Function<Cell, ProjectBuildFileParser> parserFactory) {
+    return new AdaptiveParserPool(
+        maxParsers,
+        TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs),
+        parserFactory,
+        System::nanoTime,
+        true);
+  }
+
+  /**
+   * Sizes the pool so that it neither creates more parsers than there are cores to run them, nor
+   * more than fit into the memory that is currently free.
+   *
+   * @param configuredMaxParsers the upper bound set by the user.
+   * @param availableCores the number of cores of the machine.
+   * @param freeMemoryBytes the physical memory that is currently unused.
+   * @param memoryPerParserBytes the memory a single parser is expected to use.
+   */
+  static int computeMaxParsers(
+      int configuredMaxParsers,
+      int availableCores,
+      long freeMemoryBytes,
+      long memoryPerParserBytes) {
+    long parsersFittingInMemory = freeMemoryBytes / Math.max(memoryPerParserBytes, 1);
+    long maxParsers =
+        Math.min(Math.min(configuredMaxParsers, availableCores), parsersFittingInMemory);
+    return (int) Math.max(maxParsers, 1);
+  }
+
+  /** @return the counters that report how the pool is used. */
+  ImmutableList<Counter> getCounters() {
+    return ImmutableList.of(
+        queueWaitTimeCounter,
+        parserUtilizationCounter,
+        parsersCreatedCounter,
+        parsersRetiredWhileIdleCounter);
+  }
+
+  /**
+   * Runs {@code withParser} with a parser of {@code cell} once one is available.
+   *
+   * @return a {@link ListenableFuture} containing the result of {@code withParser}. The future will
+   *     be cancelled if the pool is closed before a parser became available.
+   */
+  <T> ListenableFuture<T> scheduleOperationWithParser(
+      Cell cell,
+      ResourcePool.ThrowingFunction<ProjectBuildFileParser, T> withParser,
+      ListeningExecutorService executorService) {
+    ListenableFuture<T> futureWork =
+        Futures.transformAsync(
+            acquireParser(cell),
+            pooledParser -> {
+              long startNanos = nanoTime.getAsLong();
+              boolean parserIsDefunct = true;
+              try {
+                T result = withParser.apply(pooledParser.parser);
+                parserIsDefunct = false;
+                return Futures.immediateFuture(result);
+              } finally {
+                // If the Python process garbles the output stream then the bser codec doesn't
+                // always recover and subsequent attempts at invoking the parser will fail.
+                releaseParser(pooledParser, startNanos, parserIsDefunct);
+              }
+            },
+            executorService);
+    // Cancelling the returned future must not stop the work, otherwise the parser could be
+    // released while it is still in use.
+    return Futures.nonCancellationPropagating(futureWork);
+  }
+
+  /** Calls {@code withParser} on every parser that has not been retired yet. */
+  synchronized void callOnEachParser(Consumer<ProjectBuildFileParser> withParser) {
+    for (PooledParser pooledParser : parsers) {
+      withParser.accept(pooledParser.parser);
+    }
+  }
+
+  private ListenableFuture<PooledParser> acquireParser(Cell cell) {
+    List<PooledParser> retiredParsers = new ArrayList<>();
+    ListenableFuture<PooledParser> result;
+    synchronized (this) {
+      Preconditions.checkState(!closing);
+      Optional<PooledParser> pooledParser = obtainParser(cell, retiredParsers);
+      if (pooledParser.isPresent()) {
+        queueWaitTimeCounter.addSample(0);
+        result = Futures.immediateFuture(pooledParser.get());
+      } else {
+        ParserRequest request = new ParserRequest(cell, nanoTime.getAsLong());
+        parserRequests.add(request);
+        result = request.future;
+      }
+    }
+    closeParsers(retiredParsers);
+    return result;
+  }
+
+  private void releaseParser(PooledParser pooledParser, long startNanos, boolean isDefunct) {
+    List<PooledParser> retiredParsers = new ArrayList<>();
+    Map<ParserRequest, PooledParser> grantedRequests = new LinkedHashMap<>();
+    synchronized (this) {
+      long now = nanoTime.getAsLong();
+      pooledParser.busyNanos += now - startNanos;
+      pooledParser.idleSinceNanos = now;
+      if (isDefunct || closing) {
+        parsers.remove(pooledParser);
+        retiredParsers.add(pooledParser);
+      } else {
+        idleParsers
+            .computeIfAbsent(pooledParser.cell, cell -> new ArrayDeque<>())
+            .add(pooledParser);
+      }
+      grantRequests(grantedRequests, retiredParsers);
+    }
+    closeParsers(retiredParsers);
+    for (Map.Entry<ParserRequest, PooledParser> grant : grantedRequests.entrySet()) {
+      if (!grant.getKey().future.set(grant.getValue())) {
+        // The request was cancelled in the meantime, so the parser goes back to the pool.
+        releaseParser(grant.getValue(), nanoTime.getAsLong(), false);
+      }
+    }
+  }
+
+  /** Hands out parsers to queued requests, in the order the requests were made. */
+  @GuardedBy("this")
+  private void grantRequests(
+      Map<ParserRequest, PooledParser> grantedRequests, List<PooledParser> retiredParsers) {
+    while (!closing && !parserRequests.isEmpty()) {
+      ParserRequest request = parserRequests.peekFirst();
+      if (request.future.isDone()) {
+        parserRequests.pollFirst();
+        continue;
+      }
+      // If the oldest request cannot be satisfied, the budget is exhausted and there are no idle
+      // parsers to retire, so none of the later requests can be satisfied either.
+      Optional<PooledParser> pooledParser = obtainParser(request.cell, retiredParsers);
+      if (!pooledParser.isPresent()) {
+        return;
+      }
+      parserRequests.pollFirst();
+      queueWaitTimeCounter.addSample(
+          TimeUnit.NANOSECONDS.toMillis(nanoTime.getAsLong() - request.requestedNanos));
+      grantedRequests.put(request, pooledParser.get());
+    }
+  }
+
+  @GuardedBy("this")
+  private Optional<PooledParser> obtainParser(Cell cell, List<PooledParser> retiredParsers) {
+    Deque<PooledParser> idleParsersOfCell = idleParsers.get(cell);
+    if (idleParsersOfCell != null && !idleParsersOfCell.isEmpty()) {
+      // Reusing the most recently returned parser lets the others reach the idle timeout.
+      return Optional.of(idleParsersOfCell.pollLast());
+    }
+    if (parsers.size() >= maxParsers) {
+      Optional<PooledParser> longestIdleParser = removeLongestIdleParser();
+      if (!longestIdleParser.isPresent()) {
+        return Optional.empty();
+      }
+      parsers.remove(longestIdleParser.get());
+      retiredParsers.add(longestIdleParser.get());
+    }
+    PooledParser pooledParser =
+        new PooledParser(
+            cell, Preconditions.checkNotNull(parserFactory.apply(cell)), nanoTime.getAsLong());
+    parsers.add(pooledParser);
+    parsersCreatedCounter.inc();
+    return Optional.of(pooledParser);
+  }
+
+  @GuardedBy("this")
+  private Optional<PooledParser> removeLongestIdleParser() {
+    Deque<PooledParser> longestIdleParsers = null;
+    for (Deque<PooledParser> idleParsersOfCell : idleParsers.values()) {
+      PooledParser candidate = idleParsersOfCell.peekFirst();
+      if (candidate != null
+          && (longestIdleParsers == null
+              || candidate.idleSinceNanos < longestIdleParsers.getFirst().idleSinceNanos)) {
+        longestIdleParsers = idleParsersOfCell;
+      }
+    }
+    return longestIdleParsers == null
+        ? Optional.empty()
+        : Optional.of(longestIdleParsers.pollFirst());
+  }
+
+  /** Retires the parsers that have not been used for longer than the idle timeout. */
+  @VisibleForTesting
+  void retireIdleParsers() {
+    List<PooledParser> retiredParsers = new ArrayList<>();
+    synchronized (this) {
+      long now = nanoTime.getAsLong();
+      for (Deque<PooledParser> idleParsersOfCell : idleParsers.values()) {
+        while (!idleParsersOfCell.isEmpty()
+            && now - idleParsersOfCell.peekFirst().idleSinceNanos >= idleTimeoutNanos) {
+          PooledParser pooledParser = idleParsersOfCell.pollFirst();
+          parsers.remove(pooledParser);
+          retiredParsers.add(pooledParser);
+          parsersRetiredWhileIdleCounter.inc();
+        }
+      }
+    }
+    closeParsers(retiredParsers);
+  }
+
+  private void closeParsers(List<PooledParser> retiredParsers) {
+    for (PooledParser pooledParser : retiredParsers) {
+      long lifetimeNanos = nanoTime.getAsLong() - pooledParser.createdNanos;
+      if (lifetimeNanos > 0) {
+        parserUtilizationCounter.addSample(pooledParser.busyNanos * 100 / lifetimeNanos);
+      }
+      try {
+        pooledParser.parser.close();
+      } catch (Exception e) {
+        LOG.info(e, "Error shutting down a retired parser.");
+      }
+    }
+  }
+
+  /**
+   * Closes all idle parsers and cancels all queued requests. Parsers that are in use are closed as
+   * soon as the work they are used for completes.
+   */
+  @Override
+  public void close() {
+    List<PooledParser> retiredParsers = new ArrayList<>();
+    List<ParserRequest> cancelledRequests;
+    synchronized (this) {
+      Preconditions.checkState(!closing);
+      closing = true;
+      for (Deque<PooledParser> idleParsersOfCell : idleParsers.values()) {
+        retiredParsers.addAll(idleParsersOfCell);
+        parsers.removeAll(idleParsersOfCell);
+      }
+      idleParsers.clear();
+      cancelledRequests = new ArrayList<>(parserRequests);
+      parserRequests.clear();
+    }
+    if (idleParserReaper != null) {
+      idleParserReaper.shutdownNow();
+    }
+    for (ParserRequest request : cancelledRequests) {
+      request.future.cancel(false);
+    }
+    closeParsers(retiredParsers);
+  }
+
+  private static final class PooledParser {
+    private final Cell cell;
+    private final ProjectBuildFileParser parser;
+    private final long createdNanos;
+    private long busyNanos;
+    private long idleSinceNanos;
+
+    private PooledParser(Cell cell, ProjectBuildFileParser parser, long createdNanos) {
+      this.cell = cell;
+      this.parser = parser;
+      this.createdNanos = createdNanos;
+      this.idleSinceNanos = createdNanos;
+    }
+  }
+
+  private static final class ParserRequest {
+    private final Cell cell;
+    private final long requestedNanos;
+    private final SettableFuture<PooledParser> future = SettableFuture.create();
+
+    private ParserRequest(Cell cell, long requestedNanos) {
+      this.cell = cell;
+      this.requestedNanos = requestedNanos;
+    }
+  }
+}
@@ -47,6 +47,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import javax.annotation.concurrent.GuardedBy;
 
 class DaemonicCellState {
@@ -186,10 +187,19 @@ class DaemonicCellState {
   }
 
   int invalidatePath(Path path) {
+    return invalidatePath(path, buildFile -> {});
+  }
+
+  /**
+   * @param invalidatedBuildFiles Called with every build file whose nodes are removed, including
+   *     those that are only invalidated because they include {@code path}.
+   */
+  int invalidatePath(Path path, Consumer<Path> invalidatedBuildFiles) {
     try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
       int invalidatedRawNodes = 0;
       ImmutableSet<Map<String, Object>> rawNodes = allRawNodes.getIfPresent(path);
       if (rawNodes != null) {
+        invalidatedBuildFiles.accept(path);
         // Increment the counter
         invalidatedRawNodes = rawNodes.size();
         for (Map<String, Object> rawNode : rawNodes) {
@@ -213,7 +223,7 @@ class DaemonicCellState {
         if (dependent.equals(path)) {
           continue;
         }
-        invalidatedRawNodes += invalidatePath(dependent);
+        invalidatedRawNodes += invalidatePath(dependent, invalidatedBuildFiles);
       }
       buildFileDependents.removeAll(path);
       buildFileEnv.remove(path);
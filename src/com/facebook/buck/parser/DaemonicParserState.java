@@ -32,9 +32,11 @@ import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.parser.thrift.RemoteDaemonicCellState;
 import com.facebook.buck.parser.thrift.RemoteDaemonicParserState;
+import com.facebook.buck.query.QueryResultCache;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.CellPathResolver;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.skylark.io.impl.GlobCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
 import com.google.common.base.Preconditions;
@@ -295,6 +297,15 @@ public class DaemonicParserState {
 
   private final LoadingCache<Cell, BuildFileTree> buildFileTrees;
 
+  /** Results of globs in Skylark build files, which only change when files are added or removed. */
+  private final GlobCache globCache = new GlobCache();
+
+  /**
+   * Results of {@code buck query} expressions, which are dropped when the build files they were
+   * computed from are invalidated.
+   */
+  private final QueryResultCache queryResultCache;
+
   /**
    * The default includes used by the previous run of the parser in each cell (the key is the cell's
    * root path). If this value changes, then we need to invalidate all the caches.
@@ -311,7 +322,8 @@ public class DaemonicParserState {
       BroadcastEventListener broadcastEventListener,
       TypeCoercerFactory typeCoercerFactory,
       int parsingThreads,
-      boolean shouldIgnoreEnvironmentVariablesChanges) {
+      boolean shouldIgnoreEnvironmentVariablesChanges,
+      long queryResultCacheMaxWeight) {
     this.parsingThreads = parsingThreads;
     this.shouldIgnoreEnvironmentVariablesChanges = shouldIgnoreEnvironmentVariablesChanges;
     this.typeCoercerFactory = typeCoercerFactory;
@@ -352,6 +364,7 @@ public class DaemonicParserState {
         new ConcurrentHashMap<>(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, parsingThreads);
 
     this.rawNodeCache = new DaemonicRawCacheView();
+    this.queryResultCache = new QueryResultCache(queryResultCacheMaxWeight);
 
     this.cachedStateLock = new AutoCloseableReadWriteUpdateLock();
     this.cellStateLock = new AutoCloseableReadWriteUpdateLock();
@@ -366,6 +379,14 @@ public class DaemonicParserState {
     return buildFileTrees;
   }
 
+  GlobCache getGlobCache() {
+    return globCache;
+  }
+
+  public QueryResultCache getQueryResultCache() {
+    return queryResultCache;
+  }
+
   /**
    * Retrieve the cache view for caching a particular type.
    *
@@ -434,6 +455,8 @@ public class DaemonicParserState {
                   fullPath, cell);
               // If a build file has been added or removed, reconstruct the build file tree.
               buildFileTrees.invalidate(cell);
+              // This also changes which packages own files and targets, which queries rely on.
+              queryResultCache.invalidateAll();
             }
 
             // Added or removed files can affect globs, so invalidate the package build file
@@ -458,6 +481,10 @@ public class DaemonicParserState {
       }
     }
 
+    if (isPathCreateOrDeleteEvent(event)) {
+      globCache.invalidate(fullPath);
+      queryResultCache.invalidateCreatedOrDeletedPath(fullPath);
+    }
     invalidatePath(fullPath);
   }
 
@@ -486,6 +513,8 @@ public class DaemonicParserState {
                   fullPath, cell);
               // If a build file has been added or removed, reconstruct the build file tree.
               buildFileTrees.invalidate(cell);
+              // This also changes which packages own files and targets, which queries rely on.
+              queryResultCache.invalidateAll();
             }
 
             // Added or removed files can affect globs, so invalidate the package build file
@@ -511,6 +540,10 @@ public class DaemonicParserState {
       }
     }
 
+    if (isCreatedOrDeleted) {
+      globCache.invalidate(fullPath);
+      queryResultCache.invalidateCreatedOrDeletedPath(fullPath);
+    }
     invalidatePath(fullPath);
   }
 
@@ -586,7 +619,7 @@ public class DaemonicParserState {
 
     // Paths passed in may not be absolute.
     path = state.getCellRoot().resolve(path);
-    int invalidatedNodes = state.invalidatePath(path);
+    int invalidatedNodes = state.invalidatePath(path, queryResultCache::invalidateBuildFile);
     rulesInvalidatedByWatchEventsCounter.inc(invalidatedNodes);
   }
 
@@ -667,6 +700,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
       cellPathToDaemonicState.remove(cell.getRoot());
+      queryResultCache.invalidateAll();
       if (invalidated) {
         LOG.debug("Cell cache data invalidated.");
       } else {
@@ -683,6 +717,8 @@ public class DaemonicParserState {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
       cellPathToDaemonicState.clear();
       buildFileTrees.invalidateAll();
+      globCache.invalidateAll();
+      queryResultCache.invalidateAll();
       if (invalidated) {
         LOG.debug("Cache data invalidated.");
       } else {
@@ -693,14 +729,17 @@ public class DaemonicParserState {
   }
 
   public ImmutableList<Counter> getCounters() {
-    return ImmutableList.of(
-        cacheInvalidatedByEnvironmentVariableChangeCounter,
-        cacheInvalidatedByDefaultIncludesChangeCounter,
-        cacheInvalidatedByWatchOverflowCounter,
-        buildFilesInvalidatedByFileAddOrRemoveCounter,
-        filesChangedCounter,
-        rulesInvalidatedByWatchEventsCounter,
-        pathsAddedOrRemovedInvalidatingBuildFiles);
+    return ImmutableList.<Counter>builder()
+        .add(
+            cacheInvalidatedByEnvironmentVariableChangeCounter,
+            cacheInvalidatedByDefaultIncludesChangeCounter,
+            cacheInvalidatedByWatchOverflowCounter,
+            buildFilesInvalidatedByFileAddOrRemoveCounter,
+            filesChangedCounter,
+            rulesInvalidatedByWatchEventsCounter,
+            pathsAddedOrRemovedInvalidatingBuildFiles)
+        .addAll(queryResultCache.getCounters())
+        .build();
   }
 
   @Override
@@ -770,6 +809,7 @@ public class DaemonicParserState {
           Path absolutePath = rootCell.getRoot().resolve(path).normalize();
           cachedIncludes.put(absolutePath, v);
         });
+    queryResultCache.invalidateAll();
     return this;
   }
 }
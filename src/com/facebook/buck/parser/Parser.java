@@ -36,6 +36,7 @@ import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.parser.exceptions.MissingBuildFileException;
 import com.facebook.buck.parser.thrift.RemoteDaemonicParserState;
+import com.facebook.buck.query.QueryResultCache;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.ImplicitFlavorsInferringDescription;
 import com.facebook.buck.rules.KnownBuildRuleTypesProvider;
@@ -102,7 +103,8 @@ public class Parser {
             broadcastEventListener,
             typeCoercerFactory,
             parserConfig.getNumParsingThreads(),
-            parserConfig.shouldIgnoreEnvironmentVariablesChanges());
+            parserConfig.shouldIgnoreEnvironmentVariablesChanges(),
+            parserConfig.getQueryResultCacheMaxWeight());
     this.marshaller = marshaller;
     this.knownBuildRuleTypesProvider = knownBuildRuleTypesProvider;
     this.parserPythonInterpreterProvider =
@@ -643,4 +645,9 @@ public class Parser {
   public ImmutableList<Counter> getCounters() {
     return permState.getCounters();
   }
+
+  /** @return the results of queries kept across commands, see {@link QueryResultCache}. */
+  public QueryResultCache getQueryResultCache() {
+    return permState.getQueryResultCache();
+  }
 }
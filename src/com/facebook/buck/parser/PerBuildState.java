@@ -16,6 +16,7 @@
 
 package com.facebook.buck.parser;
 
+import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.ParsingEvent;
@@ -41,7 +42,9 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.management.OperatingSystemMXBean;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
@@ -51,6 +54,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class PerBuildState implements AutoCloseable {
   private static final Logger LOG = Logger.get(PerBuildState.class);
@@ -132,14 +136,32 @@ public class PerBuildState implements AutoCloseable {
 
     TargetNodeListener<TargetNode<?, ?>> symlinkCheckers = this::registerInputsUnderSymlinks;
     ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
-    int numParsingThreads = parserConfig.getNumParsingThreads();
-    this.projectBuildFileParserPool =
-        new ProjectBuildFileParserPool(
-            numParsingThreads, // Max parsers to create per cell.
-            cell ->
-                createBuildFileParser(
-                    cell, knownBuildRuleTypesProvider.get(cell).getDescriptions()),
-            enableProfiling);
+    Function<Cell, ProjectBuildFileParser> parserFactory =
+        cell ->
+            createBuildFileParser(cell, knownBuildRuleTypesProvider.get(cell).getDescriptions());
+    if (parserConfig.getParserPoolMode() == ParserConfig.ParserPoolMode.ADAPTIVE) {
+      OperatingSystemMXBean osBean =
+          (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+      AdaptiveParserPool adaptiveParserPool =
+          AdaptiveParserPool.create(
+              AdaptiveParserPool.computeMaxParsers(
+                  parserConfig.getParserPoolMaxParsers(),
+                  Runtime.getRuntime().availableProcessors(),
+                  osBean.getFreePhysicalMemorySize(),
+                  parserConfig.getParserPoolMemoryPerParserBytes()),
+              parserConfig.getParserPoolIdleTimeoutMs(),
+              parserFactory);
+      eventBus.post(
+          new CounterRegistry.AsyncCounterRegistrationEvent(adaptiveParserPool.getCounters()));
+      this.projectBuildFileParserPool =
+          ProjectBuildFileParserPool.adaptive(adaptiveParserPool, enableProfiling);
+    } else {
+      this.projectBuildFileParserPool =
+          new ProjectBuildFileParserPool(
+              parserConfig.getNumParsingThreads(), // Max parsers to create per cell.
+              parserFactory,
+              enableProfiling);
+    }
 
     this.rawNodeParsePipeline =
         new RawNodeParsePipeline(
@@ -215,7 +237,8 @@ public class PerBuildState implements AutoCloseable {
         eventBus,
         parserPythonInterpreterProvider,
         descriptions,
-        enableProfiling);
+        enableProfiling,
+        parser.getPermState().getGlobCache());
   }
 
   private void register(Cell cell) {
@@ -24,17 +24,21 @@ import com.facebook.buck.json.HybridProjectBuildFileParser;
 import com.facebook.buck.json.PythonDslProjectBuildFileParser;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.api.Syntax;
+import com.facebook.buck.parser.cache.CachingProjectBuildFileParser;
+import com.facebook.buck.parser.cache.LocalParseResultCacheStorage;
 import com.facebook.buck.parser.decorators.EventReportingProjectBuildFileParser;
 import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.Description;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.skylark.io.impl.GlobCache;
 import com.facebook.buck.skylark.parser.ConsoleEventHandler;
 import com.facebook.buck.skylark.parser.SkylarkProjectBuildFileParser;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultProcessExecutor;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.events.EventKind;
+import java.nio.file.Path;
 import java.util.Optional;
 
 public class ProjectBuildFileParserFactory {
@@ -56,7 +60,8 @@ public class ProjectBuildFileParserFactory {
         eventBus,
         new ParserPythonInterpreterProvider(cell.getBuckConfig(), executableFinder),
         descriptions, /* enableProfiling */
-        false);
+        false,
+        new GlobCache());
   }
 
   /**
@@ -77,13 +82,14 @@ public class ProjectBuildFileParserFactory {
         eventBus,
         pythonInterpreterProvider,
         descriptions, /* enableProfiling */
-        false);
+        false,
+        new GlobCache());
   }
 
   /**
    * Same as @{{@link #createBuildFileParser(Cell, TypeCoercerFactory, Console, BuckEventBus,
    * ParserPythonInterpreterProvider, Iterable)}} but provides a way to configure whether parse
-   * profiling should be enabled
+   * profiling should be enabled and which {@link GlobCache} the Skylark parser should use.
    */
   static ProjectBuildFileParser createBuildFileParser(
       Cell cell,
@@ -92,7 +98,8 @@ public class ProjectBuildFileParserFactory {
       BuckEventBus eventBus,
       ParserPythonInterpreterProvider pythonInterpreterProvider,
       Iterable<Description<?>> descriptions,
-      boolean enableProfiling) {
+      boolean enableProfiling,
+      GlobCache globCache) {
 
     ParserConfig parserConfig = cell.getBuckConfig().getView(ParserConfig.class);
 
@@ -128,10 +135,30 @@ public class ProjectBuildFileParserFactory {
             .setDisableImplicitNativeRules(parserConfig.getDisableImplicitNativeRules())
             .setWarnAboutDeprecatedSyntax(parserConfig.isWarnAboutDeprecatedSyntax())
             .build();
-    return EventReportingProjectBuildFileParser.of(
+    ProjectBuildFileParser parser =
         createProjectBuildFileParser(
-            cell, typeCoercerFactory, console, eventBus, parserConfig, buildFileParserOptions),
-        eventBus);
+            cell,
+            typeCoercerFactory,
+            console,
+            eventBus,
+            parserConfig,
+            buildFileParserOptions,
+            globCache);
+    Optional<Path> parseResultCacheDir = parserConfig.getParseResultCacheDir();
+    if (parseResultCacheDir.isPresent()) {
+      parser =
+          CachingProjectBuildFileParser.of(
+              parser,
+              new LocalParseResultCacheStorage(
+                  parseResultCacheDir.get(), parserConfig.getParseResultCacheMaxSizeBytes()),
+              cell.getFilesystem(),
+              cell.getBuildFileName(),
+              cell::isEnforcingBuckPackageBoundaries,
+              buildFileParserOptions.getCellName(),
+              buildFileParserOptions.getRawConfig(),
+              cell.getBuckConfig().getEnvironment());
+    }
+    return EventReportingProjectBuildFileParser.of(parser, eventBus);
   }
 
   /** Creates a project build file parser based on Buck configuration settings. */
@@ -141,7 +168,8 @@ public class ProjectBuildFileParserFactory {
       Console console,
       BuckEventBus eventBus,
       ParserConfig parserConfig,
-      ProjectBuildFileParserOptions buildFileParserOptions) {
+      ProjectBuildFileParserOptions buildFileParserOptions,
+      GlobCache globCache) {
     PythonDslProjectBuildFileParser pythonDslProjectBuildFileParser =
         new PythonDslProjectBuildFileParser(
             buildFileParserOptions,
@@ -160,7 +188,8 @@ public class ProjectBuildFileParserFactory {
                   eventBus,
                   SkylarkFilesystem.using(cell.getFilesystem()),
                   typeCoercerFactory,
-                  new ConsoleEventHandler(eventBus, EventKind.ALL_EVENTS))),
+                  new ConsoleEventHandler(eventBus, EventKind.ALL_EVENTS),
+                  globCache)),
           parserConfig.getDefaultBuildFileSyntax());
     }
     return pythonDslProjectBuildFileParser;
@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -39,6 +40,9 @@ import javax.annotation.concurrent.GuardedBy;
  * <p>Parser instances are lazily created up till a fixed maximum. If more than max parser are
  * requested the associated 'requests' are queued up. As soon as a parser is returned it will be
  * used to satisfy the first pending request, otherwise it is "parked".
+ *
+ * <p>In adaptive mode the maximum applies to all cells together instead, and parsers are retired
+ * when they stay idle for too long. See {@link AdaptiveParserPool}.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
@@ -49,6 +53,7 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final Map<Cell, ResourcePool<ProjectBuildFileParser>> parserResourcePools;
 
   private final Function<Cell, ProjectBuildFileParser> parserFactory;
+  @Nullable private final AdaptiveParserPool adaptiveParserPool;
   private final AtomicBoolean closing;
   private final boolean enableProfiler;
 
@@ -60,15 +65,40 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       int maxParsersPerCell,
       Function<Cell, ProjectBuildFileParser> parserFactory,
       boolean enableProfiler) {
+    this(maxParsersPerCell, parserFactory, null, enableProfiler);
+  }
+
+  private ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      Function<Cell, ProjectBuildFileParser> parserFactory,
+      @Nullable AdaptiveParserPool adaptiveParserPool,
+      boolean enableProfiler) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
     this.parserResourcePools = new HashMap<>();
     this.parserFactory = parserFactory;
+    this.adaptiveParserPool = adaptiveParserPool;
     this.closing = new AtomicBoolean(false);
     this.enableProfiler = enableProfiler;
   }
 
+  /**
+   * Creates a pool that shares the parsers of {@code adaptiveParserPool} between all cells.
+   *
+   * @param adaptiveParserPool the pool parsers are taken from. It is closed with this pool.
+   */
+  static ProjectBuildFileParserPool adaptive(
+      AdaptiveParserPool adaptiveParserPool, boolean enableProfiler) {
+    return new ProjectBuildFileParserPool(
+        1,
+        cell -> {
+          throw new IllegalStateException("Parsers are created by the adaptive pool.");
+        },
+        adaptiveParserPool,
+        enableProfiler);
+  }
+
   /**
    * @param cell the cell in which we're parsing
    * @param buildFile the file to parse
@@ -83,6 +113,12 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       final ListeningExecutorService executorService) {
     Preconditions.checkState(!closing.get());
 
+    if (adaptiveParserPool != null) {
+      return adaptiveParserPool.scheduleOperationWithParser(
+          cell,
+          parser -> ImmutableSet.copyOf(parser.getAllRulesAndMetaRules(buildFile, processedBytes)),
+          executorService);
+    }
     return getResourcePoolForCell(cell)
         .scheduleOperationWithResource(
             parser ->
@@ -109,25 +145,28 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     if (!enableProfiler) {
       return;
     }
+    if (adaptiveParserPool != null) {
+      adaptiveParserPool.callOnEachParser(ProjectBuildFileParserPool::reportParserProfile);
+      return;
+    }
     synchronized (this) {
       parserResourcePools
           .values()
           .forEach(
               resourcePool -> {
-                resourcePool.callOnEachResource(
-                    parser -> {
-                      try {
-                        parser.reportProfile();
-                      } catch (IOException exception) {
-                        LOG.debug(
-                            exception,
-                            "Exception raised during reportProfile() and we're ignoring it");
-                      }
-                    });
+                resourcePool.callOnEachResource(ProjectBuildFileParserPool::reportParserProfile);
               });
     }
   }
 
+  private static void reportParserProfile(ProjectBuildFileParser parser) {
+    try {
+      parser.reportProfile();
+    } catch (IOException exception) {
+      LOG.debug(exception, "Exception raised during reportProfile() and we're ignoring it");
+    }
+  }
+
   @Override
   public void close() {
     reportProfile();
@@ -138,5 +177,8 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       resourcePools = ImmutableSet.copyOf(parserResourcePools.values());
     }
     resourcePools.forEach(ResourcePool::close);
+    if (adaptiveParserPool != null) {
+      adaptiveParserPool.close();
+    }
   }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Stores parse result cache entries in an {@link ArtifactCache}, so that they can be shared
+ * between machines, for example by CI workers.
+ *
+ * <p>Cache keys are used as rule keys. Parse result keys are hashes of a different shape than the
+ * keys of build rules, so the two never collide.
+ */
+public class ArtifactCacheParseResultCacheStorage implements ParseResultCacheStorage {
+
+  private final ArtifactCache artifactCache;
+  private final Path tmpDir;
+
+  /**
+   * @param artifactCache The cache to store entries in. It is not closed by this storage.
+   * @param tmpDir The directory entries are staged in while they are transferred.
+   */
+  public ArtifactCacheParseResultCacheStorage(ArtifactCache artifactCache, Path tmpDir) {
+    this.artifactCache = artifactCache;
+    this.tmpDir = tmpDir;
+  }
+
+  @Override
+  public Optional<byte[]> fetch(HashCode key) throws IOException, InterruptedException {
+    Files.createDirectories(tmpDir);
+    Path tmp = Files.createTempFile(tmpDir, key.toString(), ".fetch");
+    try {
+      CacheResult result =
+          waitFor(artifactCache.fetchAsync(new RuleKey(key), LazyPath.ofInstance(tmp)));
+      if (!result.getType().isSuccess()) {
+        return Optional.empty();
+      }
+      return Optional.of(Files.readAllBytes(tmp));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @Override
+  public void store(HashCode key, byte[] entry) throws IOException, InterruptedException {
+    if (!artifactCache.getCacheReadMode().isWritable()) {
+      return;
+    }
+    Files.createDirectories(tmpDir);
+    Path tmp = Files.createTempFile(tmpDir, key.toString(), ".store");
+    try {
+      Files.write(tmp, entry);
+      waitFor(
+          artifactCache.store(
+              ArtifactInfo.builder().addRuleKeys(new RuleKey(key)).build(),
+              BorrowablePath.notBorrowablePath(tmp)));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static <T> T waitFor(Future<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to transfer parse result cache entry.", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.io.file.MorePaths;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.exceptions.BuildFileParseException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Decorator for {@link ProjectBuildFileParser} that keeps the raw rules of build files in a
+ * persistent {@link ParseResultCacheStorage}, so that processes that start without any parser
+ * state, like a fresh daemon or a CI worker, do not have to evaluate every build file again.
+ *
+ * <p>Which files and environment variables a build file depends on is only known after it has been
+ * evaluated, so results are looked up in two steps, similar to manifest based rule keys:
+ *
+ * <ol>
+ *   <li>The manifest key hashes the Buck version, the parser configuration and the path and
+ *       contents of the build file. It maps to a manifest that lists the included files and the
+ *       environment variables read during the last evaluation of that build file.
+ *   <li>The result key additionally hashes the current contents of every file and the current value
+ *       of every environment variable from the manifest, as well as the paths of the files in the
+ *       package of the build file. It maps to the raw rules.
+ * </ol>
+ *
+ * <p>Paths inside of the cell root are stored relative to it, so that entries can be shared by
+ * checkouts in different locations. The whole raw configuration is part of the key, since not
+ * every parser reports which configuration options a build file reads.
+ *
+ * <p>The parsers do not report the patterns of the globs a build file evaluates either. Instead,
+ * the paths of all files its globs could match are part of the result key, so adding or removing
+ * any file in the package makes the result stale, just like it invalidates the build file in the
+ * daemon's parser state.
+ */
+public class CachingProjectBuildFileParser implements ProjectBuildFileParser {
+
+  private static final Logger LOG = Logger.get(CachingProjectBuildFileParser.class);
+
+  /** Bump whenever the layout of the entries changes. */
+  private static final int FORMAT_VERSION = 3;
+
+  private static final String INCLUDES_META_RULE = "__includes";
+  private static final String ENV_META_RULE = "__env";
+
+  private static final String MANIFEST_INCLUDES = "includes";
+  private static final String MANIFEST_ENV = "env";
+
+  private final ProjectBuildFileParser delegate;
+  private final ParseResultCacheStorage storage;
+  private final ProjectFilesystem filesystem;
+  private final Path cellRoot;
+  private final String buildFileName;
+  private final Predicate<Path> isEnforcingPackageBoundaries;
+  private final ImmutableMap<String, String> environment;
+  private final HashCode configHash;
+  /** Files usually are included by many build files, so their hashes are only computed once. */
+  private final ConcurrentMap<Path, HashCode> fileHashes = new ConcurrentHashMap<>();
+  /** Listing a package is needed both to look up and to store its result. */
+  private final ConcurrentMap<Path, HashCode> packageFilesHashes = new ConcurrentHashMap<>();
+
+  private CachingProjectBuildFileParser(
+      ProjectBuildFileParser delegate,
+      ParseResultCacheStorage storage,
+      ProjectFilesystem filesystem,
+      String buildFileName,
+      Predicate<Path> isEnforcingPackageBoundaries,
+      String cellName,
+      ImmutableMap<String, ImmutableMap<String, String>> rawConfig,
+      ImmutableMap<String, String> environment) {
+    this.delegate = delegate;
+    this.storage = storage;
+    this.filesystem = filesystem;
+    this.cellRoot = filesystem.getRootPath();
+    this.buildFileName = buildFileName;
+    this.isEnforcingPackageBoundaries = isEnforcingPackageBoundaries;
+    this.environment = environment;
+    this.configHash = hashConfig(cellName, rawConfig);
+  }
+
+  @Override
+  public ImmutableList<Map<String, Object>> getAll(Path buildFile, AtomicLong processedBytes)
+      throws BuildFileParseException, InterruptedException, IOException {
+    return delegate.getAll(buildFile, processedBytes);
+  }
+
+  @Override
+  public ImmutableList<Map<String, Object>> getAllRulesAndMetaRules(
+      Path buildFile, AtomicLong processedBytes)
+      throws BuildFileParseException, InterruptedException, IOException {
+    HashCode manifestKey;
+    try {
+      manifestKey = getManifestKey(buildFile);
+      Optional<ImmutableList<Map<String, Object>>> cachedRules = lookUp(buildFile, manifestKey);
+      if (cachedRules.isPresent()) {
+        LOG.verbose("Parse result cache hit for %s", buildFile);
+        return cachedRules.get();
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to look up %s in the parse result cache.", buildFile);
+      return delegate.getAllRulesAndMetaRules(buildFile, processedBytes);
+    }
+
+    ImmutableList<Map<String, Object>> rules =
+        delegate.getAllRulesAndMetaRules(buildFile, processedBytes);
+    try {
+      store(buildFile, manifestKey, rules);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store the parse result of %s in the cache.", buildFile);
+    }
+    return rules;
+  }
+
+  private Optional<ImmutableList<Map<String, Object>>> lookUp(Path buildFile, HashCode manifestKey)
+      throws IOException, InterruptedException {
+    Optional<byte[]> manifestEntry = storage.fetch(manifestKey);
+    if (!manifestEntry.isPresent()) {
+      return Optional.empty();
+    }
+    Map<?, ?> manifest = (Map<?, ?>) ParseResultSerializer.deserialize(manifestEntry.get());
+    Optional<HashCode> resultKey =
+        getResultKey(
+            manifestKey,
+            buildFile,
+            (List<?>) manifest.get(MANIFEST_INCLUDES),
+            (List<?>) manifest.get(MANIFEST_ENV));
+    if (!resultKey.isPresent()) {
+      return Optional.empty();
+    }
+    Optional<byte[]> resultEntry = storage.fetch(resultKey.get());
+    if (!resultEntry.isPresent()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        restoreRules((List<?>) ParseResultSerializer.deserialize(resultEntry.get())));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void store(Path buildFile, HashCode manifestKey, ImmutableList<Map<String, Object>> rules)
+      throws IOException, InterruptedException {
+    ImmutableList.Builder<String> includes = ImmutableList.builder();
+    ImmutableList.Builder<String> envNames = ImmutableList.builder();
+    ImmutableList.Builder<Map<String, Object>> cacheableRules = ImmutableList.builder();
+    boolean hasIncludes = false;
+    for (Map<String, Object> rule : rules) {
+      if (rule.containsKey(INCLUDES_META_RULE)) {
+        hasIncludes = true;
+        ImmutableList.Builder<String> relativeIncludes = ImmutableList.builder();
+        for (String include : (Iterable<String>) rule.get(INCLUDES_META_RULE)) {
+          relativeIncludes.add(toCachedPath(include));
+        }
+        ImmutableList<String> cachedIncludes = relativeIncludes.build();
+        includes.addAll(cachedIncludes);
+        cacheableRules.add(ImmutableMap.of(INCLUDES_META_RULE, cachedIncludes));
+        continue;
+      }
+      if (rule.containsKey(ENV_META_RULE)) {
+        envNames.addAll(((Map<String, Object>) rule.get(ENV_META_RULE)).keySet());
+      }
+      cacheableRules.add(rule);
+    }
+    if (!hasIncludes) {
+      // Without the list of included files there is no way to tell when the result gets stale.
+      return;
+    }
+
+    byte[] resultEntry;
+    try {
+      resultEntry = ParseResultSerializer.serialize(cacheableRules.build());
+    } catch (IllegalArgumentException e) {
+      LOG.debug(e, "Raw rules cannot be cached.");
+      return;
+    }
+    ImmutableList<String> manifestIncludes = includes.build();
+    ImmutableList<String> manifestEnvNames = envNames.build();
+    Optional<HashCode> resultKey =
+        getResultKey(manifestKey, buildFile, manifestIncludes, manifestEnvNames);
+    if (!resultKey.isPresent()) {
+      return;
+    }
+    // The result goes first, so that readers never find a manifest without its result.
+    storage.store(resultKey.get(), resultEntry);
+    storage.store(
+        manifestKey,
+        ParseResultSerializer.serialize(
+            ImmutableMap.of(MANIFEST_INCLUDES, manifestIncludes, MANIFEST_ENV, manifestEnvNames)));
+  }
+
+  private HashCode getManifestKey(Path buildFile) throws IOException {
+    return Hashing.sha1()
+        .newHasher()
+        .putInt(FORMAT_VERSION)
+        .putBytes(configHash.asBytes())
+        .putString(toCachedPath(buildFile.toString()), StandardCharsets.UTF_8)
+        .putBytes(hashFile(buildFile).asBytes())
+        .hash();
+  }
+
+  /**
+   * @return the key of the result for the given manifest, or {@link Optional#empty()} if one of
+   *     the included files no longer exists.
+   */
+  private Optional<HashCode> getResultKey(
+      HashCode manifestKey, Path buildFile, List<?> includes, List<?> envNames) throws IOException {
+    Hasher hasher =
+        Hashing.sha1()
+            .newHasher()
+            .putBytes(manifestKey.asBytes())
+            .putBytes(hashPackageFiles(buildFile.getParent()).asBytes());
+    for (Object include : includes) {
+      Path path = cellRoot.resolve((String) include);
+      if (!path.toFile().isFile()) {
+        return Optional.empty();
+      }
+      hasher.putString((String) include, StandardCharsets.UTF_8);
+      hasher.putBytes(hashFile(path).asBytes());
+    }
+    for (Object name : envNames) {
+      hasher.putString((String) name, StandardCharsets.UTF_8);
+      String value = environment.get(name);
+      if (value == null) {
+        hasher.putBoolean(false);
+      } else {
+        hasher.putBoolean(true).putString(value, StandardCharsets.UTF_8);
+      }
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  @SuppressWarnings("unchecked")
+  private ImmutableList<Map<String, Object>> restoreRules(List<?> cachedRules) {
+    ImmutableList.Builder<Map<String, Object>> rules = ImmutableList.builder();
+    for (Object cachedRule : cachedRules) {
+      Map<String, Object> rule = (Map<String, Object>) cachedRule;
+      if (rule.containsKey(INCLUDES_META_RULE)) {
+        ImmutableList.Builder<String> includes = ImmutableList.builder();
+        for (String include : (Iterable<String>) rule.get(INCLUDES_META_RULE)) {
+          includes.add(cellRoot.resolve(include).toString());
+        }
+        rule = ImmutableMap.of(INCLUDES_META_RULE, includes.build());
+      }
+      rules.add(rule);
+    }
+    return rules.build();
+  }
+
+  private String toCachedPath(String path) {
+    Path absolutePath = Paths.get(path);
+    if (absolutePath.startsWith(cellRoot)) {
+      return MorePaths.pathWithUnixSeparators(cellRoot.relativize(absolutePath));
+    }
+    return path;
+  }
+
+  private HashCode hashFile(Path path) throws IOException {
+    HashCode hash = fileHashes.get(path);
+    if (hash == null) {
+      hash = Files.asByteSource(path.toFile()).hash(Hashing.sha1());
+      fileHashes.put(path, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * @return a hash of the paths of the files in {@code packageDir}, which covers the results of any
+   *     glob evaluated in it. Ignored paths are skipped, as they are by globs, and so are nested
+   *     packages where package boundaries are enforced.
+   */
+  private HashCode hashPackageFiles(Path packageDir) throws IOException {
+    HashCode hash = packageFilesHashes.get(packageDir);
+    if (hash == null) {
+      Path relativePackageDir = cellRoot.relativize(packageDir);
+      SortedSet<String> files = new TreeSet<>();
+      filesystem.walkRelativeFileTree(
+          relativePackageDir,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+              if (!dir.equals(relativePackageDir)
+                  && filesystem.isFile(dir.resolve(buildFileName))
+                  && isEnforcingPackageBoundaries.test(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              files.add(MorePaths.pathWithUnixSeparators(relativePackageDir.relativize(file)));
+              return FileVisitResult.CONTINUE;
+            }
+          });
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (String file : files) {
+        hasher.putString(file, StandardCharsets.UTF_8).putByte((byte) 0);
+      }
+      hash = hasher.hash();
+      packageFilesHashes.put(packageDir, hash);
+    }
+    return hash;
+  }
+
+  private static HashCode hashConfig(
+      String cellName, ImmutableMap<String, ImmutableMap<String, String>> rawConfig) {
+    Hasher hasher =
+        Hashing.sha1()
+            .newHasher()
+            .putString(BuckVersion.getVersion(), StandardCharsets.UTF_8)
+            .putString(cellName, StandardCharsets.UTF_8);
+    for (Map.Entry<String, ImmutableMap<String, String>> section :
+        ImmutableSortedMap.copyOf(rawConfig).entrySet()) {
+      hasher.putString(section.getKey(), StandardCharsets.UTF_8);
+      for (Map.Entry<String, String> entry :
+          ImmutableSortedMap.copyOf(section.getValue()).entrySet()) {
+        hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+        hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+      }
+    }
+    return hasher.hash();
+  }
+
+  @Override
+  public void reportProfile() throws IOException {
+    delegate.reportProfile();
+  }
+
+  @Override
+  public void close() throws BuildFileParseException, InterruptedException, IOException {
+    delegate.close();
+  }
+
+  /**
+   * Static factory method for producing instances of {@link CachingProjectBuildFileParser}.
+   *
+   * @param filesystem The filesystem of the cell whose build files {@code delegate} parses.
+   * @param buildFileName The name of the build files of the cell.
+   * @param isEnforcingPackageBoundaries Whether files in a directory with its own build file
+   *     cannot be matched by globs in the build files of parent directories.
+   * @param cellName The canonical name of the cell.
+   * @param rawConfig The configuration {@code delegate} was created with.
+   * @param environment The environment {@code delegate} evaluates build files in.
+   */
+  public static CachingProjectBuildFileParser of(
+      ProjectBuildFileParser delegate,
+      ParseResultCacheStorage storage,
+      ProjectFilesystem filesystem,
+      String buildFileName,
+      Predicate<Path> isEnforcingPackageBoundaries,
+      String cellName,
+      ImmutableMap<String, ImmutableMap<String, String>> rawConfig,
+      ImmutableMap<String, String> environment) {
+    return new CachingProjectBuildFileParser(
+        delegate,
+        storage,
+        filesystem,
+        buildFileName,
+        isEnforcingPackageBoundaries,
+        cellName,
+        rawConfig,
+        environment);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.DirectoryCleaner;
+import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores parse result cache entries as files in a local directory, which can be shared by all the
+ * Buck processes running on the machine.
+ *
+ * <p>Entries are written to a temporary file first and moved into place atomically, so concurrent
+ * readers never observe partially written entries.
+ *
+ * <p>Once half of the maximum size has been written since the last check, the least recently used
+ * entries are deleted until the directory is back to two thirds of the maximum size, like the dir
+ * artifact cache does. A deleted result only turns the lookups of its manifest into misses.
+ */
+public class LocalParseResultCacheStorage implements ParseResultCacheStorage {
+
+  private static final Logger LOG = Logger.get(LocalParseResultCacheStorage.class);
+
+  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
+  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
+  private static final String TMP_EXTENSION = ".tmp";
+
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final AtomicLong bytesSinceLastCleaning = new AtomicLong();
+
+  public LocalParseResultCacheStorage(Path cacheDir, long maxSizeBytes) {
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  @Override
+  public Optional<byte[]> fetch(HashCode key) throws IOException {
+    Path path = getPathForKey(key);
+    byte[] entry;
+    try {
+      entry = Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    markAccessed(path);
+    return Optional.of(entry);
+  }
+
+  @Override
+  public void store(HashCode key, byte[] entry) throws IOException {
+    Path path = getPathForKey(key);
+    Files.createDirectories(path.getParent());
+    Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), TMP_EXTENSION);
+    try {
+      Files.write(tmp, entry);
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    long bytesSinceLastCleaning = this.bytesSinceLastCleaning.addAndGet(entry.length);
+    if (bytesSinceLastCleaning > maxSizeBytes * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER
+        && this.bytesSinceLastCleaning.compareAndSet(bytesSinceLastCleaning, 0)) {
+      deleteLeastRecentlyUsedEntries();
+    }
+  }
+
+  /** Deletes the least recently used entries if the directory is larger than the maximum size. */
+  @VisibleForTesting
+  void deleteLeastRecentlyUsedEntries() {
+    try {
+      new DirectoryCleaner(
+              DirectoryCleanerArgs.builder()
+                  .setPathSelector(
+                      new DirectoryCleaner.PathSelector() {
+                        @Override
+                        public Iterable<Path> getCandidatesToDelete(Path rootPath)
+                            throws IOException {
+                          return getAllEntries();
+                        }
+
+                        @Override
+                        public int comparePaths(
+                            DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+                          return Long.compare(
+                              path1.getLastAccessMillis(), path2.getLastAccessMillis());
+                        }
+                      })
+                  .setMaxTotalSizeBytes(maxSizeBytes)
+                  .setMaxBytesAfterDeletion((long) (maxSizeBytes * MAX_BYTES_TRIM_RATIO))
+                  .setMinAmountOfEntriesToKeep(0)
+                  .build())
+          .clean(cacheDir);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to delete old entries of the parse result cache in %s.", cacheDir);
+    }
+  }
+
+  private List<Path> getAllEntries() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    if (!Files.isDirectory(cacheDir)) {
+      return entries;
+    }
+    Files.walkFileTree(
+        cacheDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            // Temporary files are moved into place or deleted by the process that wrote them.
+            if (!file.getFileName().toString().endsWith(TMP_EXTENSION)) {
+              entries.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // Another process may have deleted the file in the meantime.
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return entries;
+  }
+
+  /**
+   * Access times are not updated on file systems mounted with noatime, so they are set explicitly
+   * to let cleaning tell which entries are still in use.
+   */
+  private static void markAccessed(Path path) {
+    try {
+      Files.getFileAttributeView(path, BasicFileAttributeView.class)
+          .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to update the access time of %s.", path);
+    }
+  }
+
+  /** Entries are sharded by the first byte of their key to keep directories small. */
+  private Path getPathForKey(HashCode key) {
+    String name = key.toString();
+    return cacheDir.resolve(name.substring(0, 2)).resolve(name);
+  }
+}
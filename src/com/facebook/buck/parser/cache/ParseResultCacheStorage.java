@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Content-addressed storage for the entries of {@link CachingProjectBuildFileParser}.
+ *
+ * <p>Entries are immutable once stored for a given key, so implementations are free to share them
+ * between processes and machines.
+ */
+public interface ParseResultCacheStorage {
+
+  /** @return the entry stored for {@code key}, or {@link Optional#empty()} if there is none. */
+  Optional<byte[]> fetch(HashCode key) throws IOException, InterruptedException;
+
+  /** Stores {@code entry} under {@code key}, replacing any previous entry. */
+  void store(HashCode key, byte[] entry) throws IOException, InterruptedException;
+}
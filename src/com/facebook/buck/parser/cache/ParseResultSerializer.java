@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.util.ImmutableMapWithNullValues;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary encoding of the values produced by build file parsers: maps, lists, strings,
+ * booleans, numbers and {@code null}.
+ *
+ * <p>Every distinct string is written once and referred to by index afterwards, which removes most
+ * of the redundancy of raw rules (attribute names, rule types, base paths), and the result is
+ * deflated. Decoded values use the same representation as {@code
+ * BuildFilePythonResultDeserializer}: {@link ImmutableMapWithNullValues} maps in insertion order,
+ * {@link ImmutableList} lists and interned strings.
+ */
+public class ParseResultSerializer {
+
+  /** Identifies the format; bump it whenever the encoding changes. */
+  private static final int MAGIC = 0x42504331; // "BPC1"
+
+  private static final Interner<String> STRING_INTERNER = Interners.newWeakInterner();
+
+  private static final byte NULL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte STRING = 6;
+  private static final byte STRING_REF = 7;
+  private static final byte LIST = 8;
+  private static final byte MAP = 9;
+
+  private ParseResultSerializer() {}
+
+  /**
+   * Encodes {@code value}.
+   *
+   * @throws IllegalArgumentException if {@code value} contains objects that cannot be encoded, or
+   *     lists with {@code null} elements.
+   */
+  public static byte[] serialize(@Nullable Object value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      output.writeInt(MAGIC);
+      new Writer(output).write(value);
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to memory should not fail.", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Decodes a value encoded by {@link #serialize(Object)}. */
+  @Nullable
+  public static Object deserialize(byte[] data) throws IOException {
+    try (DataInputStream input =
+        new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Unknown parse result cache entry format.");
+      }
+      return new Reader(input).read();
+    }
+  }
+
+  private static final class Writer {
+    private final DataOutputStream output;
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    private Writer(DataOutputStream output) {
+      this.output = output;
+    }
+
+    private void write(@Nullable Object value) throws IOException {
+      if (value == null) {
+        output.writeByte(NULL);
+      } else if (value instanceof Boolean) {
+        output.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        output.writeByte(INT);
+        output.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        output.writeByte(LONG);
+        output.writeLong((Long) value);
+      } else if (value instanceof Double) {
+        output.writeByte(DOUBLE);
+        output.writeDouble((Double) value);
+      } else if (value instanceof String) {
+        writeString((String) value);
+      } else if (value instanceof Collection) {
+        Collection<?> collection = (Collection<?>) value;
+        output.writeByte(LIST);
+        writeVarInt(collection.size());
+        for (Object element : collection) {
+          if (element == null) {
+            throw new IllegalArgumentException("Lists with null elements are not supported.");
+          }
+          write(element);
+        }
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        output.writeByte(MAP);
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          write(entry.getKey());
+          write(entry.getValue());
+        }
+      } else {
+        throw new IllegalArgumentException("Cannot encode values of " + value.getClass());
+      }
+    }
+
+    private void writeString(String value) throws IOException {
+      Integer index = stringIndexes.get(value);
+      if (index != null) {
+        output.writeByte(STRING_REF);
+        writeVarInt(index);
+        return;
+      }
+      stringIndexes.put(value, stringIndexes.size());
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      output.writeByte(STRING);
+      writeVarInt(bytes.length);
+      output.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        output.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      output.writeByte(value);
+    }
+  }
+
+  private static final class Reader {
+    private final DataInputStream input;
+    private final List<String> strings = new ArrayList<>();
+
+    private Reader(DataInputStream input) {
+      this.input = input;
+    }
+
+    @Nullable
+    private Object read() throws IOException {
+      byte tag = input.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case TRUE:
+          return true;
+        case FALSE:
+          return false;
+        case INT:
+          return input.readInt();
+        case LONG:
+          return input.readLong();
+        case DOUBLE:
+          return input.readDouble();
+        case STRING:
+          byte[] bytes = new byte[readVarInt()];
+          input.readFully(bytes);
+          String value = STRING_INTERNER.intern(new String(bytes, StandardCharsets.UTF_8));
+          strings.add(value);
+          return value;
+        case STRING_REF:
+          int index = readVarInt();
+          if (index >= strings.size()) {
+            throw new IOException("Invalid string reference " + index);
+          }
+          return strings.get(index);
+        case LIST:
+          int size = readVarInt();
+          ImmutableList.Builder<Object> list = ImmutableList.builder();
+          for (int i = 0; i < size; i++) {
+            list.add(readNonNull());
+          }
+          return list.build();
+        case MAP:
+          int entries = readVarInt();
+          ImmutableMapWithNullValues.Builder<Object, Object> map =
+              ImmutableMapWithNullValues.Builder.insertionOrder();
+          for (int i = 0; i < entries; i++) {
+            map.put(readNonNull(), read());
+          }
+          return map.build();
+        default:
+          throw new IOException("Unknown value tag " + tag);
+      }
+    }
+
+    private Object readNonNull() throws IOException {
+      Object value = read();
+      if (value == null) {
+        throw new IOException("Unexpected null value.");
+      }
+      return value;
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = input.readByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          if (value < 0) {
+            throw new IOException("Invalid length " + value);
+          }
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable length integer.");
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.query;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the results of query expressions across the commands run by a daemon, so that tools which
+ * repeatedly issue the same queries do not pay for a full graph traversal every time.
+ *
+ * <p>Results are keyed by the pretty-printed form of the expression, so queries that only differ in
+ * whitespace share an entry. Each entry records the {@link Dependencies} it was computed from and
+ * is dropped when the owner of the cache reports a change to one of them through {@link
+ * #invalidateBuildFile(Path)} or {@link #invalidateCreatedOrDeletedPath(Path)}.
+ *
+ * <p>This class is thread safe.
+ */
+public class QueryResultCache {
+
+  private static final String COUNTER_CATEGORY = "buck_query_result_cache";
+
+  private final Cache<String, Entry> entries;
+  private final AtomicLong generation = new AtomicLong();
+
+  private final IntegerCounter hitCounter;
+  private final IntegerCounter missCounter;
+  private final IntegerCounter invalidatedCounter;
+
+  /**
+   * @param maxWeight The maximum number of targets and paths kept across all entries. Zero disables
+   *     the cache.
+   */
+  public QueryResultCache(long maxWeight) {
+    this.entries =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxWeight)
+            .<String, Entry>weigher((query, entry) -> entry.getWeight())
+            .build();
+    this.hitCounter = new IntegerCounter(COUNTER_CATEGORY, "hits", ImmutableMap.of());
+    this.missCounter = new IntegerCounter(COUNTER_CATEGORY, "misses", ImmutableMap.of());
+    this.invalidatedCounter =
+        new IntegerCounter(COUNTER_CATEGORY, "invalidated_entries", ImmutableMap.of());
+  }
+
+  /**
+   * Returns a token that has to be passed to {@link #put} once the evaluation started after this
+   * call is done. Results computed while a change was reported are not stored.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Returns the cached result of {@code expression} if it was evaluated with the same {@code
+   * environment} and none of its dependencies changed since.
+   */
+  public Optional<ImmutableSet<QueryTarget>> get(
+      QueryExpression expression, ImmutableMap<String, String> environment) {
+    Entry entry = entries.getIfPresent(expression.toString());
+    if (entry == null || !entry.environment.equals(environment)) {
+      missCounter.inc();
+      return Optional.empty();
+    }
+    hitCounter.inc();
+    return Optional.of(entry.result);
+  }
+
+  public void put(
+      long generation,
+      QueryExpression expression,
+      ImmutableMap<String, String> environment,
+      ImmutableSet<QueryTarget> result,
+      Dependencies dependencies) {
+    Entry entry =
+        new Entry(
+            environment,
+            result,
+            ImmutableSet.copyOf(dependencies.buildFiles),
+            ImmutableSet.copyOf(dependencies.directories));
+    synchronized (this.generation) {
+      if (this.generation.get() == generation) {
+        entries.put(expression.toString(), entry);
+      }
+    }
+  }
+
+  /**
+   * Drops the results that depend on targets defined by {@code buildFile}.
+   *
+   * @param buildFile The absolute path of a build file whose targets were invalidated.
+   */
+  public void invalidateBuildFile(Path buildFile) {
+    invalidateIf(
+        entry -> entry.buildFiles.contains(buildFile) || entry.isUnderDirectory(buildFile));
+  }
+
+  /**
+   * Drops the results that depend on the contents of a directory in which {@code path} was created
+   * or deleted.
+   *
+   * @param path The absolute path of the created or deleted file or directory.
+   */
+  public void invalidateCreatedOrDeletedPath(Path path) {
+    invalidateIf(entry -> entry.isUnderDirectory(path));
+  }
+
+  /** Drops all cached results. */
+  public void invalidateAll() {
+    invalidateIf(entry -> true);
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.of(hitCounter, missCounter, invalidatedCounter);
+  }
+
+  private void invalidateIf(Predicate<Entry> predicate) {
+    synchronized (generation) {
+      generation.incrementAndGet();
+    }
+    Iterator<Entry> iterator = entries.asMap().values().iterator();
+    while (iterator.hasNext()) {
+      if (predicate.test(iterator.next())) {
+        iterator.remove();
+        invalidatedCounter.inc();
+      }
+    }
+  }
+
+  /** The build files and directories a query result was computed from. */
+  public static class Dependencies {
+    private final Set<Path> buildFiles = new HashSet<>();
+    private final Set<Path> directories = new HashSet<>();
+
+    /** Records that the result depends on the targets defined in {@code buildFile}. */
+    public synchronized void addBuildFile(Path buildFile) {
+      buildFiles.add(buildFile);
+    }
+
+    /**
+     * Records that the result depends on which build files and files exist under {@code
+     * directory}.
+     */
+    public synchronized void addDirectory(Path directory) {
+      directories.add(directory);
+    }
+  }
+
+  private static class Entry {
+    private final ImmutableMap<String, String> environment;
+    private final ImmutableSet<QueryTarget> result;
+    private final ImmutableSet<Path> buildFiles;
+    private final ImmutableSet<Path> directories;
+
+    private Entry(
+        ImmutableMap<String, String> environment,
+        ImmutableSet<QueryTarget> result,
+        ImmutableSet<Path> buildFiles,
+        ImmutableSet<Path> directories) {
+      this.environment = environment;
+      this.result = result;
+      this.buildFiles = buildFiles;
+      this.directories = directories;
+    }
+
+    private boolean isUnderDirectory(Path path) {
+      for (Path directory : directories) {
+        if (path.startsWith(directory)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private int getWeight() {
+      return 1 + result.size() + buildFiles.size() + directories.size();
+    }
+  }
+}
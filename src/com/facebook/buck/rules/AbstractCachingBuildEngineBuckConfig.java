@@ -67,6 +67,14 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "artifact_cache_size_limit");
   }
 
+  /**
+   * @return whether to give the rules on the estimated critical path of the build, based on how
+   *     long rules took in previous builds, first pick of the available resources.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getDelegate().getBoolean("build", "critical_path_scheduling").orElse(false);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     ResourcesConfig resourcesConfig = getDelegate().getView(ResourcesConfig.class);
     return ResourceAwareSchedulingInfo.of(
@@ -25,31 +25,39 @@ import com.facebook.buck.event.ExperimentEvent;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
+import com.facebook.buck.graph.CompactDirectedAcyclicGraph;
+import com.facebook.buck.graph.ParallelBottomUpTraversal;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.UnflavoredBuildTarget;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
 import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
 import com.facebook.buck.util.CloseableMemoizedSupplier;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.randomizedtrial.RandomizedTrial;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.types.Pair;
-import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
+import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
 
 /**
  * Class that transforms {@link TargetGraph} to {@link ActionGraph}. It also holds a cache for the
@@ -59,9 +67,39 @@ public class ActionGraphCache {
   private static final Logger LOG = Logger.get(ActionGraphCache.class);
 
   private Cache<TargetGraph, ActionGraphAndResolver> previousActionGraphs;
+  private final boolean incrementalActionGraph;
+
+  /**
+   * The most recently constructed action graph and the structural hashes of the target graph it
+   * was built from. In incremental mode, the next target graph is diffed against these hashes to
+   * find which build rules can be carried over.
+   */
+  @Nullable private LastActionGraph lastActionGraph;
+
+  private static class LastActionGraph {
+    private final ImmutableMap<BuildTarget, HashCode> targetNodeHashes;
+    private final ActionGraphAndResolver actionGraphAndResolver;
+
+    private LastActionGraph(
+        ImmutableMap<BuildTarget, HashCode> targetNodeHashes,
+        ActionGraphAndResolver actionGraphAndResolver) {
+      this.targetNodeHashes = targetNodeHashes;
+      this.actionGraphAndResolver = actionGraphAndResolver;
+    }
+  }
 
   public ActionGraphCache(int maxEntries) {
+    this(maxEntries, false);
+  }
+
+  /**
+   * @param incrementalActionGraph if true, a cache miss reuses the build rules of the last action
+   *     graph for target nodes that did not change (including transitively through their deps),
+   *     instead of recreating every rule.
+   */
+  public ActionGraphCache(int maxEntries, boolean incrementalActionGraph) {
     previousActionGraphs = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    this.incrementalActionGraph = incrementalActionGraph;
   }
 
   /** Create an ActionGraph, using options extracted from a BuckConfig. */
@@ -181,16 +219,39 @@ public class ActionGraphCache {
           LOG.info("ActionGraph cache miss against " + previousActionGraphs.size() + " entries.");
           eventBus.post(ActionGraphEvent.Cache.missWithTargetGraphDifference());
         }
-        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph =
-            new Pair<TargetGraph, ActionGraphAndResolver>(
+        ActionGraphAndResolver actionGraph;
+        if (incrementalActionGraph && !skipActionGraphCache) {
+          actionGraph =
+              createActionGraphIncrementally(
+                  eventBus,
+                  targetGraph,
+                  parallelizationMode,
+                  shouldInstrumentGraphBuilding,
+                  poolSupplier);
+          if (checkActionGraphs) {
+            compareActionGraphs(
+                eventBus,
+                actionGraph,
                 targetGraph,
-                createActionGraph(
-                    eventBus,
-                    new DefaultTargetNodeToBuildRuleTransformer(),
-                    targetGraph,
-                    parallelizationMode,
-                    shouldInstrumentGraphBuilding,
-                    poolSupplier));
+                fieldLoader,
+                parallelizationMode,
+                ruleKeyLogger,
+                shouldInstrumentGraphBuilding,
+                poolSupplier);
+          }
+        } else {
+          actionGraph =
+              createActionGraph(
+                  eventBus,
+                  new DefaultTargetNodeToBuildRuleTransformer(),
+                  targetGraph,
+                  parallelizationMode,
+                  shouldInstrumentGraphBuilding,
+                  poolSupplier,
+                  ImmutableList.of());
+        }
+        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph =
+            new Pair<TargetGraph, ActionGraphAndResolver>(targetGraph, actionGraph);
         out = freshActionGraph.getSecond();
         if (!skipActionGraphCache) {
           LOG.info("ActionGraph cache assignment. skipActionGraphCache? %s", skipActionGraphCache);
@@ -257,19 +318,111 @@ public class ActionGraphCache {
             targetGraph,
             parallelizationMode,
             shouldInstrumentGraphBuilding,
-            poolSupplier);
+            poolSupplier,
+            ImmutableList.of());
 
     eventBus.post(ActionGraphEvent.finished(started, actionGraph.getActionGraph().getSize()));
     return actionGraph;
   }
 
+  /**
+   * Creates an action graph for {@code targetGraph}, carrying over the build rules of the last
+   * action graph whose target nodes are unchanged.
+   *
+   * <p>A node is unchanged if its structural hash (see {@link
+   * TargetGraphHashing#ignoringFileContents}) matches the one it had in the last target graph.
+   * Since that hash covers all transitive deps, every changed node and all of its reverse
+   * dependencies get new rules, while other rules are carried over instead of being transformed
+   * again. The rule key cache is still invalidated, as it is for every new action graph. Rules are
+   * matched to nodes by their unflavored build target, so flavored rules created by graph
+   * enhancers are carried over along with the node they belong to. Only rules tagged with {@link
+   * SupportsIncrementalActionGraph} are carried over, see {@link ReusableBuildRules}.
+   */
+  private ActionGraphAndResolver createActionGraphIncrementally(
+      BuckEventBus eventBus,
+      TargetGraph targetGraph,
+      ActionGraphParallelizationMode parallelizationMode,
+      boolean shouldInstrumentGraphBuilding,
+      CloseableMemoizedSupplier<ForkJoinPool, RuntimeException> poolSupplier) {
+    ImmutableMap<BuildTarget, HashCode> targetNodeHashes;
+    try {
+      targetNodeHashes =
+          TargetGraphHashing.ignoringFileContents(eventBus, targetGraph, 1, targetGraph.getNodes())
+              .hashTargetGraph();
+    } catch (CycleException e) {
+      throw new HumanReadableException(e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.info("Interrupted while hashing the target graph, not reusing any build rules.");
+      targetNodeHashes = ImmutableMap.of();
+    } catch (RuntimeException e) {
+      // Reusing rules is only an optimization, so the graph is rather built from scratch.
+      LOG.warn(e, "Failed to hash the target graph, not reusing any build rules.");
+      targetNodeHashes = ImmutableMap.of();
+    }
+
+    ImmutableList<BuildRule> reusableRules =
+        lastActionGraph == null
+            ? ImmutableList.of()
+            : getReusableRules(lastActionGraph, targetNodeHashes);
+    ActionGraphAndResolver actionGraph =
+        createActionGraph(
+            eventBus,
+            new DefaultTargetNodeToBuildRuleTransformer(),
+            targetGraph,
+            parallelizationMode,
+            shouldInstrumentGraphBuilding,
+            poolSupplier,
+            reusableRules);
+
+    int recreatedRules = actionGraph.getActionGraph().getSize() - reusableRules.size();
+    LOG.info(
+        "Incremental ActionGraph update reused %d rules and created %d.",
+        reusableRules.size(), recreatedRules);
+    eventBus.post(ActionGraphEvent.incrementalLoad(reusableRules.size(), recreatedRules));
+
+    if (!targetNodeHashes.isEmpty()) {
+      lastActionGraph = new LastActionGraph(targetNodeHashes, actionGraph);
+    }
+    return actionGraph;
+  }
+
+  private static ImmutableList<BuildRule> getReusableRules(
+      LastActionGraph last, ImmutableMap<BuildTarget, HashCode> targetNodeHashes) {
+    Set<UnflavoredBuildTarget> unchanged = new HashSet<>();
+    Set<UnflavoredBuildTarget> changed = new HashSet<>();
+    for (Map.Entry<BuildTarget, HashCode> entry : targetNodeHashes.entrySet()) {
+      if (entry.getValue().equals(last.targetNodeHashes.get(entry.getKey()))) {
+        unchanged.add(entry.getKey().getUnflavoredBuildTarget());
+      } else {
+        changed.add(entry.getKey().getUnflavoredBuildTarget());
+      }
+    }
+    // A removed node may share its unflavored target with a node that is still around, in which
+    // case some of the rules under that name may have come from the removed one.
+    for (BuildTarget target : last.targetNodeHashes.keySet()) {
+      if (!targetNodeHashes.containsKey(target)) {
+        changed.add(target.getUnflavoredBuildTarget());
+      }
+    }
+    unchanged.removeAll(changed);
+
+    BuildRuleResolver lastResolver = last.actionGraphAndResolver.getResolver();
+    return ReusableBuildRules.filter(
+        lastResolver,
+        RichStream.from(lastResolver.getBuildRules())
+            .filter(rule -> unchanged.contains(rule.getBuildTarget().getUnflavoredBuildTarget()))
+            .toImmutableList());
+  }
+
   private static ActionGraphAndResolver createActionGraph(
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
       TargetGraph targetGraph,
       ActionGraphParallelizationMode parallelizationMode,
       final boolean shouldInstrumentGraphBuilding,
-      CloseableMemoizedSupplier<ForkJoinPool, RuntimeException> poolSupplier) {
+      CloseableMemoizedSupplier<ForkJoinPool, RuntimeException> poolSupplier,
+      Iterable<BuildRule> existingRules) {
 
     switch (parallelizationMode) {
       case EXPERIMENT:
@@ -300,10 +453,11 @@ public class ActionGraphCache {
     }
     switch (parallelizationMode) {
       case ENABLED:
-        return createActionGraphInParallel(eventBus, transformer, targetGraph, poolSupplier.get());
+        return createActionGraphInParallel(
+            eventBus, transformer, targetGraph, poolSupplier.get(), existingRules);
       case DISABLED:
         return createActionGraphSerially(
-            eventBus, transformer, targetGraph, shouldInstrumentGraphBuilding);
+            eventBus, transformer, targetGraph, shouldInstrumentGraphBuilding, existingRules);
       case EXPERIMENT_UNSTABLE:
       case EXPERIMENT:
         throw new AssertionError(
@@ -316,36 +470,27 @@ public class ActionGraphCache {
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
       TargetGraph targetGraph,
-      ForkJoinPool pool) {
+      ForkJoinPool pool,
+      Iterable<BuildRule> existingRules) {
     BuildRuleResolver resolver =
         new MultiThreadedBuildRuleResolver(pool, targetGraph, transformer, eventBus);
-    HashMap<BuildTarget, CompletableFuture<BuildRule>> futures = new HashMap<>();
-
-    new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
-      @Override
-      public void visit(TargetNode<?, ?> node) {
-        CompletableFuture<BuildRule>[] depFutures =
-            targetGraph
-                .getOutgoingNodesFor(node)
-                .stream()
-                .map(dep -> Preconditions.checkNotNull(futures.get(dep.getBuildTarget())))
-                .<CompletableFuture<BuildRule>>toArray(CompletableFuture[]::new);
-        futures.put(
-            node.getBuildTarget(),
-            CompletableFuture.allOf(depFutures)
-                .thenApplyAsync(ignored -> resolver.requireRule(node.getBuildTarget()), pool));
-      }
-    }.traverse();
+    existingRules.forEach(resolver::addToIndex);
 
-    // Wait for completion. The results are ignored as we only care about the rules populated in
-    // the
-    // resolver, which is a superset of the rules generated directly from target nodes.
+    // The rules of a node are required once those of all its deps are, so the resolver rarely has
+    // to block on a dep that is being created on another thread. The compact copy of the graph is
+    // only kept for the traversal, so that target graphs don't hold on to two copies of their edges.
+    CompactDirectedAcyclicGraph<TargetNode<?, ?>> compactGraph =
+        CompactDirectedAcyclicGraph.copyOf(targetGraph);
     try {
-      CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()]))
-          .join();
-    } catch (CompletionException e) {
-      Throwables.throwIfUnchecked(e.getCause());
-      throw new IllegalStateException("unexpected checked exception", e);
+      new ParallelBottomUpTraversal<>(compactGraph, pool)
+          .traverse(
+              compactGraph.getNodesWithNoIncomingEdges(),
+              node -> resolver.requireRule(node.getBuildTarget()));
+    } catch (CycleException e) {
+      throw new IllegalStateException("Cycle in a target graph that was checked to be acyclic", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while creating the action graph", e);
     }
 
     return ActionGraphAndResolver.builder()
@@ -358,9 +503,11 @@ public class ActionGraphCache {
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
       TargetGraph targetGraph,
-      final boolean shouldInstrumentGraphBuilding) {
+      final boolean shouldInstrumentGraphBuilding,
+      Iterable<BuildRule> existingRules) {
     BuildRuleResolver resolver =
         new SingleThreadedBuildRuleResolver(targetGraph, transformer, eventBus);
+    existingRules.forEach(resolver::addToIndex);
     new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
       @Override
       public void visit(TargetNode<?, ?> node) {
@@ -440,7 +587,8 @@ public class ActionGraphCache {
                   targetGraph,
                   parallelizationMode,
                   shouldInstrumentGraphBuilding,
-                  poolSupplier));
+                  poolSupplier,
+                  ImmutableList.of()));
 
       Map<BuildRule, RuleKey> lastActionGraphRuleKeys =
           getRuleKeysFromBuildRules(
@@ -480,5 +628,6 @@ public class ActionGraphCache {
 
   private void invalidateCache() {
     previousActionGraphs.invalidateAll();
+    lastActionGraph = null;
   }
 }
@@ -23,6 +23,7 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.ExitCode;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 /** Base class for events about building. */
@@ -57,6 +58,14 @@ public abstract class BuildEvent extends AbstractBuckEvent implements WorkAdvanc
     return new UnskippedRuleCountUpdated(ruleCount);
   }
 
+  public static CriticalPathCalculated criticalPathCalculated(
+      long predictedMillis,
+      ImmutableList<BuildTarget> predictedPath,
+      long actualMillis,
+      ImmutableList<BuildTarget> actualPath) {
+    return new CriticalPathCalculated(predictedMillis, predictedPath, actualMillis, actualPath);
+  }
+
   public static class Started extends BuildEvent {
 
     private final ImmutableSet<String> buildArgs;
@@ -260,4 +269,65 @@ public abstract class BuildEvent extends AbstractBuckEvent implements WorkAdvanc
       return System.identityHashCode(this);
     }
   }
+
+  /**
+   * The longest chain of dependent rules in the build, both as predicted from historical durations
+   * when the build was scheduled and as measured once it finished. Paths start at the deepest
+   * dependency and end at a top-level rule.
+   */
+  public static class CriticalPathCalculated extends BuildEvent {
+
+    private final long predictedMillis;
+    private final ImmutableList<BuildTarget> predictedPath;
+    private final long actualMillis;
+    private final ImmutableList<BuildTarget> actualPath;
+
+    protected CriticalPathCalculated(
+        long predictedMillis,
+        ImmutableList<BuildTarget> predictedPath,
+        long actualMillis,
+        ImmutableList<BuildTarget> actualPath) {
+      super(EventKey.unique());
+      this.predictedMillis = predictedMillis;
+      this.predictedPath = predictedPath;
+      this.actualMillis = actualMillis;
+      this.actualPath = actualPath;
+    }
+
+    public long getPredictedMillis() {
+      return predictedMillis;
+    }
+
+    public ImmutableList<BuildTarget> getPredictedPath() {
+      return predictedPath;
+    }
+
+    public long getActualMillis() {
+      return actualMillis;
+    }
+
+    public ImmutableList<BuildTarget> getActualPath() {
+      return actualPath;
+    }
+
+    @Override
+    public String getEventName() {
+      return "CriticalPathCalculated";
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("predicted %dms, actual %dms", predictedMillis, actualMillis);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
 }
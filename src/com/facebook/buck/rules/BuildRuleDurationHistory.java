@@ -0,0 +1,485 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.Flavor;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * How long the different phases of work on rules took in previous invocations, persisted under
+ * buck-out so that the build engine and progress reporting can estimate how long a rule is going
+ * to take before it runs.
+ *
+ * <p>The history is a memory-mapped open-addressing hash table. Each slot is keyed by a 64-bit hash
+ * of the build target and rule type and holds an exponentially decaying average of the durations
+ * of each {@link Phase}, so that old measurements fade away as rules change. Aggregate averages
+ * per rule type and over all rules are kept in the same table under their own keys.
+ *
+ * <p>Lookups take an optimistic read stamp and return primitives, with {@link #UNKNOWN} standing in
+ * for missing data, so they neither block on nor allocate for the common case.
+ *
+ * <p>Several Buck processes may use the same history. Updates hold a lock on the file, and map the
+ * file again if another process grew it in the meantime. Until then, lookups may miss entries that
+ * were moved by the other process.
+ */
+public class BuildRuleDurationHistory implements Closeable {
+  private static final Logger LOG = Logger.get(BuildRuleDurationHistory.class);
+
+  /** Returned by lookups when nothing has been recorded yet. */
+  public static final long UNKNOWN = -1;
+
+  /** The kinds of work on a rule whose durations are tracked separately. */
+  public enum Phase {
+    RULE_KEY,
+    CACHE_FETCH,
+    BUILD,
+  }
+
+  private static final int MAGIC = 0x42524448;
+  private static final int VERSION = 2;
+
+  // Magic, version, capacity and number of used slots.
+  private static final int HEADER_SIZE = 16;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int SIZE_OFFSET = 12;
+  // A key followed by one average per phase. A zero key marks an empty slot.
+  private static final int SLOT_SIZE = 8 + 8 * Phase.values().length;
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final double MAX_LOAD_FACTOR = 0.7;
+
+  /** How much a new measurement counts for compared to the ones before it. */
+  private static final double NEW_SAMPLE_WEIGHT = 0.3;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long TYPE_KEY_SEED = 0x84222325cbf29ce4L;
+  private static final long ALL_RULES_KEY = 0x9e3779b97f4a7c15L;
+
+  @GuardedBy("OPEN_HISTORIES")
+  private static final Map<Path, BuildRuleDurationHistory> OPEN_HISTORIES = new HashMap<>();
+
+  private final Path storePath;
+  @Nullable private final FileChannel channel;
+  private final StampedLock lock = new StampedLock();
+
+  @GuardedBy("OPEN_HISTORIES")
+  private int openCount;
+
+  @GuardedBy("lock")
+  private ByteBuffer table;
+
+  @GuardedBy("lock")
+  private boolean closed;
+
+  private BuildRuleDurationHistory(
+      Path storePath, @Nullable FileChannel channel, ByteBuffer table) {
+    this.storePath = storePath;
+    this.channel = channel;
+    this.table = table;
+  }
+
+  /** @return the location of the history for the given filesystem, relative to its root. */
+  @VisibleForTesting
+  static Path getStorePath(ProjectFilesystem filesystem) {
+    return filesystem
+        .getBuckPaths()
+        .getBuckOut()
+        .resolve("build_history")
+        .resolve("rule_durations.bin");
+  }
+
+  /**
+   * @return the history for the given filesystem, shared by everything in this process that opened
+   *     it, until all of them closed it. A missing or unreadable history starts empty.
+   */
+  public static BuildRuleDurationHistory open(ProjectFilesystem filesystem) {
+    Path storePath = filesystem.resolve(getStorePath(filesystem));
+    synchronized (OPEN_HISTORIES) {
+      BuildRuleDurationHistory history = OPEN_HISTORIES.get(storePath);
+      if (history == null) {
+        history = openFile(storePath);
+        OPEN_HISTORIES.put(storePath, history);
+      }
+      history.openCount++;
+      return history;
+    }
+  }
+
+  /**
+   * @return the history for the given filesystem if something in this process currently has it
+   *     open, without taking a reference to it.
+   */
+  public static Optional<BuildRuleDurationHistory> getIfOpen(ProjectFilesystem filesystem) {
+    synchronized (OPEN_HISTORIES) {
+      return Optional.ofNullable(OPEN_HISTORIES.get(filesystem.resolve(getStorePath(filesystem))));
+    }
+  }
+
+  @VisibleForTesting
+  static BuildRuleDurationHistory openFile(Path storePath) {
+    FileChannel channel = null;
+    try {
+      Files.createDirectories(storePath.getParent());
+      channel =
+          FileChannel.open(
+              storePath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      try (FileLock fileLock = channel.lock()) {
+        return new BuildRuleDurationHistory(storePath, channel, mapTable(channel, storePath));
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to open rule duration history at %s, not persisting it", storePath);
+      closeQuietly(channel, storePath);
+      ByteBuffer table =
+          initializeTable(ByteBuffer.allocate(getTableSize(INITIAL_CAPACITY)), INITIAL_CAPACITY);
+      return new BuildRuleDurationHistory(storePath, null, table);
+    }
+  }
+
+  /** Maps the table stored in the file, or a new one if the file is empty or unrecognized. */
+  private static ByteBuffer mapTable(FileChannel channel, Path storePath) throws IOException {
+    long fileSize = channel.size();
+    if (fileSize > 0) {
+      MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+      if (isValid(existing, fileSize)) {
+        LOG.debug(
+            "Loaded %d rule duration entries from %s", existing.getInt(SIZE_OFFSET), storePath);
+        return existing;
+      }
+      LOG.warn("Discarding unrecognized rule duration history at %s", storePath);
+      channel.truncate(0);
+    }
+    return allocateTable(channel, INITIAL_CAPACITY);
+  }
+
+  private static boolean isValid(ByteBuffer table, long fileSize) {
+    if (fileSize < HEADER_SIZE || table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+      return false;
+    }
+    int capacity = table.getInt(CAPACITY_OFFSET);
+    return Integer.bitCount(capacity) == 1 && fileSize == getTableSize(capacity);
+  }
+
+  private static int getTableSize(int capacity) {
+    return HEADER_SIZE + capacity * SLOT_SIZE;
+  }
+
+  /** Creates an empty table, mapped from the start of the given file if there is one. */
+  private static ByteBuffer allocateTable(@Nullable FileChannel channel, int capacity)
+      throws IOException {
+    int size = getTableSize(capacity);
+    return initializeTable(
+        channel == null
+            ? ByteBuffer.allocate(size)
+            : channel.map(FileChannel.MapMode.READ_WRITE, 0, size),
+        capacity);
+  }
+
+  private static ByteBuffer initializeTable(ByteBuffer table, int capacity) {
+    for (int slot = 0; slot < capacity; slot++) {
+      table.putLong(getSlotOffset(slot), 0);
+    }
+    table.putInt(0, MAGIC);
+    table.putInt(4, VERSION);
+    table.putInt(CAPACITY_OFFSET, capacity);
+    table.putInt(SIZE_OFFSET, 0);
+    return table;
+  }
+
+  /** @return the decaying average duration of the given phase of the given rule. */
+  public long getDurationMillis(BuildRule rule, Phase phase) {
+    return read(getTargetKey(rule.getBuildTarget(), rule.getType()), phase);
+  }
+
+  /** @return the decaying average duration of the given phase over rules of the given type. */
+  public long getAverageDurationMillis(String ruleType, Phase phase) {
+    return read(getTypeKey(ruleType), phase);
+  }
+
+  /** @return the decaying average duration of the given phase over all rules. */
+  public long getAverageDurationMillis(Phase phase) {
+    return read(ALL_RULES_KEY, phase);
+  }
+
+  /**
+   * @return the best available estimate of the duration of the given phase of the given rule,
+   *     falling back to the average for rules of its type and then for all rules, or {@link
+   *     #UNKNOWN} if nothing has been recorded for that phase.
+   */
+  public long estimateDurationMillis(BuildRule rule, Phase phase) {
+    long millis = getDurationMillis(rule, phase);
+    if (millis == UNKNOWN) {
+      millis = getAverageDurationMillis(rule.getType(), phase);
+    }
+    if (millis == UNKNOWN) {
+      millis = getAverageDurationMillis(phase);
+    }
+    return millis;
+  }
+
+  /**
+   * Records how long the given phase of the given rule just took. Failures are only logged, since
+   * the history merely improves estimates.
+   */
+  public void record(BuildRule rule, Phase phase, long durationMillis) {
+    long targetKey = getTargetKey(rule.getBuildTarget(), rule.getType());
+    long typeKey = getTypeKey(rule.getType());
+    long stamp = lock.writeLock();
+    try {
+      if (closed) {
+        return;
+      }
+      try (FileLock fileLock = channel == null ? null : channel.lock()) {
+        remapIfResized();
+        update(targetKey, phase, durationMillis);
+        update(typeKey, phase, durationMillis);
+        update(ALL_RULES_KEY, phase, durationMillis);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Failed to record the duration of %s in %s", rule, storePath);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /** Forces recorded durations out to disk. */
+  public void flush() {
+    long stamp = lock.readLock();
+    try {
+      if (table instanceof MappedByteBuffer) {
+        ((MappedByteBuffer) table).force();
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /** Releases this reference to the history, and closes the file once nothing uses it anymore. */
+  @Override
+  public void close() throws IOException {
+    synchronized (OPEN_HISTORIES) {
+      if (OPEN_HISTORIES.get(storePath) == this) {
+        if (--openCount > 0) {
+          return;
+        }
+        OPEN_HISTORIES.remove(storePath);
+      }
+    }
+    flush();
+    long stamp = lock.writeLock();
+    try {
+      closed = true;
+      if (channel != null) {
+        channel.close();
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  private long read(long key, Phase phase) {
+    long stamp = lock.tryOptimisticRead();
+    double millis = find(table, key, phase);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        millis = find(table, key, phase);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return millis < 0 ? UNKNOWN : Math.round(millis);
+  }
+
+  /**
+   * @return the average stored for the given key and phase, or a negative number if there is none.
+   *     Safe to call without holding the lock, in which case the result may be garbage but the
+   *     lookup always terminates.
+   */
+  private static double find(ByteBuffer table, long key, Phase phase) {
+    int capacity = getCapacity(table);
+    int slot = getHomeSlot(key, capacity);
+    for (int probes = 0; probes < capacity; probes++) {
+      int offset = getSlotOffset(slot);
+      long slotKey = table.getLong(offset);
+      if (slotKey == key) {
+        return table.getDouble(getValueOffset(offset, phase));
+      } else if (slotKey == 0) {
+        break;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+    return UNKNOWN;
+  }
+
+  /** Maps the file again if another process changed its size since it was mapped. */
+  @GuardedBy("lock")
+  private void remapIfResized() throws IOException {
+    if (channel != null && channel.size() != table.limit()) {
+      LOG.debug("Rule duration history at %s was resized by another process", storePath);
+      table = mapTable(channel, storePath);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void update(long key, Phase phase, long durationMillis) throws IOException {
+    int offset = findOrInsertSlot(key);
+    int valueOffset = getValueOffset(offset, phase);
+    double average = table.getDouble(valueOffset);
+    table.putDouble(
+        valueOffset,
+        average < 0 ? durationMillis : average + NEW_SAMPLE_WEIGHT * (durationMillis - average));
+  }
+
+  @GuardedBy("lock")
+  private int findOrInsertSlot(long key) throws IOException {
+    // The capacity is taken from the mapping rather than the header, so that a header that does not
+    // match the mapping can never lead outside of it.
+    int capacity = getCapacity(table);
+    int slot = getHomeSlot(key, capacity);
+    while (true) {
+      int offset = getSlotOffset(slot);
+      long slotKey = table.getLong(offset);
+      if (slotKey == key) {
+        return offset;
+      } else if (slotKey == 0) {
+        int size = table.getInt(SIZE_OFFSET) + 1;
+        if (size > capacity * MAX_LOAD_FACTOR) {
+          grow(capacity * 2);
+          return findOrInsertSlot(key);
+        }
+        for (Phase phase : Phase.values()) {
+          table.putDouble(getValueOffset(offset, phase), UNKNOWN);
+        }
+        // Write the key last so that optimistic readers never see a key with garbage values.
+        table.putLong(offset, key);
+        table.putInt(SIZE_OFFSET, size);
+        return offset;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void grow(int newCapacity) throws IOException {
+    // The new table is mapped over the old one, so the slots have to be copied out first.
+    ByteBuffer old = ByteBuffer.allocate(table.limit());
+    ByteBuffer current = table.duplicate();
+    current.clear();
+    old.put(current);
+    int oldCapacity = getCapacity(old);
+    LOG.debug("Growing rule duration history at %s to %d slots", storePath, newCapacity);
+
+    table = allocateTable(channel, newCapacity);
+    int size = 0;
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      int oldOffset = getSlotOffset(slot);
+      long key = old.getLong(oldOffset);
+      if (key == 0) {
+        continue;
+      }
+      int newSlot = getHomeSlot(key, newCapacity);
+      while (table.getLong(getSlotOffset(newSlot)) != 0) {
+        newSlot = (newSlot + 1) & (newCapacity - 1);
+      }
+      int newOffset = getSlotOffset(newSlot);
+      for (Phase phase : Phase.values()) {
+        table.putDouble(
+            getValueOffset(newOffset, phase), old.getDouble(getValueOffset(oldOffset, phase)));
+      }
+      table.putLong(newOffset, key);
+      size++;
+    }
+    table.putInt(SIZE_OFFSET, size);
+  }
+
+  private static int getCapacity(ByteBuffer table) {
+    return (table.limit() - HEADER_SIZE) / SLOT_SIZE;
+  }
+
+  private static int getSlotOffset(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static int getValueOffset(int slotOffset, Phase phase) {
+    return slotOffset + 8 + 8 * phase.ordinal();
+  }
+
+  private static int getHomeSlot(long key, int capacity) {
+    long mixed = key ^ (key >>> 29) ^ (key >>> 47);
+    return (int) mixed & (capacity - 1);
+  }
+
+  private static long getTargetKey(BuildTarget target, String ruleType) {
+    long hash = FNV_OFFSET_BASIS;
+    hash = hash(hash, target.getCell().orElse(""));
+    hash = hash(hash, target.getBaseName());
+    hash = hash(hash, target.getShortName());
+    for (Flavor flavor : target.getFlavors()) {
+      hash = hash(hash, flavor.getName());
+    }
+    return toKey(hash(hash, ruleType));
+  }
+
+  private static long getTypeKey(String ruleType) {
+    return toKey(hash(TYPE_KEY_SEED, ruleType));
+  }
+
+  /** Hashes the characters of the given string into the given FNV-1a hash, without allocating. */
+  private static long hash(long hash, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+    }
+    // Terminate every component, so that e.g. "ab" + "c" and "a" + "bc" hash differently.
+    return (hash ^ 0xffff) * FNV_PRIME;
+  }
+
+  private static long toKey(long hash) {
+    return hash == 0 || hash == ALL_RULES_KEY ? 1 : hash;
+  }
+
+  private static void closeQuietly(@Nullable FileChannel channel, Path storePath) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to close rule duration history %s", storePath);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.rules.BuildRuleDurationHistory.Phase;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Listens to build rule events and records how long rule key calculation, cache fetches and local
+ * builds took into a {@link BuildRuleDurationHistory}.
+ */
+public class BuildRuleDurationHistoryRecorder {
+  private final BuildRuleDurationHistory history;
+
+  public BuildRuleDurationHistoryRecorder(BuildRuleDurationHistory history) {
+    this.history = history;
+  }
+
+  @Subscribe
+  public void ruleKeyCalculationFinished(BuildRuleEvent.FinishedRuleKeyCalc finished) {
+    history.record(
+        finished.getBuildRule(), Phase.RULE_KEY, finished.getDuration().getWallMillisDuration());
+  }
+
+  @Subscribe
+  public void buildRuleFinished(BuildRuleEvent.Finished finished) {
+    if (!finished.getSuccessType().isPresent()) {
+      return;
+    }
+    Phase phase;
+    switch (finished.getSuccessType().get()) {
+      case BUILT_LOCALLY:
+        phase = Phase.BUILD;
+        break;
+      case FETCHED_FROM_CACHE:
+      case FETCHED_FROM_CACHE_INPUT_BASED:
+      case FETCHED_FROM_CACHE_MANIFEST_BASED:
+        phase = Phase.CACHE_FETCH;
+        break;
+        // $CASES-OMITTED$
+      default:
+        // Rules whose outputs were already up to date say nothing about how long they take.
+        return;
+    }
+    history.record(finished.getBuildRule(), phase, finished.getDuration().getWallMillisDuration());
+  }
+
+  @Subscribe
+  public void buildFinished(BuildEvent.Finished finished) {
+    history.flush();
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.rules;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.timing.ClockDuration;
 import com.google.common.annotations.VisibleForTesting;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.concurrent.GuardedBy;
@@ -42,6 +43,12 @@ public class BuildRuleDurationTracker {
     durations.put(rule.getBuildTarget(), new DurationHolder(duration));
   }
 
+  /** @return the accumulated duration of all finished phases of the given rule, if it has any. */
+  public Optional<ClockDuration> getDuration(BuildTarget target) {
+    DurationHolder holder = durations.get(target);
+    return holder == null ? Optional.empty() : Optional.of(holder.getAccumulatedDuration());
+  }
+
   public ClockDuration doBeginning(BuildRule rule, long wallMillisTime, long nanoTime) {
     return durations
         .computeIfAbsent(rule.getBuildTarget(), (key) -> new DurationHolder())
@@ -88,6 +95,10 @@ public class BuildRuleDurationTracker {
       threadUserNanoDuration = initialDuration.getThreadUserNanoDuration();
     }
 
+    public synchronized ClockDuration getAccumulatedDuration() {
+      return new ClockDuration(wallMillisDuration, nanoDuration, threadUserNanoDuration);
+    }
+
     public synchronized ClockDuration getDurationAt(long wallMillisTime, long nanoTime) {
       return new ClockDuration(
           wallMillisDuration + wallMillisTime - wallMillisStarted,
@@ -18,6 +18,7 @@ package com.facebook.buck.rules;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.PrefetchingArtifactCacheDecorator;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.RuleKeyCalculationEvent;
 import com.facebook.buck.model.BuildTarget;
@@ -48,7 +49,10 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -137,11 +141,18 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final RuleDepsCache ruleDeps;
   private final Optional<UnskippedRulesTracker> unskippedRulesTracker;
+  private final Optional<CriticalPathPrioritizer> criticalPathPrioritizer;
   private final BuildRuleDurationTracker buildRuleDurationTracker = new BuildRuleDurationTracker();
   private final RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics;
   private final BuildRulePipelinesRunner pipelinesRunner = new BuildRulePipelinesRunner();
   private final ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator;
 
+  /** The rules whose artifacts were already handed to a prefetching cache. */
+  private final Set<BuildTarget> prefetchedTargets = Sets.newConcurrentHashSet();
+
+  /** The prefetching caches of the builds, whose staged artifacts are dropped on close. */
+  private final Set<PrefetchingArtifactCacheDecorator> prefetchers = Sets.newConcurrentHashSet();
+
   private final BuildInfoStoreManager buildInfoStoreManager;
 
   private final boolean consoleLogBuildFailuresInline;
@@ -165,6 +176,48 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter) {
+    this(
+        cachingBuildEngineDelegate,
+        service,
+        stepRunner,
+        buildMode,
+        metadataStorage,
+        depFiles,
+        maxDepFileCacheEntries,
+        artifactCacheSizeLimit,
+        resolver,
+        ruleFinder,
+        pathResolver,
+        buildInfoStoreManager,
+        resourceAwareSchedulingInfo,
+        consoleLogBuildFailuresInline,
+        ruleKeyFactories,
+        remoteBuildRuleCompletionWaiter,
+        Optional.empty());
+  }
+
+  /**
+   * @param buildRuleDurationHistory if present, rules are scheduled by the estimated length of
+   *     their remaining critical path using the durations recorded here.
+   */
+  public CachingBuildEngine(
+      CachingBuildEngineDelegate cachingBuildEngineDelegate,
+      WeightedListeningExecutorService service,
+      StepRunner stepRunner,
+      BuildMode buildMode,
+      MetadataStorage metadataStorage,
+      DepFiles depFiles,
+      long maxDepFileCacheEntries,
+      Optional<Long> artifactCacheSizeLimit,
+      final BuildRuleResolver resolver,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver,
+      BuildInfoStoreManager buildInfoStoreManager,
+      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      boolean consoleLogBuildFailuresInline,
+      RuleKeyFactories ruleKeyFactories,
+      RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
+      Optional<BuildRuleDurationHistory> buildRuleDurationHistory) {
     this(
         cachingBuildEngineDelegate,
         service,
@@ -190,7 +243,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                 ruleKeyFactories
                     .getDefaultRuleKeyFactory()
                     .buildForDiagnostics(appendable, new StringRuleKeyHasher())),
-        consoleLogBuildFailuresInline);
+        consoleLogBuildFailuresInline,
+        buildRuleDurationHistory);
   }
 
   /** This constructor MUST ONLY BE USED FOR TESTS. */
@@ -212,7 +266,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
-      boolean consoleLogBuildFailuresInline) {
+      boolean consoleLogBuildFailuresInline,
+      Optional<BuildRuleDurationHistory> buildRuleDurationHistory) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
 
     this.service = service;
@@ -234,6 +289,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
     this.ruleDeps = new RuleDepsCache(resolver);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
+    this.criticalPathPrioritizer =
+        buildRuleDurationHistory.map(history -> new CriticalPathPrioritizer(ruleDeps, history));
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
     this.asyncCallbacks = new ConcurrentLinkedQueue<>();
@@ -259,6 +316,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     } catch (ExecutionException e) {
       throw new RuntimeException(e);
     }
+    criticalPathPrioritizer.ifPresent(
+        prioritizer -> prioritizer.buildFinished(buildRuleDurationTracker));
+    prefetchers.forEach(PrefetchingArtifactCacheDecorator::discardAll);
   }
 
   /// We might want to share rule-key calculation with other parts of code.
@@ -323,6 +383,15 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private void registerTopLevelRule(BuildRule rule, BuckEventBus eventBus) {
     unskippedRulesTracker.ifPresent(tracker -> tracker.registerTopLevelRule(rule, eventBus));
+    criticalPathPrioritizer.ifPresent(
+        prioritizer -> prioritizer.registerTopLevelRule(rule, eventBus));
+  }
+
+  private WeightedListeningExecutorService serviceForRule(BuildRule rule) {
+    if (!criticalPathPrioritizer.isPresent()) {
+      return service;
+    }
+    return service.withPriority(criticalPathPrioritizer.get().getPriority(rule));
   }
 
   private void markRuleAsUsed(BuildRule rule, BuckEventBus eventBus) {
@@ -350,17 +419,30 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             ruleKey,
             input -> processBuildRule(rule, buildContext, executionContext),
             serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    if (buildContext.getArtifactCache() instanceof PrefetchingArtifactCacheDecorator) {
+      // Once the rule is done, an artifact prefetched for it that it did not fetch is of no use.
+      PrefetchingArtifactCacheDecorator prefetcher =
+          (PrefetchingArtifactCacheDecorator) buildContext.getArtifactCache();
+      result.addListener(
+          () -> {
+            if (!ruleKey.isCancelled()) {
+              try {
+                prefetcher.discard(Futures.getDone(ruleKey));
+              } catch (ExecutionException e) {
+                // The build reports rule key failures.
+              }
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
     if (!(rule instanceof HasRuntimeDeps)) {
       results.put(rule.getBuildTarget(), result);
       return result;
     }
 
     // Collect any runtime deps we have into a list of futures.
-    Stream<BuildTarget> runtimeDepPaths = ((HasRuntimeDeps) rule).getRuntimeDeps(ruleFinder);
     List<ListenableFuture<BuildResult>> runtimeDepResults = new ArrayList<>();
-    ImmutableSet<BuildRule> runtimeDeps =
-        resolver.getAllRules(runtimeDepPaths.collect(ImmutableSet.toImmutableSet()));
-    for (BuildRule dep : runtimeDeps) {
+    for (BuildRule dep : getRuntimeDeps(rule)) {
       runtimeDepResults.add(
           getBuildRuleResultWithRuntimeDepsUnlocked(dep, buildContext, executionContext));
     }
@@ -380,6 +462,14 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return chainedResult;
   }
 
+  private ImmutableSet<BuildRule> getRuntimeDeps(BuildRule rule) {
+    if (!(rule instanceof HasRuntimeDeps)) {
+      return ImmutableSet.of();
+    }
+    Stream<BuildTarget> runtimeDepPaths = ((HasRuntimeDeps) rule).getRuntimeDeps(ruleFinder);
+    return resolver.getAllRules(runtimeDepPaths.collect(ImmutableSet.toImmutableSet()));
+  }
+
   private ListenableFuture<BuildResult> getBuildRuleResultWithRuntimeDeps(
       BuildRule rule, BuildEngineBuildContext buildContext, ExecutionContext executionContext) {
 
@@ -435,11 +525,113 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    if (buildContext.getArtifactCache() instanceof PrefetchingArtifactCacheDecorator) {
+      startPrefetching(
+          (PrefetchingArtifactCacheDecorator) buildContext.getArtifactCache(), buildContext, rule);
+    }
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
+  /**
+   * Computes the rule keys of {@code rule} and of the rules below it that the build may need, and
+   * has {@code prefetcher} download the artifacts of the ones that are not up to date on disk.
+   * Rules are handed over breadth first, since the artifacts closest to the top of the graph are
+   * the ones a mostly cached build fetches, and each rule is only handed over once.
+   */
+  private void startPrefetching(
+      PrefetchingArtifactCacheDecorator prefetcher,
+      BuildEngineBuildContext buildContext,
+      BuildRule rule) {
+    prefetchers.add(prefetcher);
+    if (prefetchedTargets.add(rule.getBuildTarget())) {
+      prefetchLevel(prefetcher, buildContext, ImmutableList.of(rule));
+    }
+  }
+
+  /**
+   * Hands the rules of one level of the graph over to {@code prefetcher}, then goes on with the
+   * deps the build will need. A rule that is up to date on disk or in a remote cache is not built,
+   * so only its runtime deps are needed, unless the build mode builds all deps anyway.
+   */
+  private void prefetchLevel(
+      PrefetchingArtifactCacheDecorator prefetcher,
+      BuildEngineBuildContext buildContext,
+      List<BuildRule> level) {
+    List<BuildRule> rules = new ArrayList<>();
+    List<ListenableFuture<RuleKey>> ruleKeyFutures = new ArrayList<>();
+    for (BuildRule rule : level) {
+      if (rule.isCacheable()) {
+        rules.add(rule);
+        ruleKeyFutures.add(calculateRuleKey(rule, buildContext));
+      }
+    }
+    // Rule keys that fail to compute are null here, the build itself reports those failures.
+    ListenableFuture<List<RuleKey>> ruleKeys = Futures.successfulAsList(ruleKeyFutures);
+    ListenableFuture<Set<BuildRule>> cachedRules =
+        Futures.transformAsync(
+            ruleKeys,
+            computedKeys -> {
+              Set<BuildRule> upToDateRules = new HashSet<>();
+              Map<RuleKey, BuildRule> rulesToPrefetch = new LinkedHashMap<>();
+              for (int i = 0; i < rules.size(); i++) {
+                RuleKey ruleKey = computedKeys.get(i);
+                if (ruleKey == null) {
+                  continue;
+                }
+                if (hasMatchingLocalKey(rules.get(i), ruleKey, buildContext)) {
+                  upToDateRules.add(rules.get(i));
+                } else {
+                  rulesToPrefetch.put(ruleKey, rules.get(i));
+                }
+              }
+              return Futures.transform(
+                  prefetcher.prefetch(ImmutableList.copyOf(rulesToPrefetch.keySet())),
+                  remoteHits -> {
+                    remoteHits.forEach(ruleKey -> upToDateRules.add(rulesToPrefetch.get(ruleKey)));
+                    return upToDateRules;
+                  },
+                  MoreExecutors.directExecutor());
+            },
+            serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    cachedRules.addListener(
+        () -> {
+          Set<BuildRule> rulesNotBuilt = ImmutableSet.of();
+          if (buildMode != BuildMode.DEEP && buildMode != BuildMode.POPULATE_FROM_REMOTE_CACHE) {
+            try {
+              rulesNotBuilt = Futures.getDone(cachedRules);
+            } catch (ExecutionException e) {
+              // Then all deps may be needed. The build reports the failure if it matters.
+            }
+          }
+          List<BuildRule> nextLevel = new ArrayList<>();
+          for (BuildRule rule : level) {
+            Iterable<BuildRule> deps =
+                rulesNotBuilt.contains(rule) ? getRuntimeDeps(rule) : ruleDeps.get(rule);
+            for (BuildRule dep : deps) {
+              if (prefetchedTargets.add(dep.getBuildTarget())) {
+                nextLevel.add(dep);
+              }
+            }
+          }
+          if (!nextLevel.isEmpty()) {
+            prefetchLevel(prefetcher, buildContext, nextLevel);
+          }
+        },
+        serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+  }
+
+  private boolean hasMatchingLocalKey(
+      BuildRule rule, RuleKey ruleKey, BuildEngineBuildContext buildContext) {
+    BuildInfoStore buildInfoStore =
+        buildInfoStoreManager.get(rule.getProjectFilesystem(), metadataStorage);
+    OnDiskBuildInfo onDiskBuildInfo =
+        buildContext.createOnDiskBuildInfoFor(
+            rule.getBuildTarget(), rule.getProjectFilesystem(), buildInfoStore);
+    return ruleKey.equals(onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY).orElse(null));
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
@@ -516,7 +708,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             pathResolver,
             resourceAwareSchedulingInfo,
             ruleKeyFactories,
-            service,
+            serviceForRule(rule),
             stepRunner,
             this.ruleDeps,
             rule,
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.timing.ClockDuration;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Prioritizes rules by the estimated length of the longest chain of work between them and a
+ * top-level rule, so that the rules on the critical path of the build get to run first when there
+ * is more work ready than there are resources to run it.
+ *
+ * <p>Estimates come from the local build durations recorded in a {@link BuildRuleDurationHistory}.
+ * Rules that have never been built locally are assumed to take as long as the average rule of their
+ * type, or the average rule of any type if there is no history for their type either.
+ */
+class CriticalPathPrioritizer {
+  private final RuleDepsCache ruleDeps;
+  private final BuildRuleDurationHistory history;
+
+  // The reverse of the dependency graph of all the rules reachable from the top-level rules.
+  @GuardedBy("this")
+  private final Map<BuildRule, List<BuildRule>> dependents = new HashMap<>();
+
+  /** Computed for all rules on first use, and dropped whenever rules are registered. */
+  @GuardedBy("this")
+  @Nullable
+  private Map<BuildRule, Long> estimatedPathMillis = null;
+
+  @GuardedBy("this")
+  @Nullable
+  private BuckEventBus eventBus = null;
+
+  CriticalPathPrioritizer(RuleDepsCache ruleDeps, BuildRuleDurationHistory history) {
+    this.ruleDeps = ruleDeps;
+    this.history = history;
+  }
+
+  synchronized void registerTopLevelRule(BuildRule rule, BuckEventBus eventBus) {
+    this.eventBus = eventBus;
+    if (dependents.containsKey(rule)) {
+      return;
+    }
+    // Adding dependents can lengthen the remaining path of any rule below them.
+    estimatedPathMillis = null;
+    dependents.put(rule, new ArrayList<>());
+    Deque<BuildRule> toVisit = new ArrayDeque<>();
+    toVisit.push(rule);
+    while (!toVisit.isEmpty()) {
+      BuildRule current = toVisit.pop();
+      for (BuildRule dep : ruleDeps.get(current)) {
+        List<BuildRule> depDependents = dependents.get(dep);
+        if (depDependents == null) {
+          depDependents = new ArrayList<>();
+          dependents.put(dep, depDependents);
+          toVisit.push(dep);
+        }
+        depDependents.add(current);
+      }
+    }
+  }
+
+  /**
+   * @return the priority with which to schedule the work of the given rule, which is the estimated
+   *     number of milliseconds between starting it and finishing the top-level rules that depend on
+   *     it.
+   */
+  synchronized int getPriority(BuildRule rule) {
+    if (estimatedPathMillis == null) {
+      estimatedPathMillis = computePathMillis(this::estimateDurationMillis);
+    }
+    Long millis = estimatedPathMillis.get(rule);
+    if (millis == null) {
+      // Not reachable from any top-level rule, so nothing is waiting on it.
+      millis = estimateDurationMillis(rule);
+    }
+    return (int) Math.min(Integer.MAX_VALUE, millis);
+  }
+
+  /** Reports the predicted and actual critical paths of the build. */
+  synchronized void buildFinished(BuildRuleDurationTracker durationTracker) {
+    if (eventBus == null) {
+      return;
+    }
+
+    ToLongFunction<BuildRule> actualDurationMillis =
+        rule ->
+            durationTracker
+                .getDuration(rule.getBuildTarget())
+                .map(ClockDuration::getWallMillisDuration)
+                .orElse(0L);
+    CriticalPath predicted = findCriticalPath(this::estimateDurationMillis);
+    CriticalPath actual = findCriticalPath(actualDurationMillis);
+    eventBus.post(
+        BuildEvent.criticalPathCalculated(
+            predicted.millis, predicted.path, actual.millis, actual.path));
+  }
+
+  private long estimateDurationMillis(BuildRule rule) {
+    if (rule instanceof NoopBuildRuleWithDeclaredAndExtraDeps) {
+      return 0;
+    }
+    long millis = history.estimateDurationMillis(rule, BuildRuleDurationHistory.Phase.BUILD);
+    // Every rule has to count for something, otherwise long chains of fast rules look free.
+    return Math.max(1, millis);
+  }
+
+  /**
+   * @return the length of the longest path from each rule to a top-level rule, including both.
+   *     Rules are visited in topological order, each once all of its dependents are, so that deep
+   *     graphs don't need a deep stack.
+   */
+  @GuardedBy("this")
+  private Map<BuildRule, Long> computePathMillis(ToLongFunction<BuildRule> durationMillis) {
+    Map<BuildRule, Integer> pendingDependents = new HashMap<>();
+    Deque<BuildRule> ready = new ArrayDeque<>();
+    for (Map.Entry<BuildRule, List<BuildRule>> entry : dependents.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        ready.push(entry.getKey());
+      } else {
+        pendingDependents.put(entry.getKey(), entry.getValue().size());
+      }
+    }
+
+    Map<BuildRule, Long> pathMillis = new HashMap<>();
+    while (!ready.isEmpty()) {
+      BuildRule rule = ready.pop();
+      long longestDependentPath = 0;
+      for (BuildRule dependent : dependents.get(rule)) {
+        longestDependentPath = Math.max(longestDependentPath, pathMillis.get(dependent));
+      }
+      pathMillis.put(rule, durationMillis.applyAsLong(rule) + longestDependentPath);
+      for (BuildRule dep : ruleDeps.get(rule)) {
+        if (pendingDependents.merge(dep, -1, Integer::sum) == 0) {
+          ready.push(dep);
+        }
+      }
+    }
+    return pathMillis;
+  }
+
+  @GuardedBy("this")
+  private CriticalPath findCriticalPath(ToLongFunction<BuildRule> durationMillis) {
+    Map<BuildRule, Long> pathMillis = computePathMillis(durationMillis);
+    BuildRule current = null;
+    long longestPath = 0;
+    for (Map.Entry<BuildRule, Long> entry : pathMillis.entrySet()) {
+      if (current == null || entry.getValue() > longestPath) {
+        current = entry.getKey();
+        longestPath = entry.getValue();
+      }
+    }
+
+    ImmutableList.Builder<BuildTarget> path = ImmutableList.builder();
+    while (current != null) {
+      path.add(current.getBuildTarget());
+      BuildRule next = null;
+      for (BuildRule dependent : dependents.get(current)) {
+        if (next == null || pathMillis.get(dependent) > pathMillis.get(next)) {
+          next = dependent;
+        }
+      }
+      current = next;
+    }
+    return new CriticalPath(longestPath, path.build());
+  }
+
+  private static class CriticalPath {
+    private final long millis;
+    private final ImmutableList<BuildTarget> path;
+
+    private CriticalPath(long millis, ImmutableList<BuildTarget> path) {
+      this.millis = millis;
+      this.path = path;
+    }
+  }
+}
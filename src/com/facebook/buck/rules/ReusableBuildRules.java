@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the build rules of an action graph that can be carried over into the next one.
+ *
+ * <p>Many rules keep a {@link BuildRuleResolver}, often wrapped in a {@link SourcePathRuleFinder}
+ * or a {@link SourcePathResolver}, to look up other rules lazily. Carried over, such a rule would
+ * keep looking up the rules of the old action graph. So only rules tagged with {@link
+ * SupportsIncrementalActionGraph} are reused, and only if all the rules they depend on are reused
+ * as well.
+ */
+final class ReusableBuildRules {
+
+  private static final Logger LOG = Logger.get(ReusableBuildRules.class);
+
+  private ReusableBuildRules() {}
+
+  /**
+   * @param resolver the resolver of the action graph the candidates belong to.
+   * @param candidates rules whose target nodes did not change.
+   * @return the candidates that can be added to a new action graph.
+   */
+  static ImmutableList<BuildRule> filter(
+      BuildRuleResolver resolver, ImmutableList<BuildRule> candidates) {
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(resolver);
+    Set<BuildRule> candidateSet = ImmutableSet.copyOf(candidates);
+    Set<BuildRule> rejected = new HashSet<>();
+    Map<BuildRule, List<BuildRule>> dependents = new HashMap<>();
+    for (BuildRule rule : candidates) {
+      if (!(rule instanceof SupportsIncrementalActionGraph)) {
+        LOG.verbose("Not reusing %s, which does not support incremental action graphs.", rule);
+        rejected.add(rule);
+        continue;
+      }
+      for (BuildRule dep : getDeps(resolver, ruleFinder, rule)) {
+        if (!candidateSet.contains(dep)) {
+          rejected.add(rule);
+        } else if (!dep.equals(rule)) {
+          dependents.computeIfAbsent(dep, ignored -> new ArrayList<>()).add(rule);
+        }
+      }
+    }
+
+    // A rule that depends on a rule that is not reused would point to the wrong instance.
+    Deque<BuildRule> toReject = new ArrayDeque<>(rejected);
+    while (!toReject.isEmpty()) {
+      for (BuildRule dependent : dependents.getOrDefault(toReject.pop(), ImmutableList.of())) {
+        if (rejected.add(dependent)) {
+          toReject.push(dependent);
+        }
+      }
+    }
+
+    return candidates
+        .stream()
+        .filter(rule -> !rejected.contains(rule))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private static Set<BuildRule> getDeps(
+      BuildRuleResolver resolver, SourcePathRuleFinder ruleFinder, BuildRule rule) {
+    Set<BuildRule> deps = new HashSet<>(rule.getBuildDeps());
+    if (rule instanceof HasRuntimeDeps) {
+      ((HasRuntimeDeps) rule)
+          .getRuntimeDeps(ruleFinder)
+          .map(resolver::getRule)
+          .forEach(deps::add);
+    }
+    return deps;
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+/**
+ * Used to tag a rule that can be carried over from one action graph into the next when its target
+ * node did not change.
+ *
+ * <p>{@link BuildRule}s implementing this interface must not keep the {@link BuildRuleResolver}
+ * they were created with, neither directly nor through a {@link SourcePathRuleFinder} or a {@link
+ * SourcePathResolver}, and must only reference build rules that are among their build deps or
+ * runtime deps. Subclasses inherit the tag, so they have to honor this as well.
+ */
+public interface SupportsIncrementalActionGraph extends BuildRule {}
@@ -47,7 +47,11 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
-public class SymlinkTree implements BuildRule, HasRuntimeDeps, SupportsInputBasedRuleKey {
+public class SymlinkTree
+    implements BuildRule,
+        HasRuntimeDeps,
+        SupportsIncrementalActionGraph,
+        SupportsInputBasedRuleKey {
 
   private final String category;
   private final Path root;
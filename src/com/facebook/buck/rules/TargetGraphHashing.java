@@ -19,8 +19,9 @@ package com.facebook.buck.rules;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
-import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
 import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
+import com.facebook.buck.graph.ParallelBottomUpTraversal;
+import com.facebook.buck.io.ArchiveMemberPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
@@ -28,22 +29,17 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.hashing.StringHashing;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Utility class to calculate hash codes for build targets in a {@link TargetGraph}.
@@ -54,13 +50,34 @@ import java.util.concurrent.Executors;
  */
 public class TargetGraphHashing {
   private static final Logger LOG = Logger.get(TargetGraphHashing.class);
+
+  /** Stands in for input file hashes when only the shape of the graph matters. */
+  private static final FileHashLoader PATH_ONLY_HASH_LOADER =
+      new FileHashLoader() {
+        @Override
+        public HashCode get(Path path) {
+          return Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8);
+        }
+
+        // Nothing limits input sizes when hashing target graphs, but any use of this loader must
+        // not read the file system either.
+        @Override
+        public long getSize(Path path) {
+          return 0;
+        }
+
+        @Override
+        public HashCode get(ArchiveMemberPath archiveMemberPath) {
+          return Hashing.sha1().hashString(archiveMemberPath.toString(), StandardCharsets.UTF_8);
+        }
+      };
+
   private final BuckEventBus eventBus;
   private final TargetGraph targetGraph;
   private final FileHashLoader fileHashLoader;
   private final int numThreads;
   private final Iterable<TargetNode<?, ?>> roots;
-  private final Map<BuildTarget, TargetNode<?, ?>> targetNodes;
-  private final LoadingCache<BuildTarget, HashCode> allHashes;
+  private final Map<BuildTarget, HashCode> allHashes;
 
   public TargetGraphHashing(
       final BuckEventBus eventBus,
@@ -73,18 +90,20 @@ public class TargetGraphHashing {
     this.fileHashLoader = fileHashLoader;
     this.numThreads = numThreads;
     this.roots = roots;
-    this.targetNodes = new HashMap<>();
-    allHashes =
-        CacheBuilder.newBuilder()
-            .build(
-                new CacheLoader<BuildTarget, HashCode>() {
-                  @Override
-                  public HashCode load(BuildTarget target) {
-                    try (SimplePerfEvent.Scope scope = getHashNodeEventScope(eventBus, target)) {
-                      return hashNode(target);
-                    }
-                  }
-                });
+    this.allHashes = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Creates a hasher whose per-node hashes only reflect the structure of the graph: the node's
+   * attributes and its dependencies' hashes, but not the contents of its input files. Such a hash
+   * changes exactly when the build rules created from the node might change.
+   */
+  public static TargetGraphHashing ignoringFileContents(
+      BuckEventBus eventBus,
+      TargetGraph targetGraph,
+      int numThreads,
+      Iterable<TargetNode<?, ?>> roots) {
+    return new TargetGraphHashing(eventBus, targetGraph, PATH_ONLY_HASH_LOADER, numThreads, roots);
   }
 
   /**
@@ -96,53 +115,27 @@ public class TargetGraphHashing {
     try (SimplePerfEvent.Scope scope =
         SimplePerfEvent.scope(eventBus, PerfEventId.of("ShowTargetHashes"))) {
 
-      ConcurrentLinkedQueue<BuildTarget> workQueue = new ConcurrentLinkedQueue<>();
-      new AcyclicDepthFirstPostOrderTraversal<TargetNode<?, ?>>(
-              node -> targetGraph.getAll(node.getParseDeps()).iterator())
-          .traverse(roots)
-          .forEach(
-              node -> {
-                final BuildTarget buildTarget = node.getBuildTarget();
-                targetNodes.put(buildTarget, node);
-                workQueue.add(buildTarget);
-              });
-
-      final ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
-      executorService.invokeAll(
-          Collections.nCopies(
-              numThreads,
-              () -> {
-                while (true) {
-                  BuildTarget target = workQueue.poll();
-                  if (target == null) {
-                    break;
+      // A node is hashed once all of its dependencies are, so their hashes are always available.
+      ForkJoinPool pool = new ForkJoinPool(numThreads);
+      try {
+        new ParallelBottomUpTraversal<TargetNode<?, ?>>(
+                node -> targetGraph.getAll(node.getParseDeps()).iterator(), pool)
+            .traverse(
+                roots,
+                node -> {
+                  BuildTarget target = node.getBuildTarget();
+                  try (SimplePerfEvent.Scope ignored = getHashNodeEventScope(eventBus, target)) {
+                    allHashes.put(target, hashNode(node));
                   }
-                  if (!allHashes.asMap().containsKey(target) && allDepsReady(target)) {
-                    allHashes.getUnchecked(target);
-                  } else {
-                    workQueue.add(target);
-                  }
-                }
-                return null;
-              }));
-      return ImmutableMap.copyOf(allHashes.asMap());
-    }
-  }
-
-  private boolean allDepsReady(BuildTarget target) {
-    TargetNode<?, ?> node = targetNodes.get(target);
-    Preconditions.checkNotNull(node);
-    for (BuildTarget dependency : node.getParseDeps()) {
-      if (!allHashes.asMap().containsKey(dependency)) {
-        return false;
+                });
+      } finally {
+        pool.shutdown();
       }
+      return ImmutableMap.copyOf(allHashes);
     }
-    return true;
   }
 
-  private HashCode hashNode(BuildTarget target) {
-    TargetNode<?, ?> node = targetNodes.get(target);
-    Preconditions.checkNotNull(node);
+  private HashCode hashNode(TargetNode<?, ?> node) {
     Hasher hasher = Hashing.sha1().newHasher();
     LOG.verbose("Hashing node %s", node);
     // Hash the node's build target and rules.
@@ -168,7 +161,7 @@ public class TargetGraphHashing {
 
     // hash each dependency's build target and that build target's own hash.
     for (BuildTarget dependency : node.getParseDeps()) {
-      HashCode dependencyHashCode = allHashes.getUnchecked(dependency);
+      HashCode dependencyHashCode = Preconditions.checkNotNull(allHashes.get(dependency));
       LOG.verbose("Node %s: adding dependency %s (%s)", node, dependency, dependencyHashCode);
       StringHashing.hashStringAndLength(hasher, dependency.toString());
       hasher.putBytes(dependencyHashCode.asBytes());
@@ -32,6 +32,7 @@ import com.facebook.buck.rules.HasRuntimeDeps;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.SupportsIncrementalActionGraph;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.CopyStep;
@@ -95,7 +96,10 @@ import java.util.stream.Stream;
  * of the file to be saved.
  */
 public class ExportFile extends AbstractBuildRule
-    implements HasOutputName, HasRuntimeDeps, SupportsInputBasedRuleKey {
+    implements HasOutputName,
+        HasRuntimeDeps,
+        SupportsIncrementalActionGraph,
+        SupportsInputBasedRuleKey {
 
   @AddToRuleKey private final String name;
   @AddToRuleKey private final ExportFileDescription.Mode mode;
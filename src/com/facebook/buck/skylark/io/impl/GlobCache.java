@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.io.file.MorePaths;
+import com.facebook.buck.skylark.io.Globber;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the results of {@code glob} calls, grouped by the directory they were resolved against, so
+ * that build files that are parsed again do not have to hit the filesystem or Watchman.
+ *
+ * <p>Glob results only change when files are created or deleted, so whoever owns the cache must
+ * report such changes through {@link #invalidate(Path)}. Only the results that could include the
+ * changed path are dropped.
+ *
+ * <p>This class is thread safe.
+ */
+public class GlobCache {
+
+  private static final CharMatcher SEPARATOR = CharMatcher.is('/');
+
+  private final Map<Path, Map<GlobSpec, ImmutableSet<String>>> resultsByDirectory =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Returns a {@link Globber} that serves results for {@code basePath} from this cache, and
+   * resolves the ones that are missing with {@code delegate}.
+   *
+   * @param basePath The absolute path of the directory {@code delegate} resolves patterns against.
+   */
+  public Globber wrap(Path basePath, Globber delegate) {
+    return (include, exclude, excludeDirectories) -> {
+      Map<GlobSpec, ImmutableSet<String>> results =
+          resultsByDirectory.computeIfAbsent(basePath, path -> new ConcurrentHashMap<>());
+      GlobSpec spec = new GlobSpec(include, exclude, excludeDirectories);
+      ImmutableSet<String> result = results.get(spec);
+      if (result == null) {
+        result = ImmutableSet.copyOf(delegate.run(include, exclude, excludeDirectories));
+        results.put(spec, result);
+      }
+      return result;
+    };
+  }
+
+  /**
+   * Drops the cached results that may change because the file or directory at {@code path} was
+   * created or deleted.
+   *
+   * @param path The absolute path of the created or deleted file or directory.
+   */
+  public void invalidate(Path path) {
+    for (Path directory = path.getParent(); directory != null; directory = directory.getParent()) {
+      Map<GlobSpec, ImmutableSet<String>> results = resultsByDirectory.get(directory);
+      if (results != null) {
+        String relativePath = MorePaths.pathWithUnixSeparators(directory.relativize(path));
+        results.keySet().removeIf(spec -> spec.mayMatch(relativePath));
+      }
+    }
+  }
+
+  /** Drops all cached results. */
+  public void invalidateAll() {
+    resultsByDirectory.clear();
+  }
+
+  /** The arguments of a single {@link Globber#run(Collection, Collection, boolean)} call. */
+  private static final class GlobSpec {
+    private final ImmutableList<String> include;
+    private final ImmutableList<String> exclude;
+    private final boolean excludeDirectories;
+
+    private GlobSpec(
+        Collection<String> include, Collection<String> exclude, boolean excludeDirectories) {
+      this.include = ImmutableList.copyOf(include);
+      this.exclude = ImmutableList.copyOf(exclude);
+      this.excludeDirectories = excludeDirectories;
+    }
+
+    /**
+     * Returns whether a path, relative to the directory of the glob, could be matched by one of the
+     * include patterns or be one of the directories leading to such a match.
+     *
+     * <p>A pattern without {@code **} only matches paths with as many segments as it has, so
+     * anything deeper than all such patterns cannot change the result.
+     */
+    private boolean mayMatch(String relativePath) {
+      int depth = SEPARATOR.countIn(relativePath) + 1;
+      for (String pattern : include) {
+        if (pattern.contains("**") || depth <= SEPARATOR.countIn(pattern) + 1) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof GlobSpec)) {
+        return false;
+      }
+      GlobSpec that = (GlobSpec) other;
+      return excludeDirectories == that.excludeDirectories
+          && include.equals(that.include)
+          && exclude.equals(that.exclude);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(include, exclude, excludeDirectories);
+    }
+  }
+}
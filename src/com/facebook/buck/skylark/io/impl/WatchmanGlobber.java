@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.io.WatchmanClient;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.skylark.io.Globber;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An implementation of globbing that resolves each {@code glob} call with a single Watchman query
+ * instead of walking the filesystem.
+ *
+ * <p>Like the Watchman globbing of the Python DSL parser, symlinks to directories are not followed.
+ * When Watchman does not answer in time, the glob is resolved by a fallback {@link Globber}.
+ */
+public class WatchmanGlobber implements Globber {
+
+  private static final Logger LOG = Logger.get(WatchmanGlobber.class);
+  private static final ImmutableMap<String, Boolean> INCLUDE_DOTFILES =
+      ImmutableMap.of("includedotfiles", true);
+
+  private final WatchmanClient watchmanClient;
+  private final String watchRoot;
+  /** Directory patterns are resolved against, relative to {@code watchRoot}. */
+  private final Optional<String> relativeRoot;
+  private final long timeoutNanos;
+  private final Globber fallback;
+
+  private WatchmanGlobber(
+      WatchmanClient watchmanClient,
+      String watchRoot,
+      Optional<String> relativeRoot,
+      long timeoutNanos,
+      Globber fallback) {
+    this.watchmanClient = watchmanClient;
+    this.watchRoot = watchRoot;
+    this.relativeRoot = relativeRoot;
+    this.timeoutNanos = timeoutNanos;
+    this.fallback = fallback;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<String> run(
+      Collection<String> include, Collection<String> exclude, boolean excludeDirectories)
+      throws IOException {
+    if (include.isEmpty()) {
+      return ImmutableSet.of();
+    }
+
+    Map<String, Object> params = new LinkedHashMap<>();
+    relativeRoot.ifPresent(root -> params.put("relative_root", root));
+    // The parser only runs once the file changes reported by Watchman up to the start of the
+    // command have been processed, so there is no need to wait for Watchman to sync again.
+    params.put("sync_timeout", 0);
+    params.put("glob", ImmutableList.copyOf(include));
+    params.put("glob_includedotfiles", true);
+    params.put("expression", toExpression(exclude, excludeDirectories));
+    params.put("fields", ImmutableList.of("name"));
+
+    Optional<? extends Map<String, ? extends Object>> queryResponse;
+    try {
+      queryResponse = watchmanClient.queryWithTimeout(timeoutNanos, "query", watchRoot, params);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException exception =
+          new InterruptedIOException("Interrupted while querying Watchman for glob results.");
+      exception.initCause(e);
+      throw exception;
+    }
+    if (!queryResponse.isPresent()) {
+      LOG.warn(
+          "Timed out after %d ns for Watchman glob query %s, falling back to the filesystem.",
+          timeoutNanos, params);
+      return fallback.run(include, exclude, excludeDirectories);
+    }
+
+    Map<String, ? extends Object> response = queryResponse.get();
+    String error = (String) response.get("error");
+    if (error != null) {
+      throw new IOException(String.format("Error from Watchman query %s: %s", params, error));
+    }
+
+    String warning = (String) response.get("warning");
+    if (warning != null) {
+      LOG.warn("Watchman warning from query %s: %s", params, warning);
+    }
+
+    return ImmutableSet.copyOf((List<String>) Preconditions.checkNotNull(response.get("files")));
+  }
+
+  private static ImmutableList<Object> toExpression(
+      Collection<String> exclude, boolean excludeDirectories) {
+    ImmutableList.Builder<Object> expression = ImmutableList.builder();
+    expression.add("allof", "exists");
+    if (excludeDirectories) {
+      expression.add(ImmutableList.of("not", ImmutableList.of("type", "d")));
+    }
+    if (!exclude.isEmpty()) {
+      ImmutableList.Builder<Object> excludeMatchers = ImmutableList.builder();
+      excludeMatchers.add("anyof");
+      for (String pattern : exclude) {
+        excludeMatchers.add(ImmutableList.of("match", pattern, "wholename", INCLUDE_DOTFILES));
+      }
+      expression.add(ImmutableList.of("not", excludeMatchers.build()));
+    }
+    return expression.build();
+  }
+
+  /**
+   * Factory method for creating {@link WatchmanGlobber} instances.
+   *
+   * @param watchmanClient The client used to query Watchman. It is not closed by the globber.
+   * @param watchRoot The root of the Watchman watch.
+   * @param relativeRoot The directory patterns are resolved against, relative to {@code
+   *     watchRoot}, or {@link Optional#empty()} if it is {@code watchRoot} itself.
+   * @param timeoutNanos How long to wait for each Watchman query.
+   * @param fallback The globber used when a Watchman query times out.
+   */
+  public static Globber create(
+      WatchmanClient watchmanClient,
+      String watchRoot,
+      Optional<String> relativeRoot,
+      long timeoutNanos,
+      Globber fallback) {
+    return new WatchmanGlobber(watchmanClient, watchRoot, relativeRoot, timeoutNanos, fallback);
+  }
+}
@@ -17,6 +17,8 @@
 package com.facebook.buck.skylark.parser;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.ProjectWatch;
+import com.facebook.buck.io.WatchmanClient;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
@@ -32,7 +34,10 @@ import com.facebook.buck.skylark.function.HostInfo;
 import com.facebook.buck.skylark.function.ReadConfig;
 import com.facebook.buck.skylark.function.SkylarkExtensionFunctions;
 import com.facebook.buck.skylark.function.SkylarkNativeModule;
+import com.facebook.buck.skylark.io.Globber;
+import com.facebook.buck.skylark.io.impl.GlobCache;
 import com.facebook.buck.skylark.io.impl.SimpleGlobber;
+import com.facebook.buck.skylark.io.impl.WatchmanGlobber;
 import com.facebook.buck.skylark.packages.PackageContext;
 import com.facebook.buck.skylark.packages.PackageFactory;
 import com.facebook.buck.util.MoreSuppliers;
@@ -71,8 +76,10 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -100,6 +107,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       Label.createUnvalidated(PackageIdentifier.EMPTY_PACKAGE_ID, "");
   // URL prefix for all build rule documentation pages
   private static final String BUCK_RULE_DOC_URL_PREFIX = "https://buckbuild.com/rule/";
+  private static final long DEFAULT_WATCHMAN_GLOB_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
 
   private final FileSystem fileSystem;
   private final TypeCoercerFactory typeCoercerFactory;
@@ -111,18 +119,24 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   private final Supplier<Environment.Frame> buckLoadContextGlobalsSupplier;
   private final Supplier<Environment.Frame> buckBuildFileContextGlobalsSupplier;
   private final LoadingCache<LoadImport, ExtensionData> extensionDataCache;
+  private final GlobCache globCache;
+  // Created on first use and reused for all globs of this parser, which only parses a single build
+  // file at a time.
+  @Nullable private WatchmanClient watchmanClient;
 
   private SkylarkProjectBuildFileParser(
       ProjectBuildFileParserOptions options,
       BuckEventBus buckEventBus,
       FileSystem fileSystem,
       TypeCoercerFactory typeCoercerFactory,
-      EventHandler eventHandler) {
+      EventHandler eventHandler,
+      GlobCache globCache) {
     this.options = options;
     this.buckEventBus = buckEventBus;
     this.fileSystem = fileSystem;
     this.typeCoercerFactory = typeCoercerFactory;
     this.eventHandler = eventHandler;
+    this.globCache = globCache;
     // since Skylark parser is currently disabled by default, avoid creating functions in case
     // it's never used
     // TODO(ttsugrii): replace suppliers with eager loading once Skylark parser is on by default
@@ -159,8 +173,24 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       FileSystem fileSystem,
       TypeCoercerFactory typeCoercerFactory,
       EventHandler eventHandler) {
+    return using(
+        options, buckEventBus, fileSystem, typeCoercerFactory, eventHandler, new GlobCache());
+  }
+
+  /**
+   * Same as {@link #using(ProjectBuildFileParserOptions, BuckEventBus, FileSystem,
+   * TypeCoercerFactory, EventHandler)}, but keeps glob results in {@code globCache}, which can
+   * outlive the parser.
+   */
+  public static SkylarkProjectBuildFileParser using(
+      ProjectBuildFileParserOptions options,
+      BuckEventBus buckEventBus,
+      FileSystem fileSystem,
+      TypeCoercerFactory typeCoercerFactory,
+      EventHandler eventHandler,
+      GlobCache globCache) {
     return new SkylarkProjectBuildFileParser(
-        options, buckEventBus, fileSystem, typeCoercerFactory, eventHandler);
+        options, buckEventBus, fileSystem, typeCoercerFactory, eventHandler, globCache);
   }
 
   @Override
@@ -284,7 +314,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
     env.setup("package_name", SkylarkNativeModule.packageName);
     PackageContext packageContext =
         PackageContext.builder()
-            .setGlobber(SimpleGlobber.create(fileSystem.getPath(buildFile.getParent().toString())))
+            .setGlobber(createGlobber(buildFile.getParent()))
             .setRawConfig(options.getRawConfig())
             .build();
     env.setupDynamic(PackageFactory.PACKAGE_CONTEXT, packageContext);
@@ -294,6 +324,39 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
         .build();
   }
 
+  /**
+   * Creates a globber for the build file package at {@code basePath}. Globs are resolved with
+   * Watchman when it is enabled for globbing and watches the cell, and results are kept in the
+   * {@link GlobCache}.
+   */
+  private Globber createGlobber(Path basePath) throws IOException {
+    Globber globber = SimpleGlobber.create(fileSystem.getPath(basePath.toString()));
+    Path cellPath = options.getProjectRoot().toAbsolutePath();
+    ProjectWatch projectWatch = options.getWatchman().getProjectWatches().get(cellPath);
+    if (options.getUseWatchmanGlob() && projectWatch != null) {
+      String relativeRoot =
+          MorePaths.pathWithUnixSeparators(
+              Paths.get(projectWatch.getProjectPrefix().orElse(""))
+                  .resolve(cellPath.relativize(basePath)));
+      globber =
+          WatchmanGlobber.create(
+              getWatchmanClient(),
+              projectWatch.getWatchRoot(),
+              Optional.of(relativeRoot).filter(root -> !root.isEmpty()),
+              TimeUnit.MILLISECONDS.toNanos(
+                  options.getWatchmanQueryTimeoutMs().orElse(DEFAULT_WATCHMAN_GLOB_TIMEOUT_MS)),
+              globber);
+    }
+    return globCache.wrap(basePath, globber);
+  }
+
+  private WatchmanClient getWatchmanClient() throws IOException {
+    if (watchmanClient == null) {
+      watchmanClient = options.getWatchman().createClient();
+    }
+    return watchmanClient;
+  }
+
   private ImmutableList<com.google.devtools.build.lib.vfs.Path> toLoadedPaths(
       ImmutableList<ExtensionData> dependencies) {
     ImmutableList.Builder<com.google.devtools.build.lib.vfs.Path> loadedPathsBuilder =
@@ -581,7 +644,10 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
 
   @Override
   public void close() throws BuildFileParseException, InterruptedException, IOException {
-    // nothing to do
+    if (watchmanClient != null) {
+      watchmanClient.close();
+      watchmanClient = null;
+    }
   }
 
   /**
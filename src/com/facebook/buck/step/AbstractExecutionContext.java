@@ -34,6 +34,7 @@ import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableMap;
@@ -97,6 +98,12 @@ abstract class AbstractExecutionContext implements Closeable {
   @Value.Parameter
   abstract ProjectFilesystemFactory getProjectFilesystemFactory();
 
+  /**
+   * Hashes of files shared with the build engine, which keeps them up to date as rules write their
+   * outputs. Absent when steps are run outside of a command.
+   */
+  abstract Optional<FileHashLoader> getFileHashLoader();
+
   @Value.Default
   public long getDefaultTestTimeoutMillis() {
     return 0L;
@@ -36,6 +36,8 @@ public class BundledExternalProcessLauncher {
 
   enum EntryPoints {
     EXTERNAL_STEP_EXECUTOR("com.facebook.buck.step.external.executor.ExternalStepExecutorMain"),
+    JAVAC_WORKER("com.facebook.buck.jvm.java.worker.JavacWorkerMain"),
+    KOTLINC_WORKER("com.facebook.buck.jvm.kotlin.worker.KotlincWorkerMain"),
     ;
 
     private final String entryPointName;
@@ -53,6 +55,14 @@ public class BundledExternalProcessLauncher {
     return getCommand(EntryPoints.EXTERNAL_STEP_EXECUTOR);
   }
 
+  public ImmutableList<String> getCommandForJavacWorker() {
+    return getCommand(EntryPoints.JAVAC_WORKER);
+  }
+
+  public ImmutableList<String> getCommandForKotlincWorker() {
+    return getCommand(EntryPoints.KOTLINC_WORKER);
+  }
+
   private ImmutableList<String> getCommand(EntryPoints entryPoint) {
     BuildType buildType = BuildType.CURRENT_BUILD_TYPE.get();
     switch (buildType) {
@@ -37,6 +37,22 @@ public class DirectoryCleaner {
 
     /** Returns the preferred sorting order to delete paths. */
     int comparePaths(PathStats path1, PathStats path2);
+
+    /**
+     * Returns the size of data under {@code rootPath} that is shared between candidates and thus
+     * not a candidate itself, but still counts towards the total size.
+     */
+    default long getSharedSizeBytes(Path rootPath) throws IOException {
+      return 0;
+    }
+
+    /**
+     * Called after a candidate was deleted. Deletes any shared data that is no longer referenced
+     * and returns its size.
+     */
+    default long releaseSharedData(Path deletedPath) throws IOException {
+      return 0;
+    }
   }
 
   private final DirectoryCleanerArgs args;
@@ -54,6 +70,7 @@ public class DirectoryCleaner {
       totalSizeBytes += stats.getTotalSizeBytes();
       pathStats.add(stats);
     }
+    totalSizeBytes += args.getPathSelector().getSharedSizeBytes(pathToClean);
 
     if (shouldDeleteOldestLog(pathStats.size(), totalSizeBytes)) {
       Collections.sort(
@@ -78,6 +95,7 @@ public class DirectoryCleaner {
         MoreFiles.deleteRecursivelyIfExists(currentPath.getPath());
         --remainingLogDirectories;
         totalSizeBytes -= currentPath.getTotalSizeBytes();
+        totalSizeBytes -= args.getPathSelector().releaseSharedData(currentPath.getPath());
       }
     }
   }
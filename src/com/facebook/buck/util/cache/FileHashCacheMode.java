@@ -22,6 +22,11 @@ public enum FileHashCacheMode {
   PREFIX_TREE,
   LIMITED_PREFIX_TREE,
   LIMITED_PREFIX_TREE_PARALLEL,
-  PARALLEL_COMPARISON;
+  PARALLEL_COMPARISON,
+  /**
+   * Like {@link #PREFIX_TREE}, but daemon-owned caches persist file hashes under buck-out so they
+   * survive daemon restarts.
+   */
+  PERSISTENT_PREFIX_TREE;
   public static final FileHashCacheMode DEFAULT = PREFIX_TREE;
 }
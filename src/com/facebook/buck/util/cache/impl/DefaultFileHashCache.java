@@ -53,6 +53,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
   private final Predicate<Path> ignoredPredicate;
+  private final Optional<PersistentFileHashStore> persistentStore;
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
@@ -60,8 +61,24 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentStore backing store used by {@link FileHashCacheMode#PERSISTENT_PREFIX_TREE}.
+   *     Without one, that mode behaves like {@link FileHashCacheMode#PREFIX_TREE}.
+   */
+  DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.persistentStore =
+        fileHashCacheMode == FileHashCacheMode.PERSISTENT_PREFIX_TREE
+            ? persistentStore
+            : Optional.empty();
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -107,6 +124,15 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       case PREFIX_TREE:
         fileHashCacheEngine = FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader);
         break;
+      case PERSISTENT_PREFIX_TREE:
+        if (persistentStore.isPresent()) {
+          fileHashCacheEngine =
+              PersistentFileHashCacheEngine.createWithStats(
+                  persistentStore.get(), hashLoader, sizeLoader);
+        } else {
+          fileHashCacheEngine = FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader);
+        }
+        break;
       case LIMITED_PREFIX_TREE:
         fileHashCacheEngine =
             new StatsTrackingFileHashCacheEngine(
@@ -207,6 +233,14 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
+    if (persistentStore.isPresent()) {
+      HashCode hashCode = persistentStore.get().lookup(path);
+      if (hashCode == null) {
+        hashCode = projectFilesystem.computeSha1(path).asHashCode();
+        persistentStore.get().store(path, hashCode);
+      }
+      return hashCode;
+    }
     return projectFilesystem.computeSha1(path).asHashCode();
   }
 
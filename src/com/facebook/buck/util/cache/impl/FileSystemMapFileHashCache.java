@@ -36,7 +36,7 @@ class FileSystemMapFileHashCache implements FileHashCacheEngine {
   private final FileSystemMap<HashCodeAndFileType> loadingCache;
   private final FileSystemMap<Long> sizeCache;
 
-  private FileSystemMapFileHashCache(
+  FileSystemMapFileHashCache(
       ValueLoader<HashCodeAndFileType> hashLoader, ValueLoader<Long> sizeLoader) {
     this.loadingCache =
         new FileSystemMap<>(fragment -> hashLoader.load(PathFragments.fragmentToPath(fragment)));
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.FileHashCacheEvent;
+import com.facebook.buck.util.cache.DelegatingFileHashCacheEngine;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A {@link FileSystemMapFileHashCache} whose invalidations also reach the {@link
+ * PersistentFileHashStore} that its file hashes are loaded through, so that a restarted daemon only
+ * rehashes files that changed since the previous one wrote its snapshot.
+ *
+ * <p>Only regular file hashes are persisted, by the hash loader of {@link DefaultFileHashCache}.
+ * Directory hashes are recomputed from their (mostly persisted) children, and archive member hashes
+ * are loaded lazily as usual.
+ */
+class PersistentFileHashCacheEngine extends DelegatingFileHashCacheEngine {
+  private final PersistentFileHashStore store;
+
+  private PersistentFileHashCacheEngine(
+      FileHashCacheEngine delegate, PersistentFileHashStore store) {
+    super(delegate);
+    this.store = store;
+  }
+
+  public static FileHashCacheEngine createWithStats(
+      PersistentFileHashStore store,
+      ValueLoader<HashCodeAndFileType> hashLoader,
+      ValueLoader<Long> sizeLoader) {
+    return new StatsTrackingFileHashCacheEngine(
+        new PersistentFileHashCacheEngine(
+            new FileSystemMapFileHashCache(hashLoader, sizeLoader), store),
+        "persistent");
+  }
+
+  @Override
+  public void put(Path path, HashCodeAndFileType value) {
+    // Explicitly set values (e.g. for build outputs) are not necessarily the content hash, so they
+    // are only kept in memory.
+    store.invalidate(path);
+    super.put(path, value);
+  }
+
+  @Override
+  public void invalidate(Path path) {
+    store.invalidate(path);
+    super.invalidate(path);
+  }
+
+  @Override
+  public void invalidateWithParents(Path path) {
+    store.invalidate(path);
+    super.invalidateWithParents(path);
+  }
+
+  @Override
+  public void invalidateAll() {
+    store.invalidateAll();
+    super.invalidateAll();
+  }
+
+  @Override
+  public List<AbstractBuckEvent> getStatsEvents() {
+    ImmutableList.Builder<AbstractBuckEvent> eventsBuilder =
+        ImmutableList.<AbstractBuckEvent>builder().addAll(super.getStatsEvents());
+    addCountEvent(eventsBuilder, "hit", store.getAndResetHits());
+    addCountEvent(eventsBuilder, "revalidation", store.getAndResetRevalidations());
+    addCountEvent(eventsBuilder, "miss", store.getAndResetMisses());
+    return eventsBuilder.build();
+  }
+
+  private static void addCountEvent(
+      ImmutableList.Builder<AbstractBuckEvent> eventsBuilder, String name, long count) {
+    if (count > 0) {
+      eventsBuilder.add(new FileHashCacheEvent("persistent." + name, 0, 0, count));
+    }
+  }
+}
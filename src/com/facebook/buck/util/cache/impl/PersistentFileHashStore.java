@@ -0,0 +1,437 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.io.WatchmanCursor;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * An append-only, on-disk log of file hashes keyed by project-relative path, used to avoid
+ * rehashing unchanged files when the daemon restarts.
+ *
+ * <p>Every record stores the size, modification time and inode of the file at the time it was
+ * hashed, plus whether it was known to be current as of the Watchman clock stamped in the log
+ * header. On startup, such records are used without touching the filesystem if the daemon starts at
+ * that same clock (i.e. nothing changed in between). Every other record is revalidated by comparing
+ * its stat against the file before its hash is used.
+ */
+class PersistentFileHashStore implements Closeable {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final int MAGIC = 0x42464843;
+  private static final int VERSION = 2;
+
+  /** Compact the log on open once it holds this many times more records than live entries. */
+  private static final int COMPACTION_RATIO = 2;
+
+  @VisibleForTesting
+  static final class Record {
+    private final long size;
+    private final long modifiedTimeMillis;
+    private final long inode;
+    private final HashCode hashCode;
+
+    Record(long size, long modifiedTimeMillis, long inode, HashCode hashCode) {
+      this.size = size;
+      this.modifiedTimeMillis = modifiedTimeMillis;
+      this.inode = inode;
+      this.hashCode = hashCode;
+    }
+
+    HashCode getHashCode() {
+      return hashCode;
+    }
+
+    private boolean matches(FileStat stat) {
+      return size == stat.size
+          && modifiedTimeMillis == stat.modifiedTimeMillis
+          && inode == stat.inode;
+    }
+  }
+
+  private static final class FileStat {
+    private final long size;
+    private final long modifiedTimeMillis;
+    private final long inode;
+
+    private FileStat(long size, long modifiedTimeMillis, long inode) {
+      this.size = size;
+      this.modifiedTimeMillis = modifiedTimeMillis;
+      this.inode = inode;
+    }
+  }
+
+  private static final class TruncatedLogException extends IOException {}
+
+  private final ProjectFilesystem filesystem;
+  private final Path storePath;
+  private final Optional<WatchmanCursor> watchmanCursor;
+  private final ConcurrentMap<Path, Record> records;
+
+  /**
+   * Paths whose record has not been checked against the filesystem since the last Watchman clock
+   * the store knows about. Records not in this set are current as far as Watchman is concerned.
+   */
+  private final Set<Path> unverifiedPaths;
+
+  // Lookups answered without a stat because the Watchman clock has not moved.
+  private final AtomicLong hits = new AtomicLong();
+  // Lookups answered after the record matched the current size, modification time and inode.
+  private final AtomicLong revalidations = new AtomicLong();
+  // Lookups with no usable record, so the file has to be hashed.
+  private final AtomicLong misses = new AtomicLong();
+
+  @Nullable private FileChannel log;
+
+  private PersistentFileHashStore(
+      ProjectFilesystem filesystem,
+      Path storePath,
+      Optional<WatchmanCursor> watchmanCursor,
+      ConcurrentMap<Path, Record> records,
+      Set<Path> unverifiedPaths) {
+    this.filesystem = filesystem;
+    this.storePath = storePath;
+    this.watchmanCursor = watchmanCursor;
+    this.records = records;
+    this.unverifiedPaths = unverifiedPaths;
+  }
+
+  /** @return the location of the store for the given filesystem, relative to its root. */
+  static Path getStorePath(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getBuckOut().resolve("file_hash_cache").resolve("hashes.bin");
+  }
+
+  /**
+   * Opens (or creates) the store for the given filesystem. A missing, corrupt or incompatible log
+   * is discarded and the store starts empty.
+   */
+  static PersistentFileHashStore open(
+      ProjectFilesystem filesystem, Optional<WatchmanCursor> watchmanCursor) throws IOException {
+    Path storePath = filesystem.resolve(getStorePath(filesystem));
+    Files.createDirectories(storePath.getParent());
+
+    Optional<String> currentClock = watchmanCursor.map(WatchmanCursor::get).filter(isClockId());
+    ConcurrentMap<Path, Record> records = new ConcurrentHashMap<>();
+    Set<Path> unverifiedPaths = Sets.newConcurrentHashSet();
+    Optional<String> storedClock = Optional.empty();
+    long recordCount = 0;
+    boolean valid = false;
+    if (Files.exists(storePath)) {
+      try (InputStream fileIn = Files.newInputStream(storePath);
+          DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn))) {
+        storedClock = readHeader(in);
+        recordCount = readRecords(in, records, unverifiedPaths);
+        valid = true;
+      } catch (TruncatedLogException e) {
+        // The previous daemon died in the middle of appending; everything before it is still good
+        // but the log must be rewritten before anything else is appended to it.
+        LOG.debug("Ignoring truncated trailing record in %s", storePath);
+      } catch (IOException e) {
+        LOG.warn(e, "Discarding unreadable file hash store at %s", storePath);
+        storedClock = Optional.empty();
+        records.clear();
+        unverifiedPaths.clear();
+      }
+    }
+
+    boolean trusted = currentClock.isPresent() && currentClock.equals(storedClock);
+    if (!trusted) {
+      unverifiedPaths.addAll(records.keySet());
+    }
+    LOG.debug(
+        "Loaded %d file hashes from %s (stored clock %s, current clock %s, trusted: %s)",
+        records.size(),
+        storePath,
+        storedClock,
+        currentClock,
+        trusted);
+
+    PersistentFileHashStore store =
+        new PersistentFileHashStore(
+            filesystem, storePath, watchmanCursor, records, unverifiedPaths);
+    if (!valid || recordCount > (long) COMPACTION_RATIO * records.size()) {
+      // Rewriting keeps the original clock so a trusted log stays trusted after compaction.
+      store.rewrite(trusted ? storedClock : Optional.empty());
+    } else {
+      store.log =
+          FileChannel.open(storePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    return store;
+  }
+
+  private static Predicate<String> isClockId() {
+    // Named cursors ("n:...") are not comparable across daemons, only real clocks are.
+    return cursor -> cursor.startsWith("c:");
+  }
+
+  private static Optional<String> readHeader(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Unrecognized file hash store format");
+    }
+    String clock = in.readUTF();
+    return clock.isEmpty() ? Optional.empty() : Optional.of(clock);
+  }
+
+  private static long readRecords(
+      DataInputStream in, Map<Path, Record> records, Set<Path> unverifiedPaths)
+      throws IOException {
+    long count = 0;
+    while (true) {
+      int verified = in.read();
+      if (verified == -1) {
+        return count;
+      }
+      try {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long modifiedTimeMillis = in.readLong();
+        long inode = in.readLong();
+        byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        Path key = Paths.get(path);
+        records.put(key, new Record(size, modifiedTimeMillis, inode, HashCode.fromBytes(hash)));
+        if (verified != 0) {
+          unverifiedPaths.remove(key);
+        } else {
+          unverifiedPaths.add(key);
+        }
+        count++;
+      } catch (EOFException e) {
+        throw new TruncatedLogException();
+      }
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out, Optional<String> clock)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(clock.orElse(""));
+  }
+
+  private static void writeRecord(
+      DataOutputStream out, Path path, Record record, boolean verified) throws IOException {
+    out.writeBoolean(verified);
+    out.writeUTF(path.toString());
+    out.writeLong(record.size);
+    out.writeLong(record.modifiedTimeMillis);
+    out.writeLong(record.inode);
+    byte[] hash = record.hashCode.asBytes();
+    out.writeByte(hash.length);
+    out.write(hash);
+  }
+
+  /**
+   * Looks up a cached hash for the given file.
+   *
+   * @return the hash if a record exists and is still valid, or {@code null} otherwise.
+   */
+  @Nullable
+  HashCode lookup(Path path) {
+    Record record = records.get(path);
+    if (record == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    if (!unverifiedPaths.contains(path)) {
+      hits.incrementAndGet();
+      return record.hashCode;
+    }
+    Optional<FileStat> stat = stat(path);
+    if (stat.isPresent() && record.matches(stat.get())) {
+      unverifiedPaths.remove(path);
+      revalidations.incrementAndGet();
+      return record.hashCode;
+    }
+    records.remove(path, record);
+    unverifiedPaths.remove(path);
+    misses.incrementAndGet();
+    return null;
+  }
+
+  long getAndResetHits() {
+    return hits.getAndSet(0);
+  }
+
+  long getAndResetRevalidations() {
+    return revalidations.getAndSet(0);
+  }
+
+  long getAndResetMisses() {
+    return misses.getAndSet(0);
+  }
+
+  /**
+   * Records the hash of a file that was just computed. The stat is taken after hashing, which
+   * errs on the side of rehashing if the file is modified concurrently.
+   */
+  void store(Path path, HashCode hashCode) {
+    Optional<FileStat> stat = stat(path);
+    if (!stat.isPresent()) {
+      return;
+    }
+    Record record =
+        new Record(stat.get().size, stat.get().modifiedTimeMillis, stat.get().inode, hashCode);
+    records.put(path, record);
+    unverifiedPaths.remove(path);
+    append(path, record);
+  }
+
+  /** Forgets the record for the given path, e.g. because Watchman reported a change to it. */
+  void invalidate(Path path) {
+    records.remove(path);
+    unverifiedPaths.remove(path);
+  }
+
+  /**
+   * Requires every record to be revalidated before use, e.g. after a Watchman overflow when it is
+   * unknown which files changed.
+   */
+  void invalidateAll() {
+    unverifiedPaths.addAll(records.keySet());
+  }
+
+  @VisibleForTesting
+  int size() {
+    return records.size();
+  }
+
+  private synchronized void append(Path path, Record record) {
+    if (log == null) {
+      return;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        writeRecord(out, path, record, true);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        log.write(buffer);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to append to file hash store %s, disabling persistence", storePath);
+      closeLogQuietly();
+    }
+  }
+
+  /**
+   * Writes a compacted snapshot of the live records, stamped with the current Watchman clock, so
+   * that the next daemon can skip revalidation if nothing changes in the meantime.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    rewrite(watchmanCursor.map(WatchmanCursor::get).filter(isClockId()));
+    closeLogQuietly();
+  }
+
+  private synchronized void rewrite(Optional<String> clock) throws IOException {
+    closeLogQuietly();
+    Path tmp = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+    try (OutputStream fileOut = Files.newOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+      writeHeader(out, clock);
+      for (Map.Entry<Path, Record> entry : records.entrySet()) {
+        writeRecord(
+            out,
+            entry.getKey(),
+            entry.getValue(),
+            clock.isPresent() && !unverifiedPaths.contains(entry.getKey()));
+      }
+    }
+    Files.move(tmp, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log = FileChannel.open(storePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private void closeLogQuietly() {
+    if (log == null) {
+      return;
+    }
+    try {
+      log.close();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to close file hash store %s", storePath);
+    }
+    log = null;
+  }
+
+  private Optional<FileStat> stat(Path path) {
+    Path absolute = filesystem.resolve(path);
+    try {
+      Map<String, Object> attrs =
+          Files.readAttributes(absolute, "unix:size,lastModifiedTime,ino");
+      return Optional.of(
+          new FileStat(
+              (Long) attrs.get("size"),
+              ((FileTime) attrs.get("lastModifiedTime")).toMillis(),
+              ((Number) attrs.get("ino")).longValue()));
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(absolute, BasicFileAttributes.class);
+        return Optional.of(new FileStat(attrs.size(), attrs.lastModifiedTime().toMillis(), 0));
+      } catch (IOException ioe) {
+        return Optional.empty();
+      }
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to stat %s", absolute);
+      return Optional.empty();
+    }
+  }
+
+  @VisibleForTesting
+  static Optional<String> readStoredClock(Path storePath) throws IOException {
+    try (InputStream fileIn = Files.newInputStream(storePath);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn))) {
+      return readHeader(in);
+    }
+  }
+}
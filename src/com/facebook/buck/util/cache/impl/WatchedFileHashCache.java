@@ -16,21 +16,71 @@
 
 package com.facebook.buck.util.cache.impl;
 
+import com.facebook.buck.io.WatchmanCursor;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Optional;
 
-public class WatchedFileHashCache extends DefaultFileHashCache {
+public class WatchedFileHashCache extends DefaultFileHashCache implements Closeable {
 
   private static final Logger LOG = Logger.get(WatchedFileHashCache.class);
 
+  private final Optional<PersistentFileHashStore> persistentStore;
+
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    this(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * Creates a cache that, with {@link FileHashCacheMode#PERSISTENT_PREFIX_TREE}, backs its file
+   * hashes with the store persisted by previous daemons.
+   *
+   * @param watchmanCursor the cursor the daemon uses for this filesystem. Its clock decides whether
+   *     hashes persisted by a previous daemon can be used without revalidation.
+   */
+  public static WatchedFileHashCache withPersistentStore(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<WatchmanCursor> watchmanCursor) {
+    return new WatchedFileHashCache(
+        projectFilesystem,
+        fileHashCacheMode,
+        openPersistentStore(projectFilesystem, fileHashCacheMode, watchmanCursor));
+  }
+
+  private WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        persistentStore);
+    this.persistentStore = persistentStore;
+  }
+
+  private static Optional<PersistentFileHashStore> openPersistentStore(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<WatchmanCursor> watchmanCursor) {
+    if (fileHashCacheMode != FileHashCacheMode.PERSISTENT_PREFIX_TREE) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(PersistentFileHashStore.open(projectFilesystem, watchmanCursor));
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to open persistent file hash store, hashes will not be persisted.");
+      return Optional.empty();
+    }
   }
 
   /**
@@ -53,4 +103,12 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     LOG.debug("Invalidating all");
     invalidateAll();
   }
+
+  /** Writes out the persisted file hashes, if any, stamped with the current Watchman clock. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (persistentStore.isPresent()) {
+      persistentStore.get().close();
+    }
+  }
 }
@@ -25,4 +25,10 @@ abstract class AbstractListeningSemaphoreArrayPendingItem {
   public abstract SettableFuture<Void> getFuture();
 
   public abstract ResourceAmounts getResources();
+
+  /** Items with a higher priority are granted resources first. */
+  public abstract int getPriority();
+
+  /** Breaks ties between items of equal priority so that they are served in arrival order. */
+  public abstract long getSequenceNumber();
 }
@@ -38,14 +38,24 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
   private final ListeningMultiSemaphore semaphore;
   private final ResourceAmounts defaultValues;
   private final ListeningExecutorService delegate;
+  private final int priority;
 
   public WeightedListeningExecutorService(
       ListeningMultiSemaphore semaphore,
       ResourceAmounts defaultValues,
       ListeningExecutorService delegate) {
+    this(semaphore, defaultValues, delegate, 0);
+  }
+
+  private WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      ListeningExecutorService delegate,
+      int priority) {
     this.semaphore = semaphore;
     this.defaultValues = defaultValues;
     this.delegate = delegate;
+    this.priority = priority;
   }
 
   public ListeningMultiSemaphore getSemaphore() {
@@ -65,14 +75,30 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
     if (newDefaultAmounts.equals(defaultValues)) {
       return this;
     }
-    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate);
+    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate, priority);
+  }
+
+  /**
+   * Creates a new service whose jobs are given the resources they wait for before the jobs of
+   * services with a lower priority.
+   *
+   * @param newPriority priority passed to {@link ListeningMultiSemaphore#acquire(ResourceAmounts,
+   *     int)}
+   * @return Service that uses the same semaphore, delegate and default amounts but with the given
+   *     priority.
+   */
+  public WeightedListeningExecutorService withPriority(int newPriority) {
+    if (newPriority == priority) {
+      return this;
+    }
+    return new WeightedListeningExecutorService(semaphore, defaultValues, delegate, newPriority);
   }
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       final Callable<T> callable, final ResourceAmounts amounts) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, priority),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
@@ -57,7 +57,7 @@ public class BuildTraces {
 
   private static final Logger logger = Logger.get(BuildTraces.class);
 
-  private static final Pattern TRACES_FILE_PATTERN = Pattern.compile("build\\..*\\.trace$");
+  private static final Pattern TRACES_FILE_PATTERN = Pattern.compile("build\\..*\\.b?trace$");
 
   private final ProjectFilesystem projectFilesystem;
 
@@ -147,8 +147,10 @@ public class BuildTraces {
   private boolean isTraceForBuild(Path path, String id) {
     String testPrefix = "build.";
     String testSuffix = "." + id + ".trace";
+    String binaryTestSuffix = "." + id + ".btrace";
     String name = path.getFileName().toString();
-    return name.startsWith(testPrefix) && name.endsWith(testSuffix);
+    return name.startsWith(testPrefix)
+        && (name.endsWith(testSuffix) || name.endsWith(binaryTestSuffix));
   }
 
   /** The most recent trace (the one with the greatest last-modified time) will be listed first. */
@@ -74,6 +74,20 @@ class AppendingZipOutputStreamImpl implements CustomZipOutputStream.Impl {
     currentOffset += currentEntry.writeLocalFileHeader(delegate);
   }
 
+  @Override
+  public void actuallyWriteCompressedEntry(CompressedEntry entry) throws IOException {
+    EntryAccounting accounting = entry.getAccounting();
+    if (throwExceptionsOnDuplicate && !seenNames.add(accounting.getName())) {
+      throw new ZipException("duplicate entry: " + accounting.getName());
+    }
+
+    accounting.setOffset(currentOffset);
+    entries.add(accounting);
+
+    currentOffset += accounting.writeLocalFileHeader(delegate);
+    currentOffset += accounting.writeCompressedData(delegate, entry.getCompressedData());
+  }
+
   @Override
   public void actuallyCloseEntry() throws IOException {
     if (currentEntry == null) {
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * A zip entry whose data was compressed before the entry is written, so that entries can be
+ * compressed on several threads and then written in order with {@link
+ * CustomZipOutputStream#writeCompressedEntry}.
+ *
+ * <p>Compression goes through the same {@link EntryAccounting} code, in the same chunks, as writing
+ * the entry to the stream directly would, so the bytes that end up in the zip file are identical.
+ */
+class CompressedEntry {
+  private final CustomZipEntry entry;
+  private final EntryAccounting accounting;
+  private final byte[] compressedData;
+  @Nullable private final HashCode contentHash;
+
+  private CompressedEntry(
+      CustomZipEntry entry,
+      EntryAccounting accounting,
+      byte[] compressedData,
+      @Nullable HashCode contentHash) {
+    this.entry = entry;
+    this.accounting = accounting;
+    this.compressedData = compressedData;
+    this.contentHash = contentHash;
+  }
+
+  /**
+   * Compresses the contents of an entry.
+   *
+   * @param contents the uncompressed contents, or null for a directory.
+   * @param hashContents whether to compute the {@link CustomJarOutputStream#DIGEST_ATTRIBUTE_NAME}
+   *     hash of the contents.
+   */
+  static CompressedEntry compress(
+      CustomZipEntry entry, @Nullable InputStream contents, boolean hashContents)
+      throws IOException {
+    EntryAccounting accounting = new EntryAccounting(new DefaultClock(), entry, 0);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    Hasher hasher =
+        hashContents && !entry.isDirectory()
+            ? CustomJarOutputStream.ENTRY_HASH_FUNCTION.newHasher()
+            : null;
+
+    if (contents != null) {
+      ByteStreams.copy(
+          contents,
+          new OutputStream() {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+              accounting.write(compressed, b, off, len);
+              if (hasher != null) {
+                hasher.putBytes(b, off, len);
+              }
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+              throw new UnsupportedOperationException();
+            }
+          });
+    }
+    accounting.finishData(compressed);
+
+    return new CompressedEntry(
+        entry, accounting, compressed.toByteArray(), hasher == null ? null : hasher.hash());
+  }
+
+  /**
+   * Wraps data that is already compressed with the method of the entry, such as an entry of another
+   * zip file. The CRC and uncompressed size of the entry must be set.
+   *
+   * @param contentHash the {@link CustomJarOutputStream#DIGEST_ATTRIBUTE_NAME} hash of the
+   *     uncompressed contents, if entries are hashed.
+   */
+  static CompressedEntry copy(
+      CustomZipEntry entry, byte[] compressedData, @Nullable HashCode contentHash) {
+    entry.setCompressedSize(compressedData.length);
+    EntryAccounting accounting = new EntryAccounting(new DefaultClock(), entry, 0);
+    accounting.finishCopiedData();
+
+    return new CompressedEntry(entry, accounting, compressedData, contentHash);
+  }
+
+  CustomZipEntry getEntry() {
+    return entry;
+  }
+
+  EntryAccounting getAccounting() {
+    return accounting;
+  }
+
+  byte[] getCompressedData() {
+    return compressedData;
+  }
+
+  @Nullable
+  HashCode getContentHash() {
+    return contentHash;
+  }
+}
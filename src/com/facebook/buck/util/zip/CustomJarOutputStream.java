@@ -16,6 +16,7 @@
 
 package com.facebook.buck.util.zip;
 
+import com.google.common.base.Preconditions;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -28,6 +29,8 @@ import javax.annotation.Nullable;
 /** Extension of {@link CustomZipOutputStream} with jar-specific functionality. */
 public class CustomJarOutputStream extends CustomZipOutputStream {
   public static final String DIGEST_ATTRIBUTE_NAME = "Murmur3-128-Digest";
+  static final HashFunction ENTRY_HASH_FUNCTION = Hashing.murmur3_128();
+
   private final HashingImpl impl;
 
   public CustomJarOutputStream(Impl impl) {
@@ -52,8 +55,6 @@ public class CustomJarOutputStream extends CustomZipOutputStream {
   }
 
   private static class HashingImpl extends OutputStream implements Impl {
-    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
-
     private final Impl inner;
     private final DeterministicManifest manifest = new DeterministicManifest();
     private boolean shouldHashEntries = false;
@@ -79,7 +80,7 @@ public class CustomJarOutputStream extends CustomZipOutputStream {
       inner.actuallyPutNextEntry(entry);
 
       if (shouldHashEntries && !entry.isDirectory() && hasher == null) {
-        hasher = HASH_FUNCTION.newHasher();
+        hasher = ENTRY_HASH_FUNCTION.newHasher();
       }
 
       currentEntry = entry;
@@ -111,6 +112,22 @@ public class CustomJarOutputStream extends CustomZipOutputStream {
       currentEntry = null;
     }
 
+    @Override
+    public void actuallyWriteCompressedEntry(CompressedEntry entry) throws IOException {
+      inner.actuallyWriteCompressedEntry(entry);
+
+      if (shouldHashEntries && !entry.getEntry().isDirectory()) {
+        if (manifestWritten) {
+          throw new IllegalStateException(
+              "Attempted to write an entry with hashing enabled after the manifest was written.");
+        }
+        manifest.setEntryAttribute(
+            entry.getEntry().getName(),
+            DIGEST_ATTRIBUTE_NAME,
+            Preconditions.checkNotNull(entry.getContentHash()).toString());
+      }
+    }
+
     @Override
     public void actuallyClose() throws IOException {
       shouldHashEntries = false;
@@ -55,6 +55,16 @@ public class CustomZipOutputStream extends OutputStream {
     void actuallyWrite(byte b[], int off, int len) throws IOException;
 
     void actuallyClose() throws IOException;
+
+    /**
+     * Called by {@link CustomZipOutputStream#writeCompressedEntry(CompressedEntry)} to write a
+     * whole entry whose data is already compressed. The same guarantees as for {@link
+     * #actuallyPutNextEntry(ZipEntry)} apply.
+     */
+    default void actuallyWriteCompressedEntry(CompressedEntry entry) throws IOException {
+      throw new UnsupportedOperationException(
+          "Writing compressed entries is not supported by " + getClass().getName());
+    }
   }
 
   private final Impl impl;
@@ -85,6 +95,18 @@ public class CustomZipOutputStream extends OutputStream {
     }
   }
 
+  /**
+   * Writes an entry that was compressed ahead of time, as if it had been put and its contents
+   * written and closed on this stream.
+   */
+  final void writeCompressedEntry(CompressedEntry entry) throws IOException {
+    Preconditions.checkState(state != State.CLOSED, "Stream has been closed.");
+
+    state = State.OPEN;
+    closeEntry();
+    impl.actuallyWriteCompressedEntry(entry);
+  }
+
   public final void closeEntry() throws IOException {
     Preconditions.checkState(state != State.CLOSED, "Stream has been closed");
     if (!entryOpen) {
@@ -262,6 +262,22 @@ class EntryAccounting {
    * local file header, but counting the data descriptor if present). Must be called exactly once.
    */
   public long finish(OutputStream out) throws IOException {
+    finishData(out);
+
+    // write the data descriptor if required
+    byte[] dataDescriptor = getDataDescriptor();
+    out.write(dataDescriptor);
+
+    return entry.getCompressedSize() + dataDescriptor.length;
+  }
+
+  /**
+   * Flushes the remaining compressed data of the entry to {@code out} and records its CRC and sizes
+   * in the entry, without writing the data descriptor. This lets an entry be compressed into a
+   * buffer ahead of time and written later with {@link #writeCompressedData}. Either this or {@link
+   * #finish} must be called exactly once.
+   */
+  void finishData(OutputStream out) throws IOException {
     if (method == Method.STORE) {
       Preconditions.checkState(
           entry.getSize() == length && entry.getCompressedSize() == length,
@@ -281,12 +297,35 @@ class EntryAccounting {
 
     // regardless of the method used, end the deflater to free native resources.
     deflater.end();
+  }
+
+  /**
+   * Marks the entry as holding data that was compressed elsewhere, such as an entry copied as-is
+   * from another zip file. Its CRC and sizes must already be set in the entry. Like {@link
+   * #finishData}, this replaces a call to {@link #finish}.
+   */
+  void finishCopiedData() {
+    Preconditions.checkState(
+        entry.getCrc() != -1 && entry.getSize() != -1 && entry.getCompressedSize() != -1,
+        "The CRC and sizes of copied data must be known.");
+    deflater.end();
+  }
+
+  /**
+   * Writes the compressed data of a finished entry followed by its data descriptor, if required.
+   *
+   * @return the number of bytes written, as for {@link #finish}.
+   */
+  long writeCompressedData(OutputStream out, byte[] compressedData) throws IOException {
+    Preconditions.checkState(
+        compressedData.length == entry.getCompressedSize(),
+        "Number of compressed bytes differs from what is specified in the entry.");
+    out.write(compressedData);
 
-    // write the data descriptor if required
     byte[] dataDescriptor = getDataDescriptor();
     out.write(dataDescriptor);
 
-    return entry.getCompressedSize() + dataDescriptor.length;
+    return compressedData.length + dataDescriptor.length;
   }
 
   private boolean requiresDataDescriptor() {
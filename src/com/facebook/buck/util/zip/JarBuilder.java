@@ -18,24 +18,39 @@ package com.facebook.buck.util.zip;
 
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
@@ -59,6 +74,21 @@ public class JarBuilder {
     void onEntryOmitted(String jarFile, JarEntrySupplier entrySupplier);
   }
 
+  /** Jars with fewer entries than this are written on the calling thread. */
+  private static final int MIN_ENTRIES_TO_COMPRESS_IN_PARALLEL = 256;
+
+  /** How many compressed entries each thread may hold in memory, waiting to be written. */
+  private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 4;
+
+  private static final int COMPRESSION_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Compresses the entries of all the jars that are built at the same time. Jars are usually built
+   * by as many rules as there are build threads, so they share these threads rather than each
+   * starting its own pool. Idle threads exit.
+   */
+  private static final ExecutorService COMPRESSION_EXECUTOR = newCompressionExecutor();
+
   private Observer observer = Observer.IGNORING;
   @Nullable private Path outputFile;
   @Nullable private String mainClass;
@@ -66,6 +96,8 @@ public class JarBuilder {
   private boolean shouldMergeManifests;
   private boolean shouldDisallowAllDuplicates;
   private boolean shouldHashEntries;
+  private boolean shouldCopyCompressedEntries;
+  private int parallelism = 1;
   private Predicate<? super CustomZipEntry> removeEntryPredicate = entry -> false;
   private List<JarEntryContainer> sourceContainers = new ArrayList<>();
   private Set<String> alreadyAddedEntries = new HashSet<>();
@@ -125,6 +157,28 @@ public class JarBuilder {
     return this;
   }
 
+  /**
+   * Copies the deflated entries of source jars as they are, rather than inflating and deflating
+   * them again. The output then depends on how the source jars were compressed, so it only matches
+   * a jar with recompressed entries when the sources were written by the same zlib at the same
+   * level.
+   */
+  public JarBuilder setShouldCopyCompressedEntries(boolean shouldCopyCompressedEntries) {
+    this.shouldCopyCompressedEntries = shouldCopyCompressedEntries;
+    return this;
+  }
+
+  /**
+   * Compresses the entries of big jars on up to this many threads, which are shared with the other
+   * jars being built. Entries are still written in order, so the jar is identical to one built on a
+   * single thread.
+   */
+  public JarBuilder setParallelism(int parallelism) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    this.parallelism = parallelism;
+    return this;
+  }
+
   public JarBuilder setRemoveEntryPredicate(
       Predicate<? super CustomZipEntry> removeEntryPredicate) {
     this.removeEntryPredicate = removeEntryPredicate;
@@ -149,7 +203,17 @@ public class JarBuilder {
       }
       sortedEntries.sort(Comparator.comparing(supplier -> supplier.getEntry().getName()));
 
-      addEntriesToJar(sortedEntries, jar);
+      // Decide what to write, in order, before compressing anything.
+      List<JarEntrySupplier> entriesToWrite = new ArrayList<>();
+      for (JarEntrySupplier entrySupplier : sortedEntries) {
+        addEntryToJar(entrySupplier, entriesToWrite);
+      }
+
+      if (parallelism > 1 && entriesToWrite.size() >= MIN_ENTRIES_TO_COMPRESS_IN_PARALLEL) {
+        writeEntriesInParallel(entriesToWrite, jar);
+      } else {
+        writeEntries(entriesToWrite, jar);
+      }
 
       addServices(jar);
 
@@ -172,7 +236,10 @@ public class JarBuilder {
   }
 
   private void writeManifest(CustomJarOutputStream jar) throws IOException {
-    mkdirs("META-INF/", jar);
+    List<JarEntrySupplier> metaInfDirs = new ArrayList<>();
+    mkdirs("META-INF/", metaInfDirs);
+    writeEntries(metaInfDirs, jar);
+
     DeterministicManifest manifest = jar.getManifest();
     manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
 
@@ -220,15 +287,12 @@ public class JarBuilder {
     return entry;
   }
 
-  private void addEntriesToJar(Iterable<JarEntrySupplier> entries, CustomJarOutputStream jar)
-      throws IOException {
-    for (JarEntrySupplier entrySupplier : entries) {
-      addEntryToJar(entrySupplier, jar);
-    }
-  }
-
-  private void addEntryToJar(JarEntrySupplier entrySupplier, CustomJarOutputStream jar)
-      throws IOException {
+  /**
+   * Adds the entry, after the directories it needs, to the entries to write, unless it's left out
+   * of the jar or merged into the services.
+   */
+  private void addEntryToJar(
+      JarEntrySupplier entrySupplier, List<JarEntrySupplier> entriesToWrite) throws IOException {
     CustomZipEntry entry = entrySupplier.getEntry();
     String entryName = entry.getName();
 
@@ -242,7 +306,7 @@ public class JarBuilder {
       return;
     }
 
-    mkdirs(getParentDir(entryName), jar);
+    mkdirs(getParentDir(entryName), entriesToWrite);
 
     // We're in the process of merging a bunch of different jar files. These typically contain
     // just ".class" files and the manifest, but they can also include things like license files
@@ -269,21 +333,119 @@ public class JarBuilder {
       return;
     }
 
-    jar.putNextEntry(entry);
+    entriesToWrite.add(entrySupplier);
+  }
+
+  private void writeEntries(List<JarEntrySupplier> entries, CustomJarOutputStream jar)
+      throws IOException {
+    for (JarEntrySupplier entrySupplier : entries) {
+      Optional<ThrowingSupplier<InputStream, IOException>> compressedInputStreamSupplier =
+          getCompressedInputStreamSupplier(entrySupplier);
+      if (compressedInputStreamSupplier.isPresent()) {
+        jar.writeCompressedEntry(
+            copyCompressedEntry(entrySupplier, compressedInputStreamSupplier.get()));
+        continue;
+      }
+
+      jar.putNextEntry(entrySupplier.getEntry());
+      try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
+        if (entryInputStream != null) {
+          // Null stream means a directory
+          ByteStreams.copy(entryInputStream, jar);
+        }
+      }
+      jar.closeEntry();
+    }
+  }
+
+  /**
+   * Compresses entries on up to {@link #parallelism} threads of the shared compression pool, a
+   * bounded number of entries ahead of the one being written, and writes them in their original
+   * order.
+   */
+  private void writeEntriesInParallel(List<JarEntrySupplier> entries, CustomJarOutputStream jar)
+      throws IOException {
+    int maxEntriesInFlight =
+        Math.min(parallelism, COMPRESSION_THREADS) * ENTRIES_IN_FLIGHT_PER_THREAD;
+    Iterator<JarEntrySupplier> entriesToCompress = entries.iterator();
+    Deque<Future<CompressedEntry>> compressedEntries = new ArrayDeque<>();
+    try {
+      while (entriesToCompress.hasNext() || !compressedEntries.isEmpty()) {
+        while (entriesToCompress.hasNext() && compressedEntries.size() < maxEntriesInFlight) {
+          JarEntrySupplier entrySupplier = entriesToCompress.next();
+          compressedEntries.add(COMPRESSION_EXECUTOR.submit(() -> compressEntry(entrySupplier)));
+        }
+        jar.writeCompressedEntry(
+            Futures.getChecked(compressedEntries.remove(), IOException.class));
+      }
+    } finally {
+      // Only left over if writing failed.
+      for (Future<CompressedEntry> compressedEntry : compressedEntries) {
+        compressedEntry.cancel(true);
+      }
+    }
+  }
+
+  private static ExecutorService newCompressionExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            COMPRESSION_THREADS,
+            COMPRESSION_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("jar-builder-%d").setDaemon(true).build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private CompressedEntry compressEntry(JarEntrySupplier entrySupplier) throws IOException {
+    Optional<ThrowingSupplier<InputStream, IOException>> compressedInputStreamSupplier =
+        getCompressedInputStreamSupplier(entrySupplier);
+    if (compressedInputStreamSupplier.isPresent()) {
+      return copyCompressedEntry(entrySupplier, compressedInputStreamSupplier.get());
+    }
+
     try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
-      if (entryInputStream != null) {
-        // Null stream means a directory
-        ByteStreams.copy(entryInputStream, jar);
+      return CompressedEntry.compress(
+          entrySupplier.getEntry(), entryInputStream, shouldHashEntries);
+    }
+  }
+
+  private Optional<ThrowingSupplier<InputStream, IOException>> getCompressedInputStreamSupplier(
+      JarEntrySupplier entrySupplier) {
+    return shouldCopyCompressedEntries
+        ? entrySupplier.getCompressedInputStreamSupplier()
+        : Optional.empty();
+  }
+
+  private CompressedEntry copyCompressedEntry(
+      JarEntrySupplier entrySupplier,
+      ThrowingSupplier<InputStream, IOException> compressedInputStreamSupplier)
+      throws IOException {
+    byte[] compressedData;
+    try (InputStream compressedInputStream = compressedInputStreamSupplier.get()) {
+      compressedData = ByteStreams.toByteArray(compressedInputStream);
+    }
+
+    // The digest in the manifest is of the uncompressed data, so that still has to be read.
+    HashCode contentHash = null;
+    if (shouldHashEntries && !entrySupplier.getEntry().isDirectory()) {
+      Hasher hasher = CustomJarOutputStream.ENTRY_HASH_FUNCTION.newHasher();
+      try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
+        ByteStreams.copy(entryInputStream, Funnels.asOutputStream(hasher));
       }
+      contentHash = hasher.hash();
     }
-    jar.closeEntry();
+
+    return CompressedEntry.copy(entrySupplier.getEntry(), compressedData, contentHash);
   }
 
   private boolean isService(String entryName) {
     return entryName.startsWith("META-INF/services/") && !entryName.endsWith("/");
   }
 
-  private void mkdirs(String name, CustomJarOutputStream jar) throws IOException {
+  private void mkdirs(String name, List<JarEntrySupplier> entriesToWrite) {
     if (name.isEmpty()) {
       return;
     }
@@ -294,10 +456,10 @@ public class JarBuilder {
     }
 
     String parent = getParentDir(name);
-    mkdirs(parent, jar);
+    mkdirs(parent, entriesToWrite);
 
-    jar.putNextEntry(new CustomZipEntry(name));
-    jar.closeEntry();
+    entriesToWrite.add(
+        new JarEntrySupplier(new CustomZipEntry(name), String.valueOf(outputFile), () -> null));
     alreadyAddedEntries.add(name);
   }
 
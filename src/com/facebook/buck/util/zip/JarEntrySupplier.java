@@ -19,6 +19,8 @@ package com.facebook.buck.util.zip;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates a file or directory to be added as a single entry to a jar by {@link JarBuilder}.
@@ -27,14 +29,24 @@ public class JarEntrySupplier {
   private final CustomZipEntry entry;
   private final String owner;
   private final ThrowingSupplier<InputStream, IOException> inputStreamSupplier;
+  @Nullable private final ThrowingSupplier<InputStream, IOException> compressedInputStreamSupplier;
 
   public JarEntrySupplier(
       CustomZipEntry entry,
       String owner,
       ThrowingSupplier<InputStream, IOException> inputStreamSupplier) {
+    this(entry, owner, inputStreamSupplier, null);
+  }
+
+  JarEntrySupplier(
+      CustomZipEntry entry,
+      String owner,
+      ThrowingSupplier<InputStream, IOException> inputStreamSupplier,
+      @Nullable ThrowingSupplier<InputStream, IOException> compressedInputStreamSupplier) {
     this.entry = entry;
     this.owner = owner;
     this.inputStreamSupplier = inputStreamSupplier;
+    this.compressedInputStreamSupplier = compressedInputStreamSupplier;
   }
 
   public CustomZipEntry getEntry() {
@@ -48,4 +60,12 @@ public class JarEntrySupplier {
   public ThrowingSupplier<InputStream, IOException> getInputStreamSupplier() {
     return inputStreamSupplier;
   }
+
+  /**
+   * @return a supplier of the data of the entry as it is compressed in its source, if the entry
+   *     comes from a zip file and its CRC and uncompressed size are known.
+   */
+  Optional<ThrowingSupplier<InputStream, IOException>> getCompressedInputStreamSupplier() {
+    return Optional.ofNullable(compressedInputStreamSupplier);
+  }
 }
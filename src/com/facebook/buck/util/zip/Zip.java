@@ -22,6 +22,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
 
 public class Zip {
 
@@ -34,11 +37,32 @@ public class Zip {
   public static void create(
       ProjectFilesystem projectFilesystem, Collection<Path> pathsToIncludeInZip, Path out)
       throws IOException {
+    create(projectFilesystem, pathsToIncludeInZip, out, true);
+  }
+
+  /**
+   * Like {@link #create(ProjectFilesystem, Collection, Path)}, but stores the entries uncompressed
+   * when {@code compressEntries} is false, for zips that are compressed as a whole afterwards.
+   */
+  public static void create(
+      ProjectFilesystem projectFilesystem,
+      Collection<Path> pathsToIncludeInZip,
+      Path out,
+      boolean compressEntries)
+      throws IOException {
     try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(out)) {
       for (Path path : pathsToIncludeInZip) {
         boolean isDirectory = projectFilesystem.isDirectory(path);
         CustomZipEntry entry = new CustomZipEntry(path, isDirectory);
 
+        if (!compressEntries) {
+          entry.setCompressionLevel(Deflater.NO_COMPRESSION);
+          if (!isDirectory) {
+            // Stored entries need their checksum and size before their contents are written.
+            setCrcAndSize(projectFilesystem, path, entry);
+          }
+        }
+
         // We want deterministic ZIPs, so avoid mtimes.
         entry.setFakeTime();
 
@@ -54,4 +78,15 @@ public class Zip {
       }
     }
   }
+
+  private static void setCrcAndSize(
+      ProjectFilesystem projectFilesystem, Path path, CustomZipEntry entry) throws IOException {
+    try (CheckedInputStream input =
+        new CheckedInputStream(projectFilesystem.newFileInputStream(path), new CRC32())) {
+      long size = ByteStreams.copy(input, ByteStreams.nullOutputStream());
+      entry.setCrc(input.getChecksum().getValue());
+      entry.setSize(size);
+      entry.setCompressedSize(size);
+    }
+  }
 }
@@ -18,18 +18,22 @@ package com.facebook.buck.util.zip;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 
 /** Provides all entries of a given zip or jar file, so they can be added to another jar. */
 class ZipFileJarEntryContainer implements JarEntryContainer {
   private final String owner;
   private final Path jarFilePath;
   @Nullable private JarFile jar;
+  @Nullable private ZipFile rawZipFile;
 
   public ZipFileJarEntryContainer(Path jarFilePath) {
     this.jarFilePath = jarFilePath;
@@ -49,12 +53,46 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
         .map(
             entry ->
                 new JarEntrySupplier(
-                    makeCustomEntry(entry), owner, () -> getJarFile().getInputStream(entry)));
+                    makeCustomEntry(entry),
+                    owner,
+                    () -> getJarFile().getInputStream(entry),
+                    canCopyCompressedData(entry)
+                        ? () -> getCompressedInputStream(entry.getName())
+                        : null));
   }
 
   @Override
   public void close() throws IOException {
     getJarFile().close();
+    synchronized (this) {
+      if (rawZipFile != null) {
+        rawZipFile.close();
+      }
+    }
+  }
+
+  private static boolean canCopyCompressedData(ZipEntry entry) {
+    return entry.getMethod() == ZipEntry.DEFLATED && entry.getCrc() != -1 && entry.getSize() != -1;
+  }
+
+  /**
+   * {@link JarFile} can only read the uncompressed data of an entry, so the compressed data is read
+   * through a second, lazily opened, view of the file.
+   */
+  private InputStream getCompressedInputStream(String name) throws IOException {
+    ZipFile zipFile;
+    synchronized (this) {
+      if (rawZipFile == null) {
+        rawZipFile = new ZipFile(jarFilePath.toFile());
+      }
+      zipFile = rawZipFile;
+    }
+
+    ZipArchiveEntry entry = zipFile.getEntry(name);
+    if (entry == null) {
+      throw new IOException(String.format("Failed to find %s in ZipFile %s", name, owner));
+    }
+    return zipFile.getRawInputStream(entry);
   }
 
   private JarFile getJarFile() throws IOException {
@@ -45,6 +45,7 @@ public class WorkerProcess implements Closeable {
   private final Path stdErr;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
+  private int jobCount = 0;
   @Nullable private WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
@@ -120,6 +121,7 @@ public class WorkerProcess implements Closeable {
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
     protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+    jobCount++;
     LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
     int exitCode = protocol.receiveCommandResponse(messageID);
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
@@ -134,6 +136,11 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /** @return the number of jobs that were submitted to this process. */
+  public synchronized int getJobCount() {
+    return jobCount;
+  }
+
   @Override
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
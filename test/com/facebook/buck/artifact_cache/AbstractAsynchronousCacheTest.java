@@ -97,6 +97,42 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  @Test
+  public void testStreamedMultiFetchResultsSurviveLaterErrors() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    try (AbstractAsynchronousCache cache =
+        new RequestedKeyRecordingAsynchronousCache(
+            service, filesystem, new ArrayList<>(), 3, 1) {
+          @Override
+          protected MultiFetchResult multiFetchImpl(
+              Iterable<AbstractAsynchronousCache.FetchRequest> requests,
+              MultiFetchResultListener resultListener)
+              throws IOException {
+            FetchResult hit =
+                FetchResult.builder().setCacheResult(CacheResult.hit(getName(), getMode())).build();
+            resultListener.onResult(0, hit);
+            throw new IOException("connection reset");
+          }
+        }) {
+
+      List<ListenableFuture<CacheResult>> results = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        results.add(
+            cache.fetchAsync(
+                new RuleKey(HashCode.fromInt(i)),
+                LazyPath.ofInstance(filesystem.getPath("path" + i))));
+      }
+
+      service.runOnce();
+
+      assertEquals(CacheResultType.HIT, results.get(0).get().getType());
+      assertEquals(CacheResultType.ERROR, results.get(1).get().getType());
+      assertEquals(CacheResultType.ERROR, results.get(2).get().getType());
+    }
+  }
+
   @Test
   public void testSkipPendingAsyncFetchRequests() throws ExecutionException, InterruptedException {
     ExplicitRunExecutorService service = new ExplicitRunExecutorService();
@@ -246,7 +282,9 @@ public class AbstractAsynchronousCacheTest {
 
     @Override
     protected MultiFetchResult multiFetchImpl(
-        Iterable<AbstractAsynchronousCache.FetchRequest> requests) throws IOException {
+        Iterable<AbstractAsynchronousCache.FetchRequest> requests,
+        MultiFetchResultListener resultListener)
+        throws IOException {
       List<FetchResult> result = new ArrayList<>();
       result.add(hit());
       ImmutableList<RuleKey> keys =
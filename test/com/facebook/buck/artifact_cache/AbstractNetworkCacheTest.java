@@ -107,7 +107,9 @@ public class AbstractNetworkCacheTest {
 
           @Override
           protected MultiFetchResult multiFetchImpl(
-              Iterable<AbstractAsynchronousCache.FetchRequest> requests) throws IOException {
+              Iterable<AbstractAsynchronousCache.FetchRequest> requests,
+              MultiFetchResultListener resultListener)
+              throws IOException {
             return null;
           }
 
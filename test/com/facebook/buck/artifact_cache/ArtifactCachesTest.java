@@ -51,7 +51,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .newInstance();
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(HttpArtifactCache.class));
   }
@@ -71,7 +72,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .newInstance();
 
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(DirArtifactCache.class));
@@ -94,7 +96,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .newInstance();
 
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(SQLiteArtifactCache.class));
@@ -124,7 +127,8 @@ public class ArtifactCachesTest {
                     MoreExecutors.newDirectExecutorService(),
                     MoreExecutors.newDirectExecutorService(),
                     MoreExecutors.newDirectExecutorService(),
-                    MoreExecutors.newDirectExecutorService())
+                    MoreExecutors.newDirectExecutorService(),
+                    Optional.empty())
                 .newInstance());
 
     assertThat(artifactCache, Matchers.instanceOf(MultiArtifactCache.class));
@@ -171,7 +175,8 @@ public class ArtifactCachesTest {
                     MoreExecutors.newDirectExecutorService(),
                     MoreExecutors.newDirectExecutorService(),
                     MoreExecutors.newDirectExecutorService(),
-                    MoreExecutors.newDirectExecutorService())
+                    MoreExecutors.newDirectExecutorService(),
+                    Optional.empty())
                 .newInstance());
 
     assertThat(artifactCache, Matchers.instanceOf(MultiArtifactCache.class));
@@ -211,7 +216,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .newInstance();
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(MultiArtifactCache.class));
   }
@@ -232,7 +238,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .newInstance();
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(DirArtifactCache.class));
   }
@@ -252,7 +259,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .remoteOnlyInstance(false, false);
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(HttpArtifactCache.class));
   }
@@ -272,7 +280,8 @@ public class ArtifactCachesTest {
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
                 MoreExecutors.newDirectExecutorService(),
-                MoreExecutors.newDirectExecutorService())
+                MoreExecutors.newDirectExecutorService(),
+                Optional.empty())
             .localOnlyInstance(false, false);
     assertThat(stripDecorators(artifactCache), Matchers.instanceOf(DirArtifactCache.class));
   }
@@ -24,8 +24,13 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.FakeBuckEventListener;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.AddToRuleKey;
@@ -908,6 +913,105 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testContentAddressedStoreDeduplicatesArtifacts()
+      throws InterruptedException, IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    BuckEventBus buckEventBus = BuckEventBusForTests.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    buckEventBus.register(listener);
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty(),
+            /* contentAddressed */ true,
+            Optional.of(buckEventBus));
+
+    Path fileX = Paths.get("x");
+    filesystem.writeContentsToPath("x", fileX);
+    RuleKey ruleKey1 = new RuleKey("aaaa");
+    RuleKey ruleKey2 = new RuleKey("bbbb");
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey1).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey2).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    buckEventBus.close();
+
+    // Only the metadata is stored per rule key, the contents are shared.
+    Path blobPath = dirArtifactCache.getPathForBlob(filesystem.computeSha1(fileX).getHash());
+    assertTrue(filesystem.exists(blobPath));
+    assertFalse(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKey1, Optional.empty())));
+    assertFalse(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKey2, Optional.empty())));
+
+    Path output = Paths.get("out");
+    for (RuleKey ruleKey : ImmutableList.of(ruleKey1, ruleKey2)) {
+      assertEquals(
+          CacheResultType.HIT,
+          Futures.getUnchecked(dirArtifactCache.fetchAsync(ruleKey, LazyPath.ofInstance(output)))
+              .getType());
+      assertEquals(Optional.of("x"), filesystem.readFileIfItExists(output));
+    }
+
+    long bytesSaved = 0;
+    for (BuckEvent event : listener.getEvents()) {
+      if (event instanceof DirArtifactCacheEvent.DeduplicatedStore) {
+        bytesSaved += ((DirArtifactCacheEvent.DeduplicatedStore) event).getBytesSaved();
+      }
+    }
+    assertEquals(filesystem.getFileSize(fileX), bytesSaved);
+  }
+
+  @Test
+  public void testContentAddressedPathSelectorReferenceCountsBlobs()
+      throws InterruptedException, IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty(),
+            /* contentAddressed */ true,
+            Optional.empty());
+
+    Path fileX = Paths.get("x");
+    filesystem.writeContentsToPath("x", fileX);
+    RuleKey ruleKey1 = new RuleKey("aaaa");
+    RuleKey ruleKey2 = new RuleKey("bbbb");
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey1, ruleKey2).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    Path blobPath =
+        filesystem.resolve(
+            dirArtifactCache.getPathForBlob(filesystem.computeSha1(fileX).getHash()));
+    Path metadataPath1 =
+        filesystem.resolve(dirArtifactCache.getPathForRuleKey(ruleKey1, Optional.of(".metadata")));
+    Path metadataPath2 =
+        filesystem.resolve(dirArtifactCache.getPathForRuleKey(ruleKey2, Optional.of(".metadata")));
+
+    DirectoryCleaner.PathSelector pathSelector =
+        dirArtifactCache.getDirectoryCleanerPathSelector();
+    Iterable<Path> candidates =
+        pathSelector.getCandidatesToDelete(filesystem.resolve(dirArtifactCache.getCacheDir()));
+    assertThat(candidates, Matchers.containsInAnyOrder(metadataPath1, metadataPath2));
+    assertEquals(1L, pathSelector.getSharedSizeBytes(filesystem.getRootPath()));
+
+    // The blob survives until the last metadata file pointing at it is deleted.
+    Files.delete(metadataPath1);
+    assertEquals(0L, pathSelector.releaseSharedData(metadataPath1));
+    assertTrue(Files.exists(blobPath));
+    Files.delete(metadataPath2);
+    assertEquals(1L, pathSelector.releaseSharedData(metadataPath2));
+    assertFalse(Files.exists(blobPath));
+  }
+
   @Test
   public void testFolderLevelsForRuleKeys() throws IOException {
     DirArtifactCache cache =
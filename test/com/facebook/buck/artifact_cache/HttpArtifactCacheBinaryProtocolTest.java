@@ -18,20 +18,26 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.artifact_cache.config.PayloadCodec;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -136,6 +142,39 @@ public class HttpArtifactCacheBinaryProtocolTest {
     }
   }
 
+  @Test
+  public void testReadFetchResponseIntoChannel() throws IOException {
+    final RuleKey ruleKey = new RuleKey("00000000010000000000008000000000");
+    // Larger than the copy buffer, so the payload is written out in several chunks.
+    byte[] data = new byte[200 * 1024];
+    new Random(0).nextBytes(data);
+
+    byte[] response;
+    try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out)) {
+      byte[] metadata =
+          HttpArtifactCacheBinaryProtocol.createMetadataHeader(
+              ImmutableSet.of(ruleKey), ImmutableMap.of(), ByteSource.wrap(data));
+      dataOut.writeInt(metadata.length);
+      dataOut.write(metadata);
+      dataOut.write(data);
+      response = out.toByteArray();
+    }
+
+    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(response))) {
+      FetchResponseReadResult result =
+          HttpArtifactCacheBinaryProtocol.readFetchResponse(inputStream, channel);
+      assertThat(result.getRuleKeys(), Matchers.contains(ruleKey));
+      assertThat(outputStream.toByteArray(), Matchers.equalTo(data));
+      assertThat(result.getActualHashCode(), Matchers.equalTo(result.getExpectedHashCode()));
+      assertThat(
+          result.getArtifactOnlyHashCode(), Matchers.equalTo(Hashing.crc32().hashBytes(data)));
+      assertThat(result.getResponseSizeBytes(), Matchers.equalTo((long) data.length));
+    }
+  }
+
   @Test
   public void testMassiveMetadataHeaderWrite() throws IOException {
     ImmutableMap.Builder<String, String> metadataBuilder = ImmutableMap.builder();
@@ -210,6 +249,61 @@ public class HttpArtifactCacheBinaryProtocolTest {
         storeRequestPayloadStream.toByteArray(), Matchers.equalTo(data.getBytes(Charsets.UTF_8)));
   }
 
+  @Test
+  public void testCompressedPayloadsArePassedThroughStoresAndDecompressedByFetches()
+      throws IOException {
+    RuleKey ruleKey = new RuleKey("00000000010000000000008000000000");
+    ImmutableMap<String, String> metadata = ImmutableMap.of("metaKey", "metaValue");
+    byte[] data = new byte[2 * PayloadCompression.BLOCK_SIZE + 17];
+    new Random(0).nextBytes(data);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    PayloadCompression.compress(
+        PayloadCodec.DEFLATE,
+        1,
+        new ByteArrayInputStream(data),
+        compressed,
+        MoreExecutors.newDirectExecutorService());
+
+    HttpArtifactCacheBinaryProtocol.StoreRequest storeRequest =
+        new HttpArtifactCacheBinaryProtocol.StoreRequest(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(metadata).build(),
+            ByteSource.wrap(compressed.toByteArray()),
+            PayloadCodec.DEFLATE);
+    ByteArrayOutputStream storeRequestOutputStream = new ByteArrayOutputStream();
+    storeRequest.write(storeRequestOutputStream);
+    ByteArrayOutputStream storedPayload = new ByteArrayOutputStream();
+    StoreResponseReadResult readStoreRequest =
+        HttpArtifactCacheBinaryProtocol.readStoreRequest(
+            new DataInputStream(new ByteArrayInputStream(storeRequestOutputStream.toByteArray())),
+            storedPayload);
+    assertThat(
+        readStoreRequest.getMetadata(),
+        Matchers.hasEntry(
+            HttpArtifactCacheBinaryProtocol.PAYLOAD_CODEC_METADATA_KEY,
+            PayloadCodec.DEFLATE.name()));
+    assertThat(storedPayload.toByteArray(), Matchers.equalTo(compressed.toByteArray()));
+
+    HttpArtifactCacheBinaryProtocol.FetchResponse fetchResponse =
+        new HttpArtifactCacheBinaryProtocol.FetchResponse(
+            readStoreRequest.getRuleKeys(),
+            readStoreRequest.getMetadata(),
+            ByteSource.wrap(storedPayload.toByteArray()));
+    ByteArrayOutputStream fetchResponseOutputStream = new ByteArrayOutputStream();
+    fetchResponse.write(fetchResponseOutputStream);
+    ByteArrayOutputStream fetchedPayload = new ByteArrayOutputStream();
+    FetchResponseReadResult readFetchResponse =
+        HttpArtifactCacheBinaryProtocol.readFetchResponse(
+            new DataInputStream(new ByteArrayInputStream(fetchResponseOutputStream.toByteArray())),
+            fetchedPayload);
+
+    assertThat(readFetchResponse.getMetadata(), Matchers.equalTo(metadata));
+    assertThat(
+        readFetchResponse.getActualHashCode(),
+        Matchers.equalTo(readFetchResponse.getExpectedHashCode()));
+    assertThat(readFetchResponse.getResponseSizeBytes(), Matchers.is((long) data.length));
+    assertThat(fetchedPayload.toByteArray(), Matchers.equalTo(data));
+  }
+
   @Test
   public void testWriteStoreRequest() throws IOException {
     final String base64EncodedData =
@@ -18,11 +18,13 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.PayloadCodec;
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
@@ -36,9 +38,11 @@ import com.facebook.buck.slb.OkHttpResponseWrapper;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.timing.IncrementingFakeClock;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -435,6 +439,74 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testCompressedArtifactsAreStoredAndFetchedUnderTheirOwnKeys() throws Exception {
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    final String data = "data";
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path input = Paths.get("input/file");
+    Path output = Paths.get("output/file");
+    filesystem.writeContentsToPath(data, input);
+    final List<RuleKey> storedKeys = new ArrayList<>();
+    final List<byte[]> storedBodies = new ArrayList<>();
+    final List<String> fetchedPaths = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setPayloadCodec(PayloadCodec.DEFLATE);
+    argsBuilder.setStoreClient(
+        withMakeRequest(
+            ((path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER).build();
+              Buffer buf = new Buffer();
+              request.body().writeTo(buf);
+              try (DataInputStream in =
+                  new DataInputStream(new ByteArrayInputStream(buf.readByteArray()))) {
+                // The rest of a store request is what fetches of the artifact respond with.
+                int keys = in.readInt();
+                for (int i = 0; i < keys; i++) {
+                  storedKeys.add(new RuleKey(in.readUTF()));
+                }
+                storedBodies.add(ByteStreams.toByteArray(in));
+              }
+              Response response =
+                  new Response.Builder()
+                      .body(createDummyBody())
+                      .code(HttpURLConnection.HTTP_ACCEPTED)
+                      .protocol(Protocol.HTTP_1_1)
+                      .request(request)
+                      .message("")
+                      .build();
+              return new OkHttpResponseWrapper(response);
+            })));
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              fetchedPaths.add(path);
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(ResponseBody.create(OCTET_STREAM, storedBodies.get(0)))
+                      .message("")
+                      .build();
+              return new OkHttpResponseWrapper(response);
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    assertTrue(cache.compressesStoredArtifacts());
+
+    cache.storeImpl(ArtifactInfo.builder().addRuleKeys(ruleKey).build(), input);
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(ruleKey, LazyPath.ofInstance(output)));
+
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    RuleKey storedKey = storedKeys.get(0);
+    assertNotEquals(ruleKey, storedKey);
+    assertEquals(ImmutableList.of("/artifacts/key/" + storedKey), fetchedPaths);
+    cache.close();
+  }
+
   @Test
   public void testFetchWrongKey() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
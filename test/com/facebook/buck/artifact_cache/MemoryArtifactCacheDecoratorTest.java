@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MemoryArtifactCacheDecoratorTest {
+
+  private static final RuleKey RULE_KEY_1 = new RuleKey("11111111111111111111");
+  private static final RuleKey RULE_KEY_2 = new RuleKey("22222222222222222222");
+  private static final RuleKey RULE_KEY_3 = new RuleKey("33333333333333333333");
+  private static final byte[] DATA = "artifact".getBytes(StandardCharsets.UTF_8);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private FakeBuckEventListener listener;
+  private BuckEventBus buckEventBus;
+  private CountingInMemoryArtifactCache delegate;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    listener = new FakeBuckEventListener();
+    buckEventBus = BuckEventBusForTests.newInstance();
+    buckEventBus.register(listener);
+    delegate = new CountingInMemoryArtifactCache();
+  }
+
+  @Test
+  public void fetchedArtifactsAreServedFromMemory() throws Exception {
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_1).build(), DATA);
+    MemoryArtifactCacheDecorator cache = newCache(new MemoryArtifactStore(1024, 1024));
+
+    assertEquals(CacheResultType.HIT, fetch(cache, RULE_KEY_1).getType());
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(RULE_KEY_1, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(1, delegate.fetches.count(RULE_KEY_1));
+    assertEquals(ImmutableList.of(1, 1, 0), getCounters());
+  }
+
+  @Test
+  public void leastRecentlyUsedArtifactsAreEvicted() throws Exception {
+    MemoryArtifactStore store = new MemoryArtifactStore(2 * DATA.length, DATA.length);
+    MemoryArtifactCacheDecorator cache = newCache(store);
+    store(cache, RULE_KEY_1);
+    store(cache, RULE_KEY_2);
+    fetch(cache, RULE_KEY_1);
+    store(cache, RULE_KEY_3);
+
+    assertTrue(store.get(RULE_KEY_1).isPresent());
+    assertFalse(store.get(RULE_KEY_2).isPresent());
+    assertTrue(store.get(RULE_KEY_3).isPresent());
+    assertEquals(2 * DATA.length, store.getTotalBytes());
+    assertEquals(0, delegate.fetches.size());
+    assertEquals(1, (int) getCounters().get(2));
+  }
+
+  @Test
+  public void largeArtifactsAreNotKept() throws Exception {
+    MemoryArtifactStore store = new MemoryArtifactStore(1024, DATA.length - 1);
+    MemoryArtifactCacheDecorator cache = newCache(store);
+    store(cache, RULE_KEY_1);
+
+    assertFalse(store.get(RULE_KEY_1).isPresent());
+    assertEquals(CacheResultType.HIT, fetch(cache, RULE_KEY_1).getType());
+    assertEquals(1, delegate.fetches.count(RULE_KEY_1));
+  }
+
+  @Test
+  public void deletedArtifactsAreNotServedFromMemory() throws Exception {
+    MemoryArtifactStore store = new MemoryArtifactStore(1024, 1024);
+    MemoryArtifactCacheDecorator cache = newCache(store);
+    store(cache, RULE_KEY_1);
+    Futures.getUnchecked(cache.deleteAsync(ImmutableList.of(RULE_KEY_1)));
+
+    assertFalse(store.get(RULE_KEY_1).isPresent());
+    assertEquals(CacheResultType.MISS, fetch(cache, RULE_KEY_1).getType());
+    assertEquals(0, store.getTotalBytes());
+  }
+
+  private MemoryArtifactCacheDecorator newCache(MemoryArtifactStore store) {
+    return new MemoryArtifactCacheDecorator(
+        delegate, store, filesystem, buckEventBus, "in-memory", ArtifactCacheMode.dir);
+  }
+
+  private void store(MemoryArtifactCacheDecorator cache, RuleKey ruleKey) throws Exception {
+    Path input = tmp.newFile();
+    Files.write(input, DATA);
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+            BorrowablePath.borrowablePath(input)));
+  }
+
+  private CacheResult fetch(MemoryArtifactCacheDecorator cache, RuleKey ruleKey)
+      throws Exception {
+    return Futures.getUnchecked(cache.fetchAsync(ruleKey, LazyPath.ofInstance(tmp.newFile())));
+  }
+
+  /** @return the total hits, misses and evictions posted. */
+  private ImmutableList<Integer> getCounters() {
+    int hits = 0;
+    int misses = 0;
+    int evictions = 0;
+    for (BuckEvent event : listener.getEvents()) {
+      if (event instanceof MemoryArtifactCacheEvent) {
+        MemoryArtifactCacheEvent memoryEvent = (MemoryArtifactCacheEvent) event;
+        hits += memoryEvent.getHits();
+        misses += memoryEvent.getMisses();
+        evictions += memoryEvent.getEvictions();
+      }
+    }
+    return ImmutableList.of(hits, misses, evictions);
+  }
+
+  /** Counts fetches. */
+  private static class CountingInMemoryArtifactCache extends InMemoryArtifactCache {
+    private final Multiset<RuleKey> fetches = ConcurrentHashMultiset.create();
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output) {
+      fetches.add(ruleKey);
+      return super.fetchAsync(ruleKey, output);
+    }
+  }
+}
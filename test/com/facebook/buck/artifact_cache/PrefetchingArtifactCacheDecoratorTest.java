@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PrefetchingArtifactCacheDecoratorTest {
+
+  private static final RuleKey RULE_KEY_1 = new RuleKey("11111111111111111111");
+  private static final RuleKey RULE_KEY_2 = new RuleKey("22222222222222222222");
+  private static final RuleKey MISSING_RULE_KEY = new RuleKey("33333333333333333333");
+  private static final byte[] DATA = "artifact".getBytes(StandardCharsets.UTF_8);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private RemoteInMemoryArtifactCache delegate;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    delegate = new RemoteInMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_1).build(), DATA);
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_2).build(), DATA);
+  }
+
+  @Test
+  public void prefetchedArtifactsAreOnlyDownloadedOnce() throws Exception {
+    PrefetchingArtifactCacheDecorator cache = newCache(1024);
+    cache.prefetch(ImmutableList.of(RULE_KEY_1, MISSING_RULE_KEY));
+    waitForDelegate();
+    assertEquals(DATA.length, cache.getStagedBytes());
+
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(RULE_KEY_1, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(1, delegate.fetches.count(RULE_KEY_1));
+    assertEquals(0, delegate.fetches.count(MISSING_RULE_KEY));
+    assertEquals(0, cache.getStagedBytes());
+
+    result = Futures.getUnchecked(cache.fetchAsync(RULE_KEY_1, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(2, delegate.fetches.count(RULE_KEY_1));
+
+    cache.close();
+    assertFalse(filesystem.exists(Paths.get("prefetch")));
+  }
+
+  @Test
+  public void downloadsWaitForStagedArtifactsToBeUsed() throws Exception {
+    PrefetchingArtifactCacheDecorator cache = newCache(1);
+    cache.prefetch(ImmutableList.of(RULE_KEY_1, RULE_KEY_2));
+    waitForDelegate();
+    assertEquals(1, delegate.fetches.count(RULE_KEY_1));
+    assertEquals(0, delegate.fetches.count(RULE_KEY_2));
+
+    Futures.getUnchecked(cache.fetchAsync(RULE_KEY_1, LazyPath.ofInstance(tmp.newFile())));
+    waitForDelegate();
+    assertEquals(1, delegate.fetches.count(RULE_KEY_2));
+
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(RULE_KEY_2, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(1, delegate.fetches.count(RULE_KEY_2));
+    cache.close();
+  }
+
+  @Test
+  public void prefetchReportsTheKeysARemoteCacheHas() throws Exception {
+    PrefetchingArtifactCacheDecorator cache = newCache(1024);
+    assertEquals(
+        ImmutableSet.of(RULE_KEY_1),
+        Futures.getUnchecked(cache.prefetch(ImmutableList.of(RULE_KEY_1, MISSING_RULE_KEY))));
+    cache.close();
+  }
+
+  @Test
+  public void discardedArtifactsMakeRoomForOtherDownloads() throws Exception {
+    PrefetchingArtifactCacheDecorator cache = newCache(1);
+    cache.prefetch(ImmutableList.of(RULE_KEY_1, RULE_KEY_2));
+    waitForDelegate();
+    assertEquals(DATA.length, cache.getStagedBytes());
+
+    cache.discard(RULE_KEY_1);
+    waitForDelegate();
+    assertEquals(1, delegate.fetches.count(RULE_KEY_2));
+    assertEquals(DATA.length, cache.getStagedBytes());
+
+    // A discarded artifact is fetched from the delegate again.
+    Futures.getUnchecked(cache.fetchAsync(RULE_KEY_1, LazyPath.ofInstance(tmp.newFile())));
+    assertEquals(2, delegate.fetches.count(RULE_KEY_1));
+    cache.close();
+  }
+
+  @Test
+  public void discardAllReleasesEveryStagedArtifact() throws Exception {
+    PrefetchingArtifactCacheDecorator cache = newCache(1024);
+    cache.prefetch(ImmutableList.of(RULE_KEY_1, RULE_KEY_2));
+    // The second download only starts once the first one is done.
+    waitForDelegate();
+    waitForDelegate();
+    assertEquals(2 * DATA.length, cache.getStagedBytes());
+
+    cache.discardAll();
+    assertEquals(0, cache.getStagedBytes());
+    assertFalse(filesystem.exists(Paths.get("prefetch", RULE_KEY_1.toString())));
+
+    // The keys are looked up again by later builds.
+    cache.prefetch(ImmutableList.of(RULE_KEY_1));
+    waitForDelegate();
+    assertEquals(2, delegate.fetches.count(RULE_KEY_1));
+    cache.close();
+  }
+
+  @Test
+  public void artifactsInLocalCachesAreNotPrefetched() throws Exception {
+    InMemoryArtifactCache localCache = new InMemoryArtifactCache();
+    localCache.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_1).build(), DATA);
+    PrefetchingArtifactCacheDecorator cache =
+        new PrefetchingArtifactCacheDecorator(
+            localCache, filesystem, Paths.get("prefetch"), 1024, 1);
+    cache.prefetch(ImmutableList.of(RULE_KEY_1));
+    assertEquals(0, cache.getStagedBytes());
+    cache.close();
+  }
+
+  private PrefetchingArtifactCacheDecorator newCache(long maxStagedBytes) {
+    return new PrefetchingArtifactCacheDecorator(
+        delegate, filesystem, Paths.get("prefetch"), maxStagedBytes, 1);
+  }
+
+  /** The delegate runs fetches in order on a single thread, so this waits for earlier ones. */
+  private void waitForDelegate() throws IOException {
+    Futures.getUnchecked(
+        delegate.fetchAsync(MISSING_RULE_KEY, LazyPath.ofInstance(tmp.newFile())));
+    delegate.fetches.remove(MISSING_RULE_KEY);
+  }
+
+  /** Claims to be a remote cache, and counts fetches. */
+  private static class RemoteInMemoryArtifactCache extends InMemoryArtifactCache {
+    private final Multiset<RuleKey> fetches = ConcurrentHashMultiset.create();
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output) {
+      fetches.add(ruleKey);
+      return super.fetchAsync(ruleKey, output);
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+        ImmutableSet<RuleKey> ruleKeys) {
+      return Futures.immediateFuture(
+          Maps.toMap(
+              ruleKeys,
+              ruleKey ->
+                  hasArtifact(ruleKey)
+                      ? CacheResult.contains("remote", ArtifactCacheMode.http)
+                      : CacheResult.miss()));
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.google.caliper.Benchmark;
 import com.google.caliper.Param;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -42,24 +43,28 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
-import org.junit.Rule;
 import org.junit.Test;
 
 public class SQLiteArtifactCacheBenchmark {
-  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
-
   @Param({"1000", "10000", "100000"})
   private int opCount = 100;
 
-  @Param({"5", "10"})
+  @Param({"5", "10", "48"})
   private int threadCount = 2;
 
+  // A single read connection serializes all lookups, like the cache did before it had a pool.
+  @Param({"1", "16"})
+  private int readConnectionCount = 4;
+
   private static final Random random = new Random(12345);
   private static final long MAX_INLINED_BYTES = 1024;
 
+  private TemporaryPaths tmpDir = new TemporaryPaths();
+
   private ProjectFilesystem filesystem;
   private List<RuleKey> ruleKeys;
   private List<RuleKey> contentHashes;
@@ -70,12 +75,17 @@ public class SQLiteArtifactCacheBenchmark {
   private Path largeFile;
 
   private Path cacheDir;
-  private LazyPath output;
   private SQLiteArtifactCache artifactCache;
   private ListeningExecutorService executor;
 
   @Before
-  public void setUp() throws InterruptedException, IOException, SQLException {
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws Exception {
+    tmpDir.before();
     filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
 
     emptyFile = tmpDir.newFile(".empty");
@@ -87,14 +97,9 @@ public class SQLiteArtifactCacheBenchmark {
     }
 
     cacheDir = tmpDir.newFolder();
-    output = LazyPath.ofInstance(cacheDir.resolve(".output"));
-
-    setUpBenchmark();
-  }
 
-  @BeforeExperiment
-  private void setUpBenchmark() throws IOException, SQLException {
     artifactCache = cache(Optional.of(1024 * 1024 * 1024L));
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
     byte[] randomRuleKey = new byte[16];
 
     ruleKeys = new ArrayList<>(opCount);
@@ -126,6 +131,7 @@ public class SQLiteArtifactCacheBenchmark {
   public void tearDown() {
     artifactCache.close();
     executor.shutdown();
+    tmpDir.after();
   }
 
   private SQLiteArtifactCache cache(Optional<Long> maxCacheSizeBytes)
@@ -137,12 +143,14 @@ public class SQLiteArtifactCacheBenchmark {
         BuckEventBusForTests.newInstance(),
         maxCacheSizeBytes,
         Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+        CacheReadMode.READWRITE,
+        readConnectionCount);
   }
 
   @Ignore
   @Test
   public void testSingleThreaded() {
+    executor.shutdown();
     executor = MoreExecutors.newDirectExecutorService();
     runAllBenchmarks();
   }
@@ -150,7 +158,6 @@ public class SQLiteArtifactCacheBenchmark {
   @Ignore
   @Test
   public void testMultiThreaded() {
-    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
     runAllBenchmarks();
   }
 
@@ -163,33 +170,49 @@ public class SQLiteArtifactCacheBenchmark {
 
   @Benchmark
   private void benchMetadataStore() {
-    for (ArtifactInfo info : metadataInfo) {
-      artifactCache.store(info, BorrowablePath.notBorrowablePath(emptyFile));
-    }
+    runConcurrently(
+        metadataInfo.size(),
+        i ->
+            artifactCache.store(
+                metadataInfo.get(i), BorrowablePath.notBorrowablePath(emptyFile)));
   }
 
   @Benchmark
   private void benchMetadataFetch() {
-    for (RuleKey key : ruleKeys) {
-      Futures.getUnchecked(artifactCache.fetchAsync(key, output));
-    }
+    runConcurrently(
+        ruleKeys.size(),
+        i -> Futures.getUnchecked(artifactCache.fetchAsync(ruleKeys.get(i), output(i))));
   }
 
   @Benchmark
   private void benchArtifactStore() {
-    for (int i = 0; i < contentInfo.size() / 2; i++) {
-      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(inlinedFile));
-    }
-
-    for (int i = contentInfo.size() / 2; i < contentInfo.size(); i++) {
-      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(largeFile));
-    }
+    runConcurrently(
+        contentInfo.size(),
+        i ->
+            artifactCache.store(
+                contentInfo.get(i),
+                BorrowablePath.notBorrowablePath(
+                    i < contentInfo.size() / 2 ? inlinedFile : largeFile)));
   }
 
   @Benchmark
   private void benchArtifactFetch() {
-    for (RuleKey key : ruleKeys) {
-      Futures.getUnchecked(artifactCache.fetchAsync(key, output));
+    runConcurrently(
+        contentHashes.size(),
+        i -> Futures.getUnchecked(artifactCache.fetchAsync(contentHashes.get(i), output(i))));
+  }
+
+  /** Every fetch gets its own output, so that concurrent fetches do not overwrite each other's. */
+  private LazyPath output(int index) {
+    return LazyPath.ofInstance(cacheDir.resolve(".output" + index));
+  }
+
+  private void runConcurrently(int count, IntConsumer operation) {
+    List<ListenableFuture<?>> futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      futures.add(executor.submit(() -> operation.accept(index)));
     }
+    Futures.getUnchecked(Futures.allAsList(futures));
   }
 }
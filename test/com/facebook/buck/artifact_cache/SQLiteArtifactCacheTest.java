@@ -37,7 +37,11 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -46,7 +50,10 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
@@ -432,6 +439,48 @@ public class SQLiteArtifactCacheTest {
     assertArrayEquals(Files.readAllBytes(output.get()), Files.readAllBytes(fileA));
   }
 
+  @Test
+  public void testConcurrentStoresAndFetches() throws Exception {
+    artifactCache = cache(Optional.empty());
+    writeInlinedArtifact(fileA);
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(8));
+    try {
+      List<RuleKey> contentHashes = new ArrayList<>();
+      List<ListenableFuture<?>> stores = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        RuleKey contentHash = new RuleKey(HashCode.fromInt(i));
+        contentHashes.add(contentHash);
+        stores.add(
+            executor.submit(
+                () ->
+                    artifactCache.store(
+                        ArtifactInfo.builder().addRuleKeys(contentHash).build(),
+                        BorrowablePath.notBorrowablePath(fileA))));
+      }
+      Futures.allAsList(stores).get();
+
+      // Every store has been committed by the time it returns.
+      assertThat(
+          artifactCache.inlinedArtifactContentHashes(),
+          Matchers.containsInAnyOrder(contentHashes.toArray()));
+
+      List<ListenableFuture<CacheResult>> fetches = new ArrayList<>();
+      for (RuleKey contentHash : contentHashes) {
+        LazyPath fetchOutput = LazyPath.ofInstance(cacheDir.resolve(contentHash.toString()));
+        fetches.add(
+            executor.submit(
+                () -> Futures.getUnchecked(artifactCache.fetchAsync(contentHash, fetchOutput))));
+      }
+      for (CacheResult result : Futures.allAsList(fetches).get()) {
+        assertEquals(CacheResultType.HIT, result.getType());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testMarshalMetadata() throws IOException {
     byte[] expected = new byte[4];
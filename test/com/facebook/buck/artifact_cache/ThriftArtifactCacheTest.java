@@ -63,8 +63,10 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import javax.annotation.Nullable;
 import okhttp3.Request;
 import org.apache.thrift.TBase;
@@ -146,7 +148,8 @@ public class ThriftArtifactCacheTest {
     EasyMock.replay(fetchClient);
 
     try (ThriftArtifactCache cache =
-        new ThriftArtifactCache(networkArgs, "/nice_as_well", false, new BuildId("aabb"), 0, 0)) {
+        new ThriftArtifactCache(
+            networkArgs, "/nice_as_well", false, new BuildId("aabb"), 0, 0, 0)) {
       Path artifactPath = tempPaths.newFile().toAbsolutePath();
       CacheResult result =
           Futures.getUnchecked(
@@ -322,8 +325,17 @@ public class ThriftArtifactCacheTest {
     EasyMock.replay(fetchClient);
 
     try (ThriftArtifactCache cache =
-        new ThriftArtifactCache(networkArgs, "/nice_as_well", false, new BuildId("aabb"), 0, 0)) {
-      MultiFetchResult result = cache.multiFetchImpl(requests);
+        new ThriftArtifactCache(
+            networkArgs, "/nice_as_well", false, new BuildId("aabb"), 0, 0, 0)) {
+      List<com.facebook.buck.artifact_cache.FetchResult> streamedResults = new ArrayList<>();
+      MultiFetchResult result =
+          cache.multiFetchImpl(
+              requests,
+              (index, fetchResult) -> {
+                assertEquals(streamedResults.size(), index);
+                streamedResults.add(fetchResult);
+              });
+      assertEquals(result.getResults(), streamedResults);
       assertEquals(4, result.getResults().size());
       assertEquals(CacheResultType.MISS, result.getResults().get(0).getCacheResult().getType());
       assertEquals(
@@ -399,7 +411,8 @@ public class ThriftArtifactCacheTest {
     EasyMock.replay(fetchClient);
 
     try (ThriftArtifactCache cache =
-        new ThriftArtifactCache(networkArgs, "/nice_as_well", false, new BuildId("aabb"), 1, 1)) {
+        new ThriftArtifactCache(
+            networkArgs, "/nice_as_well", false, new BuildId("aabb"), 1, 1, 0)) {
       MultiContainsResult result = cache.multiContainsImpl(ruleKeys);
       assertEquals(4, result.getCacheResults().size());
       assertEquals(CacheResultType.MISS, result.getCacheResults().get(key0).getType());
@@ -455,7 +468,8 @@ public class ThriftArtifactCacheTest {
     EasyMock.replay(storeClient);
 
     try (ThriftArtifactCache cache =
-        new ThriftArtifactCache(networkArgs, "/nice_as_well", false, new BuildId("aabb"), 0, 0)) {
+        new ThriftArtifactCache(
+            networkArgs, "/nice_as_well", false, new BuildId("aabb"), 0, 0, 0)) {
       CacheDeleteResult result =
           Futures.getUnchecked(
               cache.deleteAsync(
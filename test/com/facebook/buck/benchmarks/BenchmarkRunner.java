@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import com.facebook.buck.artifact_cache.SQLiteArtifactCacheBenchmark;
+import com.facebook.buck.event.listener.EventBusBenchmark;
+import com.facebook.buck.jvm.java.SharedClasspathJarsBenchmark;
+import com.facebook.buck.parser.BuildTargetParserBenchmark;
+import com.facebook.buck.parser.ParserBenchmark;
+import com.facebook.buck.rules.TargetGraphTraversalBenchmark;
+import com.facebook.buck.rules.keys.RuleKeyBenchmark;
+import com.facebook.buck.util.cache.impl.CacheBenchmark;
+import com.facebook.buck.util.cache.impl.FileHashCacheBenchmark;
+import com.google.caliper.runner.CaliperMain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs Buck's Caliper benchmarks and writes each benchmark's results as a JSON file, so that runs
+ * on different revisions can be compared.
+ *
+ * <p>Usage: {@code BenchmarkRunner <results dir> [benchmark name...] [-- caliper options...]}.
+ * Without benchmark names, every benchmark is run.
+ */
+public class BenchmarkRunner {
+
+  private static final ImmutableMap<String, Class<?>> BENCHMARKS =
+      ImmutableMap.<String, Class<?>>builder()
+          .put("artifact_cache", SQLiteArtifactCacheBenchmark.class)
+          .put("build_target_parser", BuildTargetParserBenchmark.class)
+          .put("event_bus", EventBusBenchmark.class)
+          .put("file_hash_cache", FileHashCacheBenchmark.class)
+          .put("parser", ParserBenchmark.class)
+          .put("rule_key", RuleKeyBenchmark.class)
+          .put("shared_classpath_jars", SharedClasspathJarsBenchmark.class)
+          .put("target_graph_traversal", TargetGraphTraversalBenchmark.class)
+          .put("watched_file_hash_cache", CacheBenchmark.class)
+          .build();
+
+  private BenchmarkRunner() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println(
+          "Usage: BenchmarkRunner <results dir> [benchmark name...] [-- caliper options...]");
+      System.err.println("Benchmarks: " + String.join(", ", BENCHMARKS.keySet()));
+      System.exit(1);
+    }
+
+    Path resultsDir = Paths.get(args[0]).toAbsolutePath();
+    Files.createDirectories(resultsDir);
+
+    int separator = Arrays.asList(args).indexOf("--");
+    ImmutableList<String> names =
+        ImmutableList.copyOf(
+            Arrays.copyOfRange(args, 1, separator == -1 ? args.length : separator));
+    ImmutableList<String> caliperOptions =
+        separator == -1
+            ? ImmutableList.of()
+            : ImmutableList.copyOf(Arrays.copyOfRange(args, separator + 1, args.length));
+
+    PrintWriter stdout = new PrintWriter(System.out, true);
+    PrintWriter stderr = new PrintWriter(System.err, true);
+    for (String name : names.isEmpty() ? BENCHMARKS.keySet() : names) {
+      Class<?> benchmark = BENCHMARKS.get(name);
+      if (benchmark == null) {
+        System.err.println("Unknown benchmark: " + name);
+        System.exit(1);
+      }
+      // Caliper's OutputFileDumper writes one <class>.<timestamp>.json file per run.
+      String[] caliperArgs =
+          ImmutableList.<String>builder()
+              .add("-Cresults.file.options.dir=" + resultsDir)
+              .addAll(caliperOptions)
+              .add(benchmark.getName())
+              .build()
+              .toArray(new String[0]);
+      CaliperMain.exitlessMain(caliperArgs, stdout, stderr);
+    }
+  }
+}
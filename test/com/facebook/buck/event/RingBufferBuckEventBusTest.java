@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RingBufferBuckEventBusTest {
+
+  private static final int timeoutMillis = 500;
+
+  @Test
+  public void eventsFromManyThreadsAreAllDeliveredInPostingOrderPerThread() throws Exception {
+    // A tiny buffer makes producers wrap around and wait for the dispatching thread.
+    RingBufferBuckEventBus eb = newEventBus(8);
+    CountingSubscriber subscriber = new CountingSubscriber();
+    eb.register(subscriber);
+
+    int threadCount = 8;
+    int eventsPerThread = 1000;
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      int producer = t;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < eventsPerThread; i++) {
+                  eb.post(new SequenceEvent(producer, i));
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(eb.waitEvents(timeoutMillis * 10));
+    eb.close();
+    assertEquals(threadCount * eventsPerThread, subscriber.count);
+    assertFalse(subscriber.outOfOrder);
+  }
+
+  @Test
+  public void eventsAreDeliveredToSubscribersOfSupertypes() throws IOException {
+    RingBufferBuckEventBus eb = newEventBus(16);
+    SupertypeSubscriber subscriber = new SupertypeSubscriber();
+    eb.register(subscriber);
+
+    eb.post(new SequenceEvent(0, 0));
+    eb.post(new TestEvent());
+    eb.close();
+
+    assertEquals(2, subscriber.buckEvents);
+    assertEquals(1, subscriber.sequenceEvents);
+  }
+
+  @Test
+  public void eventsPostedByListenersAreDeliveredAfterTheCurrentEvent() throws IOException {
+    RingBufferBuckEventBus eb = newEventBus(16);
+    List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void onSequence(SequenceEvent event) {
+            delivered.add("sequence");
+            eb.post(new TestEvent());
+          }
+
+          @Subscribe
+          public void onTest(TestEvent event) {
+            delivered.add("test");
+          }
+        });
+
+    eb.post(new SequenceEvent(0, 0));
+    assertTrue(eb.waitEvents(timeoutMillis));
+    eb.close();
+
+    assertEquals(ImmutableList.of("sequence", "test"), delivered);
+  }
+
+  @Test
+  public void unregisteredSubscribersNoLongerReceiveEvents() throws IOException {
+    RingBufferBuckEventBus eb = newEventBus(16);
+    CountingSubscriber subscriber = new CountingSubscriber();
+    eb.register(subscriber);
+    eb.post(new SequenceEvent(0, 0));
+    assertTrue(eb.waitEvents(timeoutMillis));
+    eb.unregister(subscriber);
+    eb.post(new SequenceEvent(0, 1));
+    eb.close();
+
+    assertEquals(1, subscriber.count);
+  }
+
+  @Test
+  public void failingSubscriberDoesNotStopDelivery() throws IOException {
+    RingBufferBuckEventBus eb = newEventBus(16);
+    CountingSubscriber subscriber = new CountingSubscriber();
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void fail(SequenceEvent event) {
+            throw new IllegalStateException("Listener failure, please ignore.");
+          }
+        });
+    eb.register(subscriber);
+
+    eb.post(new SequenceEvent(0, 0));
+    eb.post(new SequenceEvent(0, 1));
+    eb.close();
+
+    assertEquals(2, subscriber.count);
+  }
+
+  @Test
+  public void testShutdownFailure() throws IOException {
+    RingBufferBuckEventBus eb = newEventBus(16);
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void sleep(TestEvent event) throws InterruptedException {
+            Thread.sleep(timeoutMillis * 3);
+          }
+        });
+    eb.post(new TestEvent());
+    long start = System.nanoTime();
+    eb.close();
+    long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertThat(
+        "Shutdown should not take a long time.",
+        durationMillis,
+        lessThanOrEqualTo((long) timeoutMillis * 2));
+  }
+
+  private static RingBufferBuckEventBus newEventBus(int capacity) {
+    return new RingBufferBuckEventBus(
+        new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, capacity, timeoutMillis);
+  }
+
+  private static class CountingSubscriber {
+    // Only accessed from the dispatching thread until the event bus is closed.
+    private int count = 0;
+    private final int[] nextSequence = new int[8];
+    private boolean outOfOrder = false;
+
+    @Subscribe
+    public void onSequence(SequenceEvent event) {
+      count++;
+      outOfOrder |= nextSequence[event.producer] != event.sequence;
+      nextSequence[event.producer] = event.sequence + 1;
+    }
+  }
+
+  private static class SupertypeSubscriber {
+    private int buckEvents = 0;
+    private int sequenceEvents = 0;
+
+    @Subscribe
+    public void onBuckEvent(BuckEvent event) {
+      buckEvents++;
+    }
+
+    @Subscribe
+    public void onSequence(SequenceEvent event) {
+      sequenceEvents++;
+    }
+  }
+
+  private static class SequenceEvent extends AbstractBuckEvent {
+    private final int producer;
+    private final int sequence;
+
+    private SequenceEvent(int producer, int sequence) {
+      super(EventKey.unique());
+      this.producer = producer;
+      this.sequence = sequence;
+    }
+
+    @Override
+    protected String getValueString() {
+      return producer + ":" + sequence;
+    }
+
+    @Override
+    public String getEventName() {
+      return "SequenceEvent";
+    }
+  }
+
+  private static class TestEvent extends AbstractBuckEvent {
+
+    public TestEvent() {
+      super(EventKey.unique());
+    }
+
+    @Override
+    protected String getValueString() {
+      return "Test event, please ignore.";
+    }
+
+    @Override
+    public String getEventName() {
+      return "TestEvent";
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class BinaryChromeTraceWriterTest {
+
+  private static final ImmutableList<ChromeTraceEvent> EVENTS =
+      ImmutableList.of(
+          new ChromeTraceEvent(
+              "buck",
+              "build",
+              Phase.BEGIN,
+              1,
+              2,
+              1000000,
+              500,
+              ImmutableMap.of("command", "buck build //foo:bar", "count", 3L, "ratio", 0.5)),
+          new ChromeTraceEvent(
+              "buck",
+              "javac",
+              Phase.BEGIN,
+              1,
+              3,
+              1000100,
+              600,
+              ImmutableMap.of("cached", true, "long_value", Strings.repeat("x", 100000))),
+          new ChromeTraceEvent(
+              "buck", "javac", Phase.END, 1, 3, 999990, 400, ImmutableMap.of("cached", false)),
+          new ChromeTraceEvent(
+              "buck",
+              "build",
+              Phase.END,
+              1,
+              2,
+              2000000,
+              900,
+              ImmutableMap.of("deps", ImmutableList.of("//a:a", "//b:b"))));
+
+  @Test
+  public void eventsRoundTrip() throws Exception {
+    byte[] trace = writeBinaryTrace(EVENTS);
+
+    BinaryChromeTraceReader reader = new BinaryChromeTraceReader(new ByteArrayInputStream(trace));
+    for (ChromeTraceEvent expected : EVENTS) {
+      assertEventEquals(expected, reader.readEvent());
+    }
+    assertNull(reader.readEvent());
+  }
+
+  @Test
+  public void truncatedTraceEndsAtLastCompleteEvent() throws Exception {
+    byte[] trace = writeBinaryTrace(EVENTS);
+    // Drop the end tag and part of the last event, as if Buck had been killed mid-write.
+    byte[] truncated = Arrays.copyOf(trace, trace.length - 4);
+
+    BinaryChromeTraceReader reader =
+        new BinaryChromeTraceReader(new ByteArrayInputStream(truncated));
+    for (ChromeTraceEvent expected : EVENTS.subList(0, EVENTS.size() - 1)) {
+      assertEventEquals(expected, reader.readEvent());
+    }
+    assertNull(reader.readEvent());
+  }
+
+  @Test
+  public void detectsBinaryTraces() throws Exception {
+    BufferedInputStream binary =
+        new BufferedInputStream(new ByteArrayInputStream(writeBinaryTrace(EVENTS)));
+    assertTrue(BinaryChromeTraceReader.isBinaryTrace(binary));
+    // Detection must not consume the stream.
+    assertEventEquals(EVENTS.get(0), new BinaryChromeTraceReader(binary).readEvent());
+
+    BufferedInputStream json =
+        new BufferedInputStream(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+    assertFalse(BinaryChromeTraceReader.isBinaryTrace(json));
+  }
+
+  @Test
+  public void convertsToJson() throws Exception {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    BinaryChromeTraceReader.convertToJson(
+        new ByteArrayInputStream(writeBinaryTrace(EVENTS)), new ChromeTraceWriter(json));
+
+    JsonParser parser = ObjectMappers.createParser(json.toByteArray());
+    TreeNode node = parser.readValueAsTree();
+    assertTrue(node.getClass().getName(), node instanceof ArrayNode);
+    assertEquals(EVENTS.size(), node.size());
+  }
+
+  private static byte[] writeBinaryTrace(List<ChromeTraceEvent> events) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (BinaryChromeTraceWriter writer =
+        new BinaryChromeTraceWriter(Channels.newChannel(output))) {
+      writer.writeStart();
+      for (ChromeTraceEvent event : events) {
+        writer.writeEvent(event);
+      }
+      writer.writeEnd();
+    }
+    return output.toByteArray();
+  }
+
+  private static void assertEventEquals(ChromeTraceEvent expected, ChromeTraceEvent actual) {
+    assertEquals(expected.getCategory(), actual.getCategory());
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getPhase(), actual.getPhase());
+    assertEquals(expected.getProcessId(), actual.getProcessId());
+    assertEquals(expected.getThreadId(), actual.getThreadId());
+    assertEquals(expected.getMicroTime(), actual.getMicroTime());
+    assertEquals(expected.getMicroThreadUserTime(), actual.getMicroThreadUserTime());
+    assertEquals(expected.getArgs(), actual.getArgs());
+  }
+}
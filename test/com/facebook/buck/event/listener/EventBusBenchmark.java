@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.config.FakeBuckConfig;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.RingBufferBuckEventBus;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.log.InvocationInfo;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurationTracker;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleKeys;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.test.TestResultSummaryVerbosity;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.environment.DefaultExecutionEnvironment;
+import com.facebook.buck.util.timing.Clock;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.caliper.api.AfterRep;
+import com.google.caliper.api.BeforeRep;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares {@link DefaultBuckEventBus} with {@link RingBufferBuckEventBus} when many build threads
+ * post the events a build typically produces to the listeners a build typically has.
+ */
+public class EventBusBenchmark {
+  @Param({"default", "ring_buffer"})
+  private String implementation = "ring_buffer";
+
+  @Param({"1", "16", "64"})
+  private int threadCount = 16;
+
+  /** Number of simulated build rules per thread, each of which posts seven events. */
+  @Param({"1000", "10000"})
+  private int rulesPerThread = 1000;
+
+  private static final long WAIT_EVENTS_TIMEOUT_MILLIS = 60000;
+
+  private TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private final Clock clock = new DefaultClock();
+  private final BuildId buildId = new BuildId("benchmark");
+  private ProjectFilesystem filesystem;
+  private BuckEventBus eventBus;
+  private List<BuckEventListener> listeners;
+  private BuildRuleDurationTracker durationTracker;
+  private List<BuildRule> rules;
+  private CountDownLatch startPosting;
+  private List<Thread> postingThreads;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws Exception {
+    tmpDir.before();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    eventBus =
+        implementation.equals("ring_buffer")
+            ? new RingBufferBuckEventBus(clock, buildId)
+            : new DefaultBuckEventBus(clock, buildId);
+
+    InvocationInfo invocationInfo =
+        InvocationInfo.builder()
+            .setTimestampMillis(clock.currentTimeMillis())
+            .setBuckLogDir(tmpDir.getRoot().resolve("buck-out/log"))
+            .setBuildId(buildId)
+            .setSubCommand("build")
+            .setIsDaemon(false)
+            .setSuperConsoleEnabled(true)
+            .setUnexpandedCommandArgs(ImmutableList.of())
+            .setCommandArgs(ImmutableList.of())
+            .build();
+    Path testLogPath = tmpDir.getRoot().resolve("buck-out/log/test.log");
+    listeners =
+        ImmutableList.of(
+            new ChromeTraceBuildListener(
+                filesystem,
+                invocationInfo,
+                clock,
+                ChromeTraceBuckConfig.of(
+                    FakeBuckConfig.builder()
+                        .setSections(ImmutableMap.of("log", ImmutableMap.of("max_traces", "1")))
+                        .build())),
+            new SuperConsoleEventBusListener(
+                new SuperConsoleConfig(FakeBuckConfig.builder().build()),
+                new TestConsole(),
+                clock,
+                TestResultSummaryVerbosity.of(false, false),
+                new DefaultExecutionEnvironment(
+                    ImmutableMap.copyOf(System.getenv()), System.getProperties()),
+                Optional.empty(),
+                Locale.US,
+                testLogPath,
+                TimeZone.getTimeZone("UTC"),
+                Optional.of(buildId)),
+            new MachineReadableLoggerListener(
+                invocationInfo,
+                filesystem,
+                MostExecutors.newSingleThreadExecutor("MachineReadableLoggerListener"),
+                ImmutableSet.of(ArtifactCacheMode.http)));
+    listeners.forEach(eventBus::register);
+
+    durationTracker = new BuildRuleDurationTracker();
+    rules = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      rules.add(new FakeBuildRule(BuildTargetFactory.newInstance("//:rule" + i), filesystem));
+    }
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    eventBus.close();
+    for (BuckEventListener listener : listeners) {
+      listener.outputTrace(buildId);
+    }
+    ((SuperConsoleEventBusListener) listeners.get(1)).close();
+    tmpDir.after();
+  }
+
+  @Ignore
+  @Test
+  public void testPost() throws InterruptedException {
+    startPostingThreads();
+    benchPost();
+    waitForListeners();
+  }
+
+  @Ignore
+  @Test
+  public void testPostAndDispatch() throws InterruptedException {
+    startPostingThreads();
+    benchPostAndDispatch();
+  }
+
+  /**
+   * Starts the threads of the next rep, which wait until the rep starts to post, so that starting
+   * them is not measured.
+   */
+  @BeforeRep
+  private void startPostingThreads() {
+    startPosting = new CountDownLatch(1);
+    postingThreads = new ArrayList<>(threadCount);
+    for (BuildRule rule : rules) {
+      Thread thread = new Thread(() -> postRuleEvents(startPosting, rule));
+      thread.start();
+      postingThreads.add(thread);
+    }
+  }
+
+  /** Lets the listeners catch up, so that a rep does not post into the backlog of the last one. */
+  @AfterRep
+  private void waitForListeners() {
+    if (!eventBus.waitEvents(WAIT_EVENTS_TIMEOUT_MILLIS)) {
+      throw new IllegalStateException("Listeners did not keep up with posted events.");
+    }
+  }
+
+  /** Measures how long build threads spend in {@link BuckEventBus#post}. */
+  @Benchmark
+  private void benchPost() throws InterruptedException {
+    postFromAllThreads();
+  }
+
+  /** Measures how long it takes until every posted event has reached every listener. */
+  @Benchmark
+  private void benchPostAndDispatch() throws InterruptedException {
+    postFromAllThreads();
+    waitForListeners();
+  }
+
+  private void postFromAllThreads() throws InterruptedException {
+    startPosting.countDown();
+    for (Thread thread : postingThreads) {
+      thread.join();
+    }
+  }
+
+  private void postRuleEvents(CountDownLatch start, BuildRule rule) {
+    try {
+      start.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    RuleKey ruleKey = new RuleKey("aaaa");
+    for (int i = 0; i < rulesPerThread; i++) {
+      BuildRuleEvent.Started ruleStarted = BuildRuleEvent.started(rule, durationTracker);
+      eventBus.post(ruleStarted);
+      eventBus.post(HttpArtifactCacheEvent.newFetchStartedEvent(ruleKey));
+
+      SimplePerfEvent.Started perfStarted = SimplePerfEvent.started(PerfEventId.of("benchmark"));
+      eventBus.post(perfStarted);
+      eventBus.post(perfStarted.createFinishedEvent());
+
+      StepEvent.Started stepStarted = StepEvent.started("step", "step", UUID.randomUUID());
+      eventBus.post(stepStarted);
+      eventBus.post(StepEvent.finished(stepStarted, 0));
+
+      eventBus.post(
+          BuildRuleEvent.finished(
+              ruleStarted,
+              BuildRuleKeys.of(ruleKey),
+              BuildRuleStatus.SUCCESS,
+              CacheResult.miss(),
+              Optional.empty(),
+              Optional.of(BuildRuleSuccessType.BUILT_LOCALLY),
+              false,
+              Optional.empty(),
+              Optional.empty(),
+              Optional.empty(),
+              Optional.empty(),
+              Optional.empty()));
+    }
+  }
+}
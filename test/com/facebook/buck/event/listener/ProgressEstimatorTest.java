@@ -20,7 +20,12 @@ import static org.junit.Assert.assertThat;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.DefaultBuckEventBus;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurationHistory;
+import com.facebook.buck.rules.FakeBuildRule;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.ObjectMappers;
@@ -34,6 +39,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -288,4 +294,28 @@ public class ProgressEstimatorTest {
     assertThat(e.getApproximateBuildProgress().get(), Matchers.greaterThan(0.0));
     assertThat(e.getApproximateBuildProgress().get(), Matchers.lessThan(1.0));
   }
+
+  @Test
+  public void testEstimatesRemainingBuildTimeFromDurationHistory() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path p = filesystem.resolve(ProgressEstimator.PROGRESS_ESTIMATIONS_JSON);
+    ProgressEstimator e = new ProgressEstimator(p, getBuckEventBus());
+    BuildRule fast = new FakeBuildRule(BuildTargetFactory.newInstance("//:fast"), filesystem);
+    BuildRule slow = new FakeBuildRule(BuildTargetFactory.newInstance("//:slow"), filesystem);
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.open(filesystem)) {
+      history.record(fast, BuildRuleDurationHistory.Phase.BUILD, 100);
+      history.record(slow, BuildRuleDurationHistory.Phase.BUILD, 300);
+      e.setDurationHistory(history);
+
+      e.didStartBuild();
+      e.setNumberOfRules(4);
+      assertThat(e.getEstimatedRemainingBuildMillis(0).isPresent(), Matchers.equalTo(false));
+
+      e.didStartRule();
+      e.didFinishRule(fast);
+
+      // The fast rule took half as long as it used to, and the average rule takes 160ms.
+      assertThat(e.getEstimatedRemainingBuildMillis(50), Matchers.equalTo(Optional.of(240L)));
+    }
+  }
 }
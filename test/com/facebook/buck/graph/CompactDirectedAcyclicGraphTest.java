@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CompactDirectedAcyclicGraphTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  //           A
+  //         /  \
+  //       B     C
+  //      /     / \
+  //    D    __/   E
+  //  /  \  /
+  // F    G
+  private MutableDirectedGraph<String> makeGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("D", "G");
+    graph.addEdge("A", "C");
+    graph.addEdge("D", "F");
+    graph.addEdge("B", "D");
+    graph.addEdge("A", "B");
+    graph.addEdge("C", "E");
+    graph.addEdge("C", "G");
+    return graph;
+  }
+
+  @Test
+  public void hasTheSameNodesAndEdges() {
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(makeGraph());
+    CompactDirectedAcyclicGraph<String> compactGraph = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    assertEquals(graph.getNodes(), ImmutableSet.copyOf(compactGraph.getNodes()));
+    assertEquals(7, compactGraph.getEdgeCount());
+    for (String node : graph.getNodes()) {
+      assertEquals(node, compactGraph.getNode(compactGraph.indexOf(node)));
+      assertEquals(
+          graph.getOutgoingNodesFor(node),
+          ImmutableSet.copyOf(compactGraph.getOutgoingNodesFor(node)));
+      assertEquals(
+          graph.getIncomingNodesFor(node),
+          ImmutableSet.copyOf(compactGraph.getIncomingNodesFor(node)));
+    }
+    assertEquals(ImmutableList.of("A"), compactGraph.getNodesWithNoIncomingEdges());
+    assertEquals(
+        graph.getNodesWithNoOutgoingEdges(),
+        ImmutableSet.copyOf(compactGraph.getNodesWithNoOutgoingEdges()));
+  }
+
+  @Test
+  public void nodesOutsideOfTheGraphHaveNoEdges() {
+    CompactDirectedAcyclicGraph<String> compactGraph =
+        CompactDirectedAcyclicGraph.copyOf(makeGraph());
+    assertEquals(-1, compactGraph.indexOf("Z"));
+    assertEquals(ImmutableList.of(), compactGraph.getOutgoingNodesFor("Z"));
+    assertEquals(ImmutableList.of(), compactGraph.getIncomingNodesFor("Z"));
+  }
+
+  @Test
+  public void cyclesAreRejected() {
+    MutableDirectedGraph<String> graph = makeGraph();
+    graph.addEdge("G", "A");
+    thrown.expect(IllegalStateException.class);
+    CompactDirectedAcyclicGraph.copyOf(graph);
+  }
+
+  @Test
+  public void traversalsMatchTheOnesOfDirectedAcyclicGraph() throws Exception {
+    Random random = new Random(42);
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < 500; i++) {
+      String node = String.format("node%03d", i);
+      mutableGraph.addNode(node);
+      int depCount = i == 0 ? 0 : random.nextInt(5);
+      for (int j = 0; j < depCount; j++) {
+        mutableGraph.addEdge(node, String.format("node%03d", random.nextInt(i)));
+      }
+    }
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(mutableGraph);
+    CompactDirectedAcyclicGraph<String> compactGraph = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    assertEquals(TopologicalSort.sort(graph), TopologicalSort.sort(compactGraph));
+
+    ImmutableList<String> roots = ImmutableList.of("node499", "node250", "node499", "node001");
+    Iterable<String> expected =
+        new AcyclicDepthFirstPostOrderTraversal<String>(
+                node -> compactGraph.getOutgoingNodesFor(node).iterator())
+            .traverse(roots);
+    Iterable<String> actual =
+        new AcyclicDepthFirstPostOrderTraversal<>(compactGraph).traverse(roots);
+    assertEquals(ImmutableList.copyOf(expected), ImmutableList.copyOf(actual));
+  }
+}
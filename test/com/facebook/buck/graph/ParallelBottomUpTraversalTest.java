@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelBottomUpTraversalTest {
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void visitsEveryNodeOnceAfterItsChildren() throws Exception {
+    DirectedAcyclicGraph<String> graph = makeRandomGraph(1000);
+    Map<String, Integer> visitOrder = new ConcurrentHashMap<>();
+    AtomicInteger visits = new AtomicInteger();
+
+    traversalOf(graph)
+        .traverse(
+            graph.getNodesWithNoIncomingEdges(),
+            node -> {
+              for (String child : graph.getOutgoingNodesFor(node)) {
+                assertTrue(visitOrder.containsKey(child));
+              }
+              assertEquals(null, visitOrder.put(node, visits.getAndIncrement()));
+            });
+
+    assertEquals(graph.getNodes(), visitOrder.keySet());
+  }
+
+  @Test
+  public void visitsCompactGraphsThroughTheirIndices() throws Exception {
+    DirectedAcyclicGraph<String> graph = makeRandomGraph(1000);
+    CompactDirectedAcyclicGraph<String> compactGraph = CompactDirectedAcyclicGraph.copyOf(graph);
+    Set<String> visited = ConcurrentHashMap.newKeySet();
+
+    new ParallelBottomUpTraversal<>(compactGraph, pool)
+        .traverse(
+            compactGraph.getNodesWithNoIncomingEdges(),
+            node -> {
+              for (String child : graph.getOutgoingNodesFor(node)) {
+                assertTrue(visited.contains(child));
+              }
+              assertTrue(visited.add(node));
+            });
+
+    assertEquals(graph.getNodes(), visited);
+  }
+
+  @Test
+  public void onlyVisitsNodesReachableFromTheRoots() throws Exception {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "C");
+    graph.addEdge("D", "C");
+    Set<String> visited = ConcurrentHashMap.newKeySet();
+
+    traversalOf(graph).traverse(ImmutableList.of("B"), visited::add);
+
+    assertEquals(ImmutableSet.of("B", "C"), visited);
+  }
+
+  @Test
+  public void cyclesAreReportedBeforeAnyNodeIsVisited() throws Exception {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "C");
+    graph.addEdge("C", "B");
+    Set<String> visited = ConcurrentHashMap.newKeySet();
+
+    try {
+      traversalOf(graph).traverse(ImmutableList.of("A"), visited::add);
+      fail("Expected a cycle.");
+    } catch (CycleException e) {
+      assertEquals(ImmutableSet.of("B", "C"), ImmutableSet.copyOf(e.getCycle()));
+    }
+    assertTrue(visited.isEmpty());
+  }
+
+  @Test
+  public void throwsTheFailureASerialTraversalWouldThrow() throws Exception {
+    DirectedAcyclicGraph<String> graph = makeRandomGraph(300);
+    ImmutableList<String> roots = ImmutableList.copyOf(graph.getNodesWithNoIncomingEdges());
+    ImmutableList<String> postOrder =
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<>(traversableOf(graph)).traverse(roots));
+    Set<String> failingNodes =
+        ImmutableSet.of(postOrder.get(280), postOrder.get(150), postOrder.get(20));
+
+    for (int i = 0; i < 20; i++) {
+      try {
+        traversalOf(graph)
+            .traverse(
+                roots,
+                node -> {
+                  if (failingNodes.contains(node)) {
+                    throw new IOException(node);
+                  }
+                });
+        fail("Expected the traversal to fail.");
+      } catch (IOException e) {
+        assertEquals(postOrder.get(20), e.getMessage());
+      }
+    }
+  }
+
+  private ParallelBottomUpTraversal<String> traversalOf(TraversableGraph<String> graph) {
+    return new ParallelBottomUpTraversal<>(traversableOf(graph), pool);
+  }
+
+  private static GraphTraversable<String> traversableOf(TraversableGraph<String> graph) {
+    return node -> graph.getOutgoingNodesFor(node).iterator();
+  }
+
+  private static DirectedAcyclicGraph<String> makeRandomGraph(int nodeCount) {
+    Random random = new Random(42);
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    for (int i = 0; i < nodeCount; i++) {
+      String node = String.format("node%04d", i);
+      graph.addNode(node);
+      int depCount = i == 0 ? 0 : random.nextInt(5);
+      for (int j = 0; j < depCount; j++) {
+        graph.addEdge(node, String.format("node%04d", random.nextInt(i)));
+      }
+    }
+    return new DirectedAcyclicGraph<>(graph);
+  }
+}
@@ -516,7 +516,8 @@ public class ServedCacheIntegrationTest {
             DIRECT_EXECUTOR_SERVICE,
             DIRECT_EXECUTOR_SERVICE,
             DIRECT_EXECUTOR_SERVICE,
-            DIRECT_EXECUTOR_SERVICE)
+            DIRECT_EXECUTOR_SERVICE,
+            Optional.empty())
         .newInstance();
   }
 }
@@ -45,6 +45,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.io.ByteStreams;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import java.io.ByteArrayInputStream;
@@ -519,6 +520,29 @@ public class DefaultProjectFilesystemTest {
         ImmutableSet.of("foo/bar.txt", "foo/baz.txt", "empty/"), zipInspector.getZipFileEntries());
   }
 
+  @Test
+  public void testCreateZipWithStoredEntries() throws IOException {
+    tmp.newFolder("foo");
+    Files.write(tmp.newFile("foo/bar.txt"), "bar contents".getBytes(UTF_8));
+    tmp.newFolder("empty");
+
+    Path output = tmp.newFile("out.zip");
+
+    Zip.create(
+        filesystem, ImmutableList.of(Paths.get("foo/bar.txt"), Paths.get("empty")), output, false);
+
+    try (ZipInputStream is = new ZipInputStream(Files.newInputStream(output))) {
+      ZipEntry file = is.getNextEntry();
+      assertEquals("foo/bar.txt", file.getName());
+      assertEquals(ZipEntry.STORED, file.getMethod());
+      assertEquals("bar contents", new String(ByteStreams.toByteArray(is), UTF_8));
+
+      ZipEntry dir = is.getNextEntry();
+      assertEquals("empty/", dir.getName());
+      assertEquals(ZipEntry.STORED, dir.getMethod());
+    }
+  }
+
   @Test
   public void testGetZipContents() throws IOException {
     tmp.newFolder("foo");
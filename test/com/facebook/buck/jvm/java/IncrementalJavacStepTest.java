@@ -0,0 +1,378 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
+import com.facebook.buck.jvm.java.abi.source.api.SourceOnlyAbiRuleInfo;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.DefaultSourcePathResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.SingleThreadedBuildRuleResolver;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IncrementalJavacStepTest {
+
+  private static final JavacOptions JAVAC_OPTIONS =
+      JavacOptions.builder().setSourceLevel("8").setTargetLevel("8").build();
+
+  private static final Path SOURCE_A = Paths.get("src/com/example/A.java");
+  private static final Path SOURCE_B = Paths.get("src/com/example/B.java");
+  private static final Path SOURCE_C = Paths.get("src/com/example/C.java");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private BuildTarget target;
+  private SourcePathResolver resolver;
+  private RecordingJavac javac;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    target = BuildTargetFactory.newInstance(filesystem.getRootPath(), "//:lib");
+    resolver =
+        DefaultSourcePathResolver.from(
+            new SourcePathRuleFinder(
+                new SingleThreadedBuildRuleResolver(
+                    TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())));
+    javac = new RecordingJavac();
+
+    writeSource(
+        SOURCE_A, "package com.example; public class A { public int answer() { return 1; } }");
+    writeSource(
+        SOURCE_B, "package com.example; class B { int twice() { return 2 * new A().answer(); } }");
+  }
+
+  @Test
+  public void unchangedSourcesAreNotCompiledAgain() throws Exception {
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+    assertEquals(ImmutableList.of(sources), compile(sources));
+
+    assertEquals(ImmutableList.of(), compile(sources));
+    assertClassFiles("com/example/A.class", "com/example/B.class");
+  }
+
+  @Test
+  public void sourceWhoseAbiIsUnchangedIsCompiledAlone() throws Exception {
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+    compile(sources);
+    byte[] previousClass = readClassFile("com/example/A.class");
+
+    writeSource(
+        SOURCE_A, "package com.example; public class A { public int answer() { return 42; } }");
+
+    assertEquals(ImmutableList.of(ImmutableSortedSet.of(SOURCE_A)), compile(sources));
+    assertClassFiles("com/example/A.class", "com/example/B.class");
+    assertFalse(
+        "The new class replaces the old one.",
+        Arrays.equals(previousClass, readClassFile("com/example/A.class")));
+  }
+
+  @Test
+  public void sourceWhoseAbiChangedCausesAFullCompilation() throws Exception {
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+    compile(sources);
+
+    writeSource(
+        SOURCE_A,
+        "package com.example; public class A { "
+            + "public int answer() { return 1; } public int question() { return 0; } }");
+
+    assertEquals(ImmutableList.of(ImmutableSortedSet.of(SOURCE_A), sources), compile(sources));
+    assertClassFiles("com/example/A.class", "com/example/B.class");
+  }
+
+  @Test
+  public void addingASourceCausesAFullCompilation() throws Exception {
+    compile(ImmutableSortedSet.of(SOURCE_A, SOURCE_B));
+
+    writeSource(SOURCE_C, "package com.example; class C {}");
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B, SOURCE_C);
+
+    assertEquals(ImmutableList.of(sources), compile(sources));
+    assertClassFiles("com/example/A.class", "com/example/B.class", "com/example/C.class");
+  }
+
+  @Test
+  public void removingASourceCausesAFullCompilation() throws Exception {
+    writeSource(SOURCE_C, "package com.example; class C {}");
+    compile(ImmutableSortedSet.of(SOURCE_A, SOURCE_B, SOURCE_C));
+
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+
+    assertEquals(ImmutableList.of(sources), compile(sources));
+    assertClassFiles("com/example/A.class", "com/example/B.class");
+  }
+
+  @Test
+  public void changingAClasspathJarCausesAFullCompilation() throws Exception {
+    Path libraryJar = createLibraryJar("Library", "1");
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+    ImmutableSortedSet<Path> classpath = ImmutableSortedSet.of(libraryJar);
+    ExecutionContext context = TestExecutionContext.newInstance();
+    compile(sources, classpath, context, /* trackClassUsage */ false);
+    assertEquals(
+        ImmutableList.of(), compile(sources, classpath, context, /* trackClassUsage */ false));
+
+    createLibraryJar("Library", "2");
+
+    assertEquals(
+        ImmutableList.of(sources),
+        compile(sources, classpath, context, /* trackClassUsage */ false));
+  }
+
+  @Test
+  public void classpathIsHashedWithTheHashesOfTheBuild() throws Exception {
+    Path libraryJar = createLibraryJar("Library", "1");
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+    ImmutableSortedSet<Path> classpath = ImmutableSortedSet.of(libraryJar);
+    Map<Path, HashCode> hashes = new HashMap<>();
+    hashes.put(libraryJar, HashCode.fromString("aaaa"));
+    ExecutionContext context =
+        TestExecutionContext.newBuilder().setFileHashLoader(new FakeFileHashCache(hashes)).build();
+    compile(sources, classpath, context, /* trackClassUsage */ false);
+
+    // Only the hash known to the build counts, not the contents of the jar.
+    createLibraryJar("Library", "2");
+    assertEquals(
+        ImmutableList.of(), compile(sources, classpath, context, /* trackClassUsage */ false));
+
+    hashes.put(libraryJar, HashCode.fromString("bbbb"));
+    assertEquals(
+        ImmutableList.of(sources),
+        compile(sources, classpath, context, /* trackClassUsage */ false));
+  }
+
+  @Test
+  public void classesThatCannotBeAttributedToASourceDisableIncrementalCompilation()
+      throws Exception {
+    // The class ends up in a package that doesn't match the directory of its source.
+    Path misplaced = Paths.get("src/Misplaced.java");
+    writeSource(misplaced, "package com.example; class Misplaced {}");
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B, misplaced);
+    compile(sources);
+
+    assertEquals(ImmutableList.of(sources), compile(sources));
+    assertClassFiles("com/example/A.class", "com/example/B.class", "com/example/Misplaced.class");
+  }
+
+  @Test
+  public void classUsageOfUnchangedSourcesIsKept() throws Exception {
+    Path firstJar = createLibraryJar("First", "1");
+    Path secondJar = createLibraryJar("Second", "1");
+    writeSource(
+        SOURCE_A,
+        "package com.example; "
+            + "public class A { public int answer() { return lib.First.value(); } }");
+    writeSource(
+        SOURCE_B, "package com.example; class B { int value() { return lib.Second.value(); } }");
+    ImmutableSortedSet<Path> sources = ImmutableSortedSet.of(SOURCE_A, SOURCE_B);
+    ImmutableSortedSet<Path> classpath = ImmutableSortedSet.of(firstJar, secondJar);
+    ExecutionContext context = TestExecutionContext.newInstance();
+    compile(sources, classpath, context, /* trackClassUsage */ true);
+    assertEquals(ImmutableSortedSet.of("first.jar", "second.jar"), readUsedJars());
+
+    writeSource(
+        SOURCE_B,
+        "package com.example; class B { int value() { return 1 + lib.Second.value(); } }");
+
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of(SOURCE_B)),
+        compile(sources, classpath, context, /* trackClassUsage */ true));
+    assertEquals(ImmutableSortedSet.of("first.jar", "second.jar"), readUsedJars());
+  }
+
+  private List<ImmutableSortedSet<Path>> compile(ImmutableSortedSet<Path> sources)
+      throws Exception {
+    return compile(
+        sources,
+        ImmutableSortedSet.of(),
+        TestExecutionContext.newInstance(),
+        /* trackClassUsage */ false);
+  }
+
+  /** Runs the step like a build would, and returns the sources of each compilation it ran. */
+  private List<ImmutableSortedSet<Path>> compile(
+      ImmutableSortedSet<Path> sources,
+      ImmutableSortedSet<Path> classpath,
+      ExecutionContext context,
+      boolean trackClassUsage)
+      throws Exception {
+    CompilerParameters parameters =
+        CompilerParameters.builder()
+            .setScratchPaths(target, filesystem)
+            .setSourceFilePaths(sources)
+            .setClasspathEntries(classpath)
+            .setShouldTrackClassUsage(trackClassUsage)
+            .build();
+
+    // The build engine cleans the outputs of a rule before building it.
+    Path outputJarDirectory = CompilerParameters.getOutputJarDirPath(target, filesystem);
+    filesystem.deleteRecursivelyIfExists(parameters.getOutputDirectory());
+    filesystem.deleteRecursivelyIfExists(outputJarDirectory);
+    filesystem.mkdirs(parameters.getOutputDirectory());
+    filesystem.mkdirs(parameters.getWorkingDirectory());
+    filesystem.mkdirs(parameters.getGeneratedCodeDirectory());
+    filesystem.mkdirs(parameters.getPathToSourcesList().getParent());
+    filesystem.mkdirs(outputJarDirectory);
+
+    javac.compilations.clear();
+    assertTrue(
+        new IncrementalJavacStep(javac, JAVAC_OPTIONS, target, resolver, filesystem, parameters)
+            .execute(context)
+            .isSuccess());
+    return new ArrayList<>(javac.compilations);
+  }
+
+  private void writeSource(Path source, String contents) throws IOException {
+    filesystem.mkdirs(source.getParent());
+    filesystem.writeContentsToPath(contents, source);
+  }
+
+  /** Creates a jar with a single class {@code lib.<name>} whose {@code value()} returns value. */
+  private Path createLibraryJar(String name, String value) throws IOException {
+    Path sourceDir = tmp.getRoot().resolve("lib-src").resolve(name);
+    Path classesDir = tmp.getRoot().resolve("lib-classes").resolve(name);
+    Files.createDirectories(sourceDir);
+    Files.createDirectories(classesDir.resolve("lib"));
+    Path source = sourceDir.resolve(name + ".java");
+    Files.write(
+        source,
+        String.format(
+                "package lib; public class %s { public static int value() { return %s; } }",
+                name, value)
+            .getBytes(StandardCharsets.UTF_8));
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler()
+            .run(null, null, null, "-d", classesDir.toString(), source.toString()));
+
+    Path jar = tmp.getRoot().resolve(name.toLowerCase() + ".jar");
+    try (OutputStream output = Files.newOutputStream(jar);
+        JarOutputStream jarOutput = new JarOutputStream(output)) {
+      String classFile = "lib/" + name + ".class";
+      jarOutput.putNextEntry(new ZipEntry(classFile));
+      jarOutput.write(Files.readAllBytes(classesDir.resolve(classFile)));
+      jarOutput.closeEntry();
+    }
+    return jar;
+  }
+
+  private void assertClassFiles(String... classFiles) throws IOException {
+    Path outputDirectory = CompilerParameters.getClassesDir(target, filesystem);
+    ImmutableSortedSet<String> actual =
+        filesystem
+            .getFilesUnderPath(outputDirectory)
+            .stream()
+            .map(path -> outputDirectory.relativize(path).toString().replace('\\', '/'))
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+    assertEquals(ImmutableSortedSet.copyOf(classFiles), actual);
+  }
+
+  private byte[] readClassFile(String classFile) throws IOException {
+    Path outputDirectory = CompilerParameters.getClassesDir(target, filesystem);
+    return Files.readAllBytes(filesystem.resolve(outputDirectory).resolve(classFile));
+  }
+
+  private ImmutableSortedSet<String> readUsedJars() throws IOException {
+    Map<String, List<String>> usage =
+        ObjectMappers.readValue(
+            filesystem.resolve(CompilerParameters.getDepFilePath(target, filesystem)),
+            new TypeReference<Map<String, List<String>>>() {});
+    return usage
+        .keySet()
+        .stream()
+        .filter(path -> path.endsWith(".jar"))
+        .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+  }
+
+  /** Compiles with the compiler of the JDK, recording the sources of each compilation. */
+  private static class RecordingJavac extends JdkProvidedInMemoryJavac {
+    private final List<ImmutableSortedSet<Path>> compilations = new ArrayList<>();
+
+    @Override
+    public Invocation newBuildInvocation(
+        JavacExecutionContext context,
+        SourcePathResolver resolver,
+        BuildTarget invokingRule,
+        ImmutableList<String> options,
+        ImmutableList<JavacPluginJsr199Fields> pluginFields,
+        ImmutableSortedSet<Path> javaSourceFilePaths,
+        Path pathToSrcsList,
+        Path workingDirectory,
+        boolean trackClassUsage,
+        @Nullable JarParameters abiJarParameters,
+        @Nullable JarParameters libraryJarParameters,
+        AbiGenerationMode abiGenerationMode,
+        AbiGenerationMode abiCompatibilityMode,
+        @Nullable SourceOnlyAbiRuleInfo ruleInfo) {
+      compilations.add(javaSourceFilePaths);
+      return super.newBuildInvocation(
+          context,
+          resolver,
+          invokingRule,
+          options,
+          pluginFields,
+          javaSourceFilePaths,
+          pathToSrcsList,
+          workingDirectory,
+          trackClassUsage,
+          abiJarParameters,
+          libraryJarParameters,
+          abiGenerationMode,
+          abiCompatibilityMode,
+          ruleInfo);
+    }
+  }
+}
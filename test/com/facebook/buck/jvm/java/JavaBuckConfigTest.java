@@ -368,6 +368,43 @@ public class JavaBuckConfigTest {
     assertTrue(config.trackClassUsage());
   }
 
+  @Test
+  public void incrementalCompilationIsOffByDefault() {
+    JavaBuckConfig config = FakeBuckConfig.builder().build().getView(JavaBuckConfig.class);
+
+    assertFalse(config.getDefaultJavacOptions().isIncrementalCompilation());
+  }
+
+  @Test
+  public void incrementalCompilationCanBeEnabled() {
+    JavaBuckConfig config =
+        FakeBuckConfig.builder()
+            .setSections(
+                ImmutableMap.of("java", ImmutableMap.of("incremental_compilation", "true")))
+            .build()
+            .getView(JavaBuckConfig.class);
+
+    assertTrue(config.getDefaultJavacOptions().isIncrementalCompilation());
+  }
+
+  @Test
+  public void shareClasspathJarsIsOffByDefault() {
+    JavaBuckConfig config = FakeBuckConfig.builder().build().getView(JavaBuckConfig.class);
+
+    assertFalse(config.getDefaultJavacOptions().isShareClasspathJars());
+  }
+
+  @Test
+  public void shareClasspathJarsCanBeEnabled() {
+    JavaBuckConfig config =
+        FakeBuckConfig.builder()
+            .setSections(ImmutableMap.of("java", ImmutableMap.of("share_classpath_jars", "true")))
+            .build()
+            .getView(JavaBuckConfig.class);
+
+    assertTrue(config.getDefaultJavacOptions().isShareClasspathJars());
+  }
+
   @Test
   public void testJavaLocationInProcessByDefault()
       throws IOException, NoSuchBuildTargetException, InterruptedException {
@@ -385,6 +422,30 @@ public class JavaBuckConfigTest {
         config.getJavacSpec().getJavacLocation(), Matchers.equalTo(Javac.Location.IN_PROCESS));
   }
 
+  @Test
+  public void testJavaLocationWorker()
+      throws IOException, NoSuchBuildTargetException, InterruptedException {
+    String content =
+        Joiner.on('\n')
+            .join(
+                "[java]",
+                "    location = WORKER",
+                "    worker_count = 3",
+                "    worker_max_compilations = 50",
+                "    worker_max_heap_mb = 256");
+    JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(content));
+    assertThat(config.getJavacSpec().getJavacLocation(), Matchers.equalTo(Javac.Location.WORKER));
+    assertThat(
+        config.getJavacSpec().getJavacWorkerParams(),
+        Matchers.equalTo(
+            JavacWorkerParams.builder()
+                .setMaxWorkers(3)
+                .setMaxCompilationsPerWorker(50)
+                .setMaxHeapBytesPerWorker(256L * 1024 * 1024)
+                .build()));
+    assertFalse(config.trackClassUsage());
+  }
+
   @Test
   public void testCompileFullJarsByDefault() throws IOException {
     JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(""));
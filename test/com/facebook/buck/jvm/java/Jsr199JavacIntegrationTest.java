@@ -133,7 +133,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext,
+            /* shouldShareClasspathJars */ false);
 
     int exitCode =
         javac
@@ -191,7 +193,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext,
+            /* shouldShareClasspathJars */ false);
 
     int exitCode =
         javac
@@ -296,7 +300,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext,
+            /* shouldShareClasspathJars */ false);
 
     boolean caught = false;
 
@@ -390,7 +396,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext,
+            /* shouldShareClasspathJars */ false);
 
     Invocation buildInvocation =
         javac.newBuildInvocation(
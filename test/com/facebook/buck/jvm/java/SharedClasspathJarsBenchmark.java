@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compiles many small libraries in process, one after the other, against a classpath of many jars,
+ * with and without {@link SharedClasspathJars}. Run it with Caliper's allocation instrument as well
+ * as the runtime one to compare what the compilations allocate.
+ */
+public class SharedClasspathJarsBenchmark {
+  @Param({"50", "200"})
+  private int libraryCount = 10;
+
+  @Param({"false", "true"})
+  private boolean shareClasspathJars = true;
+
+  private TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private JavaCompiler compiler;
+  private SharedClasspathJars sharedJars;
+  private List<Path> sources;
+  private String classpath;
+  private Path outputDir;
+
+  @Before
+  public void setUpTest() throws Exception {
+    libraryCount = 10;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws Exception {
+    tmpDir.before();
+    compiler = ToolProvider.getSystemJavaCompiler();
+    sharedJars = new SharedClasspathJars(libraryCount);
+
+    // Each library uses its own dependency and the first one, but has all of them on its
+    // classpath, like libraries deep in a large build.
+    List<String> jars = new ArrayList<>(libraryCount);
+    sources = new ArrayList<>(libraryCount);
+    for (int i = 0; i < libraryCount; i++) {
+      Path depClasses = tmpDir.newFolder("dep" + i + "-classes");
+      Path depSource =
+          writeSource(
+              "dep" + i,
+              "Dep" + i,
+              String.format(
+                  "package dep%d; public class Dep%d { public static int value() { return %d; } }",
+                  i, i, i));
+      try (StandardJavaFileManager fileManager =
+          compiler.getStandardFileManager(null, null, null)) {
+        assertTrue(compile(fileManager, depSource, depClasses, ""));
+      }
+      Path jar = tmpDir.getRoot().resolve("dep" + i + ".jar");
+      writeJar(depClasses, "dep" + i + "/Dep" + i + ".class", jar);
+      jars.add(jar.toString());
+
+      sources.add(
+          writeSource(
+              "lib" + i,
+              "Lib" + i,
+              String.format(
+                  "package lib%d; "
+                      + "class Lib%d { int value = dep%d.Dep%d.value() + dep0.Dep0.value(); }",
+                  i, i, i, i)));
+    }
+    classpath = String.join(File.pathSeparator, jars);
+    outputDir = tmpDir.newFolder("output");
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    tmpDir.after();
+  }
+
+  @Test
+  public void compileLibrariesCorrectness() throws IOException {
+    compileLibraries();
+    assertTrue(Files.isRegularFile(outputDir.resolve("lib0/Lib0.class")));
+    assertTrue(Files.isRegularFile(outputDir.resolve("lib9/Lib9.class")));
+  }
+
+  @Benchmark
+  private void compileLibraries() throws IOException {
+    for (Path source : sources) {
+      StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+      if (shareClasspathJars) {
+        fileManager = new SharedClasspathJarsFileManager(fileManager, sharedJars);
+      }
+      try (StandardJavaFileManager closedFileManager = fileManager) {
+        if (!compile(closedFileManager, source, outputDir, classpath)) {
+          throw new IllegalStateException("Could not compile " + source);
+        }
+      }
+    }
+  }
+
+  private Path writeSource(String packageName, String className, String contents)
+      throws IOException {
+    Path source = tmpDir.getRoot().resolve("src").resolve(packageName).resolve(className + ".java");
+    Files.createDirectories(source.getParent());
+    Files.write(source, contents.getBytes(StandardCharsets.UTF_8));
+    return source;
+  }
+
+  private static void writeJar(Path classes, String classFile, Path jar) throws IOException {
+    try (OutputStream output = Files.newOutputStream(jar);
+        ZipOutputStream zip = new ZipOutputStream(output)) {
+      zip.putNextEntry(new ZipEntry(classFile.substring(0, classFile.indexOf('/') + 1)));
+      zip.closeEntry();
+      zip.putNextEntry(new ZipEntry(classFile));
+      zip.write(Files.readAllBytes(classes.resolve(classFile)));
+      zip.closeEntry();
+    }
+  }
+
+  private boolean compile(
+      StandardJavaFileManager fileManager, Path source, Path output, String classpath) {
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    options.add("-d", output.toString());
+    if (!classpath.isEmpty()) {
+      options.add("-classpath", classpath);
+    }
+    return compiler
+        .getTask(
+            null,
+            fileManager,
+            null,
+            options.build(),
+            null,
+            fileManager.getJavaFileObjects(source.toFile()))
+        .call();
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SharedClasspathJarsFileManagerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private JavaCompiler compiler;
+  private Path libraryClasses;
+  private Path libraryJar;
+
+  @Before
+  public void setUp() throws IOException {
+    compiler = ToolProvider.getSystemJavaCompiler();
+
+    libraryClasses = tmp.newFolder("library");
+    Path librarySource =
+        writeSource(
+            "Library.java",
+            "package com.example; "
+                + "public class Library { public static int answer() { return 42; } }");
+    assertTrue(compile(compiler.getStandardFileManager(null, null, null), librarySource, null));
+
+    libraryJar = tmp.getRoot().resolve("library.jar");
+    Path classFile = Paths.get("com/example/Library.class");
+    try (OutputStream output = Files.newOutputStream(libraryJar);
+        ZipOutputStream zip = new ZipOutputStream(output)) {
+      zip.putNextEntry(new ZipEntry("com/example/"));
+      zip.closeEntry();
+      zip.putNextEntry(new ZipEntry("com/example/Library.class"));
+      zip.write(Files.readAllBytes(libraryClasses.resolve(classFile)));
+      zip.closeEntry();
+    }
+  }
+
+  @Test
+  public void compilesAgainstSharedJarsAndTracksTheClassesRead() throws IOException {
+    SharedClasspathJars sharedJars = new SharedClasspathJars(10);
+    ClassUsageTracker tracker = new ClassUsageTracker();
+    Path source =
+        writeSource("User.java", "package com.example; class User { int x = Library.answer(); }");
+
+    try (StandardJavaFileManager fileManager =
+        new SharedClasspathJarsFileManager(
+            compiler.getStandardFileManager(null, null, null), sharedJars)) {
+      ListenableFileManager listenableFileManager = new ListenableFileManager(fileManager);
+      listenableFileManager.addListener(tracker);
+
+      assertTrue(compile(listenableFileManager, source, libraryJar));
+      assertEquals(1, sharedJars.getOpenJarCount());
+    }
+
+    assertEquals(
+        ImmutableSetMultimap.of(libraryJar, Paths.get("com/example/Library.class")),
+        tracker.getClassUsageMap());
+  }
+
+  @Test
+  public void listsClassesOfSharedJarsWithJavacBinaryNames() throws IOException {
+    SharedClasspathJars sharedJars = new SharedClasspathJars(10);
+    try (StandardJavaFileManager fileManager =
+        new SharedClasspathJarsFileManager(
+            compiler.getStandardFileManager(null, null, null), sharedJars)) {
+      fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(libraryJar.toFile()));
+
+      JavaFileObject library =
+          Iterables.getOnlyElement(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "com.example",
+                  ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                  false));
+
+      assertEquals(
+          "com.example.Library", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, library));
+      assertEquals(
+          "jar:" + libraryJar.toUri() + "!/com/example/Library.class",
+          library.toUri().toString());
+      assertTrue(library.isNameCompatible("Library", JavaFileObject.Kind.CLASS));
+    }
+  }
+
+  @Test
+  public void classpathsWithDirectoriesAreLeftToTheDelegate() throws IOException {
+    SharedClasspathJars sharedJars = new SharedClasspathJars(10);
+    Path source =
+        writeSource("User.java", "package com.example; class User { int x = Library.answer(); }");
+
+    try (StandardJavaFileManager fileManager =
+        new SharedClasspathJarsFileManager(
+            compiler.getStandardFileManager(null, null, null), sharedJars)) {
+      assertTrue(compile(fileManager, source, libraryClasses));
+      assertEquals(0, sharedJars.getOpenJarCount());
+    }
+  }
+
+  private Path writeSource(String name, String contents) throws IOException {
+    Path source = tmp.getRoot().resolve(name);
+    Files.write(source, contents.getBytes(StandardCharsets.UTF_8));
+    return source;
+  }
+
+  private boolean compile(
+      StandardJavaFileManager fileManager, Path source, @Nullable Path classpath)
+      throws IOException {
+    Path output = classpath == null ? libraryClasses : tmp.newFolder();
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    options.add("-d", output.toString());
+    if (classpath != null) {
+      options.add("-classpath", classpath.toString());
+    }
+    return compiler
+        .getTask(
+            null,
+            fileManager,
+            null,
+            options.build(),
+            null,
+            fileManager.getJavaFileObjects(source.toFile()))
+        .call();
+  }
+}
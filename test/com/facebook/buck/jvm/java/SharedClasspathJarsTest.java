@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SharedClasspathJarsTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void jarsAreSharedWhileUnchanged() throws IOException {
+    Path path = writeJar("a.jar", "com/example/A.class");
+    SharedClasspathJars sharedJars = new SharedClasspathJars(10);
+
+    SharedClasspathJars.Jar first = sharedJars.acquire(path);
+    sharedJars.release(first);
+    SharedClasspathJars.Jar second = sharedJars.acquire(path);
+
+    assertSame(first, second);
+    assertEquals(1, sharedJars.getOpenJarCount());
+  }
+
+  @Test
+  public void changedJarsAreOpenedAgain() throws IOException {
+    Path path = writeJar("a.jar", "com/example/A.class");
+    SharedClasspathJars sharedJars = new SharedClasspathJars(10);
+    SharedClasspathJars.Jar first = sharedJars.acquire(path);
+    sharedJars.release(first);
+
+    writeJar("a.jar", "com/example/A.class", "com/example/B.class");
+    Files.setLastModifiedTime(path, FileTime.fromMillis(0));
+    SharedClasspathJars.Jar second = sharedJars.acquire(path);
+
+    assertNotSame(first, second);
+    assertEquals(2, second.list("com/example", false).size());
+    assertEquals(1, sharedJars.getOpenJarCount());
+  }
+
+  @Test
+  public void unusedJarsAreEvicted() throws IOException {
+    SharedClasspathJars sharedJars = new SharedClasspathJars(1);
+    SharedClasspathJars.Jar a = sharedJars.acquire(writeJar("a.jar", "A.class"));
+    SharedClasspathJars.Jar b = sharedJars.acquire(writeJar("b.jar", "B.class"));
+    assertEquals(2, sharedJars.getOpenJarCount());
+
+    sharedJars.release(a);
+    assertEquals(2, sharedJars.getOpenJarCount());
+    sharedJars.release(b);
+    assertEquals(1, sharedJars.getOpenJarCount());
+  }
+
+  @Test
+  public void listsEntriesByDirectory() throws IOException {
+    Path path =
+        writeJar("a.jar", "A.class", "com/example/B.class", "com/example/sub/C.class", "D.txt");
+    SharedClasspathJars.Jar jar = new SharedClasspathJars(1).acquire(path);
+
+    assertEquals(ImmutableList.of("A.class", "D.txt"), names(jar.list("", false)));
+    assertEquals(ImmutableList.of("com/example/B.class"), names(jar.list("com/example", false)));
+    assertEquals(
+        ImmutableList.of("com/example/B.class", "com/example/sub/C.class"),
+        names(jar.list("com/example", true)));
+    assertEquals(ImmutableList.of(), names(jar.list("com/ex", true)));
+  }
+
+  private Path writeJar(String name, String... entries) throws IOException {
+    Path path = tmp.getRoot().resolve(name);
+    try (OutputStream output = Files.newOutputStream(path);
+        ZipOutputStream zip = new ZipOutputStream(output)) {
+      for (String entry : entries) {
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.closeEntry();
+      }
+    }
+    return path;
+  }
+
+  private static ImmutableList<String> names(ImmutableList<ZipEntry> entries) {
+    return entries
+        .stream()
+        .map(ZipEntry::getName)
+        .sorted()
+        .collect(ImmutableList.toImmutableList());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.DefaultSourcePathResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.SingleThreadedBuildRuleResolver;
+import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.CapturingPrintStream;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class WorkerJavacIntegrationTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ExecutionContext executionContext;
+  private ProjectFilesystem filesystem;
+  private CapturingPrintStream stderr;
+  private WorkerJavac javac;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    // Worker processes are currently broken on Windows.
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+
+    executionContext = TestExecutionContext.newInstance();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    stderr = new CapturingPrintStream();
+    javac = new WorkerJavac(JavacWorkerParams.builder().setMaxWorkers(1).build());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (executionContext != null) {
+      executionContext.close();
+    }
+  }
+
+  @Test
+  public void compilesInOneWorkerAcrossInvocations() throws Exception {
+    writeSource("First.java", "package com.example; public class First {}");
+    writeSource("Second.java", "package com.example; class Second { First first; }");
+
+    assertEquals(0, compile("first", "First.java"));
+    assertEquals(0, compile("second", "Second.java"));
+
+    assertTrue(Files.isRegularFile(resolve("first/com/example/First.class")));
+    assertTrue(Files.isRegularFile(resolve("second/com/example/Second.class")));
+    assertEquals(1, executionContext.getWorkerProcessPools().size());
+  }
+
+  @Test
+  public void reportsCompilationErrorsOnStderr() throws Exception {
+    writeSource("Broken.java", "package com.example; public class Broken {");
+
+    assertNotEquals(0, compile("broken", "Broken.java"));
+
+    assertThat(stderr.getContentsAsString(StandardCharsets.UTF_8), containsString("Broken.java"));
+  }
+
+  private void writeSource(String name, String contents) throws IOException {
+    Files.write(resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private int compile(String outputDirectory, String source) throws Exception {
+    tmp.newFolder(outputDirectory);
+    JavacExecutionContext javacExecutionContext =
+        JavacExecutionContext.of(
+            new JavacEventSinkToBuckEventBusBridge(executionContext.getBuckEventBus()),
+            stderr,
+            executionContext.getClassLoaderCache(),
+            executionContext.getVerbosity(),
+            executionContext.getCellPathResolver(),
+            executionContext.getJavaPackageFinder(),
+            filesystem,
+            executionContext.getProjectFilesystemFactory(),
+            executionContext.getEnvironment(),
+            executionContext.getProcessExecutor(),
+            executionContext,
+            /* shouldShareClasspathJars */ false);
+
+    try (Javac.Invocation invocation =
+        javac.newBuildInvocation(
+            javacExecutionContext,
+            DefaultSourcePathResolver.from(
+                new SourcePathRuleFinder(
+                    new SingleThreadedBuildRuleResolver(
+                        TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()))),
+            BuildTargetFactory.newInstance("//some:" + outputDirectory),
+            ImmutableList.of("-d", outputDirectory, "-classpath", "first"),
+            ImmutableList.of(),
+            ImmutableSortedSet.of(Paths.get(source)),
+            Paths.get(outputDirectory + ".srcs_list"),
+            Paths.get("working"),
+            false,
+            null,
+            null,
+            AbiGenerationMode.CLASS,
+            AbiGenerationMode.CLASS,
+            null)) {
+      return invocation.buildClasses();
+    }
+  }
+
+  private Path resolve(String path) {
+    return tmp.getRoot().resolve(path);
+  }
+}
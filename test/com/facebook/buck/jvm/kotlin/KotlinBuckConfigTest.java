@@ -331,4 +331,31 @@ public class KotlinBuckConfigTest {
     assertNotNull(runtimeJar);
     assertTrue(runtimeJar.endsWith("faux_kotlin_home/libexec/lib/kotlin-stdlib.jar"));
   }
+
+  @Test
+  public void testWorkerSettings() {
+    BuckConfig buckConfig =
+        FakeBuckConfig.builder()
+            .setSections(
+                ImmutableMap.of(
+                    "kotlin",
+                    ImmutableMap.of(
+                        "worker_count", "3",
+                        "worker_max_heap_mb", "512")))
+            .build();
+
+    KotlinBuckConfig kotlinBuckConfig = new KotlinBuckConfig(buckConfig);
+    assertEquals(3, kotlinBuckConfig.getWorkerCount());
+    assertEquals(512L * 1024 * 1024, kotlinBuckConfig.getWorkerMaxHeapBytes());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void testWorkerCountMustBePositive() {
+    BuckConfig buckConfig =
+        FakeBuckConfig.builder()
+            .setSections(ImmutableMap.of("kotlin", ImmutableMap.of("worker_count", "0")))
+            .build();
+
+    new KotlinBuckConfig(buckConfig).getWorkerCount();
+  }
 }
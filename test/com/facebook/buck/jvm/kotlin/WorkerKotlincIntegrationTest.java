@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.config.BuckConfig;
+import com.facebook.buck.config.FakeBuckConfig;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class WorkerKotlincIntegrationTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ExecutionContext executionContext;
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    KotlinTestAssumptions.assumeUnixLike();
+    KotlinTestAssumptions.assumeCompilerAvailable(null);
+
+    executionContext = TestExecutionContext.newInstance();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (executionContext != null) {
+      executionContext.close();
+    }
+  }
+
+  @Test
+  public void compilesInOneWorkerAcrossSteps() throws Exception {
+    KotlinBuckConfig config = kotlinBuckConfig("2048");
+    Kotlinc kotlinc = config.getKotlinc();
+    writeSource("First.kt", "package com.example\nclass First");
+    writeSource("Second.kt", "package com.example\nclass Second(val first: First)");
+
+    assertEquals(0, compile(config, kotlinc, "first", "First.kt", "").getExitCode());
+    assertEquals(0, compile(config, kotlinc, "second", "Second.kt", "first").getExitCode());
+
+    assertTrue(Files.isRegularFile(resolve("first/com/example/First.class")));
+    assertTrue(Files.isRegularFile(resolve("second/com/example/Second.class")));
+    assertEquals(2, getJobCountOfPooledWorker());
+  }
+
+  @Test
+  public void evictsWorkersWhoseHeapGrowsPastTheLimit() throws Exception {
+    // Any JVM that has loaded the compiler commits more than a megabyte of heap.
+    KotlinBuckConfig config = kotlinBuckConfig("1");
+    Kotlinc kotlinc = config.getKotlinc();
+    writeSource("First.kt", "package com.example\nclass First");
+
+    assertEquals(0, compile(config, kotlinc, "first", "First.kt", "").getExitCode());
+
+    assertTrue(Files.isRegularFile(resolve("first/com/example/First.class")));
+    assertEquals(0, getJobCountOfPooledWorker());
+  }
+
+  @Test
+  public void reportsCompilationErrorsOnStderr() throws Exception {
+    KotlinBuckConfig config = kotlinBuckConfig("2048");
+    writeSource("Broken.kt", "package com.example\nclass Broken {");
+
+    StepExecutionResult result =
+        compile(config, config.getKotlinc(), "broken", "Broken.kt", "");
+
+    assertTrue(result.getExitCode() != 0);
+    assertTrue(result.getStderr().orElse("").contains("Broken.kt"));
+  }
+
+  private KotlinBuckConfig kotlinBuckConfig(String workerMaxHeapMegabytes) {
+    BuckConfig buckConfig =
+        FakeBuckConfig.builder()
+            .setSections(
+                ImmutableMap.of(
+                    "kotlin",
+                    ImmutableMap.of(
+                        "use_workers",
+                        "true",
+                        "worker_count",
+                        "1",
+                        "worker_max_heap_mb",
+                        workerMaxHeapMegabytes)))
+            .build();
+    return new KotlinBuckConfig(buckConfig);
+  }
+
+  private void writeSource(String name, String contents) throws IOException {
+    Files.write(resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private StepExecutionResult compile(
+      KotlinBuckConfig config,
+      Kotlinc kotlinc,
+      String outputDirectory,
+      String source,
+      String classpathDirectory)
+      throws Exception {
+    tmp.newFolder(outputDirectory);
+    ImmutableSortedSet.Builder<Path> classpath = ImmutableSortedSet.naturalOrder();
+    classpath.add(config.getPathToStdlibJar());
+    if (!classpathDirectory.isEmpty()) {
+      classpath.add(Paths.get(classpathDirectory));
+    }
+    return new KotlincStep(
+            BuildTargetFactory.newInstance("//some:" + outputDirectory),
+            Paths.get(outputDirectory),
+            ImmutableSortedSet.of(Paths.get(source)),
+            Paths.get(outputDirectory + ".srcs_list"),
+            classpath.build(),
+            kotlinc,
+            ImmutableList.of(),
+            filesystem)
+        .execute(executionContext);
+  }
+
+  /** @return how many compilations the worker in the only pool ran. */
+  private int getJobCountOfPooledWorker() throws Exception {
+    WorkerProcessPool pool =
+        Iterables.getOnlyElement(executionContext.getWorkerProcessPools().values());
+    WorkerProcess process = pool.borrowWorkerProcess();
+    try {
+      return process.getJobCount();
+    } finally {
+      pool.returnWorkerProcess(process);
+    }
+  }
+
+  private Path resolve(String path) {
+    return tmp.getRoot().resolve(path);
+  }
+}
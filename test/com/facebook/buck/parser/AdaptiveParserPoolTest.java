@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveParserPoolTest {
+
+  private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private Cell cellA;
+  private Cell cellB;
+  private AtomicLong nanoTime;
+  private List<FakeParser> createdParsers;
+
+  @Before
+  public void setUp() throws Exception {
+    cellA = new TestCellBuilder().setFilesystem(new FakeProjectFilesystem(Paths.get("/a"))).build();
+    cellB = new TestCellBuilder().setFilesystem(new FakeProjectFilesystem(Paths.get("/b"))).build();
+    nanoTime = new AtomicLong();
+    createdParsers = new ArrayList<>();
+  }
+
+  @Test
+  public void sizesPoolFromCoresAndMemory() {
+    long gigabyte = 1024L * 1024 * 1024;
+    assertThat(AdaptiveParserPool.computeMaxParsers(16, 8, 64 * gigabyte, gigabyte), equalTo(8));
+    assertThat(AdaptiveParserPool.computeMaxParsers(16, 8, 3 * gigabyte, gigabyte), equalTo(3));
+    assertThat(AdaptiveParserPool.computeMaxParsers(2, 8, 64 * gigabyte, gigabyte), equalTo(2));
+    assertThat(AdaptiveParserPool.computeMaxParsers(16, 8, 0, gigabyte), equalTo(1));
+  }
+
+  @Test
+  public void reusesIdleParsersOfTheSameCell() throws Exception {
+    try (AdaptiveParserPool pool = createPool(2)) {
+      parse(pool, cellA).get();
+      parse(pool, cellA).get();
+    }
+    assertThat(createdParsers.size(), equalTo(1));
+  }
+
+  @Test
+  public void idleParsersOfOtherCellsAreRetiredToMakeRoom() throws Exception {
+    try (AdaptiveParserPool pool = createPool(1)) {
+      parse(pool, cellA).get();
+      parse(pool, cellB).get();
+
+      assertThat(createdParsers.size(), equalTo(2));
+      assertThat(createdParsers.get(0).cell, equalTo(cellA));
+      assertThat(createdParsers.get(0).closed, equalTo(true));
+      assertThat(createdParsers.get(1).closed, equalTo(false));
+    }
+    assertThat(createdParsers.get(1).closed, equalTo(true));
+  }
+
+  @Test
+  public void parsersAreRetiredAfterIdleTimeout() throws Exception {
+    try (AdaptiveParserPool pool = createPool(2)) {
+      parse(pool, cellA).get();
+      nanoTime.addAndGet(IDLE_TIMEOUT_NANOS - 1);
+      pool.retireIdleParsers();
+      assertThat(createdParsers.get(0).closed, equalTo(false));
+
+      nanoTime.addAndGet(1);
+      pool.retireIdleParsers();
+      assertThat(createdParsers.get(0).closed, equalTo(true));
+
+      parse(pool, cellA).get();
+      assertThat(createdParsers.size(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void queuedRequestsAreServedInOrderOnceParsersAreReturned() throws Exception {
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    CountDownLatch firstParseStarted = new CountDownLatch(1);
+    CountDownLatch finishFirstParse = new CountDownLatch(1);
+    List<Cell> parsedCells = new ArrayList<>();
+    try (AdaptiveParserPool pool = createPool(1)) {
+      ListenableFuture<?> first =
+          pool.scheduleOperationWithParser(
+              cellA,
+              parser -> {
+                firstParseStarted.countDown();
+                finishFirstParse.await();
+                return recordParse(parsedCells, cellA);
+              },
+              executorService);
+      firstParseStarted.await();
+      ListenableFuture<?> second =
+          pool.scheduleOperationWithParser(
+              cellB, parser -> recordParse(parsedCells, cellB), executorService);
+      ListenableFuture<?> third =
+          pool.scheduleOperationWithParser(
+              cellA, parser -> recordParse(parsedCells, cellA), executorService);
+
+      finishFirstParse.countDown();
+      first.get(1, TimeUnit.SECONDS);
+      second.get(1, TimeUnit.SECONDS);
+      third.get(1, TimeUnit.SECONDS);
+    } finally {
+      executorService.shutdown();
+    }
+    assertThat(parsedCells, contains(cellA, cellB, cellA));
+    assertThat(createdParsers.size(), equalTo(3));
+  }
+
+  private AdaptiveParserPool createPool(int maxParsers) {
+    return new AdaptiveParserPool(
+        maxParsers,
+        IDLE_TIMEOUT_NANOS,
+        cell -> {
+          FakeParser parser = new FakeParser(cell);
+          synchronized (createdParsers) {
+            createdParsers.add(parser);
+          }
+          return parser;
+        },
+        nanoTime::get,
+        false);
+  }
+
+  private static ListenableFuture<?> parse(AdaptiveParserPool pool, Cell cell) {
+    return pool.scheduleOperationWithParser(
+        cell,
+        parser -> parser.getAllRulesAndMetaRules(cell.getRoot().resolve("BUCK"), new AtomicLong()),
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  private static Cell recordParse(List<Cell> parsedCells, Cell cell) {
+    synchronized (parsedCells) {
+      parsedCells.add(cell);
+    }
+    return cell;
+  }
+
+  private static class FakeParser implements ProjectBuildFileParser {
+    private final Cell cell;
+    private volatile boolean closed;
+
+    private FakeParser(Cell cell) {
+      this.cell = cell;
+    }
+
+    @Override
+    public ImmutableList<Map<String, Object>> getAll(Path buildFile, AtomicLong processedBytes) {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public ImmutableList<Map<String, Object>> getAllRulesAndMetaRules(
+        Path buildFile, AtomicLong processedBytes) {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public void reportProfile() {}
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.CellPathResolver;
+import com.facebook.buck.rules.DefaultCellPathResolver;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Measures {@link BuildTargetParser#parse} on the kinds of target names found in build files. */
+public class BuildTargetParserBenchmark {
+  @Param({"10000", "100000"})
+  private int targetCount = 100;
+
+  private final BuildTargetParser parser = BuildTargetParser.INSTANCE;
+  private final BuildTargetPatternParser<?> fullyQualifiedParser =
+      BuildTargetPatternParser.fullyQualified();
+  private final BuildTargetPatternParser<?> relativeParser =
+      BuildTargetPatternParser.forBaseName("//java/com/example/app");
+
+  private CellPathResolver cellRoots;
+  private List<String> fullyQualifiedNames;
+  private List<String> relativeNames;
+  private List<String> crossCellNames;
+  private List<String> flavoredNames;
+
+  @Before
+  public void setUpTest() {
+    targetCount = 100;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() {
+    cellRoots =
+        DefaultCellPathResolver.of(
+            Paths.get("/opt/src/root"), ImmutableMap.of("other", Paths.get("/opt/src/other")));
+    fullyQualifiedNames = new ArrayList<>(targetCount);
+    relativeNames = new ArrayList<>(targetCount);
+    crossCellNames = new ArrayList<>(targetCount);
+    flavoredNames = new ArrayList<>(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      String path = String.format("java/com/example/module%d/sub%d", i % 97, i);
+      fullyQualifiedNames.add(String.format("//%s:lib%d", path, i));
+      relativeNames.add(String.format(":lib%d", i));
+      crossCellNames.add(String.format("other//%s:lib%d", path, i));
+      flavoredNames.add(String.format("//%s:lib%d#android-arm,shared", path, i));
+    }
+  }
+
+  @Test
+  public void parseCorrectness() {
+    parseFullyQualified();
+    parseRelative();
+    parseCrossCell();
+    parseFlavored();
+  }
+
+  @Benchmark
+  public void parseFullyQualified() {
+    parseAll(fullyQualifiedNames, fullyQualifiedParser);
+  }
+
+  @Benchmark
+  public void parseRelative() {
+    parseAll(relativeNames, relativeParser);
+  }
+
+  @Benchmark
+  public void parseCrossCell() {
+    parseAll(crossCellNames, fullyQualifiedParser);
+  }
+
+  @Benchmark
+  public void parseFlavored() {
+    parseAll(flavoredNames, fullyQualifiedParser);
+  }
+
+  private void parseAll(List<String> names, BuildTargetPatternParser<?> patternParser) {
+    for (String name : names) {
+      BuildTarget target = parser.parse(name, patternParser, cellRoots);
+      if (target.getShortName().isEmpty()) {
+        throw new IllegalStateException("Failed to parse " + name);
+      }
+    }
+  }
+}
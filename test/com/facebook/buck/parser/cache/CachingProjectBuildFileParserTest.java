@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CachingProjectBuildFileParserTest {
+
+  private static final ImmutableMap<String, ImmutableMap<String, String>> CONFIG =
+      ImmutableMap.of("parser", ImmutableMap.of("parse_result_cache_dir", "cache"));
+
+  @Rule public TemporaryPaths cellRoot = new TemporaryPaths();
+  @Rule public TemporaryPaths cacheDir = new TemporaryPaths();
+
+  private Path buildFile;
+  private Path include;
+  private ParseResultCacheStorage storage;
+  private int parseCount;
+  private Object ruleValue;
+  private boolean isEnforcingPackageBoundaries;
+
+  @Before
+  public void setUp() throws IOException {
+    buildFile = cellRoot.newFile("BUCK");
+    include = cellRoot.newFile("DEFS");
+    write(buildFile, "java_library(name = 'example')");
+    write(include, "X = 1");
+    storage = new LocalParseResultCacheStorage(cacheDir.getRoot(), 1024 * 1024);
+    parseCount = 0;
+    ruleValue = "example";
+    isEnforcingPackageBoundaries = true;
+  }
+
+  @Test
+  public void resultsAreSharedBetweenParsers() throws Exception {
+    ImmutableList<Map<String, Object>> rules = parse(ImmutableMap.of());
+    assertThat(parse(ImmutableMap.of()), equalTo(rules));
+    assertThat(parseCount, equalTo(1));
+  }
+
+  @Test
+  public void changedBuildFileIsParsedAgain() throws Exception {
+    parse(ImmutableMap.of());
+    write(buildFile, "java_library(name = 'other')");
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+  }
+
+  @Test
+  public void changedIncludeIsParsedAgain() throws Exception {
+    parse(ImmutableMap.of());
+    write(include, "X = 2");
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+
+    write(include, "X = 1");
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+  }
+
+  @Test
+  public void changedEnvironmentIsParsedAgain() throws Exception {
+    parse(ImmutableMap.of("USER", "a"));
+    parse(ImmutableMap.of("USER", "b"));
+    assertThat(parseCount, equalTo(2));
+
+    parse(ImmutableMap.of("USER", "a", "UNRELATED", "c"));
+    assertThat(parseCount, equalTo(2));
+  }
+
+  @Test
+  public void addedOrRemovedFileInPackageIsParsedAgain() throws Exception {
+    parse(ImmutableMap.of());
+    cellRoot.newFolder("src");
+    Path source = cellRoot.newFile("src/Example.java");
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+
+    Files.delete(source);
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+  }
+
+  @Test
+  public void addedFileInNestedPackageIsNotParsedAgainWhenEnforcingPackageBoundaries()
+      throws Exception {
+    cellRoot.newFolder("nested");
+    cellRoot.newFile("nested/BUCK");
+    parse(ImmutableMap.of());
+    cellRoot.newFile("nested/Example.java");
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(1));
+  }
+
+  @Test
+  public void addedFileInNestedPackageIsParsedAgainWithoutPackageBoundaries() throws Exception {
+    isEnforcingPackageBoundaries = false;
+    cellRoot.newFolder("nested");
+    cellRoot.newFile("nested/BUCK");
+    parse(ImmutableMap.of());
+    cellRoot.newFile("nested/Example.java");
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+  }
+
+  @Test
+  public void uncacheableResultsAreParsedAgain() throws Exception {
+    ruleValue = new Object();
+    parse(ImmutableMap.of());
+    parse(ImmutableMap.of());
+    assertThat(parseCount, equalTo(2));
+  }
+
+  private ImmutableList<Map<String, Object>> parse(ImmutableMap<String, String> environment)
+      throws Exception {
+    try (ProjectBuildFileParser parser =
+        CachingProjectBuildFileParser.of(
+            new FakeProjectBuildFileParser(environment),
+            storage,
+            TestProjectFilesystems.createProjectFilesystem(cellRoot.getRoot()),
+            "BUCK",
+            path -> isEnforcingPackageBoundaries,
+            "",
+            CONFIG,
+            environment)) {
+      return parser.getAllRulesAndMetaRules(buildFile, new AtomicLong());
+    }
+  }
+
+  private static void write(Path path, String contents) throws IOException {
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private class FakeProjectBuildFileParser implements ProjectBuildFileParser {
+    private final ImmutableMap<String, String> environment;
+
+    private FakeProjectBuildFileParser(ImmutableMap<String, String> environment) {
+      this.environment = environment;
+    }
+
+    @Override
+    public ImmutableList<Map<String, Object>> getAll(Path buildFile, AtomicLong processedBytes) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableList<Map<String, Object>> getAllRulesAndMetaRules(
+        Path buildFile, AtomicLong processedBytes) {
+      parseCount++;
+      ImmutableMap<String, Object> env =
+          environment.containsKey("USER")
+              ? ImmutableMap.of("USER", environment.get("USER"))
+              : ImmutableMap.of();
+      return ImmutableList.<Map<String, Object>>of(
+          ImmutableMap.of("buck.base_path", "", "buck.type", "java_library", "name", ruleValue),
+          ImmutableMap.of(
+              "__includes", ImmutableList.of(buildFile.toString(), include.toString())),
+          ImmutableMap.of("__configs", ImmutableMap.of()),
+          ImmutableMap.of("__env", env));
+    }
+
+    @Override
+    public void reportProfile() {}
+
+    @Override
+    public void close() {}
+  }
+}
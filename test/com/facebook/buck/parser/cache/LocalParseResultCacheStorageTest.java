@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalParseResultCacheStorageTest {
+
+  @Rule public TemporaryPaths cacheDir = new TemporaryPaths();
+
+  private static final HashCode FIRST = hash("first");
+  private static final HashCode SECOND = hash("second");
+  private static final HashCode THIRD = hash("third");
+
+  @Test
+  public void storedEntriesCanBeFetched() throws IOException {
+    LocalParseResultCacheStorage storage =
+        new LocalParseResultCacheStorage(cacheDir.getRoot(), 1000);
+    storage.store(FIRST, new byte[] {1, 2, 3});
+
+    assertArrayEquals(new byte[] {1, 2, 3}, storage.fetch(FIRST).get());
+    assertFalse(storage.fetch(SECOND).isPresent());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreDeletedWhenTheCacheIsTooLarge() throws IOException {
+    LocalParseResultCacheStorage storage =
+        new LocalParseResultCacheStorage(cacheDir.getRoot(), 1000);
+    storage.store(FIRST, new byte[400]);
+    storage.store(SECOND, new byte[400]);
+    storage.store(THIRD, new byte[400]);
+    setLastAccessMillis(FIRST, 1000);
+    setLastAccessMillis(SECOND, 2000);
+    setLastAccessMillis(THIRD, 3000);
+
+    // Fetching marks the oldest entry as the most recently used one.
+    assertTrue(storage.fetch(FIRST).isPresent());
+    storage.deleteLeastRecentlyUsedEntries();
+
+    assertTrue(storage.fetch(FIRST).isPresent());
+    assertFalse(storage.fetch(SECOND).isPresent());
+    assertFalse(storage.fetch(THIRD).isPresent());
+  }
+
+  @Test
+  public void storingHalfOfTheMaximumSizeDeletesOldEntries() throws IOException {
+    LocalParseResultCacheStorage storage =
+        new LocalParseResultCacheStorage(cacheDir.getRoot(), 1000);
+    storage.store(FIRST, new byte[900]);
+    setLastAccessMillis(FIRST, 1000);
+    storage.store(SECOND, new byte[600]);
+
+    assertFalse(storage.fetch(FIRST).isPresent());
+    assertTrue(storage.fetch(SECOND).isPresent());
+  }
+
+  private void setLastAccessMillis(HashCode key, long millis) throws IOException {
+    String name = key.toString();
+    Files.getFileAttributeView(
+            cacheDir.getRoot().resolve(name.substring(0, 2)).resolve(name),
+            BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(millis), null);
+  }
+
+  private static HashCode hash(String value) {
+    return Hashing.sha1().hashString(value, StandardCharsets.UTF_8);
+  }
+}
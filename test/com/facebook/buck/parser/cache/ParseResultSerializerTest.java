@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.util.ImmutableMapWithNullValues;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ParseResultSerializerTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void rawRulesRoundTrip() throws Exception {
+    Map<String, Object> rule =
+        ImmutableMapWithNullValues.Builder.<String, Object>insertionOrder()
+            .put("buck.base_path", "java/com/example")
+            .put("buck.type", "java_library")
+            .put("name", "example")
+            .put("srcs", ImmutableList.of("Foo.java", "Bar.java"))
+            .put("licenses", null)
+            .put("exported", true)
+            .put("provided", false)
+            .put("count", 42L)
+            .put("skylark_count", 7)
+            .put("ratio", 0.25)
+            .put("labels", ImmutableMap.of("owner", "buck", "long", Strings.repeat("x", 70000)))
+            .build();
+    List<Object> rules = ImmutableList.of(rule, rule);
+
+    assertThat(
+        ParseResultSerializer.deserialize(ParseResultSerializer.serialize(rules)),
+        equalTo(rules));
+  }
+
+  @Test
+  public void repeatedStringsAreShared() throws Exception {
+    List<?> decoded =
+        (List<?>)
+            ParseResultSerializer.deserialize(
+                ParseResultSerializer.serialize(
+                    ImmutableList.of(new String("java_library"), new String("java_library"))));
+    assertSame(decoded.get(0), decoded.get(1));
+  }
+
+  @Test
+  public void unsupportedValuesAreRejected() {
+    thrown.expect(IllegalArgumentException.class);
+    ParseResultSerializer.serialize(ImmutableMap.of("value", new Object()));
+  }
+
+  @Test
+  public void unknownFormatIsRejected() throws Exception {
+    thrown.expect(IOException.class);
+    ParseResultSerializer.deserialize(new byte[] {1, 2, 3, 4});
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.query.QueryEnvironment.Argument;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+  private static final ImmutableMap<String, String> ENVIRONMENT = ImmutableMap.of("USER", "a");
+
+  private static final Path ROOT = Paths.get("/repo").toAbsolutePath();
+
+  private QueryResultCache cache;
+  private QueryExpression expression;
+  private ImmutableSet<QueryTarget> result;
+
+  @Before
+  public void setUp() {
+    cache = new QueryResultCache(100);
+    expression =
+        FunctionExpression.of(
+            new DepsFunction(), ImmutableList.of(Argument.of(TargetLiteral.of("//foo:bar"))));
+    result =
+        ImmutableSet.of(
+            QueryBuildTarget.of(BuildTargetFactory.newInstance("//foo:bar")),
+            QueryBuildTarget.of(BuildTargetFactory.newInstance("//baz:baz")));
+  }
+
+  @Test
+  public void resultsAreCachedUntilABuildFileTheyReadIsInvalidated() {
+    put(cache.getGeneration(), ImmutableSet.of("foo/BUCK", "baz/BUCK"), ImmutableSet.of());
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.of(result)));
+
+    cache.invalidateBuildFile(ROOT.resolve("other/BUCK"));
+    cache.invalidateCreatedOrDeletedPath(ROOT.resolve("foo/Foo.java"));
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.of(result)));
+
+    cache.invalidateBuildFile(ROOT.resolve("baz/BUCK"));
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.empty()));
+  }
+
+  @Test
+  public void resultsOfRecursivePatternsAreInvalidatedByChangesBelowThem() {
+    put(cache.getGeneration(), ImmutableSet.of(), ImmutableSet.of("foo"));
+    cache.invalidateBuildFile(ROOT.resolve("bar/BUCK"));
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.of(result)));
+
+    cache.invalidateBuildFile(ROOT.resolve("foo/sub/BUCK"));
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.empty()));
+
+    put(cache.getGeneration(), ImmutableSet.of(), ImmutableSet.of("foo"));
+    cache.invalidateCreatedOrDeletedPath(ROOT.resolve("foo/new/BUCK"));
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.empty()));
+  }
+
+  @Test
+  public void resultsAreNotSharedAcrossEnvironments() {
+    put(cache.getGeneration(), ImmutableSet.of("foo/BUCK"), ImmutableSet.of());
+    assertThat(cache.get(expression, ImmutableMap.of()), equalTo(Optional.empty()));
+  }
+
+  @Test
+  public void resultsComputedWhileAChangeWasReportedAreNotStored() {
+    long generation = cache.getGeneration();
+    cache.invalidateBuildFile(ROOT.resolve("foo/BUCK"));
+    put(generation, ImmutableSet.of("foo/BUCK"), ImmutableSet.of());
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.empty()));
+  }
+
+  @Test
+  public void cacheIsBoundedByWeight() {
+    cache = new QueryResultCache(2);
+    put(cache.getGeneration(), ImmutableSet.of("foo/BUCK"), ImmutableSet.of());
+    assertThat(cache.get(expression, ENVIRONMENT), equalTo(Optional.empty()));
+  }
+
+  private void put(long generation, ImmutableSet<String> buildFiles, ImmutableSet<String> dirs) {
+    QueryResultCache.Dependencies dependencies = new QueryResultCache.Dependencies();
+    buildFiles.forEach(buildFile -> dependencies.addBuildFile(ROOT.resolve(buildFile)));
+    dirs.forEach(directory -> dependencies.addDirectory(ROOT.resolve(directory)));
+    cache.put(generation, expression, ENVIRONMENT, result, dependencies);
+  }
+}
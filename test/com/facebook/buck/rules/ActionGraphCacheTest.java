@@ -23,6 +23,8 @@ import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.config.ActionGraphParallelizationMode;
@@ -37,6 +39,7 @@ import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
 import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
 import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.shell.ExportFileBuilder;
 import com.facebook.buck.testutil.TargetGraphFactory;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.CloseableMemoizedSupplier;
@@ -45,6 +48,7 @@ import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.IncrementingFakeClock;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -285,6 +289,93 @@ public class ActionGraphCacheTest {
     assertThat(resultRun1RuleKeys, equalTo(resultRun3RuleKeys));
   }
 
+  @Test
+  public void incrementalMissReusesRulesOfUnchangedNodes() {
+    List<ActionGraphEvent.IncrementalLoad> incrementalLoads = new ArrayList<>();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void incrementalLoad(ActionGraphEvent.IncrementalLoad event) {
+            incrementalLoads.add(event);
+          }
+        });
+    ActionGraphCache cache = new ActionGraphCache(1, /* incrementalActionGraph */ true);
+    TargetNode<?, ?> nodeX = createExportFileNode("X", FakeSourcePath.of("x.txt"));
+    ActionGraphAndResolver resultRun1 =
+        cache.getActionGraph(
+            eventBus,
+            CHECK_GRAPHS, /* skipActionGraphCache */
+            false,
+            TargetGraphFactory.newInstance(nodeA, nodeB, nodeX),
+            TestRuleKeyConfigurationFactory.createWithSeed(keySeed),
+            ActionGraphParallelizationMode.DISABLED,
+            false,
+            fakePoolSupplier);
+
+    // Add a new node C -> B, and change A so that it no longer depends on B.
+    TargetNode<?, ?> nodeC = createTargetNode("C", nodeB);
+    TargetNode<?, ?> changedNodeA = createTargetNode("A");
+    ActionGraphAndResolver resultRun2 =
+        cache.getActionGraph(
+            eventBus,
+            CHECK_GRAPHS, /* skipActionGraphCache */
+            false,
+            TargetGraphFactory.newInstance(changedNodeA, nodeB, nodeC, nodeX),
+            TestRuleKeyConfigurationFactory.createWithSeed(keySeed),
+            ActionGraphParallelizationMode.DISABLED,
+            false,
+            fakePoolSupplier);
+
+    BuildRuleResolver resolver1 = resultRun1.getResolver();
+    BuildRuleResolver resolver2 = resultRun2.getResolver();
+    assertSame(
+        resolver1.getRule(nodeX.getBuildTarget()), resolver2.getRule(nodeX.getBuildTarget()));
+    assertNotSame(
+        resolver1.getRule(nodeA.getBuildTarget()), resolver2.getRule(nodeA.getBuildTarget()));
+    assertEquals(2, incrementalLoads.size());
+    assertEquals(0, incrementalLoads.get(0).getReusedRules());
+    assertEquals(1, incrementalLoads.get(1).getReusedRules());
+  }
+
+  @Test
+  public void incrementalMissDoesNotReuseRulesThatReferenceTheLastResolver() {
+    ActionGraphCache cache = new ActionGraphCache(1, /* incrementalActionGraph */ true);
+    // B is a java library, which keeps a rule finder, and Y exports one of its outputs.
+    TargetNode<?, ?> nodeY =
+        createExportFileNode("Y", DefaultBuildTargetSourcePath.of(nodeB.getBuildTarget()));
+    ActionGraphAndResolver resultRun1 =
+        cache.getActionGraph(
+            eventBus,
+            CHECK_GRAPHS, /* skipActionGraphCache */
+            false,
+            TargetGraphFactory.newInstance(nodeA, nodeB, nodeY),
+            TestRuleKeyConfigurationFactory.createWithSeed(keySeed),
+            ActionGraphParallelizationMode.DISABLED,
+            false,
+            fakePoolSupplier);
+
+    ActionGraphAndResolver resultRun2 =
+        cache.getActionGraph(
+            eventBus,
+            CHECK_GRAPHS, /* skipActionGraphCache */
+            false,
+            TargetGraphFactory.newInstance(createTargetNode("A"), nodeB, nodeY),
+            TestRuleKeyConfigurationFactory.createWithSeed(keySeed),
+            ActionGraphParallelizationMode.DISABLED,
+            false,
+            fakePoolSupplier);
+
+    BuildRuleResolver resolver1 = resultRun1.getResolver();
+    BuildRuleResolver resolver2 = resultRun2.getResolver();
+    assertNotSame(
+        resolver1.getRule(nodeB.getBuildTarget()), resolver2.getRule(nodeB.getBuildTarget()));
+    assertNotSame(
+        resolver1.getRule(nodeY.getBuildTarget()), resolver2.getRule(nodeY.getBuildTarget()));
+    assertSame(
+        resolver2.getRule(nodeB.getBuildTarget()),
+        Iterables.getOnlyElement(resolver2.getRule(nodeY.getBuildTarget()).getBuildDeps()));
+  }
+
   // If this breaks it probably means the ActionGraphCache checking also breaks.
   @Test
   public void compareActionGraphsBasedOnRuleKeys() {
@@ -399,6 +490,12 @@ public class ActionGraphCacheTest {
     return targetNodeBuilder.build();
   }
 
+  private TargetNode<?, ?> createExportFileNode(String name, SourcePath src) {
+    return new ExportFileBuilder(BuildTargetFactory.newInstance("//foo:" + name))
+        .setSrc(src)
+        .build();
+  }
+
   private int countEventsOf(Class<? extends ActionGraphEvent> trackedClass) {
     int i = 0;
     for (BuckEvent event : trackedEvents) {
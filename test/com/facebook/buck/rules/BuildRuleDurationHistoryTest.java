@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.rules.BuildRuleDurationHistory.UNKNOWN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleDurationHistory.Phase;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BuildRuleDurationHistoryTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path storePath;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    storePath = filesystem.resolve(BuildRuleDurationHistory.getStorePath(filesystem));
+  }
+
+  @Test
+  public void durationsDecayTowardsRecentMeasurements() throws IOException {
+    BuildRule rule = createRule("//:rule");
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      history.record(rule, Phase.BUILD, 100);
+      assertEquals(100, history.getDurationMillis(rule, Phase.BUILD));
+      history.record(rule, Phase.BUILD, 200);
+      assertEquals(130, history.getDurationMillis(rule, Phase.BUILD));
+      assertEquals(UNKNOWN, history.getDurationMillis(rule, Phase.RULE_KEY));
+    }
+  }
+
+  @Test
+  public void estimatesFallBackToAverages() throws IOException {
+    BuildRule known = createRule("//:known");
+    BuildRule unknown = createRule("//:unknown");
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      history.record(known, Phase.CACHE_FETCH, 40);
+      assertEquals(UNKNOWN, history.getDurationMillis(unknown, Phase.CACHE_FETCH));
+      assertEquals(40, history.estimateDurationMillis(unknown, Phase.CACHE_FETCH));
+      assertEquals(40, history.getAverageDurationMillis(known.getType(), Phase.CACHE_FETCH));
+      assertEquals(40, history.getAverageDurationMillis(Phase.CACHE_FETCH));
+      assertEquals(UNKNOWN, history.estimateDurationMillis(unknown, Phase.BUILD));
+    }
+  }
+
+  @Test
+  public void flavoredTargetsAreTrackedSeparately() throws IOException {
+    BuildRule rule = createRule("//:rule");
+    BuildRule flavored = createRule("//:rule#flavor");
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      history.record(rule, Phase.BUILD, 10);
+      history.record(flavored, Phase.BUILD, 20);
+      assertEquals(10, history.getDurationMillis(rule, Phase.BUILD));
+      assertEquals(20, history.getDurationMillis(flavored, Phase.BUILD));
+    }
+  }
+
+  @Test
+  public void durationsSurviveGrowingAndReopening() throws IOException {
+    int count = 5000;
+    BuildRule[] rules = new BuildRule[count];
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      for (int i = 0; i < count; i++) {
+        rules[i] = createRule("//:rule" + i);
+        history.record(rules[i], Phase.BUILD, i);
+      }
+    }
+
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      for (int i = 0; i < count; i++) {
+        assertEquals(i, history.getDurationMillis(rules[i], Phase.BUILD));
+      }
+    }
+  }
+
+  @Test
+  public void unrecognizedHistoryIsDiscarded() throws IOException {
+    Files.createDirectories(storePath.getParent());
+    Files.write(storePath, "not a history".getBytes(StandardCharsets.UTF_8));
+    BuildRule rule = createRule("//:rule");
+    try (BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      assertEquals(UNKNOWN, history.getDurationMillis(rule, Phase.BUILD));
+      history.record(rule, Phase.BUILD, 10);
+      assertEquals(10, history.getDurationMillis(rule, Phase.BUILD));
+    }
+  }
+
+  @Test
+  public void historyGrownByAnotherProcessIsMappedAgain() throws IOException {
+    int count = 5000;
+    BuildRule[] rules = new BuildRule[count];
+    try (BuildRuleDurationHistory other = BuildRuleDurationHistory.openFile(storePath);
+        BuildRuleDurationHistory history = BuildRuleDurationHistory.openFile(storePath)) {
+      for (int i = 0; i < count; i++) {
+        rules[i] = createRule("//:rule" + i);
+        other.record(rules[i], Phase.BUILD, i);
+      }
+
+      BuildRule rule = createRule("//:rule");
+      history.record(rule, Phase.BUILD, 10);
+      assertEquals(10, history.getDurationMillis(rule, Phase.BUILD));
+      for (int i = 0; i < count; i++) {
+        assertEquals(i, history.getDurationMillis(rules[i], Phase.BUILD));
+      }
+    }
+  }
+
+  @Test
+  public void openHistoryIsSharedUntilEveryUserClosedIt() throws IOException {
+    BuildRule rule = createRule("//:rule");
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.open(filesystem);
+    BuildRuleDurationHistory shared = BuildRuleDurationHistory.open(filesystem);
+    assertSame(history, shared);
+
+    shared.close();
+    assertEquals(Optional.of(history), BuildRuleDurationHistory.getIfOpen(filesystem));
+    history.record(rule, Phase.BUILD, 10);
+
+    history.close();
+    assertEquals(Optional.empty(), BuildRuleDurationHistory.getIfOpen(filesystem));
+    // Rules that finish after the history was closed are not recorded.
+    history.record(rule, Phase.BUILD, 20);
+
+    try (BuildRuleDurationHistory reopened = BuildRuleDurationHistory.open(filesystem)) {
+      assertNotSame(history, reopened);
+      assertEquals(10, reopened.getDurationMillis(rule, Phase.BUILD));
+    }
+  }
+
+  private BuildRule createRule(String target) {
+    return new FakeBuildRule(BuildTargetFactory.newInstance(target), filesystem);
+  }
+}
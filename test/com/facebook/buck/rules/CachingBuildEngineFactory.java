@@ -131,7 +131,8 @@ public class CachingBuildEngineFactory {
           remoteBuildRuleCompletionWaiter,
           resourceAwareSchedulingInfo,
           RuleKeyDiagnostics.nop(),
-          logBuildRuleFailuresInline);
+          logBuildRuleFailuresInline,
+          Optional.empty());
     }
 
     return new CachingBuildEngine(
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleDurationHistory.Phase;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.timing.ClockDuration;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CriticalPathPrioritizerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private BuildRuleResolver resolver;
+  private BuildRule slowLeaf;
+  private BuildRule slow;
+  private BuildRule fastLeaf;
+  private BuildRule fast;
+  private BuildRule top;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    resolver =
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    slowLeaf = resolver.addToIndex(createRule("//:slow_leaf"));
+    slow = resolver.addToIndex(createRule("//:slow", slowLeaf));
+    fastLeaf = resolver.addToIndex(createRule("//:fast_leaf"));
+    fast = resolver.addToIndex(createRule("//:fast", fastLeaf));
+    top = resolver.addToIndex(createRule("//:top", slow, fast));
+  }
+
+  @Test
+  public void rulesOnTheCriticalPathGetHigherPriority() {
+    BuildRuleDurationHistory history = openHistory();
+    history.record(slowLeaf, Phase.BUILD, 10);
+    history.record(slow, Phase.BUILD, 1000);
+    history.record(fastLeaf, Phase.BUILD, 10);
+    history.record(fast, Phase.BUILD, 10);
+    history.record(top, Phase.BUILD, 100);
+    // Cache fetches say nothing about how long a rule takes to build.
+    history.record(fastLeaf, Phase.CACHE_FETCH, 5000);
+    CriticalPathPrioritizer prioritizer =
+        new CriticalPathPrioritizer(new RuleDepsCache(resolver), history);
+    prioritizer.registerTopLevelRule(top, BuckEventBusForTests.newInstance());
+
+    assertEquals(1110, prioritizer.getPriority(slowLeaf));
+    assertEquals(120, prioritizer.getPriority(fastLeaf));
+    assertEquals(100, prioritizer.getPriority(top));
+  }
+
+  @Test
+  public void unknownRulesFallBackToUnitDurations() {
+    CriticalPathPrioritizer prioritizer =
+        new CriticalPathPrioritizer(new RuleDepsCache(resolver), openHistory());
+    prioritizer.registerTopLevelRule(top, BuckEventBusForTests.newInstance());
+
+    // Without any history, rules are prioritized by how many rules depend on them transitively.
+    assertEquals(3, prioritizer.getPriority(slowLeaf));
+    assertEquals(2, prioritizer.getPriority(fast));
+  }
+
+  @Test
+  public void deepChainsOfRulesDoNotNeedADeepStack() {
+    BuildRule chain = resolver.addToIndex(createRule("//chain:0"));
+    BuildRule bottom = chain;
+    for (int i = 1; i < 100000; i++) {
+      chain = resolver.addToIndex(createRule("//chain:" + i, chain));
+    }
+    CriticalPathPrioritizer prioritizer =
+        new CriticalPathPrioritizer(new RuleDepsCache(resolver), openHistory());
+    prioritizer.registerTopLevelRule(chain, BuckEventBusForTests.newInstance());
+
+    assertEquals(100000, prioritizer.getPriority(bottom));
+  }
+
+  @Test
+  public void buildFinishedReportsCriticalPath() {
+    BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    CriticalPathPrioritizer prioritizer =
+        new CriticalPathPrioritizer(new RuleDepsCache(resolver), openHistory());
+    prioritizer.registerTopLevelRule(top, eventBus);
+
+    BuildRuleDurationTracker tracker = new BuildRuleDurationTracker();
+    tracker.setDuration(fastLeaf, new ClockDuration(500, 0, 0));
+    tracker.setDuration(fast, new ClockDuration(20, 0, 0));
+    tracker.setDuration(top, new ClockDuration(30, 0, 0));
+    prioritizer.buildFinished(tracker);
+
+    BuildEvent.CriticalPathCalculated event =
+        (BuildEvent.CriticalPathCalculated)
+            listener
+                .getEvents()
+                .stream()
+                .filter(BuildEvent.CriticalPathCalculated.class::isInstance)
+                .findFirst()
+                .get();
+    assertEquals(550, event.getActualMillis());
+    assertThat(
+        event.getActualPath(),
+        Matchers.contains(
+            fastLeaf.getBuildTarget(), fast.getBuildTarget(), top.getBuildTarget()));
+  }
+
+  private BuildRuleDurationHistory openHistory() {
+    return BuildRuleDurationHistory.openFile(tmp.getRoot().resolve("rule_durations.bin"));
+  }
+
+  private BuildRule createRule(String target, BuildRule... deps) {
+    return new FakeBuildRule(BuildTargetFactory.newInstance(target), filesystem, deps);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.graph.CompactDirectedAcyclicGraph;
+import com.facebook.buck.graph.GraphTraversable;
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.graph.TopologicalSort;
+import com.facebook.buck.graph.TraversableGraph;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the graph traversals used on every build on large synthetic target graphs.
+ *
+ * <p>Each traversal runs against either the hash based {@link TargetGraph} or a {@link
+ * CompactDirectedAcyclicGraph} copy of it. To compare their heap footprint, run {@link
+ * #freezeGraph()} with Caliper's allocation instrument ({@code -i allocation}).
+ */
+public class TargetGraphTraversalBenchmark {
+  /** How the frozen graph is stored. */
+  public enum Representation {
+    HASH_MULTIMAPS,
+    COMPACT,
+  }
+
+  @Param({"10000", "100000"})
+  private int nodeCount = 100;
+
+  /** Maximum number of dependencies of each node, picked from the nodes created before it. */
+  @Param({"4", "16"})
+  private int maxDepCount = 4;
+
+  @Param private Representation representation = Representation.HASH_MULTIMAPS;
+
+  private final Random random = new Random(12345);
+  private MutableDirectedGraph<TargetNode<?, ?>> mutableGraph;
+  private ImmutableMap<BuildTarget, TargetNode<?, ?>> index;
+  private TraversableGraph<TargetNode<?, ?>> graph;
+  private GraphTraversable<TargetNode<?, ?>> traversable;
+  private ImmutableSet<TargetNode<?, ?>> roots;
+
+  @Before
+  public void setUpTest() {
+    nodeCount = 100;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    MutableDirectedGraph<TargetNode<?, ?>> graph = new MutableDirectedGraph<>();
+    ImmutableMap.Builder<BuildTarget, TargetNode<?, ?>> index = ImmutableMap.builder();
+    List<TargetNode<?, ?>> nodes = new ArrayList<>(nodeCount);
+    for (int i = 0; i < nodeCount; i++) {
+      BuildTarget target =
+          BuildTargetFactory.newInstance(String.format("//module%d/sub%d:node", i % 101, i));
+      TargetNode<?, ?> node = FakeTargetNodeBuilder.build(new FakeBuildRule(target, filesystem));
+      graph.addNode(node);
+      int depCount = i == 0 ? 0 : random.nextInt(maxDepCount + 1);
+      for (int j = 0; j < depCount; j++) {
+        graph.addEdge(node, nodes.get(random.nextInt(i)));
+      }
+      index.put(target, node);
+      nodes.add(node);
+    }
+    this.mutableGraph = graph;
+    this.index = index.build();
+    TargetGraph targetGraph = new TargetGraph(graph, this.index);
+    roots = targetGraph.getNodesWithNoIncomingEdges();
+    if (representation == Representation.COMPACT) {
+      CompactDirectedAcyclicGraph<TargetNode<?, ?>> compactGraph =
+          CompactDirectedAcyclicGraph.copyOf(targetGraph);
+      this.graph = compactGraph;
+      this.traversable = compactGraph;
+    } else {
+      this.graph = targetGraph;
+      this.traversable = node -> targetGraph.getOutgoingNodesFor(node).iterator();
+    }
+  }
+
+  @Test
+  public void traversalCorrectness() throws Exception {
+    for (Representation representation : Representation.values()) {
+      this.representation = representation;
+      setUpBenchmark();
+      postOrderTraversal();
+      topologicalSort();
+      checkVisitedAllNodes(Iterables.size(freezeGraph().getNodes()));
+    }
+  }
+
+  @Benchmark
+  public void postOrderTraversal() throws Exception {
+    Iterable<TargetNode<?, ?>> visited =
+        new AcyclicDepthFirstPostOrderTraversal<>(traversable).traverse(roots);
+    checkVisitedAllNodes(Iterables.size(visited));
+  }
+
+  @Benchmark
+  public void topologicalSort() {
+    ImmutableList<TargetNode<?, ?>> sorted = TopologicalSort.sort(graph);
+    checkVisitedAllNodes(sorted.size());
+  }
+
+  /**
+   * Builds the frozen graph from the mutable one. The allocation instrument reports how much memory
+   * this takes, which is an upper bound of the footprint of the frozen graph.
+   */
+  @Benchmark
+  public TraversableGraph<TargetNode<?, ?>> freezeGraph() {
+    if (representation == Representation.COMPACT) {
+      return CompactDirectedAcyclicGraph.copyOf(mutableGraph);
+    }
+    return new TargetGraph(mutableGraph, index);
+  }
+
+  private void checkVisitedAllNodes(int visited) {
+    if (visited != nodeCount) {
+      throw new IllegalStateException(
+          String.format("Visited %d of %d nodes.", visited, nodeCount));
+    }
+  }
+}
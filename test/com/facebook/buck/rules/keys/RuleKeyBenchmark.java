@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.DefaultSourcePathResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.FakeSourcePath;
+import com.facebook.buck.rules.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.rules.SingleThreadedBuildRuleResolver;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TestBuildRuleParams;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.StackedFileHashCache;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures computing default rule keys for a synthetic graph of rules, both from scratch and when
+ * every key is already in the {@link DefaultRuleKeyCache}.
+ */
+public class RuleKeyBenchmark {
+  @Param({"1000", "10000"})
+  private int ruleCount = 100;
+
+  /** Maximum number of dependencies of each rule, picked from the rules created before it. */
+  @Param({"4", "16"})
+  private int maxDepCount = 4;
+
+  private static final int SOURCES_PER_RULE = 5;
+
+  private final Random random = new Random(12345);
+  private RuleKeyFieldLoader fieldLoader;
+  private FileHashCache fileHashCache;
+  private SourcePathRuleFinder ruleFinder;
+  private SourcePathResolver pathResolver;
+  private List<BuildRule> rules;
+  private DefaultRuleKeyCache<RuleKey> ruleKeyCache;
+  private DefaultRuleKeyFactory cachingFactory;
+
+  @Before
+  public void setUpTest() throws Exception {
+    ruleCount = 100;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    fieldLoader = new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create());
+    fileHashCache =
+        new StackedFileHashCache(
+            ImmutableList.of(
+                DefaultFileHashCache.createDefaultFileHashCache(
+                    filesystem, FileHashCacheMode.DEFAULT)));
+    ruleFinder =
+        new SourcePathRuleFinder(
+            new SingleThreadedBuildRuleResolver(
+                TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    pathResolver = DefaultSourcePathResolver.from(ruleFinder);
+
+    rules = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      ImmutableSortedSet.Builder<SourcePath> srcs = ImmutableSortedSet.naturalOrder();
+      for (int j = 0; j < SOURCES_PER_RULE; j++) {
+        String path = String.format("java/com/example/rule%d/Source%d.java", i, j);
+        filesystem.writeContentsToPath(path, Paths.get(path));
+        srcs.add(FakeSourcePath.of(filesystem, path));
+      }
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      int depCount = i == 0 ? 0 : random.nextInt(maxDepCount + 1);
+      for (int j = 0; j < depCount; j++) {
+        deps.add(rules.get(random.nextInt(i)));
+      }
+      rules.add(
+          new SyntheticRule(
+              BuildTargetFactory.newInstance(String.format("//java/com/example/rule%d:rule", i)),
+              filesystem,
+              TestBuildRuleParams.create().withDeclaredDeps(deps.build()),
+              srcs.build()));
+    }
+
+    ruleKeyCache = new DefaultRuleKeyCache<>();
+    cachingFactory = newFactory(ruleKeyCache);
+    rules.forEach(cachingFactory::build);
+  }
+
+  private DefaultRuleKeyFactory newFactory(DefaultRuleKeyCache<RuleKey> cache) {
+    return new DefaultRuleKeyFactory(
+        fieldLoader,
+        fileHashCache,
+        pathResolver,
+        ruleFinder,
+        new TrackedRuleKeyCache<>(cache, new NoOpCacheStatsTracker()),
+        Optional.empty());
+  }
+
+  @Test
+  public void computeRuleKeysCorrectness() {
+    computeRuleKeys();
+    computeCachedRuleKeys();
+    lookUpCachedRuleKeys();
+  }
+
+  /** Builds every rule key with an empty rule key cache, but with all file hashes cached. */
+  @Benchmark
+  public void computeRuleKeys() {
+    DefaultRuleKeyFactory factory = newFactory(new DefaultRuleKeyCache<>());
+    rules.forEach(factory::build);
+  }
+
+  /** Builds every rule key through a factory whose rule key cache already holds all of them. */
+  @Benchmark
+  public void computeCachedRuleKeys() {
+    rules.forEach(cachingFactory::build);
+  }
+
+  /** Looks every rule key up in the {@link DefaultRuleKeyCache} directly. */
+  @Benchmark
+  public void lookUpCachedRuleKeys() {
+    NoOpCacheStatsTracker statsTracker = new NoOpCacheStatsTracker();
+    for (BuildRule rule : rules) {
+      if (ruleKeyCache.get(rule, statsTracker) == null) {
+        throw new IllegalStateException(rule + " should have been cached.");
+      }
+    }
+  }
+
+  private static class SyntheticRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
+    @AddToRuleKey private final ImmutableSortedSet<SourcePath> srcs;
+
+    @AddToRuleKey
+    private final ImmutableList<String> flags = ImmutableList.of("-g", "-O2", "-Werror");
+
+    @AddToRuleKey private final String outputName;
+
+    private SyntheticRule(
+        BuildTarget buildTarget,
+        ProjectFilesystem projectFilesystem,
+        BuildRuleParams params,
+        ImmutableSortedSet<SourcePath> srcs) {
+      super(buildTarget, projectFilesystem, params);
+      this.srcs = srcs;
+      this.outputName = buildTarget.getShortName() + ".jar";
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.skylark.io.Globber;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobCacheTest {
+  private static final Path BASE_PATH = Paths.get("/root/java/com/example");
+
+  private GlobCache globCache;
+  private int globCount;
+  private Globber globber;
+
+  @Before
+  public void setUp() {
+    globCache = new GlobCache();
+    globCount = 0;
+    globber =
+        globCache.wrap(
+            BASE_PATH,
+            (include, exclude, excludeDirectories) -> {
+              globCount++;
+              return ImmutableSet.of("Foo.java");
+            });
+  }
+
+  @Test
+  public void repeatedGlobsAreServedFromCache() throws Exception {
+    assertThat(glob("*.java"), equalTo(ImmutableSet.of("Foo.java")));
+    assertThat(glob("*.java"), equalTo(ImmutableSet.of("Foo.java")));
+    assertThat(globCount, equalTo(1));
+
+    glob("*.txt");
+    assertThat(globCount, equalTo(2));
+  }
+
+  @Test
+  public void createdFileInvalidatesMatchingGlobs() throws Exception {
+    glob("*.java");
+    globCache.invalidate(BASE_PATH.resolve("Bar.java"));
+    glob("*.java");
+    assertThat(globCount, equalTo(2));
+  }
+
+  @Test
+  public void createdFileBelowShallowPatternsDoesNotInvalidateGlobs() throws Exception {
+    glob("*.java");
+    globCache.invalidate(BASE_PATH.resolve("sub/Bar.java"));
+    glob("*.java");
+    assertThat(globCount, equalTo(1));
+  }
+
+  @Test
+  public void createdFileBelowRecursivePatternsInvalidatesGlobs() throws Exception {
+    glob("**/*.java");
+    globCache.invalidate(BASE_PATH.resolve("sub/dir/Bar.java"));
+    glob("**/*.java");
+    assertThat(globCount, equalTo(2));
+  }
+
+  @Test
+  public void createdFileOutsideOfDirectoryDoesNotInvalidateGlobs() throws Exception {
+    glob("**/*.java");
+    globCache.invalidate(Paths.get("/root/java/com/other/Bar.java"));
+    glob("**/*.java");
+    assertThat(globCount, equalTo(1));
+  }
+
+  @Test
+  public void invalidateAllDropsEverything() throws Exception {
+    glob("*.java");
+    globCache.invalidateAll();
+    glob("*.java");
+    assertThat(globCount, equalTo(2));
+  }
+
+  private Object glob(String pattern) throws Exception {
+    return globber.run(Collections.singleton(pattern), Collections.emptySet(), true);
+  }
+}
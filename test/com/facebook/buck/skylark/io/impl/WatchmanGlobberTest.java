@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.io.FakeWatchmanClient;
+import com.facebook.buck.skylark.io.Globber;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class WatchmanGlobberTest {
+  private static final long TIMEOUT_NANOS = 1000;
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void globIsResolvedWithSingleQuery() throws Exception {
+    Map<String, Object> params =
+        ImmutableMap.<String, Object>builder()
+            .put("relative_root", "project/java/foo")
+            .put("sync_timeout", 0)
+            .put("glob", ImmutableList.of("**/*.java"))
+            .put("glob_includedotfiles", true)
+            .put(
+                "expression",
+                ImmutableList.of(
+                    "allof",
+                    "exists",
+                    ImmutableList.of("not", ImmutableList.of("type", "d")),
+                    ImmutableList.of(
+                        "not",
+                        ImmutableList.of(
+                            "anyof",
+                            ImmutableList.of(
+                                "match",
+                                "Test*.java",
+                                "wholename",
+                                ImmutableMap.of("includedotfiles", true))))))
+            .put("fields", ImmutableList.of("name"))
+            .build();
+    Globber globber =
+        createGlobber(
+            0,
+            ImmutableMap.of(
+                ImmutableList.of("query", "/root", params),
+                ImmutableMap.of("files", ImmutableList.of("Foo.java", "bar/Bar.java"))));
+
+    assertThat(
+        globber.run(Collections.singleton("**/*.java"), Collections.singleton("Test*.java"), true),
+        equalTo(ImmutableSet.of("Foo.java", "bar/Bar.java")));
+  }
+
+  @Test
+  public void timedOutQueryFallsBack() throws Exception {
+    Globber globber =
+        createGlobber(
+            TIMEOUT_NANOS + 1,
+            ImmutableMap.of(
+                ImmutableList.of("query", "/root", defaultParams()),
+                ImmutableMap.<String, Object>of()));
+
+    assertThat(
+        globber.run(Collections.singleton("*.java"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("Fallback.java")));
+  }
+
+  @Test
+  public void watchmanErrorsAreReported() throws Exception {
+    Globber globber =
+        createGlobber(
+            0,
+            ImmutableMap.of(
+                ImmutableList.of("query", "/root", defaultParams()),
+                ImmutableMap.of("error", "unable to resolve root")));
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("unable to resolve root");
+    globber.run(Collections.singleton("*.java"), Collections.emptySet(), false);
+  }
+
+  private static Map<String, Object> defaultParams() {
+    return ImmutableMap.<String, Object>builder()
+        .put("relative_root", "project/java/foo")
+        .put("sync_timeout", 0)
+        .put("glob", ImmutableList.of("*.java"))
+        .put("glob_includedotfiles", true)
+        .put("expression", ImmutableList.of("allof", "exists"))
+        .put("fields", ImmutableList.of("name"))
+        .build();
+  }
+
+  private static Globber createGlobber(
+      long queryElapsedTimeNanos, Map<? extends List<?>, ? extends Map<String, ?>> queryResults) {
+    return WatchmanGlobber.create(
+        new FakeWatchmanClient(queryElapsedTimeNanos, queryResults),
+        "/root",
+        Optional.of("project/java/foo"),
+        TIMEOUT_NANOS,
+        (include, exclude, excludeDirectories) -> ImmutableSet.of("Fallback.java"));
+  }
+}
@@ -48,6 +48,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
@@ -547,6 +549,12 @@ public class FakeProjectFilesystem extends DefaultProjectFilesystem {
     fileLastModifiedTimes.put(normalizedPath, FileTime.fromMillis(clock.currentTimeMillis()));
   }
 
+  @Override
+  public WritableByteChannel newWritableByteChannel(
+      Path pathRelativeToProjectRoot, FileAttribute<?>... attrs) throws IOException {
+    return Channels.newChannel(newFileOutputStream(pathRelativeToProjectRoot, attrs));
+  }
+
   @Override
   public OutputStream newFileOutputStream(
       final Path pathRelativeToProjectRoot, final FileAttribute<?>... attrs) throws IOException {
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Measures hashing a tree of files through {@link DefaultFileHashCache} in each cache mode. */
+public class FileHashCacheBenchmark {
+  @Param({
+    "LOADING_CACHE",
+    "PREFIX_TREE",
+    "LIMITED_PREFIX_TREE",
+    "LIMITED_PREFIX_TREE_PARALLEL",
+    "PARALLEL_COMPARISON"
+  })
+  private FileHashCacheMode fileHashCacheMode = FileHashCacheMode.DEFAULT;
+
+  @Param({"1000", "10000"})
+  private int fileCount = 100;
+
+  private static final int FILES_PER_DIRECTORY = 20;
+
+  private TemporaryPaths tempDir = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private List<Path> files;
+  private List<Path> directories;
+  private DefaultFileHashCache cache;
+
+  @Before
+  public void setUpTest() throws Exception {
+    fileCount = 100;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws Exception {
+    tempDir.before();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tempDir.getRoot());
+    files = new ArrayList<>(fileCount);
+    directories = new ArrayList<>();
+    for (int i = 0; i < fileCount; i++) {
+      Path directory = Paths.get("src", "dir" + i / FILES_PER_DIRECTORY);
+      if (i % FILES_PER_DIRECTORY == 0) {
+        filesystem.mkdirs(directory);
+        directories.add(directory);
+      }
+      Path file = directory.resolve("File" + i + ".java");
+      Files.write(
+          filesystem.resolve(file),
+          String.format("class File%d { int value = %d; }", i, i).getBytes(StandardCharsets.UTF_8));
+      files.add(file);
+    }
+    cache = DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+  }
+
+  @After
+  @AfterExperiment
+  public void cleanup() {
+    tempDir.after();
+  }
+
+  @Test
+  public void hashFilesCorrectness() throws IOException {
+    hashFiles();
+    getCachedHashes();
+    hashDirectories();
+    rehashInvalidatedFiles();
+  }
+
+  /** Hashes every file with an empty cache. */
+  @Benchmark
+  public void hashFiles() throws IOException {
+    cache.invalidateAll();
+    for (Path file : files) {
+      cache.get(file);
+    }
+  }
+
+  /** Looks up hashes that are all already in the cache. */
+  @Benchmark
+  public void getCachedHashes() throws IOException {
+    for (Path file : files) {
+      cache.get(file);
+    }
+  }
+
+  /** Hashes whole directories, as done for directory source paths. */
+  @Benchmark
+  public void hashDirectories() throws IOException {
+    cache.invalidateAll();
+    for (Path directory : directories) {
+      cache.get(directory);
+    }
+  }
+
+  /** Invalidates a tenth of the files, as a watchman event would, and hashes everything again. */
+  @Benchmark
+  public void rehashInvalidatedFiles() throws IOException {
+    for (int i = 0; i < files.size(); i += 10) {
+      cache.invalidate(files.get(i));
+    }
+    for (Path file : files) {
+      cache.get(file);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.io.WatchmanCursor;
+import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path path;
+
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    path = Paths.get("Foo.java");
+    filesystem.writeContentsToPath("class Foo {}", path);
+  }
+
+  @Test
+  public void recordsSurviveReopeningAndAreRevalidated() throws IOException {
+    HashCode hashCode = HashCode.fromInt(42);
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(filesystem, noCursor())) {
+      store.store(path, hashCode);
+    }
+
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(filesystem, noCursor())) {
+      assertEquals(hashCode, store.lookup(path));
+      assertEquals(0, store.getAndResetHits());
+      assertEquals(1, store.getAndResetRevalidations());
+      assertEquals(0, store.getAndResetMisses());
+    }
+  }
+
+  @Test
+  public void recordsAreTrustedWhenClockIsUnchanged() throws IOException {
+    HashCode hashCode = HashCode.fromInt(42);
+    try (PersistentFileHashStore store =
+        PersistentFileHashStore.open(filesystem, cursor("c:1:1"))) {
+      store.store(path, hashCode);
+    }
+
+    try (PersistentFileHashStore store =
+        PersistentFileHashStore.open(filesystem, cursor("c:1:1"))) {
+      assertEquals(hashCode, store.lookup(path));
+      assertEquals(1, store.getAndResetHits());
+      assertEquals(0, store.getAndResetRevalidations());
+    }
+  }
+
+  @Test
+  public void modifiedFileIsAMissWhenClockHasMoved() throws IOException {
+    try (PersistentFileHashStore store =
+        PersistentFileHashStore.open(filesystem, cursor("c:1:1"))) {
+      store.store(path, HashCode.fromInt(42));
+    }
+
+    filesystem.writeContentsToPath("class Foo { int bar; }", path);
+    filesystem.setLastModifiedTime(path, FileTime.fromMillis(0));
+
+    try (PersistentFileHashStore store =
+        PersistentFileHashStore.open(filesystem, cursor("c:1:2"))) {
+      assertNull(store.lookup(path));
+      assertEquals(1, store.getAndResetMisses());
+    }
+  }
+
+  @Test
+  public void overflowRequiresRevalidationEvenAtTheSameClock() throws IOException {
+    WatchmanCursor cursor = new WatchmanCursor("c:1:1");
+    try (PersistentFileHashStore store =
+        PersistentFileHashStore.open(filesystem, Optional.of(cursor))) {
+      store.store(path, HashCode.fromInt(42));
+      store.invalidateAll();
+    }
+
+    try (PersistentFileHashStore store =
+        PersistentFileHashStore.open(filesystem, Optional.of(cursor))) {
+      assertEquals(HashCode.fromInt(42), store.lookup(path));
+      assertEquals(0, store.getAndResetHits());
+      assertEquals(1, store.getAndResetRevalidations());
+    }
+  }
+
+  @Test
+  public void invalidatedRecordIsNotPersisted() throws IOException {
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(filesystem, noCursor())) {
+      store.store(path, HashCode.fromInt(42));
+      store.invalidate(path);
+    }
+
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(filesystem, noCursor())) {
+      assertNull(store.lookup(path));
+    }
+  }
+
+  @Test
+  public void truncatedLogKeepsCompleteRecords() throws IOException {
+    Path other = Paths.get("Bar.java");
+    filesystem.writeContentsToPath("class Bar {}", other);
+    PersistentFileHashStore store = PersistentFileHashStore.open(filesystem, noCursor());
+    store.store(path, HashCode.fromInt(42));
+    store.store(other, HashCode.fromInt(43));
+    // Simulate the daemon dying halfway through appending the last record.
+    Path storePath = filesystem.resolve(PersistentFileHashStore.getStorePath(filesystem));
+    try (FileChannel channel = FileChannel.open(storePath, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    try (PersistentFileHashStore reopened =
+        PersistentFileHashStore.open(filesystem, noCursor())) {
+      assertEquals(1, reopened.size());
+      assertEquals(HashCode.fromInt(42), reopened.lookup(path));
+    }
+  }
+
+  @Test
+  public void watchedCacheReusesPersistedHashes() throws IOException {
+    Optional<WatchmanCursor> cursor = cursor("c:1:1");
+    HashCode expected;
+    try (WatchedFileHashCache cache =
+        WatchedFileHashCache.withPersistentStore(
+            filesystem, FileHashCacheMode.PERSISTENT_PREFIX_TREE, cursor)) {
+      expected = cache.get(path);
+    }
+
+    try (WatchedFileHashCache cache =
+        WatchedFileHashCache.withPersistentStore(
+            filesystem, FileHashCacheMode.PERSISTENT_PREFIX_TREE, cursor)) {
+      assertEquals(expected, cache.get(path));
+    }
+  }
+
+  @Test
+  public void watchedCacheRehashesFilesChangedWhileRunning() throws IOException {
+    Optional<WatchmanCursor> cursor = cursor("c:1:1");
+    try (WatchedFileHashCache cache =
+        WatchedFileHashCache.withPersistentStore(
+            filesystem, FileHashCacheMode.PERSISTENT_PREFIX_TREE, cursor)) {
+      HashCode original = cache.get(path);
+      filesystem.writeContentsToPath("class Foo { int bar; }", path);
+      cache.onFileSystemChange(
+          WatchmanPathEvent.of(filesystem.getRootPath(), WatchmanPathEvent.Kind.MODIFY, path));
+
+      assertNotEquals(original, cache.get(path));
+    }
+  }
+
+  private static Optional<WatchmanCursor> noCursor() {
+    return Optional.empty();
+  }
+
+  private static Optional<WatchmanCursor> cursor(String clock) {
+    return Optional.of(new WatchmanCursor(clock));
+  }
+}
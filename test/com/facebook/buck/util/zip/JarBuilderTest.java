@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JarBuilderTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path classesDir;
+  private Path resourcesJar;
+
+  @Before
+  public void setUp() throws IOException {
+    // Enough entries to be compressed in parallel, in several packages.
+    classesDir = tmp.newFolder("classes");
+    for (int i = 0; i < 600; i++) {
+      Path file = classesDir.resolve(String.format("pkg%d/Class%d.class", i % 7, i));
+      Files.createDirectories(file.getParent());
+      Files.write(
+          file,
+          Strings.repeat("contents of class " + i + "\n", i % 50).getBytes(StandardCharsets.UTF_8));
+    }
+
+    Path resourcesDir = tmp.newFolder("resources");
+    for (int i = 0; i < 300; i++) {
+      Path file = resourcesDir.resolve(String.format("res/resource%d.txt", i));
+      Files.createDirectories(file.getParent());
+      Files.write(
+          file, Strings.repeat("resource " + i + "\n", i * 10).getBytes(StandardCharsets.UTF_8));
+    }
+    resourcesJar = tmp.getRoot().resolve("resources.jar");
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(resourcesDir))
+        .setShouldHashEntries(true)
+        .createJarFile(resourcesJar);
+  }
+
+  @Test
+  public void parallelJarIsIdenticalToSequentialJar() throws IOException {
+    Path sequential = tmp.getRoot().resolve("sequential.jar");
+    newJarBuilder().createJarFile(sequential);
+
+    Path parallel = tmp.getRoot().resolve("parallel.jar");
+    newJarBuilder().setParallelism(4).createJarFile(parallel);
+
+    assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+  }
+
+  @Test
+  public void jarsBuiltAtTheSameTimeShareTheCompressionThreads() throws Exception {
+    Path sequential = tmp.getRoot().resolve("sequential.jar");
+    newJarBuilder().createJarFile(sequential);
+
+    ExecutorService buildThreads = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Path>> parallelJars = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        Path parallel = tmp.getRoot().resolve("parallel" + i + ".jar");
+        parallelJars.add(
+            buildThreads.submit(
+                () -> {
+                  newJarBuilder().setParallelism(8).createJarFile(parallel);
+                  return parallel;
+                }));
+      }
+      for (Future<Path> parallel : parallelJars) {
+        assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel.get()));
+      }
+    } finally {
+      buildThreads.shutdownNow();
+    }
+  }
+
+  @Test
+  public void copyingCompressedEntriesOfJarsWrittenTheSameWayIsIdenticalToRecompressingThem()
+      throws IOException {
+    Path recompressed = tmp.getRoot().resolve("recompressed.jar");
+    newJarBuilder().createJarFile(recompressed);
+
+    Path copied = tmp.getRoot().resolve("copied.jar");
+    newJarBuilder().setShouldCopyCompressedEntries(true).createJarFile(copied);
+
+    Path copiedInParallel = tmp.getRoot().resolve("copied-in-parallel.jar");
+    newJarBuilder()
+        .setShouldCopyCompressedEntries(true)
+        .setParallelism(4)
+        .createJarFile(copiedInParallel);
+
+    assertArrayEquals(Files.readAllBytes(recompressed), Files.readAllBytes(copied));
+    assertArrayEquals(Files.readAllBytes(recompressed), Files.readAllBytes(copiedInParallel));
+  }
+
+  private JarBuilder newJarBuilder() {
+    return new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(classesDir, resourcesJar))
+        .setShouldHashEntries(true);
+  }
+}